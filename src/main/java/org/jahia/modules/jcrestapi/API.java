@@ -44,9 +44,15 @@
 package org.jahia.modules.jcrestapi;
 
 import org.jahia.modules.jcrestapi.accessors.*;
-import org.jahia.modules.jcrestapi.api.PreparedQuery;
 import org.jahia.modules.jcrestapi.json.APIObjectFactory;
+import org.jahia.modules.jcrestapi.json.JSONBatchResult;
 import org.jahia.modules.jcrestapi.json.JSONQuery;
+import org.jahia.modules.jcrestapi.json.JSONAggregation;
+import org.jahia.modules.jcrestapi.json.JSONAggregationResults;
+import org.jahia.modules.jcrestapi.json.JSONPreparedQueries;
+import org.jahia.modules.jcrestapi.json.JSONQueryJob;
+import org.jahia.modules.jcrestapi.json.JSONQueryPlan;
+import org.jahia.modules.jcrestapi.json.JSONRows;
 import org.jahia.modules.jcrestapi.json.JSONVersion;
 import org.jahia.modules.json.*;
 import org.jahia.modules.json.jcr.SessionAccess;
@@ -56,15 +62,23 @@ import org.osgi.service.component.annotations.Component;
 
 import javax.inject.Inject;
 import javax.jcr.*;
-import javax.jcr.query.Query;
-import javax.jcr.query.QueryManager;
 import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * The main entry point to the JCR RESTful API.
@@ -73,7 +87,7 @@ import java.util.*;
  */
 @Component
 @Path(API.API_PATH)
-@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
 public class API {
 
     public static final String SELF = "self";
@@ -98,7 +112,27 @@ public class API {
     public static final String INCLUDE_FULL_CHILDREN = "includeFullChildren";
     public static final String RESOLVE_REFERENCES = "resolveReferences";
     public static final String NO_LINKS = "noLinks";
+    public static final String COMPACT = "compact";
+    public static final String FIELDS = "fields";
+    public static final String MAX_VALUE_LENGTH = "maxValueLength";
+    public static final String INCLUDE = "include";
+    public static final String VIEW = "view";
     public static final String CHILDREN_NODETYPE_FILTER = "childrenNodeTypes";
+    public static final String STREAM = "stream";
+    public static final String INCLUDE_TOTAL_COUNT = "includeTotalCount";
+    public static final String CONTINUATION_TOKEN = "continuationToken";
+    public static final String ASYNC = "async";
+    public static final String JOBS = "jobs";
+    public static final String RESULT = "result";
+    public static final String BATCH = "batch";
+    public static final String PROJECTION = "projection";
+    public static final String EXPLAIN = "explain";
+    public static final String QUERIES = "queries";
+
+    public static final String CONTINUATION_TOKEN_HEADER = "X-Continuation-Token";
+    public static final String TOTAL_COUNT_ESTIMATE_HEADER = "X-Total-Count-Estimate";
+    public static final String RESULT_TRUNCATED_HEADER = "X-Result-Truncated";
+    public static final String REQUEST_TIMEOUT_HEADER = "X-Request-Timeout";
 
     private static final ThreadLocal<Boolean> resolveReferences = new ThreadLocal<Boolean>() {
 
@@ -124,9 +158,17 @@ public class API {
         }
     };
 
+    private static final ThreadLocal<Boolean> outputCompact = new ThreadLocal<Boolean>() {
+
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+
     protected static final Map<String, ElementAccessor> ACCESSORS = new HashMap<String, ElementAccessor>(7);
 
-    public static final String API_VERSION = "1.3";
+    public static final String API_VERSION = "1.4";
 
     private static final String JCRESTAPI_VERSION = "jcrestapi.version";
     private static final String JCRESTAPI_COMMIT_ID = "jcrestapi.commit.id";
@@ -246,6 +288,16 @@ public class API {
         return setThreadLocalFlag(includeFullChildren, newIncludeFullChildren);
     }
 
+    /**
+     * Specifies whether the API should output compact node representations. This status is only valid for the current Thread.
+     *
+     * @param newOutputCompact <code>true</code> if the API should generate compact representations, <code>false</code> otherwise
+     * @return the status of compact representations generation as it was before this method was called
+     */
+    public static boolean setOutputCompact(boolean newOutputCompact) {
+        return setThreadLocalFlag(outputCompact, newOutputCompact);
+    }
+
     private static boolean setThreadLocalFlag(ThreadLocal<Boolean> local, boolean newValue) {
         boolean old = local.get();
         local.set(newValue);
@@ -272,82 +324,590 @@ public class API {
         return JSON_VERSION;
     }
 
+    /**
+     * Lists the registered prepared queries, along with their call counts and latency statistics.
+     */
+    @GET
+    @Path("/" + QUERIES)
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
+    public JSONPreparedQueries preparedQueries() {
+        final PreparedQueriesRegistry registry = PreparedQueriesRegistry.getInstance();
+        return new JSONPreparedQueries(registry.getVersion(), registry.getTemplates());
+    }
+
     @POST
     @Path("/{workspace}/{language}/query")
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
-    public Object query(@PathParam("workspace") String workspace, @PathParam("language") String language, JSONQuery jsonQuery, @Context UriInfo context) {
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_NDJSON, Utils.MEDIA_TYPE_TEXT_CSV})
+    public Object query(@PathParam("workspace") String workspace, @PathParam("language") String language, JSONQuery jsonQuery, @Context UriInfo context,
+                        @Context HttpHeaders headers) {
 
         if (jsonQuery != null) {
 
-            Session session = null;
+            final QueryRequest request;
+            try {
+                request = new QueryRequest(jsonQuery, context);
+            } catch (WebApplicationException e) {
+                return e.getResponse();
+            }
 
-            final String statement;
-            if (jsonQuery.getQueryName() != null) {
-                PreparedQuery q = PreparedQueriesRegistry.getInstance().getQuery(jsonQuery.getQueryName());
-                if (q == null) {
-                    return Response.status(Response.Status.NOT_FOUND);
-                }
-                if (jsonQuery.getParameters() != null) {
-                    statement = q.getQuery(jsonQuery.getParameters());
-                } else if (jsonQuery.getNamedParameters() != null) {
-                    statement = q.getQuery(jsonQuery.getNamedParameters());
-                } else {
-                    statement = q.getSource();
+            if (Utils.getFlagValueFrom(context, ASYNC)) {
+                return submitQueryJob(request, workspace, language, context);
+            }
+
+            try {
+                return performQuery(request, workspace, language, Utils.getStreamingFormat(context, headers), Utils.getProjection(context, headers));
+            } catch (Exception e) {
+                throw new APIException(e);
+            }
+        } else {
+            return Response.ok().build();
+        }
+    }
+
+    /**
+     * Performs the specified queries concurrently, each in its own session, and returns their outcomes in a single
+     * response, keyed by the identifier of each query or by its index in the batch if it doesn't provide one.
+     *
+     * @param workspace the JCR workspace that we want to query
+     * @param language  the language code in which we want to retrieve the data
+     * @param queries   the queries to perform
+     * @param context   a UriInfo instance, automatically injected, providing context about the request URI
+     * @return a Response providing a {@link JSONBatchResult} for each query
+     */
+    @POST
+    @Path("/{workspace}/{language}/query/" + BATCH)
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
+    public Object batchQuery(@PathParam("workspace") final String workspace, @PathParam("language") final String language, List<JSONQuery> queries,
+                             @Context UriInfo context) {
+        final Map<String, JSONBatchResult> results = new LinkedHashMap<>();
+        if (queries == null || queries.isEmpty()) {
+            return Response.ok(results).build();
+        }
+
+        final int maxQueries = SpringBeansAccess.getInstance().getBatchMaxQueries();
+        if (queries.size() > maxQueries) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Batches cannot contain more than " + maxQueries + " queries").build();
+        }
+
+        final UserContext user = UserContext.capture(repository);
+        final long deadline = Deadline.get();
+        // rows can only be projected as JSON in batches
+        final Projection projection = Utils.getProjection(context, null) != null ? Projection.JSON : null;
+        final List<String> ids = new ArrayList<>(queries.size());
+        final List<Callable<JSONBatchResult>> tasks = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            final JSONQuery jsonQuery = queries.get(i);
+            final String id = getBatchId(jsonQuery, i);
+            if (results.containsKey(id) || ids.contains(id)) {
+                return Response.status(Response.Status.BAD_REQUEST).entity("Duplicate query identifier '" + id + "'").build();
+            }
+
+            final QueryRequest request;
+            try {
+                request = new QueryRequest(jsonQuery, context);
+            } catch (WebApplicationException e) {
+                final Response response = e.getResponse();
+                results.put(id, JSONBatchResult.failure(response.getStatus(), response.getEntity()));
+                continue;
+            }
+
+            ids.add(id);
+            tasks.add(new Callable<JSONBatchResult>() {
+                @Override
+                public JSONBatchResult call() throws Exception {
+                    return user.call(repository, new Callable<JSONBatchResult>() {
+                        @Override
+                        public JSONBatchResult call() throws Exception {
+                            final long previousDeadline = Deadline.get();
+                            Deadline.set(deadline);
+                            try {
+                                return toBatchResult(performQuery(request, workspace, language, null, projection));
+                            } catch (Exception e) {
+                                return toBatchFailure(e);
+                            } finally {
+                                Deadline.set(previousDeadline);
+                            }
+                        }
+                    });
                 }
-            } else {
-                if (!API.isQueryDisabled()) {
-                    statement = jsonQuery.getQuery();
-                } else {
-                    APIExceptionMapper.LOGGER.debug("Query endpoint is disabled. Attempted query: " + jsonQuery);
-                    return Response.status(Response.Status.NOT_FOUND).build();
+            });
+        }
+
+        try {
+            final List<Future<JSONBatchResult>> futures = QueryBatchExecutor.getInstance().invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                JSONBatchResult result;
+                try {
+                    result = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    result = toBatchFailure(e.getCause());
                 }
+                results.put(ids.get(i), result);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new APIException(e);
+        }
+
+        // re-order results so that they match the order of the queries in the batch
+        final Map<String, JSONBatchResult> ordered = new LinkedHashMap<>();
+        for (int i = 0; i < queries.size(); i++) {
+            final String id = getBatchId(queries.get(i), i);
+            ordered.put(id, results.get(id));
+        }
+        return Response.ok(ordered).build();
+    }
+
+    /**
+     * Explains how the specified query would be performed, without performing it: the selectors and the constraints
+     * which restrict their candidates using the index, the estimated cost of the query and whether it would be
+     * admitted, based on the configured maximum query cost.
+     *
+     * @param workspace the JCR workspace that we want to query
+     * @param language  the language code in which we want to retrieve the data
+     * @param jsonQuery the query to explain, either ad hoc or prepared
+     * @param context   a UriInfo instance, automatically injected, providing context about the request URI
+     * @return a Response providing the {@link JSONQueryPlan} of the query
+     */
+    @POST
+    @Path("/{workspace}/{language}/query/" + EXPLAIN)
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
+    public Object explainQuery(@PathParam("workspace") String workspace, @PathParam("language") String language, JSONQuery jsonQuery,
+                               @Context UriInfo context) {
+        if (jsonQuery == null) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        final QueryRequest request;
+        try {
+            request = new QueryRequest(jsonQuery, context);
+        } catch (WebApplicationException e) {
+            return e.getResponse();
+        }
+
+        Session session = null;
+        try {
+            session = getSession(workspace, language);
+            return Response.ok(new JSONQueryPlan(request.explain(session, workspace, language), QueryAdmission.getInstance())).build();
+        } catch (Exception e) {
+            throw new APIException(e);
+        } finally {
+            closeSession(session);
+        }
+    }
+
+    private static String getBatchId(JSONQuery jsonQuery, int index) {
+        return jsonQuery.getId() != null ? jsonQuery.getId() : Integer.toString(index);
+    }
+
+    private static JSONBatchResult toBatchFailure(Throwable throwable) {
+        final Response response = new APIExceptionMapper().toResponse(new APIException(throwable));
+        return JSONBatchResult.failure(response.getStatus(), response.getEntity());
+    }
+
+    private static JSONBatchResult toBatchResult(Response response) throws IOException {
+        final int status = response.getStatus();
+        Object entity = response.getEntity();
+        if (status >= 400) {
+            return JSONBatchResult.failure(status, entity);
+        }
 
+        if (entity instanceof SerializedJSON) {
+            // rendered or cached result, already serialized
+            final SerializedJSON serializedJSON = (SerializedJSON) entity;
             try {
+                final InputStream serialized = serializedJSON.open();
+                try {
+                    entity = NodesStreamingOutput.MAPPER.readTree(serialized);
+                } finally {
+                    serialized.close();
+                }
+            } finally {
+                serializedJSON.release();
+            }
+        }
+        final Map<String, String> headers = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> header : response.getStringHeaders().entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                headers.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+        return JSONBatchResult.success(status, headers, entity);
+    }
+
+    /**
+     * Performs the specified query request in the calling thread.
+     *
+     * @param request         the query request
+     * @param workspace       the workspace in which the query is performed
+     * @param language        the language in which the query is performed
+     * @param streamingFormat the format in which results should be streamed or <code>null</code> if results shouldn't
+     *                        be streamed
+     * @param projection      the format in which results should be projected as rows or <code>null</code> if complete
+     *                        nodes should be output
+     * @return a Response providing the query results
+     * @throws Exception if the query couldn't be performed
+     */
+    Response performQuery(QueryRequest request, String workspace, String language, NodesStreamingOutput.Format streamingFormat, Projection projection)
+            throws Exception {
+        return performQuery(request, workspace, language, streamingFormat, projection, false);
+    }
 
-                resolveReferences.set(Utils.getFlagValueFrom(context, RESOLVE_REFERENCES));
-                outputLinks.set(!Utils.getFlagValueFrom(context, NO_LINKS));
-                includeFullChildren.set(Utils.getFlagValueFrom(context, INCLUDE_FULL_CHILDREN));
+    /**
+     * Performs the specified query request.
+     *
+     * @param refresh <code>true</code> if the query is performed to refresh the cached result of a materialized view,
+     *                in which case the cached result is ignored and the call is not recorded in the query statistics
+     */
+    private Response performQuery(QueryRequest request, String workspace, String language, NodesStreamingOutput.Format streamingFormat,
+                                  Projection projection, boolean refresh) throws Exception {
+        Session session = null;
+        final long start = System.nanoTime();
+        boolean failed = false;
+
+        try {
+
+            request.applyFlags();
 
-                session = getSession(workspace, language);
-                final QueryManager queryManager = session.getWorkspace().getQueryManager();
-                final Query query = queryManager.createQuery(statement, Query.JCR_SQL2);
-                if (jsonQuery.getLimit() > 0) {
-                    query.setLimit(jsonQuery.getLimit());
+            session = getSession(workspace, language);
+
+            if (request.isAggregation()) {
+                final Map<String, String> responseHeaders = new LinkedHashMap<>();
+                return withHeaders(Response.ok(aggregate(request, session, workspace, language, responseHeaders)), responseHeaders).build();
+            }
+
+            // if the prepared query's results are cached, check if we already have this result for this user
+            final QueryTemplate template = request.getTemplate();
+            final boolean streamed = streamingFormat != null || projection == Projection.CSV;
+            final PreparedQueryResultCache resultCache = template != null && !streamed ? template.getResultCache() : null;
+            final String cacheKey;
+            final long cacheGeneration;
+            if (resultCache != null) {
+                // retrieved before performing the query so that results computed while content changes are discarded
+                cacheGeneration = resultCache.getGeneration(workspace);
+                cacheKey = request.getCacheKey(workspace, language, session.getUserID());
+                final PreparedQueryResultCache.Result cached = refresh ? null : resultCache.get(cacheKey);
+                if (cached != null) {
+                    return withHeaders(Response.ok(SerializedJSON.of(cached.getContent())), cached.getHeaders()).build();
                 }
+            } else {
+                cacheKey = null;
+                cacheGeneration = 0;
+            }
 
-                if (jsonQuery.getOffset() > 0) {
-                    query.setOffset(jsonQuery.getOffset());
+            final Map<String, String> responseHeaders = new LinkedHashMap<>();
+            final Filter filter = request.getFilter();
+            final Object result;
+            boolean truncated;
+            if (projection != null) {
+                final QueryResult queryResult = request.executeQuery(session, workspace, language, responseHeaders);
+                final String[] columns = queryResult.getColumnNames();
+                final String[] selectorNames = queryResult.getSelectorNames();
+                final Iterator<Row> rows = request.getPagination().iterateRows(queryResult.getRows());
+
+                if (projection == Projection.CSV) {
+                    final CSVStreamingOutput output = new CSVStreamingOutput(session, workspace, language, columns, selectorNames, rows, filter);
+                    output.closeOnceWritten(request.getAdmissionRelease());
+                    // the streaming output is now in charge of the session and admission slot, released once the response is written
+                    session = null;
+                    return withHeaders(Response.ok(output, projection.getMediaType()), responseHeaders).build();
                 }
 
-                final QueryResult queryResult = query.execute();
+                final JSONRows jsonRows = new JSONRows(columns);
+                final Object[] values = new Object[columns.length];
+                while (!(truncated = Deadline.isExpired()) && rows.hasNext()) {
+                    final Row row = rows.next();
+                    if (Projection.accept(row, selectorNames, filter)) {
+                        final Value[] rowValues = row.getValues();
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = Projection.toJSON(rowValues[i]);
+                        }
+                        jsonRows.addRow(values.clone());
+                    }
+                }
+                if (truncated) {
+                    markTruncated(jsonRows.isEmpty(), request.getPagination(), responseHeaders);
+                }
+                result = jsonRows;
+            } else {
+                final Iterator<Node> nodes = request.execute(session, workspace, language, responseHeaders);
+
+                if (streamingFormat != null) {
+                    final NodesStreamingOutput output = new NodesStreamingOutput(session, workspace, language, nodes, filter, request.getDepth(), streamingFormat);
+                    output.closeOnceWritten(request.getAdmissionRelease());
+                    // the streaming output is now in charge of the session and admission slot, released once the response is written
+                    session = null;
+                    return withHeaders(Response.ok(output, streamingFormat.getMediaType()), responseHeaders).build();
+                }
 
-                final NodeIterator nodes = queryResult.getNodes();
-                final List<JSONNode> result = new LinkedList<>();
-                final Filter filter = Utils.getFilter(context);
-                while (nodes.hasNext()) {
-                    final Node resultNode = nodes.nextNode();
-                    if (filter.acceptChild(resultNode)) {
-                        JSONNode node = getFactory().createNode(resultNode, filter, 1);
-                        result.add(node);
+                // nodes are rendered to a pooled buffer, directly when possible, instead of being gathered as JSONNodes
+                final NodesStreamingOutput output = new NodesStreamingOutput(session, workspace, language, nodes, filter, request.getDepth(),
+                        NodesStreamingOutput.Format.JSON);
+                final SerializedJSON rendered = output.render();
+                truncated = output.isTruncated();
+                if (truncated) {
+                    if (output.isEmpty()) {
+                        rendered.release();
                     }
+                    markTruncated(output.isEmpty(), request.getPagination(), responseHeaders);
                 }
+                result = rendered;
+            }
 
-                return Response.ok(result).build();
-            } catch (Exception e) {
-                throw new APIException(e);
-            } finally {
-                resolveReferences.set(false);
-                outputLinks.set(true);
-                includeFullChildren.set(false);
-                closeSession(session);
+            request.addContinuationToken(responseHeaders);
+
+            if (resultCache != null && !truncated) {
+                final byte[] serialized;
+                if (result instanceof SerializedJSON.Buffered) {
+                    // the cache keeps its own copy while the rendered buffer goes back to the pool
+                    final SerializedJSON.Buffered rendered = (SerializedJSON.Buffered) result;
+                    serialized = rendered.toByteArray();
+                    rendered.release();
+                } else {
+                    serialized = NodesStreamingOutput.MAPPER.writeValueAsBytes(result);
+                }
+                resultCache.put(cacheKey, workspace, serialized, responseHeaders,
+                        resultCache.isMaterializedView() ? createViewRefresh(request, workspace, language, projection) : null, cacheGeneration);
+                return withHeaders(Response.ok(SerializedJSON.of(serialized)), responseHeaders).build();
             }
-        } else {
-            return Response.ok().build();
+
+            return withHeaders(Response.ok(result), responseHeaders).build();
+        } catch (Exception e) {
+            failed = true;
+            throw e;
+        } finally {
+            if (!refresh) {
+                request.recordCall(System.nanoTime() - start, failed);
+            }
+            resolveReferences.set(false);
+            outputLinks.set(true);
+            includeFullChildren.set(false);
+            outputCompact.set(false);
+            if (session != null) {
+                // unless they're streamed, results have been consumed by now
+                request.releaseAdmission();
+            }
+            closeSession(session);
+        }
+    }
+
+    /**
+     * Creates the task refreshing the cached result of the specified materialized view request, on behalf of the
+     * current user.
+     */
+    private Callable<Response> createViewRefresh(final QueryRequest request, final String workspace, final String language, final Projection projection) {
+        final UserContext user = UserContext.capture(repository);
+        return new Callable<Response>() {
+            @Override
+            public Response call() throws Exception {
+                return user.call(repository, new Callable<Response>() {
+                    @Override
+                    public Response call() throws Exception {
+                        // the request which computed the cached result has been consumed, perform its query again
+                        return performQuery(request.copy(), workspace, language, null, projection, true);
+                    }
+                });
+            }
+        };
+    }
+
+    private Response submitQueryJob(final QueryRequest request, final String workspace, final String language, UriInfo context) {
+        final UserContext user = UserContext.capture(repository);
+        final QueryJob job;
+        try {
+            job = QueryJobs.getInstance().submit(user.getUserKey(), workspace, language, new QueryJob.Work() {
+                @Override
+                public void perform(final OutputStream output, final Map<String, String> headers) throws Exception {
+                    user.call(repository, new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            writeQueryResult(request, workspace, language, output, headers);
+                            return null;
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            APIExceptionMapper.LOGGER.debug("Too many pending query jobs, rejecting query " + request.getJSONQuery());
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+
+        final URI location = URI.create(URIUtils.addModulesContextTo(URIUtils.getJobURI(job.getId()), context));
+        return Response.accepted(new JSONQueryJob(job)).location(location).build();
+    }
+
+    private void writeQueryResult(QueryRequest request, String workspace, String language, OutputStream output, Map<String, String> headers) throws Exception {
+        Session session = null;
+        final long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            request.applyFlags();
+            session = getSession(workspace, language);
+
+            if (request.isAggregation()) {
+                NodesStreamingOutput.MAPPER.writeValue(output, aggregate(request, session, workspace, language, headers));
+                return;
+            }
+
+            final Iterator<Node> nodes = request.execute(session, workspace, language, headers);
+            final NodesStreamingOutput streamingOutput = new NodesStreamingOutput(session, workspace, language, nodes, request.getFilter(), request.getDepth(),
+                    NodesStreamingOutput.Format.JSON);
+            streamingOutput.closeOnceWritten(request.getAdmissionRelease());
+            // the streaming output releases the session and admission slot once done
+            session = null;
+            streamingOutput.write(output);
+
+            request.addContinuationToken(headers);
+        } catch (Exception e) {
+            failed = true;
+            throw e;
+        } finally {
+            request.recordCall(System.nanoTime() - start, failed);
+            resolveReferences.set(false);
+            outputLinks.set(true);
+            includeFullChildren.set(false);
+            outputCompact.set(false);
+            if (session != null) {
+                request.releaseAdmission();
+            }
+            closeSession(session);
         }
     }
 
+    /**
+     * Retrieves the status of the specified asynchronous query job.
+     *
+     * @param id the identifier of the job, as returned when the query was submitted
+     * @return the status of the job or a {@link Response.Status#NOT_FOUND} response if the job doesn't exist, has
+     * expired or was submitted by another user
+     */
+    @GET
+    @Path("/" + JOBS + "/{id}")
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
+    public Response getQueryJob(@PathParam("id") String id) {
+        final QueryJob job = QueryJobs.getInstance().get(id, UserContext.capture(repository).getUserKey());
+        if (job == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(new JSONQueryJob(job)).build();
+    }
+
+    /**
+     * Retrieves the result of the specified asynchronous query job.
+     *
+     * @param id the identifier of the job, as returned when the query was submitted
+     * @return the result of the job, a {@link Response.Status#CONFLICT} response providing the job's status if it
+     * didn't complete successfully (yet) or a {@link Response.Status#NOT_FOUND} response if the job doesn't exist, has
+     * expired or was submitted by another user
+     */
+    @GET
+    @Path("/" + JOBS + "/{id}/" + RESULT)
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
+    public Response getQueryJobResult(@PathParam("id") String id) {
+        final QueryJob job = QueryJobs.getInstance().get(id, UserContext.capture(repository).getUserKey());
+        if (job == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (job.getStatus() != QueryJob.Status.COMPLETED) {
+            return Response.status(Response.Status.CONFLICT).entity(new JSONQueryJob(job)).build();
+        }
+
+        final SerializedJSON result = new SerializedJSON() {
+            @Override
+            public InputStream open() throws IOException {
+                return job.openResult();
+            }
+
+            @Override
+            public long getSize() {
+                return job.getResultSize();
+            }
+        };
+        return withHeaders(Response.ok(result), job.getHeaders()).build();
+    }
+
+    /**
+     * Cancels the specified asynchronous query job if it's still running and discards its result.
+     *
+     * @param id the identifier of the job, as returned when the query was submitted
+     * @return a {@link Response.Status#NO_CONTENT} response if the job was cancelled or a
+     * {@link Response.Status#NOT_FOUND} response if the job doesn't exist, has expired or was submitted by another user
+     */
+    @DELETE
+    @Path("/" + JOBS + "/{id}")
+    public Response cancelQueryJob(@PathParam("id") String id) {
+        final QueryJob job = QueryJobs.getInstance().cancel(id, UserContext.capture(repository).getUserKey());
+        if (job == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.noContent().build();
+    }
+
+    /**
+     * Aggregates all the results of the specified request, ignoring pagination, without rendering any of them.
+     *
+     * @throws Deadline.DeadlineExceededException if the deadline passed before any result could be aggregated
+     */
+    private static JSONAggregationResults aggregate(QueryRequest request, Session session, String workspace, String language,
+                                                    Map<String, String> responseHeaders) throws RepositoryException {
+        final List<Aggregation> aggregations = request.createAggregations();
+        final Iterator<Node> nodes = request.executeAll(session, workspace, language);
+        final Filter filter = request.getFilter();
+
+        long count = 0;
+        boolean truncated;
+        while (!(truncated = Deadline.isExpired()) && nodes.hasNext()) {
+            QueryJob.checkCancelled();
+            final Node node = nodes.next();
+            if (filter.acceptChild(node)) {
+                count++;
+                for (Aggregation aggregation : aggregations) {
+                    aggregation.add(node);
+                }
+            }
+        }
+
+        if (truncated) {
+            // partial aggregations are still returned, flagged as such
+            if (count == 0) {
+                throw new Deadline.DeadlineExceededException();
+            }
+            responseHeaders.put(RESULT_TRUNCATED_HEADER, "true");
+        }
+
+        final JSONAggregationResults results = new JSONAggregationResults();
+        results.setCount(count);
+        final List<JSONAggregation> requested = request.getJSONQuery().getAggregations();
+        for (int i = 0; i < aggregations.size(); i++) {
+            results.add(requested.get(i).getName(), aggregations.get(i).toJSON());
+        }
+        return results;
+    }
+
+    /**
+     * Records that the deadline passed before all results could be rendered, so that the client can request the
+     * remaining ones using the continuation token.
+     *
+     * @throws Deadline.DeadlineExceededException if no result could be rendered at all
+     */
+    static void markTruncated(boolean empty, Pagination pagination, Map<String, String> responseHeaders) {
+        if (empty) {
+            throw new Deadline.DeadlineExceededException();
+        }
+        pagination.truncate();
+        responseHeaders.put(RESULT_TRUNCATED_HEADER, "true");
+    }
+
+    static Response.ResponseBuilder withHeaders(Response.ResponseBuilder builder, Map<String, String> headers) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        return builder;
+    }
+
     /**
      * Retrieves the sub-resources in charge of handling requests accessing resources by their identifiers.
      *
@@ -438,16 +998,27 @@ public class API {
 
     protected Response perform(String workspace, String language, String idOrPath, String subElementType, String subElement, UriInfo context,
                                String operation, JSONItem data, NodeAccessor nodeAccessor) {
-        return perform(workspace, language, context, operation, data, nodeAccessor, new ElementsProcessor(idOrPath, subElementType, subElement));
+        return perform(workspace, language, idOrPath, subElementType, subElement, context, null, operation, data, nodeAccessor);
+    }
+
+    protected Response perform(String workspace, String language, String idOrPath, String subElementType, String subElement, UriInfo context,
+                               HttpHeaders headers, String operation, JSONItem data, NodeAccessor nodeAccessor) {
+        return perform(workspace, language, context, headers, operation, data, nodeAccessor, new ElementsProcessor(idOrPath, subElementType, subElement));
     }
 
     protected Response perform(String workspace, String language, UriInfo context, String operation, JSONItem data, NodeAccessor nodeAccessor, ElementsProcessor processor) {
+        return perform(workspace, language, context, null, operation, data, nodeAccessor, processor);
+    }
+
+    protected Response perform(String workspace, String language, UriInfo context, HttpHeaders headers, String operation, JSONItem data, NodeAccessor nodeAccessor,
+                               ElementsProcessor processor) {
 
         Session session = null;
 
         resolveReferences.set(Utils.getFlagValueFrom(context, RESOLVE_REFERENCES));
         outputLinks.set(!Utils.getFlagValueFrom(context, NO_LINKS));
         includeFullChildren.set(Utils.getFlagValueFrom(context, INCLUDE_FULL_CHILDREN));
+        outputCompact.set(Utils.getFlagValueFrom(context, COMPACT));
 
         final String idOrPath = processor.getIdOrPath();
         final String subElementType = processor.getSubElementType();
@@ -461,8 +1032,12 @@ public class API {
 
             final ElementAccessor accessor = ACCESSORS.get(subElementType);
             if (accessor != null) {
-                final Response response = accessor.perform(node, subElement, operation, data, context);
+                final Response response = accessor.perform(node, subElement, operation, data, context, headers);
                 session.save();
+                if (response.getEntity() instanceof NodesStreamingOutput) {
+                    // the streaming output is now in charge of the session which will be released once the response is written
+                    session = null;
+                }
                 return response;
             } else {
                 return null;
@@ -473,6 +1048,7 @@ public class API {
             resolveReferences.set(false);
             outputLinks.set(true);
             includeFullChildren.set(false);
+            outputCompact.set(false);
             closeSession(session);
         }
     }
@@ -527,6 +1103,10 @@ public class API {
         return includeFullChildren.get();
     }
 
+    public static boolean shouldOutputCompact() {
+        return outputCompact.get();
+    }
+
     protected interface NodeAccessor {
 
         Node getNode(String idOrPath, Session session) throws RepositoryException;
@@ -46,6 +46,7 @@ package org.jahia.modules.jcrestapi;
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.ExceptionMapper;
 import javax.ws.rs.ext.Provider;
@@ -70,6 +71,37 @@ public class APIExceptionMapper implements ExceptionMapper<APIException> {
         return Response.serverError().entity(new APIException.JSONError(exception));
     }
 
+    private static boolean isDeadlineExceeded(Throwable exception) {
+        // the deadline might have passed while rendering, in which case the exception might have been wrapped
+        while (exception != null) {
+            if (exception instanceof Deadline.DeadlineExceededException) {
+                return true;
+            }
+            exception = exception.getCause();
+        }
+        return false;
+    }
+
+    private static QueryAdmission.QueryNotAdmittedException getNotAdmitted(Throwable exception) {
+        while (exception != null) {
+            if (exception instanceof QueryAdmission.QueryNotAdmittedException) {
+                return (QueryAdmission.QueryNotAdmittedException) exception;
+            }
+            exception = exception.getCause();
+        }
+        return null;
+    }
+
+    private static RequestBodies.RequestBodyRejectedException getRejectedBody(Throwable exception) {
+        while (exception != null) {
+            if (exception instanceof RequestBodies.RequestBodyRejectedException) {
+                return (RequestBodies.RequestBodyRejectedException) exception;
+            }
+            exception = exception.getCause();
+        }
+        return null;
+    }
+
     @Override
     public Response toResponse(APIException exception) {
         final Throwable cause = exception.getCause();
@@ -77,8 +109,22 @@ public class APIExceptionMapper implements ExceptionMapper<APIException> {
         LOGGER.debug("An error occurred in the RESTful API", cause);
 
         Response.ResponseBuilder builder;
-        if (cause instanceof RepositoryException) {
+        final QueryAdmission.QueryNotAdmittedException notAdmitted = getNotAdmitted(cause);
+        final RequestBodies.RequestBodyRejectedException rejectedBody = getRejectedBody(cause);
+        if (isDeadlineExceeded(cause)) {
+            builder = Response.status(Response.Status.SERVICE_UNAVAILABLE);
+        } else if (notAdmitted != null) {
+            builder = Response.status(notAdmitted.getStatus()).entity(new APIException.JSONError(notAdmitted));
+            if (notAdmitted.getRetryAfter() > 0) {
+                builder.header(HttpHeaders.RETRY_AFTER, notAdmitted.getRetryAfter());
+            }
+        } else if (rejectedBody != null) {
+            builder = Response.status(rejectedBody.getStatus()).entity(new APIException.JSONError(rejectedBody));
+        } else if (cause instanceof RepositoryException) {
             builder = toResponse((RepositoryException) cause);
+        } else if (cause instanceof Include.InvalidIncludeException || cause instanceof ViewsRegistry.UnknownViewException
+                || cause instanceof Fields.UnsupportedFieldsException) {
+            builder = Response.status(Response.Status.BAD_REQUEST);
         } else if (cause instanceof UnsupportedOperationException) {
             builder = Response.status(Response.Status.METHOD_NOT_ALLOWED);
         }
@@ -0,0 +1,114 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * The JSON provider used by the API, enforcing the configured request body limits when reading entities and outputting
+ * {@link SerializedJSON already serialized JSON} as is.
+ *
+ * @author Christophe Laprun
+ * @see RequestBodies
+ */
+public class APIJsonProvider extends JacksonJaxbJsonProvider {
+
+    public APIJsonProvider() {
+        super();
+    }
+
+    protected APIJsonProvider(ObjectMapper mapper) {
+        super(mapper, DEFAULT_ANNOTATIONS);
+        // annotations are only applied to the default mapper, so make sure the specified one also uses them
+        setAnnotationsToUse(DEFAULT_ANNOTATIONS);
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                           MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+        try {
+            RequestBodies.checkLength(httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH));
+            return super.readFrom(type, genericType, annotations, mediaType, httpHeaders, entityStream);
+        } catch (RequestBodies.RequestBodyRejectedException e) {
+            throw new WebApplicationException(e, Response.status(e.getStatus()).entity(e.getMessage()).type(MediaType.TEXT_PLAIN_TYPE).build());
+        }
+    }
+
+    @Override
+    public void writeTo(Object value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        if (value instanceof SerializedJSON) {
+            final SerializedJSON serialized = (SerializedJSON) value;
+            try {
+                if (serialized.getSize() >= 0) {
+                    httpHeaders.putSingle(HttpHeaders.CONTENT_LENGTH, serialized.getSize());
+                }
+                serialized.writeTo(entityStream);
+            } finally {
+                serialized.release();
+            }
+        } else {
+            super.writeTo(value, type, genericType, annotations, mediaType, httpHeaders, entityStream);
+        }
+    }
+
+    @Override
+    protected JsonParser _createParser(ObjectReader reader, InputStream rawStream) throws IOException {
+        return RequestBodies.createParser(reader.getFactory(), rawStream);
+    }
+}
@@ -0,0 +1,297 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.json.JSONAggregation;
+import org.jahia.modules.jcrestapi.json.JSONAggregationResults;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import java.util.*;
+
+/**
+ * Aggregates the values of a property over the nodes of a query result as they are iterated over, in bounded memory:
+ * only the minimum and maximum values and, if requested, a bounded number of per-value (or per-date-bucket) counts are
+ * kept.
+ * <p>
+ * Buckets track the most frequent values using the Space-Saving algorithm: when a value without bucket is encountered
+ * while all buckets are taken, the bucket with the lowest count is reassigned to it, the new value inheriting that
+ * count as its possible error. Counts are therefore exact as long as there are no more distinct values than buckets,
+ * and otherwise lower bounds: each bucket only reports the occurrences which are guaranteed to be its own, the values
+ * which couldn't be attributed to any bucket being counted together.
+ *
+ * @author Christophe Laprun
+ */
+final class Aggregation {
+    static final int DEFAULT_SIZE = 100;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private final String property;
+    private final int interval;
+    private final int size;
+    private final Map<String, Bucket> buckets;
+    private final TreeSet<Bucket> byCount;
+    private long bucketed;
+    private long updates;
+    private long count;
+    private long missing;
+    private Comparable min;
+    private Object minValue;
+    private Comparable max;
+    private Object maxValue;
+
+    /**
+     * @param aggregation the requested aggregation
+     * @param maxBuckets  the maximum number of buckets the server allows
+     * @throws IllegalArgumentException if the requested aggregation is invalid
+     */
+    Aggregation(JSONAggregation aggregation, int maxBuckets) {
+        property = aggregation.getProperty();
+        if (!Utils.exists(property)) {
+            throw new IllegalArgumentException("Aggregations must specify the property to aggregate");
+        }
+
+        interval = getInterval(aggregation.getInterval());
+        final Integer requestedSize = aggregation.getSize();
+        size = Math.min(requestedSize != null && requestedSize > 0 ? requestedSize : DEFAULT_SIZE, maxBuckets);
+        if (aggregation.isBuckets()) {
+            buckets = new HashMap<String, Bucket>();
+            byCount = new TreeSet<Bucket>();
+        } else {
+            buckets = null;
+            byCount = null;
+        }
+    }
+
+    private static int getInterval(String interval) {
+        if (interval == null) {
+            return -1;
+        } else if ("year".equalsIgnoreCase(interval)) {
+            return Calendar.YEAR;
+        } else if ("month".equalsIgnoreCase(interval)) {
+            return Calendar.MONTH;
+        } else if ("day".equalsIgnoreCase(interval)) {
+            return Calendar.DAY_OF_MONTH;
+        } else if ("hour".equalsIgnoreCase(interval)) {
+            return Calendar.HOUR_OF_DAY;
+        } else {
+            throw new IllegalArgumentException("Unsupported aggregation interval '" + interval + "'");
+        }
+    }
+
+    /**
+     * Adds the values of the aggregated property of the specified node to this aggregation.
+     */
+    void add(Node node) throws RepositoryException {
+        if (!node.hasProperty(property)) {
+            missing++;
+            return;
+        }
+
+        final Property nodeProperty = node.getProperty(property);
+        if (nodeProperty.isMultiple()) {
+            for (Value value : nodeProperty.getValues()) {
+                add(value);
+            }
+        } else {
+            add(nodeProperty.getValue());
+        }
+    }
+
+    void add(Value value) throws RepositoryException {
+        final int type = value.getType();
+        if (type == PropertyType.BINARY) {
+            return;
+        }
+
+        count++;
+
+        final Comparable key;
+        final Object jsonValue;
+        switch (type) {
+            case PropertyType.LONG:
+            case PropertyType.DOUBLE:
+            case PropertyType.DECIMAL:
+                key = value.getDouble();
+                jsonValue = Projection.toJSON(value);
+                break;
+            case PropertyType.DATE:
+                key = value.getDate().getTimeInMillis();
+                jsonValue = value.getString();
+                break;
+            case PropertyType.BOOLEAN:
+                key = value.getBoolean();
+                jsonValue = key;
+                break;
+            default:
+                key = value.getString();
+                jsonValue = key;
+        }
+
+        // values of different types are only compared to values of the same type, the first type encountered winning
+        if (min == null || (min.getClass() == key.getClass() && compare(key, min) < 0)) {
+            min = key;
+            minValue = jsonValue;
+        }
+        if (max == null || (max.getClass() == key.getClass() && compare(key, max) > 0)) {
+            max = key;
+            maxValue = jsonValue;
+        }
+
+        if (buckets != null) {
+            final String bucket = type == PropertyType.DATE && interval >= 0 ? getBucket(value.getDate()) : String.valueOf(jsonValue);
+            count(bucket);
+        }
+    }
+
+    private void count(String key) {
+        bucketed++;
+        Bucket bucket = buckets.get(key);
+        if (bucket != null) {
+            byCount.remove(bucket);
+        } else if (buckets.size() < size) {
+            bucket = new Bucket(key, 0);
+            buckets.put(key, bucket);
+        } else {
+            // reassign the least frequent (and, among those, least recently updated) bucket to the new value
+            final Bucket evicted = byCount.pollFirst();
+            buckets.remove(evicted.key);
+            bucket = new Bucket(key, evicted.count);
+            buckets.put(key, bucket);
+        }
+        bucket.count++;
+        bucket.update = ++updates;
+        byCount.add(bucket);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Comparable first, Comparable second) {
+        return first.compareTo(second);
+    }
+
+    private String getBucket(Calendar date) {
+        final Calendar utc = Calendar.getInstance(UTC);
+        utc.setTimeInMillis(date.getTimeInMillis());
+
+        final StringBuilder bucket = new StringBuilder(13).append(utc.get(Calendar.YEAR));
+        if (interval != Calendar.YEAR) {
+            appendTwoDigits(bucket.append('-'), utc.get(Calendar.MONTH) + 1);
+            if (interval != Calendar.MONTH) {
+                appendTwoDigits(bucket.append('-'), utc.get(Calendar.DAY_OF_MONTH));
+                if (interval == Calendar.HOUR_OF_DAY) {
+                    appendTwoDigits(bucket.append('T'), utc.get(Calendar.HOUR_OF_DAY));
+                }
+            }
+        }
+        return bucket.toString();
+    }
+
+    private static void appendTwoDigits(StringBuilder builder, int value) {
+        if (value < 10) {
+            builder.append('0');
+        }
+        builder.append(value);
+    }
+
+    JSONAggregationResults.JSONAggregationResult toJSON() {
+        Map<String, Long> sorted = null;
+        Long otherCount = null;
+        if (buckets != null) {
+            final List<Bucket> guaranteed = new ArrayList<Bucket>(buckets.size());
+            long attributed = 0;
+            for (Bucket bucket : buckets.values()) {
+                if (bucket.getGuaranteedCount() > 0) {
+                    guaranteed.add(bucket);
+                    attributed += bucket.getGuaranteedCount();
+                }
+            }
+            Collections.sort(guaranteed, new Comparator<Bucket>() {
+                @Override
+                public int compare(Bucket first, Bucket second) {
+                    final int byCount = Long.valueOf(second.getGuaranteedCount()).compareTo(first.getGuaranteedCount());
+                    return byCount != 0 ? byCount : first.key.compareTo(second.key);
+                }
+            });
+            sorted = new LinkedHashMap<String, Long>(guaranteed.size());
+            for (Bucket bucket : guaranteed) {
+                sorted.put(bucket.key, bucket.getGuaranteedCount());
+            }
+            otherCount = bucketed - attributed;
+        }
+        return new JSONAggregationResults.JSONAggregationResult(count, missing, minValue, maxValue, sorted, otherCount);
+    }
+
+    /**
+     * A Space-Saving counter: the value it's currently assigned to was counted <code>count - error</code> times at least
+     * and <code>count</code> times at most, <code>error</code> being the count of the bucket it was reassigned from.
+     */
+    private static final class Bucket implements Comparable<Bucket> {
+        private final String key;
+        private final long error;
+        private long count;
+        private long update;
+
+        private Bucket(String key, long error) {
+            this.key = key;
+            this.error = error;
+            this.count = error;
+        }
+
+        private long getGuaranteedCount() {
+            return count - error;
+        }
+
+        @Override
+        public int compareTo(Bucket other) {
+            if (count != other.count) {
+                return count < other.count ? -1 : 1;
+            }
+            return update < other.update ? -1 : (update == other.update ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Outputs the usual JSON representations using a binary JSON data format, negotiated using the <code>Accept</code>
+ * header. Representations keep the exact same structure as their JSON counterparts but are smaller and faster to
+ * parse. {@link SerializedJSON Already serialized JSON} is transcoded to the binary format.
+ *
+ * @author Christophe Laprun
+ */
+public abstract class BinaryFormatProvider extends APIJsonProvider {
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final ObjectMapper mapper;
+    private final MediaType mediaType;
+
+    protected BinaryFormatProvider(ObjectMapper mapper, String mediaType) {
+        super(mapper);
+        this.mapper = mapper;
+        this.mediaType = MediaType.valueOf(mediaType);
+    }
+
+    @Override
+    public void writeTo(Object value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        if (value instanceof SerializedJSON) {
+            final SerializedJSON serialized = (SerializedJSON) value;
+            try {
+                transcode(serialized, entityStream);
+            } finally {
+                serialized.release();
+            }
+        } else {
+            super.writeTo(value, type, genericType, annotations, mediaType, httpHeaders, entityStream);
+        }
+    }
+
+    /**
+     * Converts the specified already serialized JSON to this provider's format, token by token.
+     */
+    void transcode(SerializedJSON serialized, OutputStream output) throws IOException {
+        final JsonParser parser = JSON.createParser(serialized.open());
+        try {
+            final JsonGenerator generator = mapper.getFactory().createGenerator(output);
+            while (parser.nextToken() != null) {
+                generator.copyCurrentEvent(parser);
+            }
+            // flush without closing the entity stream
+            generator.flush();
+        } finally {
+            parser.close();
+        }
+    }
+
+    @Override
+    protected boolean hasMatchingMediaType(MediaType mediaType) {
+        return mediaType != null && this.mediaType.isCompatible(mediaType)
+                && !mediaType.isWildcardType() && !mediaType.isWildcardSubtype();
+    }
+
+    /**
+     * Handles the {@link Utils#MEDIA_TYPE_APPLICATION_CBOR} media type.
+     */
+    @Produces(Utils.MEDIA_TYPE_APPLICATION_CBOR)
+    public static class CBOR extends BinaryFormatProvider {
+        public CBOR() {
+            super(new ObjectMapper(new CBORFactory()), Utils.MEDIA_TYPE_APPLICATION_CBOR);
+        }
+    }
+
+    /**
+     * Handles the {@link Utils#MEDIA_TYPE_APPLICATION_SMILE} media type.
+     */
+    @Produces(Utils.MEDIA_TYPE_APPLICATION_SMILE)
+    public static class Smile extends BinaryFormatProvider {
+        public Smile() {
+            super(new ObjectMapper(new SmileFactory()), Utils.MEDIA_TYPE_APPLICATION_SMILE);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.jcr.SessionAccess;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.Row;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+
+/**
+ * A StreamingOutput writing query result rows as comma-separated values (RFC 4180) as they are retrieved. As is the
+ * case for {@link NodesStreamingOutput}, instances take ownership of the session they're given, releasing it once done.
+ *
+ * @author Christophe Laprun
+ */
+public class CSVStreamingOutput implements StreamingOutput {
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private final Session session;
+    private final String workspace;
+    private final String language;
+    private final String[] columns;
+    private final String[] selectorNames;
+    private final Iterator<Row> rows;
+    private final Filter filter;
+    private final long deadline;
+    private Closeable resource;
+
+    public CSVStreamingOutput(Session session, String workspace, String language, String[] columns, String[] selectorNames, Iterator<Row> rows,
+                              Filter filter) {
+        this.session = session;
+        this.workspace = workspace;
+        this.language = language;
+        this.columns = columns;
+        this.selectorNames = selectorNames;
+        this.rows = rows;
+        this.filter = filter;
+        this.deadline = Deadline.get();
+    }
+
+    /**
+     * Specifies a resource to close, along with the session, once the rows have been written.
+     *
+     * @see NodesStreamingOutput#closeOnceWritten(Closeable)
+     */
+    public void closeOnceWritten(Closeable resource) {
+        this.resource = resource;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        SessionAccess.setCurrentSession(session, workspace, language);
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+        try {
+            writeLine(writer, columns);
+
+            final String[] values = new String[columns.length];
+            while (rows.hasNext()) {
+                if (Deadline.isExpired(deadline)) {
+                    // CSV cannot mark the output as truncated, abort the response instead of ending it as if it were complete
+                    throw new Deadline.DeadlineExceededException();
+                }
+                final Row row = rows.next();
+                if (Projection.accept(row, selectorNames, filter)) {
+                    final Value[] rowValues = row.getValues();
+                    for (int i = 0; i < values.length; i++) {
+                        final Value value = rowValues[i];
+                        values[i] = value == null || value.getType() == PropertyType.BINARY ? null : value.getString();
+                    }
+                    writeLine(writer, values);
+                }
+            }
+        } catch (RepositoryException e) {
+            // the response has already been committed at this point so we can only abort it
+            throw new APIException(e);
+        } finally {
+            try {
+                writer.flush();
+            } finally {
+                if (session.isLive()) {
+                    session.logout();
+                }
+                SessionAccess.closeCurrentSession();
+                if (resource != null) {
+                    resource.close();
+                }
+            }
+        }
+    }
+
+    private static void writeLine(Writer writer, String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeValue(writer, values[i]);
+        }
+        writer.write(LINE_SEPARATOR);
+    }
+
+    static void writeValue(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            final char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (quote) {
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        } else {
+            writer.write(value);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.Names;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.nodetype.NodeType;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes compact node representations, requested using the {@link API#COMPACT} flag. Compact representations drop
+ * everything that can be derived from other fields or that repeats from one item to the next: links are omitted,
+ * mixins are output as an array of their names, properties as a plain map of their escaped names to their value(s)
+ * and children as a map of their escaped names to their own compact representation. The type of each property is
+ * output only once per response, in a dictionary mapping escaped property names to their type name, which is
+ * retrieved using {@link #writeTypes()} once all nodes have been written. A property which type varies from one node
+ * to the other is recorded with the {@link PropertyType#TYPENAME_UNDEFINED} type.
+ * <p/>
+ * When {@link Fields} are requested, only the requested properties are retrieved from the repository, unrequested
+ * sub-element containers are skipped and string values are truncated to the requested maximum length. Which
+ * sub-elements are output, and how deep, can also be specified using an {@link Include} expression.
+ *
+ * @author Christophe Laprun
+ */
+final class CompactNodeSerializer {
+    static final String TYPES = "_types";
+
+    private final JsonGenerator generator;
+    private final Filter filter;
+    private final Fields fields;
+    private final Include shape;
+    private final Map<String, String> types = new LinkedHashMap<String, String>();
+
+    CompactNodeSerializer(JsonGenerator generator, Filter filter, int depth) {
+        this.generator = generator;
+        this.filter = filter;
+        this.fields = Fields.of(filter);
+        final Include include = fields != null ? fields.getInclude() : null;
+        this.shape = include != null ? include : Include.of(depth, fields);
+    }
+
+    /**
+     * Writes the compact representation of the specified node, including its sub-elements as specified by the
+     * requested {@link Include} expression or, if none was specified, if this serializer's depth is greater than
+     * <code>0</code>.
+     */
+    void write(Node node) throws IOException, RepositoryException {
+        write(node, shape, false);
+    }
+
+    /**
+     * Writes the compact representation of the specified node followed, in the same object, by the dictionary of the
+     * types of the properties it contains, as output when a single node is requested.
+     */
+    void writeWithTypes(Node node) throws IOException, RepositoryException {
+        write(node, shape, true);
+    }
+
+    private void write(Node node, Include shape, boolean withTypes) throws IOException, RepositoryException {
+        generator.writeStartObject();
+        generator.writeStringField("name", node.getName());
+        generator.writeStringField("type", node.getPrimaryNodeType().getName());
+        generator.writeStringField("path", node.getPath());
+        generator.writeStringField("id", node.getIdentifier());
+
+        if (shape != Include.NONE) {
+            if (shape.includesMixins()) {
+                final NodeType[] mixins = node.getMixinNodeTypes();
+                if (mixins.length > 0) {
+                    generator.writeArrayFieldStart(Fields.MIXINS);
+                    for (NodeType mixin : mixins) {
+                        generator.writeString(mixin.getName());
+                    }
+                    generator.writeEndArray();
+                }
+            }
+
+            if (shape.includesProperties()) {
+                generator.writeObjectFieldStart("properties");
+                // only retrieve requested properties from the repository
+                final PropertyIterator properties = shape.getProperties(node, fields);
+                while (properties.hasNext()) {
+                    final Property property = properties.nextProperty();
+                    if (filter.acceptProperty(property)) {
+                        writeProperty(property);
+                    }
+                }
+                generator.writeEndObject();
+            }
+
+            final Include childrenShape = shape.getChildren();
+            if (childrenShape != null) {
+                generator.writeObjectFieldStart(Fields.CHILDREN);
+                final NodeIterator children = node.getNodes();
+                while (children.hasNext()) {
+                    final Node child = children.nextNode();
+                    if (filter.acceptChild(child)) {
+                        generator.writeFieldName(Names.escape(child.getName(), child.getIndex()));
+                        write(child, childrenShape, false);
+                    }
+                }
+                generator.writeEndObject();
+            }
+        }
+
+        if (withTypes) {
+            generator.writeFieldName(TYPES);
+            writeTypes();
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeProperty(Property property) throws IOException, RepositoryException {
+        final int type = property.getType();
+        if (type == PropertyType.BINARY) {
+            // binary content is only available from the property resource
+            return;
+        }
+
+        final String name = Names.escape(property.getName());
+        recordType(name, PropertyType.nameFromValue(type));
+
+        generator.writeFieldName(name);
+        if (property.isMultiple()) {
+            generator.writeStartArray();
+            for (Value value : property.getValues()) {
+                writeValue(value);
+            }
+            generator.writeEndArray();
+        } else {
+            writeValue(property.getValue());
+        }
+    }
+
+    private void writeValue(Value value) throws IOException, RepositoryException {
+        final Object json = Projection.toJSON(value);
+        generator.writeObject(fields != null && json instanceof String ? fields.truncate((String) json) : json);
+    }
+
+    private void recordType(String name, String type) {
+        final String previous = types.put(name, type);
+        if (previous != null && !previous.equals(type)) {
+            types.put(name, PropertyType.TYPENAME_UNDEFINED);
+        }
+    }
+
+    /**
+     * Writes the dictionary of the types of the properties written so far as the value of the current field.
+     */
+    void writeTypes() throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<String, String> entry : types.entrySet()) {
+            generator.writeStringField(entry.getKey(), entry.getValue());
+        }
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,335 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses responses using the <code>gzip</code> or <code>deflate</code> encoding negotiated from the
+ * <code>Accept-Encoding</code> header of the request and decompresses request bodies sent with one of these encodings
+ * as <code>Content-Encoding</code>. Responses are only compressed once they reach the configured threshold, smaller
+ * ones being sent as is, and already compressed media types (images, audio, video, archives) are never compressed.
+ * Compressed streamed responses are flushed along with the streamed output, once the threshold is reached.
+ *
+ * @author Christophe Laprun
+ */
+@Priority(Priorities.ENTITY_CODER)
+public class CompressionFilter implements ContainerRequestFilter, WriterInterceptor {
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private static final String X_GZIP = "x-gzip";
+    static final String IDENTITY = "identity";
+    private static final String WILDCARD = "*";
+    private static final String ENCODING_PROPERTY = CompressionFilter.class.getName() + ".encoding";
+    private static final int BUFFER_SIZE = 8192;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        final String contentEncoding = requestContext.getHeaderString(HttpHeaders.CONTENT_ENCODING);
+        if (Utils.exists(contentEncoding)) {
+            final String coding = contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+            try {
+                if (GZIP.equals(coding) || X_GZIP.equals(coding)) {
+                    requestContext.setEntityStream(new GZIPInputStream(requestContext.getEntityStream(), BUFFER_SIZE));
+                } else if (DEFLATE.equals(coding)) {
+                    requestContext.setEntityStream(new InflaterInputStream(requestContext.getEntityStream()));
+                } else if (!IDENTITY.equals(coding)) {
+                    requestContext.abortWith(Response.status(Response.Status.UNSUPPORTED_MEDIA_TYPE)
+                            .entity("Unsupported " + HttpHeaders.CONTENT_ENCODING + ": " + contentEncoding).build());
+                    return;
+                }
+            } catch (IOException e) {
+                requestContext.abortWith(Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Invalid " + coding + " request body: " + e.getMessage()).build());
+                return;
+            }
+
+            // the body is now read decoded, its size being limited as it is read
+            final MultivaluedMap<String, String> headers = requestContext.getHeaders();
+            headers.remove(HttpHeaders.CONTENT_ENCODING);
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+        }
+
+        if (SpringBeansAccess.getInstance().isCompressionEnabled()) {
+            // responses are sent as is if no encoding could be negotiated, but still depend on Accept-Encoding
+            final String encoding = negotiate(requestContext.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+            requestContext.setProperty(ENCODING_PROPERTY, encoding != null ? encoding : IDENTITY);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        final Object encoding = context.getProperty(ENCODING_PROPERTY);
+        if (encoding == null) {
+            context.proceed();
+            return;
+        }
+
+        final MultivaluedMap<String, Object> headers = context.getHeaders();
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (IDENTITY.equals(encoding) || headers.containsKey(HttpHeaders.CONTENT_ENCODING) || isCompressed(context.getMediaType())) {
+            context.proceed();
+            return;
+        }
+
+        final SpringBeansAccess access = SpringBeansAccess.getInstance();
+        final CompressingOutputStream stream = new CompressingOutputStream(context.getOutputStream(), headers, (String) encoding,
+                access.getCompressionThreshold(), access.getCompressionLevel());
+        context.setOutputStream(stream);
+        try {
+            context.proceed();
+            stream.finish();
+        } finally {
+            // the native resources of the compressor need to be released even if writing the entity failed
+            stream.release();
+        }
+    }
+
+    /**
+     * Determines which supported encoding, if any, is preferred by the specified <code>Accept-Encoding</code> header
+     * value, <code>gzip</code> being preferred when both are equally acceptable.
+     *
+     * @param acceptEncoding the value of the <code>Accept-Encoding</code> header, might be <code>null</code>
+     * @return the negotiated encoding or <code>null</code> if responses shouldn't be compressed
+     */
+    static String negotiate(String acceptEncoding) {
+        if (!Utils.exists(acceptEncoding)) {
+            return null;
+        }
+
+        float gzip = -1;
+        float deflate = -1;
+        float wildcard = -1;
+        for (String element : acceptEncoding.split(",")) {
+            final String[] parameters = element.split(";");
+            final String coding = parameters[0].trim().toLowerCase(Locale.ENGLISH);
+            final float quality = getQuality(parameters);
+            if (GZIP.equals(coding) || X_GZIP.equals(coding)) {
+                gzip = Math.max(gzip, quality);
+            } else if (DEFLATE.equals(coding)) {
+                deflate = quality;
+            } else if (WILDCARD.equals(coding)) {
+                wildcard = quality;
+            }
+        }
+
+        // codings which aren't explicitly listed are as acceptable as the wildcard, if any
+        if (gzip < 0) {
+            gzip = wildcard;
+        }
+        if (deflate < 0) {
+            deflate = wildcard;
+        }
+
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    private static float getQuality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            final String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    // invalid qualities make the coding unacceptable
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static boolean isCompressed(MediaType mediaType) {
+        if (mediaType == null) {
+            return false;
+        }
+
+        final String type = mediaType.getType();
+        final String subtype = mediaType.getSubtype().toLowerCase(Locale.ENGLISH);
+        return "image".equalsIgnoreCase(type) || "audio".equalsIgnoreCase(type) || "video".equalsIgnoreCase(type)
+                || subtype.contains("zip") || subtype.contains("compressed");
+    }
+
+    /**
+     * Buffers the output until the compression threshold is reached, the response being then compressed, or the
+     * output finished, the buffered output being then written as is.
+     */
+    static class CompressingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final MultivaluedMap<String, Object> headers;
+        private final String encoding;
+        private final int threshold;
+        private final int level;
+        private ByteArrayOutputStream buffer;
+        private OutputStream target;
+        private Deflater deflater;
+        private boolean finished;
+        private boolean released;
+
+        CompressingOutputStream(OutputStream out, MultivaluedMap<String, Object> headers, String encoding, int threshold, int level) {
+            this.out = out;
+            this.headers = headers;
+            this.encoding = encoding;
+            this.threshold = threshold;
+            this.level = level;
+            this.buffer = new ByteArrayOutputStream(Math.max(32, Math.min(threshold, BUFFER_SIZE)));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (target == null) {
+                if (buffer.size() + length < threshold) {
+                    buffer.write(bytes, offset, length);
+                    return;
+                }
+                compress();
+            }
+            target.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // output is kept buffered until we know whether it should be compressed
+            if (target != null) {
+                target.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                release();
+            }
+            out.close();
+        }
+
+        boolean isCompressing() {
+            return deflater != null;
+        }
+
+        boolean isReleased() {
+            return released;
+        }
+
+        /**
+         * Releases the resources used to compress the output, which cannot be written afterwards.
+         */
+        void release() {
+            if (!released) {
+                released = true;
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+        }
+
+        /**
+         * Writes the remaining output, without closing the underlying stream.
+         */
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+
+            if (target == null) {
+                // threshold wasn't reached: output as is
+                target = out;
+                buffer.writeTo(out);
+                buffer = null;
+            } else if (isCompressing()) {
+                ((DeflaterOutputStream) target).finish();
+            }
+            out.flush();
+        }
+
+        private void compress() throws IOException {
+            headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+
+            if (GZIP.equals(encoding)) {
+                target = new GZIPOutputStream(out, BUFFER_SIZE, true) {
+                    {
+                        def.setLevel(level);
+                        deflater = def;
+                    }
+                };
+            } else {
+                deflater = new Deflater(level);
+                target = new DeflaterOutputStream(out, deflater, BUFFER_SIZE, true);
+            }
+            buffer.writeTo(target);
+            buffer = null;
+        }
+    }
+}
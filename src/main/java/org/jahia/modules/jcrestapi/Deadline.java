@@ -0,0 +1,124 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+/**
+ * Holds the deadline of the request processed by the current thread, if any, so that long running processing (result
+ * iteration, recursive rendering of nodes) can stop once the client isn't expected to wait anymore.
+ *
+ * @author Christophe Laprun
+ */
+public final class Deadline {
+    private static final long NONE = Long.MAX_VALUE;
+
+    private static final ThreadLocal<Long> deadline = new ThreadLocal<Long>() {
+        @Override
+        protected Long initialValue() {
+            return NONE;
+        }
+    };
+
+    private Deadline() {
+    }
+
+    /**
+     * Sets the deadline of the current thread to the specified number of milliseconds from now.
+     *
+     * @param timeout the number of milliseconds after which processing should stop, no deadline being set if not
+     *                strictly positive
+     */
+    public static void start(long timeout) {
+        deadline.set(timeout > 0 ? System.currentTimeMillis() + timeout : NONE);
+    }
+
+    /**
+     * Retrieves the deadline of the current thread as a number of milliseconds since the epoch, {@link Long#MAX_VALUE}
+     * if there is no deadline.
+     */
+    public static long get() {
+        return deadline.get();
+    }
+
+    /**
+     * Sets the deadline of the current thread, as returned by {@link #get()}.
+     */
+    public static void set(long newDeadline) {
+        deadline.set(newDeadline);
+    }
+
+    public static void clear() {
+        deadline.remove();
+    }
+
+    /**
+     * Retrieves whether the deadline of the current thread, if any, has passed.
+     */
+    public static boolean isExpired() {
+        return isExpired(deadline.get());
+    }
+
+    public static boolean isExpired(long deadline) {
+        return deadline != NONE && System.currentTimeMillis() > deadline;
+    }
+
+    /**
+     * Checks that the deadline of the current thread, if any, hasn't passed yet.
+     *
+     * @throws DeadlineExceededException if the deadline has passed
+     */
+    public static void check() {
+        if (isExpired()) {
+            throw new DeadlineExceededException();
+        }
+    }
+
+    /**
+     * Thrown when processing of a request was stopped because its deadline passed.
+     */
+    public static class DeadlineExceededException extends RuntimeException {
+        public DeadlineExceededException() {
+            super("Request deadline exceeded");
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import java.io.IOException;
+
+/**
+ * Sets the {@link Deadline} of each request from the timeout requested by the client using the
+ * {@link API#REQUEST_TIMEOUT_HEADER} header and the server default for the accessed endpoint, the shortest one being
+ * used.
+ *
+ * @author Christophe Laprun
+ */
+public class DeadlineFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        final long requested = getRequestedTimeout(requestContext.getHeaderString(API.REQUEST_TIMEOUT_HEADER));
+        final long configured = getConfiguredTimeout(requestContext.getUriInfo().getPath());
+
+        final long timeout;
+        if (requested > 0 && configured > 0) {
+            timeout = Math.min(requested, configured);
+        } else {
+            timeout = Math.max(requested, configured);
+        }
+        Deadline.start(timeout);
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+        // streamed entities captured the deadline they need, if any
+        Deadline.clear();
+    }
+
+    private static long getRequestedTimeout(String header) {
+        if (Utils.exists(header)) {
+            try {
+                return Long.parseLong(header.trim());
+            } catch (NumberFormatException e) {
+                APIExceptionMapper.LOGGER.debug("Ignoring invalid " + API.REQUEST_TIMEOUT_HEADER + " header: " + header);
+            }
+        }
+        return 0;
+    }
+
+    private static long getConfiguredTimeout(String path) {
+        final SpringBeansAccess access = SpringBeansAccess.getInstance();
+        final String uri = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        if (uri.endsWith("/query") || uri.endsWith("/query/" + API.BATCH)) {
+            return access.getQueryTimeout();
+        } else if (uri.contains("/" + Types.MAPPING + "/")) {
+            return access.getTypesTimeout();
+        } else {
+            return access.getNodesTimeout();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.Names;
+import org.jahia.modules.json.jcr.SessionAccess;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+
+/**
+ * Writes node representations straight to a {@link JsonGenerator} as nodes are walked, instead of first building a
+ * {@link org.jahia.modules.json.JSONNode} object graph (with its decorators, link maps and links) which Jackson then
+ * walks again through JAXB annotations. URIs are assembled in a reused buffer and written from it, and responses
+ * which aren't streamed are rendered in {@link SerializedJSON.Buffered per-thread pooled buffers}, so that rendering
+ * a node allocates next to nothing.
+ * <p/>
+ * Only representations without sub-elements (i.e. rendered with a depth of <code>0</code>) are written directly,
+ * producing the same fields and links as {@link org.jahia.modules.jcrestapi.json.APIObjectFactory} does. Deeper
+ * representations, which embed properties, mixins, children and versions as rendered by the JSON generation module,
+ * still go through the object graph. Direct serialization is enabled using the
+ * <code>jahia.find.directSerialization</code> property.
+ *
+ * @author Christophe Laprun
+ */
+final class DirectNodeSerializer {
+    private static final String NODE_TYPES_PATH = "/jcr__system/jcr__nodeTypes/";
+
+    private final JsonGenerator generator;
+    private final boolean outputLinks;
+    private final String absoluteBaseURI;
+    private final String baseURI;
+    private final StringBuilder uri = new StringBuilder(128);
+    private char[] chars = new char[128];
+
+    DirectNodeSerializer(JsonGenerator generator) {
+        this.generator = generator;
+        outputLinks = API.shouldOutputLinks();
+        absoluteBaseURI = URIUtils.getAbsoluteURI("");
+        final SessionAccess.SessionInfo session = SessionAccess.getCurrentSession();
+        baseURI = API.API_PATH + "/" + session.workspace + "/" + session.language;
+    }
+
+    /**
+     * Determines whether nodes rendered with the specified depth are written directly.
+     */
+    static boolean isEnabled(int depth) {
+        return depth <= 0 && SpringBeansAccess.getInstance().isDirectSerialization();
+    }
+
+    /**
+     * Writes the representation of the specified node, directly if possible or using the object graph otherwise.
+     *
+     * @param serializer the serializer to use or <code>null</code> if direct serialization isn't enabled for the
+     *                   specified depth
+     */
+    static void write(DirectNodeSerializer serializer, JsonGenerator generator, Node node, Filter filter, int depth)
+            throws IOException, RepositoryException {
+        if (serializer != null) {
+            serializer.write(node);
+        } else {
+            generator.writeObject(API.getFactory().createNode(node, filter, depth));
+        }
+    }
+
+    /**
+     * Writes the representation of the specified node, without sub-elements.
+     */
+    void write(Node node) throws IOException, RepositoryException {
+        final String identifier = node.getIdentifier();
+        final String path = node.getPath();
+        final String type = node.getPrimaryNodeType().getName();
+
+        generator.writeStartObject();
+        if (outputLinks) {
+            generator.writeFieldName("_links");
+            generator.writeStartObject();
+
+            startURI(absoluteBaseURI).append(baseURI).append('/').append(Nodes.MAPPING).append('/').append(identifier);
+            writeLink(API.ABSOLUTE);
+
+            startURI(baseURI).append('/').append(Nodes.MAPPING).append('/').append(identifier);
+            writeLink(API.SELF);
+
+            startURI(baseURI).append('/').append(Paths.MAPPING).append(NODE_TYPES_PATH).append(Names.escape(type));
+            writeLink(API.TYPE);
+
+            String parentIdentifier;
+            try {
+                parentIdentifier = node.getParent().getIdentifier();
+            } catch (ItemNotFoundException e) {
+                // expected when the node is root node, specify that parent is itself
+                parentIdentifier = identifier;
+            }
+            startURI(baseURI).append('/').append(Nodes.MAPPING).append('/').append(parentIdentifier);
+            writeLink(API.PARENT);
+
+            startURI(baseURI).append('/').append(Paths.MAPPING).append(path);
+            writeLink(API.PATH);
+
+            generator.writeEndObject();
+        }
+        generator.writeStringField("name", node.getName());
+        generator.writeStringField("type", type);
+        generator.writeStringField("path", path);
+        generator.writeStringField("id", identifier);
+        generator.writeEndObject();
+    }
+
+    private StringBuilder startURI(String start) {
+        uri.setLength(0);
+        return uri.append(start);
+    }
+
+    private void writeLink(String rel) throws IOException {
+        final int length = uri.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        uri.getChars(0, length, chars, 0);
+
+        generator.writeFieldName(rel);
+        generator.writeStartObject();
+        generator.writeStringField("rel", rel);
+        generator.writeFieldName("href");
+        generator.writeString(chars, 0, length);
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.Names;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The sparse fieldset requested using the {@link API#FIELDS} and {@link API#MAX_VALUE_LENGTH} query parameters. The
+ * {@link API#FIELDS} parameter is a comma-separated list of (escaped or not) property names, which can use the
+ * <code>*</code> wildcard as in {@link Node#getProperties(String[])}, and of the names of the sub-element containers
+ * ({@link #MIXINS}, {@link #CHILDREN}, {@link #VERSIONS}) that should be output. The {@link API#MAX_VALUE_LENGTH}
+ * parameter specifies the length after which string values are truncated, invalid values being ignored. Fields also
+ * carry the {@link Include} expression specified using the {@link API#INCLUDE} query parameter, if any.
+ * <p/>
+ * Fields are applied as a {@link Filter} so that only the requested properties are output by all representations.
+ * Representations which are written straight from the repository, such as the compact ones, retrieve only the
+ * requested properties from the repository and skip the unrequested sub-element containers altogether. The default
+ * representation, rendered by the JSON generation module, can only filter properties: requesting sub-element
+ * containers or truncated values is therefore only supported by compact representations.
+ *
+ * @author Christophe Laprun
+ */
+public final class Fields {
+    public static final String MIXINS = "mixins";
+    public static final String CHILDREN = "children";
+    public static final String VERSIONS = "versions";
+
+    private final String[] propertyGlobs;
+    private final Set<String> containers;
+    private final int maxValueLength;
+    private final Include include;
+
+    Fields(Set<String> fields, int maxValueLength, Include include) {
+        this.maxValueLength = maxValueLength;
+        this.include = include;
+
+        if (fields.isEmpty()) {
+            // no restriction on output fields
+            propertyGlobs = null;
+            containers = null;
+        } else {
+            containers = new TreeSet<String>();
+            final List<String> globs = new ArrayList<String>(fields.size());
+            for (String field : fields) {
+                if (MIXINS.equals(field) || CHILDREN.equals(field) || VERSIONS.equals(field)) {
+                    containers.add(field);
+                } else {
+                    globs.add(Names.unescape(field));
+                }
+            }
+            propertyGlobs = globs.toArray(new String[globs.size()]);
+        }
+    }
+
+    /**
+     * Retrieves the fields requested by the specified request.
+     *
+     * @param context the UriInfo providing the query parameters of the request
+     * @return the requested fields or <code>null</code> if all fields should be output
+     * @throws Include.InvalidIncludeException if the requested include expression is invalid
+     * @throws UnsupportedFieldsException      if sub-element containers or truncated values are requested for the
+     *                                         default representation
+     */
+    public static Fields from(UriInfo context) {
+        final MultivaluedMap<String, String> queryParameters = context.getQueryParameters();
+        if (queryParameters == null) {
+            return null;
+        }
+
+        final Set<String> fields = new TreeSet<String>();
+        final List<String> values = queryParameters.get(API.FIELDS);
+        if (values != null) {
+            for (String value : values) {
+                for (String field : Utils.split(value)) {
+                    fields.add(field.trim());
+                }
+            }
+        }
+
+        int maxValueLength = 0;
+        final String maxValueLengthAsString = queryParameters.getFirst(API.MAX_VALUE_LENGTH);
+        if (Utils.exists(maxValueLengthAsString)) {
+            try {
+                maxValueLength = Math.max(0, Integer.parseInt(maxValueLengthAsString.trim()));
+            } catch (NumberFormatException e) {
+                // ignore invalid values
+            }
+        }
+
+        final String includeExpression = queryParameters.getFirst(API.INCLUDE);
+        final Include include = Utils.exists(includeExpression) ? Include.parse(includeExpression) : null;
+
+        if (fields.isEmpty() && maxValueLength == 0 && include == null) {
+            return null;
+        }
+
+        final Fields result = new Fields(fields, maxValueLength, include);
+        // shaped representations are always compact
+        if (include == null && !Utils.getFlagValueFrom(context, API.COMPACT)) {
+            result.checkSupportedByDefaultRepresentation();
+        }
+        return result;
+    }
+
+    /**
+     * Checks that these fields only restrict the output properties, which is all the default representation supports.
+     *
+     * @throws UnsupportedFieldsException if sub-element containers or truncated values are requested
+     */
+    void checkSupportedByDefaultRepresentation() {
+        if (containers != null && !containers.isEmpty()) {
+            throw new UnsupportedFieldsException("The " + containers + " sub-element containers can only be selected using '" + API.FIELDS
+                    + "' for compact representations");
+        }
+        if (maxValueLength > 0) {
+            throw new UnsupportedFieldsException("'" + API.MAX_VALUE_LENGTH + "' is only supported by compact representations");
+        }
+    }
+
+    /**
+     * Signals requested fields which cannot be applied to the requested representation.
+     */
+    public static class UnsupportedFieldsException extends IllegalArgumentException {
+        public UnsupportedFieldsException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Retrieves the fields applied by the specified filter, if any.
+     */
+    public static Fields of(Filter filter) {
+        return filter instanceof FieldsFilter ? ((FieldsFilter) filter).fields : null;
+    }
+
+    /**
+     * Creates a filter only accepting the requested properties, delegating to the specified one otherwise.
+     */
+    public Filter wrap(Filter filter) {
+        return new FieldsFilter(filter, this);
+    }
+
+    /**
+     * Retrieves the requested shape of node representations, if any.
+     */
+    public Include getInclude() {
+        return include;
+    }
+
+    /**
+     * Whether properties should be output at all.
+     */
+    public boolean includesProperties() {
+        return propertyGlobs == null || propertyGlobs.length > 0;
+    }
+
+    /**
+     * Whether the specified sub-element container should be output.
+     */
+    public boolean includes(String container) {
+        return containers == null || containers.contains(container);
+    }
+
+    /**
+     * Retrieves the properties of the specified node which should be output, only reading the requested ones from the
+     * repository.
+     */
+    public PropertyIterator getProperties(Node node) throws RepositoryException {
+        return propertyGlobs != null ? node.getProperties(propertyGlobs) : node.getProperties();
+    }
+
+    /**
+     * Whether the property with the specified name was requested.
+     */
+    public boolean accept(String propertyName) {
+        if (propertyGlobs == null) {
+            return true;
+        }
+
+        for (String glob : propertyGlobs) {
+            if (matches(glob, propertyName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Truncates the specified string value to the requested maximum value length, if any.
+     */
+    public String truncate(String value) {
+        return maxValueLength > 0 && value != null && value.length() > maxValueLength ? value.substring(0, maxValueLength) : value;
+    }
+
+    /**
+     * Matches the specified name against the specified glob, <code>*</code> matching any sequence of characters.
+     */
+    static boolean matches(String glob, String name) {
+        int star = glob.indexOf('*');
+        if (star < 0) {
+            return glob.equals(name);
+        }
+
+        // the start of the name must match what precedes the first star
+        if (!name.startsWith(glob.substring(0, star))) {
+            return false;
+        }
+
+        int position = star;
+        while (true) {
+            final int next = glob.indexOf('*', star + 1);
+            if (next < 0) {
+                // the end of the name must match what follows the last star
+                final String end = glob.substring(star + 1);
+                return name.length() - end.length() >= position && name.endsWith(end);
+            }
+
+            final String part = glob.substring(star + 1, next);
+            final int found = name.indexOf(part, position);
+            if (found < 0) {
+                return false;
+            }
+            position = found + part.length();
+            star = next;
+        }
+    }
+
+    private static class FieldsFilter implements Filter {
+        private final Filter delegate;
+        private final Fields fields;
+
+        private FieldsFilter(Filter delegate, Fields fields) {
+            this.delegate = delegate;
+            this.fields = fields;
+        }
+
+        @Override
+        public boolean acceptChild(Node child) {
+            return delegate.acceptChild(child);
+        }
+
+        @Override
+        public boolean acceptProperty(Property property) {
+            try {
+                return fields.accept(property.getName()) && delegate.acceptProperty(property);
+            } catch (RepositoryException e) {
+                throw new RuntimeException("Couldn't access name of " + property, e);
+            }
+        }
+    }
+}
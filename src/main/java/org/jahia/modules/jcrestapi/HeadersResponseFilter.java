@@ -60,9 +60,11 @@ public class HeadersResponseFilter implements ContainerResponseFilter {
             IOException {
         final MultivaluedMap<String, Object> headers = responseContext.getHeaders();
         headers.add("Access-Control-Allow-Origin", "*");
-        headers.add("Access-Control-Allow-Headers", "origin, content-type, accept, authorization");
+        headers.add("Access-Control-Allow-Headers", "origin, content-type, content-encoding, accept, authorization, " + API.REQUEST_TIMEOUT_HEADER);
         headers.add("Access-Control-Allow-Credentials", "true");
         headers.add("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS, HEAD");
+        headers.add("Access-Control-Expose-Headers", API.CONTINUATION_TOKEN_HEADER + ", " + API.TOTAL_COUNT_ESTIMATE_HEADER + ", "
+                + API.RESULT_TRUNCATED_HEADER);
 
         // tell the client to not cache the responses
         headers.add(HttpHeaders.CACHE_CONTROL, "no-cache");
@@ -0,0 +1,268 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.json.Names;
+
+import javax.jcr.Node;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The shape of the node representations requested using the {@link API#INCLUDE} query parameter, allowing clients to
+ * retrieve exactly the sub-elements they need, as deep as they need them, in a single request. An include expression is
+ * a comma-separated list of the sub-elements to output for each node:
+ * <ul>
+ * <li><code>properties</code> outputs all the properties of the node while <code>properties(name1,name2)</code> only
+ * outputs (and retrieves) the specified properties, names being escaped or not and possibly using the <code>*</code>
+ * wildcard,</li>
+ * <li><code>mixins</code> outputs the names of the mixins of the node,</li>
+ * <li><code>children</code> outputs the children of the node without their sub-elements while
+ * <code>children(expression)</code> outputs them according to the nested include expression.</li>
+ * </ul>
+ * For example, <code>children(properties(jcr:title),children(properties(image)))</code> outputs the titles of the
+ * children of the requested node along with the <code>image</code> property of its grand-children. Shaped
+ * representations are written in {@link CompactNodeSerializer compact} form.
+ *
+ * @author Christophe Laprun
+ */
+public final class Include {
+    private static final String PROPERTIES = "properties";
+
+    /**
+     * The shape of nodes output without any sub-element.
+     */
+    static final Include NONE = new Include(false, null, false, null);
+
+    private final boolean properties;
+    private final String[] propertyGlobs;
+    private final boolean mixins;
+    private final Include children;
+
+    Include(boolean properties, String[] propertyGlobs, boolean mixins, Include children) {
+        this.properties = properties;
+        this.propertyGlobs = propertyGlobs;
+        this.mixins = mixins;
+        this.children = children;
+    }
+
+    /**
+     * Computes the shape of nodes rendered with the specified depth and fields, as output when no include expression
+     * is specified.
+     *
+     * @param depth  the depth at which nodes are rendered
+     * @param fields the requested fields, <code>null</code> if all fields should be output
+     */
+    static Include of(int depth, Fields fields) {
+        if (depth <= 0) {
+            return NONE;
+        }
+
+        final Include children = fields == null || fields.includes(Fields.CHILDREN) ? of(depth - 1, fields) : null;
+        return new Include(fields == null || fields.includesProperties(), null, fields == null || fields.includes(Fields.MIXINS), children);
+    }
+
+    /**
+     * Parses the specified include expression, children being nested at most as deep as request bodies, as configured
+     * using the <code>jahia.find.maxBodyDepth</code> property.
+     *
+     * @throws InvalidIncludeException if the expression is invalid or too deeply nested
+     */
+    public static Include parse(String expression) {
+        return parse(expression, SpringBeansAccess.getInstance().getMaxBodyDepth());
+    }
+
+    /**
+     * Parses the specified include expression.
+     *
+     * @param maxDepth the maximum number of nested children levels, <code>0</code> or less if unbounded
+     * @throws InvalidIncludeException if the expression is invalid or nested deeper than <code>maxDepth</code>
+     */
+    static Include parse(String expression, int maxDepth) {
+        final Parser parser = new Parser(expression, maxDepth);
+        final Include include = parser.parseElements();
+        parser.skipWhitespace();
+        if (parser.position < expression.length()) {
+            throw parser.error("unexpected '" + expression.charAt(parser.position) + "'");
+        }
+        return include;
+    }
+
+    public boolean includesProperties() {
+        return properties;
+    }
+
+    public boolean includesMixins() {
+        return mixins;
+    }
+
+    /**
+     * Retrieves the shape of the children to output or <code>null</code> if children shouldn't be output.
+     */
+    public Include getChildren() {
+        return children;
+    }
+
+    /**
+     * Retrieves the properties of the specified node which should be output, only reading the requested ones from the
+     * repository.
+     *
+     * @param fields the requested fields, used if this include doesn't restrict properties, <code>null</code> if all
+     *               fields should be output
+     */
+    public PropertyIterator getProperties(Node node, Fields fields) throws RepositoryException {
+        if (propertyGlobs != null) {
+            return node.getProperties(propertyGlobs);
+        }
+        return fields != null ? fields.getProperties(node) : node.getProperties();
+    }
+
+    /**
+     * Signals an invalid include expression.
+     */
+    public static class InvalidIncludeException extends IllegalArgumentException {
+        public InvalidIncludeException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Parser {
+        private final String expression;
+        private final int maxDepth;
+        private int position;
+        private int depth;
+
+        private Parser(String expression, int maxDepth) {
+            this.expression = expression;
+            this.maxDepth = maxDepth;
+        }
+
+        private Include parseElements() {
+            boolean properties = false;
+            String[] propertyGlobs = null;
+            boolean mixins = false;
+            Include children = null;
+
+            do {
+                final String element = parseName();
+                if (PROPERTIES.equals(element)) {
+                    properties = true;
+                    if (consume('(')) {
+                        propertyGlobs = parseNames();
+                        expect(')');
+                    }
+                } else if (Fields.MIXINS.equals(element)) {
+                    mixins = true;
+                } else if (Fields.CHILDREN.equals(element)) {
+                    if (consume('(')) {
+                        if (maxDepth > 0 && depth == maxDepth) {
+                            throw error("children are nested deeper than the maximum allowed depth of " + maxDepth);
+                        }
+                        depth++;
+                        children = parseElements();
+                        depth--;
+                        expect(')');
+                    } else {
+                        children = NONE;
+                    }
+                } else {
+                    throw error("unknown sub-element '" + element + "'");
+                }
+            } while (consume(','));
+
+            return new Include(properties, propertyGlobs, mixins, children);
+        }
+
+        private String[] parseNames() {
+            final List<String> names = new ArrayList<String>();
+            do {
+                names.add(Names.unescape(parseName()));
+            } while (consume(','));
+            return names.toArray(new String[names.size()]);
+        }
+
+        private String parseName() {
+            skipWhitespace();
+            final int start = position;
+            while (position < expression.length()) {
+                final char c = expression.charAt(position);
+                if (c == ',' || c == '(' || c == ')' || Character.isWhitespace(c)) {
+                    break;
+                }
+                position++;
+            }
+            if (position == start) {
+                throw error("expected a name");
+            }
+            return expression.substring(start, position);
+        }
+
+        private boolean consume(char expected) {
+            skipWhitespace();
+            if (position < expression.length() && expression.charAt(position) == expected) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char expected) {
+            if (!consume(expected)) {
+                throw error("expected '" + expected + "'");
+            }
+        }
+
+        private void skipWhitespace() {
+            while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+                position++;
+            }
+        }
+
+        private InvalidIncludeException error(String message) {
+            return new InvalidIncludeException("Invalid " + API.INCLUDE + " expression '" + expression + "' at position " + position + ": " + message);
+        }
+    }
+}
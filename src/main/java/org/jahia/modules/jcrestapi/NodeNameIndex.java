@@ -0,0 +1,509 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.query.Query;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps, for each configured node type, an in-memory index of the local names of the nodes of that type so that
+ * <code>nameContains</code> and <code>namePrefix</code> lookups on the types endpoint don't need to be answered by
+ * queries scanning all the nodes of the type. Names are indexed by trigram for substring lookups and kept sorted for
+ * prefix lookups. Indexes are built in the background, per workspace, and kept up to date using repository observation;
+ * lookups fall back to queries while an index is being built or if the number of nodes of its type exceeds the
+ * configured maximum.
+ * <p/>
+ * Since they are computed using a system session, lookup results are only candidates: nodes must then be retrieved
+ * using the session of the current user and their names checked again using {@link #matches(String, Collection, String)}.
+ *
+ * @author Christophe Laprun
+ */
+public class NodeNameIndex implements RepositoryObserver.ChangeListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NodeNameIndex.class);
+
+    static final String[] STARTUP_WORKSPACES = {"default", "live"};
+    static final int GRAM_LENGTH = 3;
+
+    private final Set<String> nodeTypes;
+    private final int maxNodes;
+    private final Map<String, TypeIndex> indexes = new ConcurrentHashMap<String, TypeIndex>();
+    private final ExecutorService executor;
+
+    NodeNameIndex(Set<String> nodeTypes, int maxNodes) {
+        this.nodeTypes = nodeTypes;
+        this.maxNodes = maxNodes;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "jcrestapi-name-index");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // Initialization on demand holder idiom: thread-safe singleton initialization
+    private static class Holder {
+        static final NodeNameIndex INSTANCE = new NodeNameIndex(SpringBeansAccess.getInstance().getNameIndexNodeTypes(),
+                SpringBeansAccess.getInstance().getNameIndexMaxNodes());
+
+        private Holder() {
+        }
+    }
+
+    public static NodeNameIndex getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Starts building the indexes of the configured node types for the main workspaces.
+     */
+    public void start() {
+        for (String workspace : STARTUP_WORKSPACES) {
+            for (String nodeType : nodeTypes) {
+                getIndex(workspace, nodeType);
+            }
+        }
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+        synchronized (indexes) {
+            RepositoryObserver.getInstance().removeListener(this);
+            indexes.clear();
+        }
+    }
+
+    /**
+     * Looks up the identifiers of the nodes of the specified type which local name contains all the specified terms and
+     * starts with the specified prefix, sorted by name.
+     *
+     * @param workspace  the workspace in which nodes are looked up
+     * @param nodeType   the node type of the nodes to look up
+     * @param terms      the terms the local names of the nodes must contain, if any
+     * @param prefix     the prefix the local names of the nodes must start with, if any
+     * @param descending whether identifiers should be sorted in descending order of the node names
+     * @return the identifiers of the candidate nodes or <code>null</code> if the specified node type isn't indexed or
+     * if its index isn't available
+     */
+    public List<String> find(String workspace, String nodeType, Collection<String> terms, String prefix, boolean descending) {
+        if (!nodeTypes.contains(nodeType)) {
+            return null;
+        }
+
+        final TypeIndex index = getIndex(workspace, nodeType);
+        return index.isReady() ? index.find(terms, prefix, descending) : null;
+    }
+
+    private TypeIndex getIndex(final String workspace, final String nodeType) {
+        final String key = workspace + '\n' + nodeType;
+        TypeIndex index = indexes.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        synchronized (indexes) {
+            index = indexes.get(key);
+            if (index == null) {
+                // observe before building so that changes happening while the index is built aren't missed
+                if (indexes.isEmpty()) {
+                    RepositoryObserver.getInstance().addListener(this);
+                }
+                index = new TypeIndex(maxNodes);
+                indexes.put(key, index);
+
+                if (!RepositoryObserver.getInstance().observe(workspace)) {
+                    index.disable();
+                    return index;
+                }
+
+                final TypeIndex built = index;
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            build(built, workspace, nodeType);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // we're being stopped
+                    index.disable();
+                }
+            }
+            return index;
+        }
+    }
+
+    private static void build(TypeIndex index, String workspace, String nodeType) {
+        Session session = null;
+        try {
+            session = RepositoryObserver.login(workspace);
+            final Query query = session.getWorkspace().getQueryManager().createQuery("SELECT * FROM [" + nodeType + "]", Query.JCR_SQL2);
+            final NodeIterator nodes = query.execute().getNodes();
+            while (nodes.hasNext()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    index.disable();
+                    return;
+                }
+                final Node node = nodes.nextNode();
+                if (!index.initialize(node.getIdentifier(), getLocalName(node))) {
+                    LOGGER.warn("Too many " + nodeType + " nodes in workspace " + workspace + ", name lookups will use queries");
+                    return;
+                }
+            }
+            index.ready();
+            LOGGER.info("Indexed names of " + index.size() + " " + nodeType + " nodes in workspace " + workspace);
+        } catch (RepositoryException e) {
+            LOGGER.warn("Couldn't index names of " + nodeType + " nodes in workspace " + workspace + ", name lookups will use queries", e);
+            index.disable();
+        } finally {
+            if (session != null && session.isLive()) {
+                session.logout();
+            }
+        }
+    }
+
+    @Override
+    public void onChanges(String workspace, List<RepositoryObserver.Change> changes) {
+        for (String nodeType : nodeTypes) {
+            final TypeIndex index = indexes.get(workspace + '\n' + nodeType);
+            if (index == null) {
+                continue;
+            }
+
+            for (RepositoryObserver.Change change : changes) {
+                final int type = change.getType();
+                if (type == Event.NODE_REMOVED) {
+                    index.remove(change.getIdentifier());
+                } else if (type == Event.NODE_ADDED || type == Event.NODE_MOVED || isTypeChange(change)) {
+                    final Node node = change.getNode();
+                    try {
+                        if (node != null && node.isNodeType(nodeType)) {
+                            index.put(node.getIdentifier(), getLocalName(node));
+                        } else {
+                            index.remove(change.getIdentifier());
+                        }
+                    } catch (RepositoryException e) {
+                        LOGGER.debug("Couldn't update name index for " + change, e);
+                        index.remove(change.getIdentifier());
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isTypeChange(RepositoryObserver.Change change) {
+        final String path = change.getPath();
+        return change.isPropertyChange() && (path.endsWith("/jcr:mixinTypes") || path.endsWith("/jcr:primaryType"));
+    }
+
+    static String getLocalName(Node node) throws RepositoryException {
+        final String name = node.getName();
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    /**
+     * Determines whether the specified local name contains all the specified terms and starts with the specified
+     * prefix, if any, using the same case-sensitive semantics as the <code>LIKE</code> query constraints it replaces.
+     */
+    static boolean matches(String localName, Collection<String> terms, String prefix) {
+        if (prefix != null && !localName.startsWith(prefix)) {
+            return false;
+        }
+        if (terms != null) {
+            for (String term : terms) {
+                if (!localName.contains(term)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The names of the nodes of a given type in a given workspace.
+     */
+    static class TypeIndex {
+        private final int maxNodes;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, String> names = new HashMap<String, String>();
+        private final TreeMap<String, Set<String>> byName = new TreeMap<String, Set<String>>();
+        private final Map<String, Set<String>> byGram = new HashMap<String, Set<String>>();
+        // identifiers of the nodes removed while the index was being built, which must not be added by the build
+        private final Set<String> removedWhileBuilding = new HashSet<String>();
+        private volatile boolean ready;
+        private volatile boolean disabled;
+
+        TypeIndex(int maxNodes) {
+            this.maxNodes = maxNodes;
+        }
+
+        boolean isReady() {
+            return ready && !disabled;
+        }
+
+        void ready() {
+            lock.writeLock().lock();
+            try {
+                removedWhileBuilding.clear();
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void disable() {
+            lock.writeLock().lock();
+            try {
+                disabled = true;
+                names.clear();
+                byName.clear();
+                byGram.clear();
+                removedWhileBuilding.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return names.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Adds a node found while building the index, unless it was removed in the meantime.
+         *
+         * @return <code>false</code> if the index was disabled because it would hold too many nodes
+         */
+        boolean initialize(String identifier, String localName) {
+            lock.writeLock().lock();
+            try {
+                if (!removedWhileBuilding.contains(identifier) && !names.containsKey(identifier)) {
+                    doPut(identifier, localName);
+                }
+                return !disabled;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void put(String identifier, String localName) {
+            lock.writeLock().lock();
+            try {
+                removedWhileBuilding.remove(identifier);
+                doPut(identifier, localName);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(String identifier) {
+            if (identifier == null) {
+                return;
+            }
+
+            lock.writeLock().lock();
+            try {
+                if (!ready && !disabled) {
+                    removedWhileBuilding.add(identifier);
+                }
+                doRemove(identifier);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void doPut(String identifier, String localName) {
+            if (disabled) {
+                return;
+            }
+
+            final String previous = names.get(identifier);
+            if (localName.equals(previous)) {
+                return;
+            }
+            if (previous != null) {
+                doRemove(identifier);
+            } else if (names.size() >= maxNodes) {
+                disable();
+                return;
+            }
+
+            names.put(identifier, localName);
+            add(byName, localName, identifier);
+            for (String gram : getGrams(localName)) {
+                add(byGram, gram, identifier);
+            }
+        }
+
+        private void doRemove(String identifier) {
+            final String localName = names.remove(identifier);
+            if (localName != null) {
+                remove(byName, localName, identifier);
+                for (String gram : getGrams(localName)) {
+                    remove(byGram, gram, identifier);
+                }
+            }
+        }
+
+        private static void add(Map<String, Set<String>> map, String key, String identifier) {
+            Set<String> identifiers = map.get(key);
+            if (identifiers == null) {
+                identifiers = new HashSet<String>(4);
+                map.put(key, identifiers);
+            }
+            identifiers.add(identifier);
+        }
+
+        private static void remove(Map<String, Set<String>> map, String key, String identifier) {
+            final Set<String> identifiers = map.get(key);
+            if (identifiers != null) {
+                identifiers.remove(identifier);
+                if (identifiers.isEmpty()) {
+                    map.remove(key);
+                }
+            }
+        }
+
+        List<String> find(Collection<String> terms, String prefix, boolean descending) {
+            lock.readLock().lock();
+            try {
+                final SortedMap<String, Set<String>> candidates;
+                if (prefix != null) {
+                    candidates = byName.subMap(prefix, prefix + Character.MAX_VALUE);
+                } else {
+                    candidates = byName;
+                }
+
+                // narrow down candidates using the rarest trigram of the specified terms, if any
+                final Set<String> gramCandidates = getGramCandidates(terms);
+                final List<String> result = new ArrayList<String>();
+                if (gramCandidates != null) {
+                    final SortedMap<String, List<String>> sorted = new TreeMap<String, List<String>>();
+                    for (String identifier : gramCandidates) {
+                        final String localName = names.get(identifier);
+                        if (matches(localName, terms, prefix)) {
+                            List<String> identifiers = sorted.get(localName);
+                            if (identifiers == null) {
+                                identifiers = new ArrayList<String>(1);
+                                sorted.put(localName, identifiers);
+                            }
+                            identifiers.add(identifier);
+                        }
+                    }
+                    for (List<String> identifiers : sorted.values()) {
+                        Collections.sort(identifiers);
+                        result.addAll(identifiers);
+                    }
+                } else {
+                    for (Map.Entry<String, Set<String>> entry : candidates.entrySet()) {
+                        if (matches(entry.getKey(), terms, null)) {
+                            final List<String> identifiers = new ArrayList<String>(entry.getValue());
+                            Collections.sort(identifiers);
+                            result.addAll(identifiers);
+                        }
+                    }
+                }
+
+                if (descending) {
+                    Collections.reverse(result);
+                }
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private Set<String> getGramCandidates(Collection<String> terms) {
+            if (terms == null) {
+                return null;
+            }
+
+            Set<String> rarest = null;
+            for (String term : terms) {
+                for (String gram : getGrams(term)) {
+                    final Set<String> identifiers = byGram.get(gram);
+                    if (identifiers == null) {
+                        return Collections.emptySet();
+                    }
+                    if (rarest == null || identifiers.size() < rarest.size()) {
+                        rarest = identifiers;
+                    }
+                }
+            }
+            return rarest;
+        }
+
+        static Set<String> getGrams(String value) {
+            if (value.length() < GRAM_LENGTH) {
+                return Collections.emptySet();
+            }
+
+            final Set<String> grams = new HashSet<String>(value.length());
+            for (int i = 0; i + GRAM_LENGTH <= value.length(); i++) {
+                grams.add(value.substring(i, i + GRAM_LENGTH));
+            }
+            return grams;
+        }
+    }
+}
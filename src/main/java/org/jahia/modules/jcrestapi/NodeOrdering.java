@@ -0,0 +1,229 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Orders nodes by local name or by the value of a single-valued property on the server instead of relying on the
+ * repository to order query results. When only the first results are needed, they are selected using a bounded heap
+ * as nodes are retrieved so that only that many nodes are kept in memory. Nodes without the ordering property sort
+ * last, ties are broken using node identifiers so that the order is stable across pages.
+ *
+ * @author Christophe Laprun
+ */
+final class NodeOrdering implements Comparator<NodeOrdering.Entry> {
+    static final String ASCENDING = "asc";
+    static final String DESCENDING = "desc";
+
+    private final String property;
+    private final boolean descending;
+
+    private NodeOrdering(String property, boolean descending) {
+        this.property = property;
+        this.descending = descending;
+    }
+
+    /**
+     * Parses the specified <code>orderBy</code> value: <code>asc</code> or <code>desc</code> to order by node name, a
+     * property name to order by that property in ascending order or a property name prefixed by <code>-</code> to order
+     * by that property in descending order.
+     *
+     * @param orderBy the value to parse
+     * @return the parsed ordering or <code>null</code> if no ordering was specified
+     */
+    static NodeOrdering parse(String orderBy) {
+        if (!Utils.exists(orderBy)) {
+            return null;
+        }
+
+        orderBy = orderBy.trim();
+        if (ASCENDING.equalsIgnoreCase(orderBy)) {
+            return new NodeOrdering(null, false);
+        } else if (DESCENDING.equalsIgnoreCase(orderBy)) {
+            return new NodeOrdering(null, true);
+        } else if (orderBy.startsWith("-")) {
+            final String property = orderBy.substring(1).trim();
+            if (property.isEmpty()) {
+                throw new IllegalArgumentException("Missing property name in orderBy '" + orderBy + "'");
+            }
+            return new NodeOrdering(property, true);
+        } else {
+            return new NodeOrdering(orderBy, false);
+        }
+    }
+
+    boolean isByName() {
+        return property == null;
+    }
+
+    boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * Orders the specified nodes, only keeping the first ones if a maximum number of results is specified.
+     *
+     * @param nodes      the nodes to order
+     * @param maxResults the number of nodes to keep, all of them being kept if not strictly positive
+     * @return the ordered nodes
+     * @throws Deadline.DeadlineExceededException if the deadline of the current request passed before all nodes could
+     *                                            be retrieved
+     */
+    List<Node> sort(Iterator<Node> nodes, long maxResults) throws RepositoryException {
+        final List<Entry> entries;
+        if (maxResults > 0 && maxResults < Integer.MAX_VALUE) {
+            // keep the maxResults first entries in a heap which head is the last of them
+            final int size = (int) maxResults;
+            final PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.min(size, 1024), Collections.reverseOrder(this));
+            while (nodes.hasNext()) {
+                Deadline.check();
+                final Entry entry = createEntry(nodes.next());
+                if (heap.size() < size) {
+                    heap.add(entry);
+                } else if (compare(entry, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(entry);
+                }
+            }
+            entries = new ArrayList<Entry>(heap);
+        } else {
+            entries = new ArrayList<Entry>();
+            while (nodes.hasNext()) {
+                Deadline.check();
+                entries.add(createEntry(nodes.next()));
+            }
+        }
+
+        Collections.sort(entries, this);
+        final List<Node> result = new ArrayList<Node>(entries.size());
+        for (Entry entry : entries) {
+            result.add(entry.node);
+        }
+        return result;
+    }
+
+    Entry createEntry(Node node) throws RepositoryException {
+        return new Entry(node, node.getIdentifier(), getKey(node));
+    }
+
+    private Comparable getKey(Node node) throws RepositoryException {
+        if (property == null) {
+            return NodeNameIndex.getLocalName(node);
+        }
+
+        if (!node.hasProperty(property)) {
+            return null;
+        }
+        final Property nodeProperty = node.getProperty(property);
+        if (nodeProperty.isMultiple()) {
+            return null;
+        }
+
+        final Value value = nodeProperty.getValue();
+        switch (value.getType()) {
+            case PropertyType.LONG:
+            case PropertyType.DOUBLE:
+            case PropertyType.DECIMAL:
+                return value.getDouble();
+            case PropertyType.DATE:
+                return value.getDate().getTimeInMillis();
+            case PropertyType.BOOLEAN:
+                return value.getBoolean();
+            case PropertyType.BINARY:
+                return null;
+            default:
+                return value.getString();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int compare(Entry first, Entry second) {
+        final Comparable firstKey = first.key;
+        final Comparable secondKey = second.key;
+
+        // nodes without key sort last, whatever the direction
+        if (firstKey == null || secondKey == null) {
+            if (firstKey != secondKey) {
+                return firstKey == null ? 1 : -1;
+            }
+            return first.identifier.compareTo(second.identifier);
+        }
+
+        int result;
+        if (firstKey.getClass() == secondKey.getClass()) {
+            result = firstKey.compareTo(secondKey);
+        } else {
+            // values of different types are grouped by type
+            result = firstKey.getClass().getName().compareTo(secondKey.getClass().getName());
+        }
+        if (descending) {
+            result = -result;
+        }
+        return result != 0 ? result : first.identifier.compareTo(second.identifier);
+    }
+
+    static final class Entry {
+        private final Node node;
+        private final String identifier;
+        private final Comparable key;
+
+        private Entry(Node node, String identifier, Comparable key) {
+            this.node = node;
+            this.identifier = identifier;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.Property;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.ValueFactory;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.NodeTypeIterator;
+import javax.jcr.nodetype.NodeTypeManager;
+import javax.jcr.query.Query;
+import javax.jcr.query.qom.*;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Turns the node type filters which used to only be applied on query results (excluded node types and accepted
+ * children node types) into query constraints so that the repository takes care of the filtering and pages aren't
+ * shortened by results being filtered out after the fact.
+ * <p/>
+ * Excluded node types are matched against the primary type of nodes, as is done by {@link API#NODE_FILTER}. Accepted
+ * node types match nodes which primary type or one of its mixins is the accepted type or one of its sub-types, as is
+ * done by {@link javax.jcr.Node#isNodeType(String)}. Since this requires enumerating the sub-types of accepted types, accepted
+ * types with too many sub-types are not turned into constraints and only filtered afterwards. Filters are still applied
+ * on results in any case. The sub-types of accepted types are cached and the cache is cleared when modules, which might
+ * register or unregister node types, are deployed or undeployed, see {@link NodeTypeRegistrations}. Since node types
+ * can also be registered without a module context going through it (e.g. by modules only providing definitions), cached
+ * sub-types are only used as long as the number of registered node types didn't change and for at most
+ * {@link #SUB_TYPES_TIME_TO_LIVE} milliseconds, which bounds how long redefinitions keeping that number go unnoticed.
+ *
+ * @author Christophe Laprun
+ */
+final class NodeTypeConstraints {
+    /**
+     * The maximum number of node types we accept to enumerate in a constraint for accepted node types.
+     */
+    static final int MAX_ACCEPTED_TYPES = 64;
+
+    /**
+     * The maximum time, in milliseconds, during which cached sub-types are used.
+     */
+    static final long SUB_TYPES_TIME_TO_LIVE = 60 * 1000L;
+
+    // marks node types with more than MAX_ACCEPTED_TYPES sub-types, compared by identity
+    private static final Set<String> TOO_MANY = Collections.unmodifiableSet(new TreeSet<String>());
+    private static final Map<String, SubTypes> SUB_TYPES = new ConcurrentHashMap<String, SubTypes>();
+    // incremented when the cache is cleared so that sub-types computed concurrently aren't cached
+    private static long generation;
+
+    private NodeTypeConstraints() {
+    }
+
+    /**
+     * Forgets the cached sub-types, to be called when node types are registered or unregistered.
+     */
+    static void clear() {
+        synchronized (SUB_TYPES) {
+            generation++;
+            SUB_TYPES.clear();
+        }
+    }
+
+    /**
+     * Adds the node type constraints to the specified query if it's a single-selector Query Object Model query.
+     *
+     * @return the query to perform, which is a new query if constraints were added. Bind variables values, if any,
+     * should be bound on the returned query.
+     */
+    static Query apply(Query query, QueryObjectModelFactory factory, ValueFactory valueFactory, NodeTypeManager nodeTypeManager,
+                       Set<String> excludedNodeTypes, Set<String> acceptedNodeTypes) throws RepositoryException {
+        if (!(query instanceof QueryObjectModel)) {
+            return query;
+        }
+
+        final QueryObjectModel qom = (QueryObjectModel) query;
+        if (!(qom.getSource() instanceof Selector)) {
+            return query;
+        }
+
+        final String selectorName = ((Selector) qom.getSource()).getSelectorName();
+        final Constraint constraint = create(selectorName, factory, valueFactory, nodeTypeManager, excludedNodeTypes, acceptedNodeTypes);
+        if (constraint == null) {
+            return query;
+        }
+
+        final Constraint original = qom.getConstraint();
+        return factory.createQuery(qom.getSource(), original != null ? factory.and(original, constraint) : constraint, qom.getOrderings(),
+                qom.getColumns());
+    }
+
+    /**
+     * Creates the constraint implementing the specified node type filters for the specified selector.
+     *
+     * @return the constraint or <code>null</code> if there is nothing to constrain
+     */
+    static Constraint create(String selectorName, QueryObjectModelFactory factory, ValueFactory valueFactory, NodeTypeManager nodeTypeManager,
+                             Set<String> excludedNodeTypes, Set<String> acceptedNodeTypes) throws RepositoryException {
+        Constraint constraint = null;
+
+        for (String excluded : new TreeSet<String>(excludedNodeTypes)) {
+            final Comparison notExcluded = factory.comparison(factory.propertyValue(selectorName, Property.JCR_PRIMARY_TYPE),
+                    QueryObjectModelFactory.JCR_OPERATOR_NOT_EQUAL_TO, factory.literal(valueFactory.createValue(excluded, PropertyType.NAME)));
+            constraint = constraint != null ? factory.and(constraint, notExcluded) : notExcluded;
+        }
+
+        final Set<String> types = getSubTypes(nodeTypeManager, acceptedNodeTypes);
+        if (!types.isEmpty()) {
+            Constraint accepted = null;
+            for (String type : types) {
+                final StaticOperand name = factory.literal(valueFactory.createValue(type, PropertyType.NAME));
+                final Constraint isType = factory.or(
+                        factory.comparison(factory.propertyValue(selectorName, Property.JCR_PRIMARY_TYPE), QueryObjectModelFactory.JCR_OPERATOR_EQUAL_TO, name),
+                        factory.comparison(factory.propertyValue(selectorName, Property.JCR_MIXIN_TYPES), QueryObjectModelFactory.JCR_OPERATOR_EQUAL_TO, name));
+                accepted = accepted != null ? factory.or(accepted, isType) : isType;
+            }
+            constraint = constraint != null ? factory.and(constraint, accepted) : accepted;
+        }
+
+        return constraint;
+    }
+
+    /**
+     * Retrieves the names of the specified node types and of all their sub-types.
+     *
+     * @return the names of the matching node types or an empty set if there are no types to match or too many of them
+     */
+    static Set<String> getSubTypes(NodeTypeManager nodeTypeManager, Set<String> nodeTypes) throws RepositoryException {
+        if (nodeTypes == null || nodeTypes.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        // registering node types changes their number, which is cheap to retrieve, unlike enumerating them
+        final NodeTypeIterator allTypes = nodeTypeManager.getAllNodeTypes();
+        final long registeredTypes = allTypes.getSize();
+        final long now = System.currentTimeMillis();
+
+        final Set<String> result = new TreeSet<String>();
+        Map<String, Set<String>> missing = null;
+        for (String nodeType : nodeTypes) {
+            final SubTypes cached = SUB_TYPES.get(nodeType);
+            if (cached == null || !cached.isValid(registeredTypes, now)) {
+                if (missing == null) {
+                    missing = new HashMap<String, Set<String>>();
+                }
+                missing.put(nodeType, new TreeSet<String>());
+            } else if (!add(result, cached.names)) {
+                return Collections.emptySet();
+            }
+        }
+
+        if (missing != null) {
+            final long expectedGeneration;
+            synchronized (SUB_TYPES) {
+                expectedGeneration = generation;
+            }
+
+            // the sub-types of all the types which aren't cached yet are computed in a single pass over all node types
+            while (allTypes.hasNext()) {
+                final NodeType type = allTypes.nextNodeType();
+                for (Map.Entry<String, Set<String>> entry : missing.entrySet()) {
+                    final Set<String> subTypes = entry.getValue();
+                    if (subTypes != TOO_MANY && type.isNodeType(entry.getKey())) {
+                        subTypes.add(type.getName());
+                        if (subTypes.size() > MAX_ACCEPTED_TYPES) {
+                            entry.setValue(TOO_MANY);
+                        }
+                    }
+                }
+            }
+
+            synchronized (SUB_TYPES) {
+                if (generation == expectedGeneration) {
+                    for (Map.Entry<String, Set<String>> entry : missing.entrySet()) {
+                        final Set<String> subTypes = entry.getValue();
+                        SUB_TYPES.put(entry.getKey(), new SubTypes(subTypes == TOO_MANY ? TOO_MANY : Collections.unmodifiableSet(subTypes),
+                                registeredTypes, now + SUB_TYPES_TIME_TO_LIVE));
+                    }
+                }
+            }
+
+            for (Set<String> subTypes : missing.values()) {
+                if (!add(result, subTypes)) {
+                    return Collections.emptySet();
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean add(Set<String> result, Set<String> subTypes) {
+        if (subTypes == TOO_MANY) {
+            return false;
+        }
+        result.addAll(subTypes);
+        return result.size() <= MAX_ACCEPTED_TYPES;
+    }
+
+    /**
+     * The cached sub-types of a node type, along with the number of node types registered when they were computed.
+     */
+    private static final class SubTypes {
+        private final Set<String> names;
+        private final long registeredTypes;
+        private final long expiration;
+
+        private SubTypes(Set<String> names, long registeredTypes, long expiration) {
+            this.names = names;
+            this.registeredTypes = registeredTypes;
+            this.expiration = expiration;
+        }
+
+        /**
+         * Determines whether these sub-types can still be used, i.e. if they didn't expire and the number of registered
+         * node types, when known, didn't change since they were computed.
+         */
+        private boolean isValid(long registeredTypes, long now) {
+            return expiration >= now && (registeredTypes < 0 || registeredTypes == this.registeredTypes);
+        }
+    }
+}
@@ -53,6 +53,7 @@ import javax.jcr.Repository;
 import javax.jcr.Session;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.UriInfo;
 import java.util.List;
@@ -60,7 +61,7 @@ import java.util.List;
 /**
  * @author Christophe Laprun
  */
-@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
 public class Nodes extends API {
 
     static final String MAPPING = "nodes";
@@ -70,16 +71,16 @@ public class Nodes extends API {
     }
 
     @GET
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_NDJSON})
     /**
      * Needed to get URI without trailing / to work :(
      */
-    public Object getRootNode(@Context UriInfo context) {
-        return perform(workspace, language, "", "", "", context, READ, null);
+    public Object getRootNode(@Context UriInfo context, @Context HttpHeaders headers) {
+        return perform(workspace, language, "", "", "", context, headers, READ, null, NodeAccessor.BY_ID);
     }
 
     @GET
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_NDJSON})
     @Path("/{id: [^/]*}{subElementType: (/(" + JSONConstants.CHILDREN +
             "|" + JSONConstants.MIXINS +
             "|" + JSONConstants.PROPERTIES +
@@ -88,12 +89,13 @@ public class Nodes extends API {
     public Object getNodeById(@PathParam("id") String id,
                               @PathParam("subElementType") String subElementType,
                               @PathParam("subElement") String subElement,
-                              @Context UriInfo context) {
-        return perform(workspace, language, id, subElementType, subElement, context, READ, null);
+                              @Context UriInfo context,
+                              @Context HttpHeaders headers) {
+        return perform(workspace, language, id, subElementType, subElement, context, headers, READ, null, NodeAccessor.BY_ID);
     }
 
     @PUT
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
     @Path("/{id: [^/]*}{subElementType: (/(" + JSONConstants.CHILDREN +
             "|" + JSONConstants.MIXINS +
             "|" + JSONConstants.PROPERTIES +
@@ -112,7 +114,7 @@ public class Nodes extends API {
     @POST
     @Path("/{id: [^/]*}/" + JSONConstants.CHILDREN)
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
     public Object createAutomaticallyNamedChildOrProperty(@PathParam("id") String id,
                                           JSONNode childData,
                                           @Context UriInfo context) {
@@ -123,7 +125,7 @@ public class Nodes extends API {
     @PUT
     @Path("/{id: [^/]*}/" + JSONConstants.PROPERTIES + "/{subElement}")
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
     public Object createOrUpdateProperty(@PathParam("id") String id,
                                          @PathParam("subElement") String subElement,
                                          JSONProperty childData,
@@ -134,7 +136,7 @@ public class Nodes extends API {
 
     @GET
     @Path("/{id: [^/]*}/" + JSONConstants.PROPERTIES + "/{subElement}")
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
     public Object getProperty(@PathParam("id") String id,
                               @PathParam("subElement") String subElement,
                               @Context UriInfo context) {
@@ -0,0 +1,373 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
+import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.JSONNode;
+import org.jahia.modules.json.jcr.SessionAccess;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+/**
+ * A StreamingOutput writing the representation of each node to the response as soon as it is retrieved from the
+ * underlying iterator, instead of accumulating the whole result in memory before handing it to Jersey.
+ * <p/>
+ * Since writing happens after the resource method returned, instances take ownership of the session they're given and
+ * restore the per-request state (session holder and rendering flags) for the duration of the write, releasing the
+ * session once done. Nodes can also be {@link #render() rendered} to a pooled buffer when the response isn't streamed,
+ * so that both representations are written by the same code.
+ *
+ * @author Christophe Laprun
+ */
+public class NodesStreamingOutput implements StreamingOutput {
+
+    static final ObjectMapper MAPPER = new JacksonJaxbJsonProvider().locateMapper(JSONNode.class, MediaType.APPLICATION_JSON_TYPE);
+
+    /**
+     * The name of the field marking output which was truncated because the deadline passed before all nodes could be
+     * written.
+     */
+    protected static final String TRUNCATED = "_truncated";
+
+    /**
+     * The supported streaming formats.
+     */
+    public enum Format {
+        /**
+         * Nodes are output as elements of a JSON array, i.e. the same representation as the non-streamed one.
+         */
+        JSON(Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON),
+        /**
+         * Nodes are output as new-line delimited JSON objects, allowing clients to parse the response incrementally.
+         */
+        NDJSON(Utils.MEDIA_TYPE_APPLICATION_NDJSON);
+
+        private final String mediaType;
+
+        Format(String mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+    }
+
+    private final Session session;
+    private final String workspace;
+    private final String language;
+    private final Iterator<Node> nodes;
+    private final Filter filter;
+    private final int depth;
+    private final Format format;
+
+    private final boolean resolveReferences;
+    private final boolean outputLinks;
+    private final boolean includeFullChildren;
+    private final boolean outputCompact;
+    private final long deadline;
+    private DirectNodeSerializer serializer;
+    private CompactNodeSerializer compactSerializer;
+    private boolean truncated;
+    private int written;
+    private Closeable resource;
+
+    public NodesStreamingOutput(Session session, String workspace, String language, Iterator<Node> nodes, Filter filter, int depth, Format format) {
+        this.session = session;
+        this.workspace = workspace;
+        this.language = language;
+        this.nodes = nodes;
+        this.filter = filter;
+        this.depth = depth;
+        this.format = format;
+
+        // record current flags since they won't be available anymore when we're asked to write
+        this.resolveReferences = API.shouldResolveReferences();
+        this.outputLinks = API.shouldOutputLinks();
+        this.includeFullChildren = API.shouldIncludeFullChildren();
+        // shaped representations are always compact
+        final Fields fields = Fields.of(filter);
+        this.outputCompact = API.shouldOutputCompact() || fields != null && fields.getInclude() != null;
+        this.deadline = Deadline.get();
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Specifies a resource to close, along with the session, once the nodes have been written, e.g. the expensive query
+     * slot held while query results are retrieved. Not closed by {@link #render()}, the caller still being in charge.
+     */
+    public void closeOnceWritten(Closeable resource) {
+        this.resource = resource;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        SessionAccess.setCurrentSession(session, workspace, language);
+        final boolean[] previousFlags = applyFlags();
+
+        final JsonGenerator generator = createGenerator(output);
+        try {
+            // since the response is already committed, we can only stop writing more nodes once the deadline passed
+            writeEnd(generator, writeNodes(generator));
+        } catch (RepositoryException e) {
+            // the response has already been committed at this point so we can only abort it
+            throw new APIException(e);
+        } finally {
+            try {
+                generator.close();
+            } finally {
+                restoreFlags(previousFlags);
+                if (session.isLive()) {
+                    session.logout();
+                }
+                SessionAccess.closeCurrentSession();
+                if (resource != null) {
+                    resource.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders the nodes to a pooled buffer in the calling thread, which holds the request's session, instead of
+     * streaming them once the resource method returned. The session is therefore not released. Since the response isn't
+     * committed yet, output truncated because the deadline passed is ended as if it were complete so that callers can
+     * report it as they see fit, see {@link #isTruncated()}.
+     *
+     * @return the rendered JSON, which needs to be {@link SerializedJSON#release() released} once written
+     */
+    public SerializedJSON render() throws IOException, RepositoryException {
+        final SerializedJSON.Buffered rendered = new SerializedJSON.Buffered();
+        final boolean[] previousFlags = applyFlags();
+        boolean complete = false;
+        try {
+            final JsonGenerator generator = createGenerator(rendered.getOutput());
+            truncated = writeNodes(generator);
+            writeEnd(generator, false);
+            generator.close();
+            complete = true;
+            return rendered;
+        } finally {
+            restoreFlags(previousFlags);
+            if (!complete) {
+                rendered.release();
+            }
+        }
+    }
+
+    /**
+     * Whether not all nodes were {@link #render() rendered} because the deadline passed.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Whether no node was written.
+     */
+    public boolean isEmpty() {
+        return written == 0;
+    }
+
+    private boolean[] applyFlags() {
+        return new boolean[]{
+                API.setResolveReferences(resolveReferences),
+                API.setOutputLinks(outputLinks),
+                API.setIncludeFullChildren(includeFullChildren),
+                API.setOutputCompact(outputCompact)
+        };
+    }
+
+    private static void restoreFlags(boolean[] previousFlags) {
+        API.setResolveReferences(previousFlags[0]);
+        API.setOutputLinks(previousFlags[1]);
+        API.setIncludeFullChildren(previousFlags[2]);
+        API.setOutputCompact(previousFlags[3]);
+    }
+
+    private JsonGenerator createGenerator(OutputStream output) throws IOException {
+        final JsonGenerator generator = MAPPER.getFactory().createGenerator(output);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // output which couldn't be completed must not look complete
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        compactSerializer = outputCompact ? new CompactNodeSerializer(generator, filter, depth) : null;
+        serializer = !outputCompact && DirectNodeSerializer.isEnabled(depth) ? new DirectNodeSerializer(generator) : null;
+        return generator;
+    }
+
+    /**
+     * Writes the start of the output and the accepted nodes, until they're exhausted or the deadline passed.
+     *
+     * @return whether the deadline passed before all nodes could be written
+     */
+    private boolean writeNodes(JsonGenerator generator) throws IOException, RepositoryException {
+        writeStart(generator);
+        while (nodes.hasNext()) {
+            if (Deadline.isExpired(deadline)) {
+                return true;
+            }
+            QueryJob.checkCancelled();
+            final Node node = nodes.next();
+            if (filter.acceptChild(node)) {
+                writeNode(generator, node);
+                written++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether compact representations are output, in which case the dictionary of the property types of the written
+     * nodes is output after them.
+     *
+     * @see CompactNodeSerializer
+     */
+    protected boolean isCompact() {
+        return outputCompact;
+    }
+
+    protected void writeStart(JsonGenerator generator) throws IOException, RepositoryException {
+        if (format == Format.JSON) {
+            if (outputCompact) {
+                generator.writeStartObject();
+                generator.writeFieldName("nodes");
+            }
+            generator.writeStartArray();
+        } else {
+            // new-line delimited output: we take care of separating root values ourselves
+            generator.setRootValueSeparator(null);
+        }
+    }
+
+    protected void writeNode(JsonGenerator generator, Node node) throws IOException, RepositoryException {
+        if (compactSerializer != null) {
+            compactSerializer.write(node);
+        } else {
+            DirectNodeSerializer.write(serializer, generator, node, filter, depth);
+        }
+        if (format == Format.NDJSON) {
+            generator.writeRaw('\n');
+            generator.flush();
+        }
+    }
+
+    /**
+     * Ends the output once all nodes have been written or the deadline passed, in which case the output is explicitly
+     * marked as truncated using the {@link #TRUNCATED} field: in the object wrapping compact representations or as the
+     * last new-line delimited object. A plain JSON array cannot be marked so the response is aborted instead of being
+     * ended as if it were complete.
+     *
+     * @param generator the generator to write to
+     * @param truncated whether not all nodes could be written before the deadline passed
+     * @throws Deadline.DeadlineExceededException if the output was truncated and cannot be marked as such
+     */
+    protected void writeEnd(JsonGenerator generator, boolean truncated) throws IOException, RepositoryException {
+        if (format == Format.JSON) {
+            if (truncated && !outputCompact) {
+                throw new Deadline.DeadlineExceededException();
+            }
+            generator.writeEndArray();
+            if (outputCompact) {
+                writeTypes(generator);
+                if (truncated) {
+                    generator.writeBooleanField(TRUNCATED, true);
+                }
+                generator.writeEndObject();
+            }
+        } else {
+            if (outputCompact) {
+                // the dictionary is output as the last new-line delimited object
+                generator.writeStartObject();
+                writeTypes(generator);
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+            if (truncated) {
+                writeTruncated(generator);
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    /**
+     * Writes an object only containing the {@link #TRUNCATED} marker.
+     */
+    private static void writeTruncated(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeBooleanField(TRUNCATED, true);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes the compact representation of the specified node followed, in the same object, by the dictionary of the
+     * property types it contains. Only available when compact representations are output.
+     */
+    protected void writeNodeWithTypes(Node node) throws IOException, RepositoryException {
+        compactSerializer.writeWithTypes(node);
+    }
+
+    /**
+     * Writes the dictionary of the property types of the nodes written so far as the <code>_types</code> field of the
+     * current object.
+     */
+    protected void writeTypes(JsonGenerator generator) throws IOException {
+        generator.writeFieldName(CompactNodeSerializer.TYPES);
+        compactSerializer.writeTypes();
+    }
+}
@@ -0,0 +1,509 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.Query;
+import javax.jcr.query.Row;
+import javax.jcr.query.qom.*;
+import javax.xml.bind.DatatypeConverter;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * Paginates query results using opaque continuation tokens instead of offsets. When the query is ordered by its node
+ * name or local name, or in ascending order of a single-valued property, the token records the sort key and identifier
+ * of the last returned node so that the next page can be retrieved by restricting the query to nodes sorting at or
+ * after that key instead of making the repository skip all the previous results. Other queries fall back to tokens
+ * recording the offset of the next page.
+ * <p/>
+ * Instances are meant to be used for a single page: {@link #prepare(Query, QueryObjectModelFactory, ValueFactory)}
+ * the query, iterate over its results using {@link #iterate(Iterator)} and then retrieve the token of the next page
+ * using {@link #getContinuationToken()}.
+ *
+ * @author Christophe Laprun
+ */
+public class Pagination {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String TOKEN_VERSION = "2";
+    private static final int DIGEST_LENGTH = 16;
+
+    private final String fingerprint;
+    private final int limit;
+    private final Token token;
+
+    private ValueFactory valueFactory;
+    private Ordering keyOrdering;
+    private boolean resuming;
+    private long position;
+    private int returned;
+    private int lastKeyType;
+    private String lastKey;
+    private String lastIdentifier;
+    private int lastTies;
+    private boolean lastKeyUnavailable;
+    private boolean truncated;
+
+    /**
+     * Creates a new Pagination for the specified page.
+     *
+     * @param fingerprint       a String identifying the query being paginated, preventing tokens from being used with
+     *                          other queries
+     * @param continuationToken the token returned along with the previous page or <code>null</code> if the first page
+     *                          is requested
+     * @param limit             the maximum number of results of the page, pagination being disabled if not strictly
+     *                          positive
+     * @param offset            the offset at which to start if no continuation token is provided
+     * @throws IllegalArgumentException if the continuation token is invalid or was not issued for the specified query
+     */
+    public Pagination(String fingerprint, String continuationToken, int limit, int offset) {
+        this.fingerprint = digest(fingerprint);
+        this.limit = limit;
+
+        if (Utils.exists(continuationToken)) {
+            token = Token.decode(continuationToken);
+            if (!this.fingerprint.equals(token.fingerprint)) {
+                throw new IllegalArgumentException("Continuation token was not issued for this query");
+            }
+            position = token.offset;
+        } else {
+            token = null;
+            position = Math.max(offset, 0);
+        }
+    }
+
+    /**
+     * Checks whether the specified continuation token was issued for the query identified by the specified fingerprint,
+     * e.g. to find out which of several ways of retrieving results was used for the previous pages.
+     *
+     * @param fingerprint       a String identifying a query, as passed to
+     *                          {@link #Pagination(String, String, int, int)}
+     * @param continuationToken the continuation token to check
+     * @return <code>true</code> if the token is valid and was issued for the specified query, <code>false</code>
+     * otherwise
+     */
+    public static boolean isIssuedFor(String fingerprint, String continuationToken) {
+        try {
+            return digest(fingerprint).equals(Token.decode(continuationToken).fingerprint);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Computes the digest of the specified query fingerprint recorded in continuation tokens: the first
+     * {@link #DIGEST_LENGTH} bytes of its SHA-256 hash, so that tokens cannot be forged for another query by finding a
+     * colliding fingerprint.
+     *
+     * @param fingerprint a String identifying a query
+     * @return the hexadecimal representation of the digest of the specified fingerprint
+     */
+    static String digest(String fingerprint) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256").digest(fingerprint.getBytes(UTF8));
+            return DatatypeConverter.printHexBinary(Arrays.copyOf(hash, DIGEST_LENGTH)).toLowerCase(Locale.ENGLISH);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Prepares the specified query to retrieve the requested page, setting its limit and offset and, if possible,
+     * restricting it to the results following the ones of the previous page.
+     *
+     * @param query        the query to paginate
+     * @param factory      the QueryObjectModelFactory of the session in which the query will be performed
+     * @param valueFactory the ValueFactory of the session in which the query will be performed
+     * @return the query to perform, which might be a new query if the specified one needed to be restricted. Bind
+     * variables values, if any, should be bound on the returned query.
+     * @throws RepositoryException if the query couldn't be prepared
+     */
+    public Query prepare(Query query, QueryObjectModelFactory factory, ValueFactory valueFactory) throws RepositoryException {
+        this.valueFactory = valueFactory;
+        if (query instanceof QueryObjectModel) {
+            keyOrdering = getKeyOrdering((QueryObjectModel) query);
+        }
+
+        if (token != null && token.hasKey() && keyOrdering != null) {
+            final QueryObjectModel qom = (QueryObjectModel) query;
+            final String operator = QueryObjectModelFactory.JCR_ORDER_DESCENDING.equals(keyOrdering.getOrder()) ?
+                    QueryObjectModelFactory.JCR_OPERATOR_LESS_THAN_OR_EQUAL_TO : QueryObjectModelFactory.JCR_OPERATOR_GREATER_THAN_OR_EQUAL_TO;
+            final Comparison resume = factory.comparison(keyOrdering.getOperand(), operator,
+                    factory.literal(valueFactory.createValue(token.key, token.keyType)));
+            final Constraint constraint = qom.getConstraint() != null ? factory.and(qom.getConstraint(), resume) : resume;
+            query = factory.createQuery(qom.getSource(), constraint, qom.getOrderings(), qom.getColumns());
+
+            // nodes sharing the last key of the previous page were already returned and will need to be skipped
+            resuming = true;
+            lastKeyType = token.keyType;
+            lastKey = token.key;
+            lastTies = token.ties;
+            if (limit > 0) {
+                query.setLimit(limit + token.ties);
+            }
+        } else {
+            if (position > 0) {
+                query.setOffset(position);
+            }
+            if (limit > 0) {
+                query.setLimit(limit);
+            }
+        }
+
+        return query;
+    }
+
+    /**
+     * Wraps the specified query results so that only the nodes of the requested page are returned, recording what's
+     * needed to compute the continuation token as nodes are retrieved.
+     *
+     * @param nodes the results of the query returned by {@link #prepare(Query, QueryObjectModelFactory, ValueFactory)}
+     * @return an Iterator over the nodes of the requested page
+     */
+    public Iterator<Node> iterate(Iterator<Node> nodes) {
+        return new PageIterator<Node>(nodes) {
+            @Override
+            Node getNode(Node item) {
+                return item;
+            }
+        };
+    }
+
+    /**
+     * Paginates results which weren't retrieved using a query prepared by
+     * {@link #prepare(Query, QueryObjectModelFactory, ValueFactory)}, e.g. results looked up in an in-memory index,
+     * skipping the results of the previous pages. Continuation tokens then record offsets.
+     *
+     * @param nodes all the results, in a stable order
+     * @return an Iterator over the nodes of the requested page
+     */
+    public Iterator<Node> paginate(Iterator<Node> nodes) {
+        for (long skipped = 0; skipped < position && nodes.hasNext(); skipped++) {
+            nodes.next();
+        }
+        return iterate(nodes);
+    }
+
+    /**
+     * Wraps the specified query result rows so that only the rows of the requested page are returned, recording what's
+     * needed to compute the continuation token as rows are retrieved.
+     *
+     * @param rows the rows of the query returned by {@link #prepare(Query, QueryObjectModelFactory, ValueFactory)}
+     * @return an Iterator over the rows of the requested page
+     */
+    public Iterator<Row> iterateRows(Iterator<Row> rows) {
+        return new PageIterator<Row>(rows) {
+            @Override
+            Node getNode(Row item) throws RepositoryException {
+                // only called when resuming from a sort key, which requires a single selector
+                return item.getNode();
+            }
+        };
+    }
+
+    private abstract class PageIterator<T> implements Iterator<T> {
+        private final Iterator<T> items;
+        private T next;
+
+        private PageIterator(Iterator<T> items) {
+            this.items = items;
+        }
+
+        abstract Node getNode(T item) throws RepositoryException;
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (limit > 0 && returned >= limit) {
+                return false;
+            }
+
+            try {
+                while (items.hasNext()) {
+                    final T item = items.next();
+                    // nodes are only needed to retrieve sort keys
+                    final Node node = keyOrdering != null ? getNode(item) : null;
+                    if (resuming && skip(node)) {
+                        continue;
+                    }
+                    resuming = false;
+                    record(node);
+                    next = item;
+                    return true;
+                }
+            } catch (RepositoryException e) {
+                throw new RuntimeException("Couldn't paginate query results", e);
+            }
+            return false;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final T item = next;
+            next = null;
+            return item;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Retrieves the number of results, counted from the first one, needed to fill the requested page.
+     *
+     * @return the position of the end of the requested page or <code>0</code> if pagination is disabled
+     */
+    public long getPageEnd() {
+        return limit > 0 ? position + limit : 0;
+    }
+
+    /**
+     * Records that iteration was stopped before the end of the page, so that a continuation token is provided to
+     * retrieve the remaining results.
+     */
+    public void truncate() {
+        truncated = true;
+    }
+
+    /**
+     * Retrieves the token allowing to retrieve the page following the one that was iterated over.
+     *
+     * @return the continuation token or <code>null</code> if pagination is disabled or the last page was reached
+     */
+    public String getContinuationToken() {
+        if (truncated) {
+            if (returned == 0) {
+                return null;
+            }
+        } else if (limit <= 0 || returned < limit) {
+            return null;
+        }
+
+        if (keyOrdering != null && !lastKeyUnavailable && lastKey != null) {
+            return new Token(fingerprint, position, lastKeyType, lastKey, lastIdentifier, lastTies).encode();
+        }
+        return new Token(fingerprint, position, PropertyType.UNDEFINED, null, null, 0).encode();
+    }
+
+    private boolean skip(Node node) throws RepositoryException {
+        final Value key = getKey(node);
+        if (key != null && lastTies > 0 && key.getType() == lastKeyType && key.getString().equals(lastKey)) {
+            lastTies--;
+            if (node.getIdentifier().equals(token.identifier)) {
+                // we found the last node of the previous page, remaining nodes with the same key haven't been returned
+                lastTies = token.ties - lastTies;
+                resuming = false;
+            }
+            return true;
+        }
+
+        // all nodes sharing the last key of the previous page have been skipped
+        lastTies = token.ties - lastTies;
+        return false;
+    }
+
+    private void record(Node node) throws RepositoryException {
+        position++;
+        returned++;
+
+        if (keyOrdering != null) {
+            final Value key = getKey(node);
+            if (key == null) {
+                lastKeyUnavailable = true;
+                return;
+            }
+
+            final String keyString = key.getString();
+            if (key.getType() == lastKeyType && keyString.equals(lastKey)) {
+                lastTies++;
+            } else {
+                lastKeyType = key.getType();
+                lastKey = keyString;
+                lastTies = 1;
+            }
+            lastIdentifier = node.getIdentifier();
+            lastKeyUnavailable = false;
+        }
+    }
+
+    private Value getKey(Node node) throws RepositoryException {
+        final DynamicOperand operand = keyOrdering.getOperand();
+        if (operand instanceof NodeLocalName) {
+            final String name = node.getName();
+            return valueFactory.createValue(name.substring(name.indexOf(':') + 1), PropertyType.STRING);
+        } else if (operand instanceof NodeName) {
+            return valueFactory.createValue(node.getName(), PropertyType.NAME);
+        } else {
+            final String propertyName = ((PropertyValue) operand).getPropertyName();
+            if (!node.hasProperty(propertyName)) {
+                return null;
+            }
+            final javax.jcr.Property property = node.getProperty(propertyName);
+            if (property.isMultiple() || property.getType() == PropertyType.BINARY) {
+                return null;
+            }
+            return property.getValue();
+        }
+    }
+
+    /**
+     * Retrieves the ordering which sort key can be used to restrict the query to the results following a given node,
+     * if any. Only single-selector queries are supported. Ascending order is required for property values since nodes
+     * without the property would otherwise sort after the key and be excluded by the restriction.
+     */
+    static Ordering getKeyOrdering(QueryObjectModel query) {
+        final Ordering[] orderings = query.getOrderings();
+        if (!(query.getSource() instanceof Selector) || orderings == null || orderings.length == 0) {
+            return null;
+        }
+
+        final Ordering ordering = orderings[0];
+        final DynamicOperand operand = ordering.getOperand();
+        if (operand instanceof NodeLocalName || operand instanceof NodeName) {
+            return ordering;
+        }
+        if (operand instanceof PropertyValue && !QueryObjectModelFactory.JCR_ORDER_DESCENDING.equals(ordering.getOrder())) {
+            return ordering;
+        }
+        return null;
+    }
+
+    /**
+     * The information recorded in a continuation token.
+     */
+    static final class Token {
+        private final String fingerprint;
+        private final long offset;
+        private final int keyType;
+        private final String key;
+        private final String identifier;
+        private final int ties;
+
+        Token(String fingerprint, long offset, int keyType, String key, String identifier, int ties) {
+            this.fingerprint = fingerprint;
+            this.offset = offset;
+            this.keyType = keyType;
+            this.key = key;
+            this.identifier = identifier;
+            this.ties = ties;
+        }
+
+        boolean hasKey() {
+            return key != null;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        String getIdentifier() {
+            return identifier;
+        }
+
+        int getTies() {
+            return ties;
+        }
+
+        String encode() {
+            final StringBuilder builder = new StringBuilder(64);
+            builder.append(TOKEN_VERSION).append('\n').append(fingerprint).append('\n').append(offset);
+            if (key != null) {
+                // the key goes last since it's the only part which might contain new lines
+                builder.append('\n').append(keyType).append('\n').append(ties).append('\n').append(identifier).append('\n').append(key);
+            }
+
+            // use the URL-safe alphabet without padding so that tokens can be passed as query parameters as-is
+            final String base64 = DatatypeConverter.printBase64Binary(builder.toString().getBytes(UTF8));
+            int end = base64.length();
+            while (end > 0 && base64.charAt(end - 1) == '=') {
+                end--;
+            }
+            return base64.substring(0, end).replace('+', '-').replace('/', '_');
+        }
+
+        static Token decode(String token) {
+            try {
+                final StringBuilder base64 = new StringBuilder(token.trim().replace('-', '+').replace('_', '/'));
+                while (base64.length() % 4 != 0) {
+                    base64.append('=');
+                }
+                final String decoded = new String(DatatypeConverter.parseBase64Binary(base64.toString()), UTF8);
+
+                final String[] parts = decoded.split("\n", 7);
+                if (!TOKEN_VERSION.equals(parts[0]) || (parts.length != 3 && parts.length != 7)) {
+                    throw new IllegalArgumentException();
+                }
+
+                final long offset = Long.parseLong(parts[2]);
+                if (parts.length == 3) {
+                    return new Token(parts[1], offset, PropertyType.UNDEFINED, null, null, 0);
+                }
+                return new Token(parts[1], offset, Integer.parseInt(parts[3]), parts[6], parts[5], Integer.parseInt(parts[4]));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid continuation token: " + token);
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.json.JSONStructuredQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.qom.QueryObjectModel;
+import javax.jcr.query.qom.QueryObjectModelFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, least-recently-used cache of parsed JCR-SQL2 statements, keyed by statement, workspace and language.
+ * Statements are parsed once into their {@link QueryModel} and subsequent requests for the same statement re-create
+ * their query directly from the cached model, thus bypassing the parsing step.
+ *
+ * @author Christophe Laprun
+ */
+public class ParsedQueryCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParsedQueryCache.class);
+
+    private final int maxSize;
+    private final Map<Key, QueryModel> models;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    ParsedQueryCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.models = new LinkedHashMap<Key, QueryModel>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, QueryModel> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    // Initialization on demand holder idiom: thread-safe singleton initialization
+    private static class Holder {
+        static final ParsedQueryCache INSTANCE = new ParsedQueryCache(SpringBeansAccess.getInstance().getParsedQueryCacheSize());
+
+        private Holder() {
+        }
+    }
+
+    public static ParsedQueryCache getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Creates a JCR-SQL2 query for the specified statement, re-using the model parsed by a previous call for the same
+     * statement, workspace and language if available.
+     *
+     * @param queryManager the QueryManager of the session in which the query will be executed
+     * @param statement    the JCR-SQL2 statement
+     * @param workspace    the workspace in which the query will be executed
+     * @param language     the language in which the query will be executed
+     * @return a new Query for the specified statement
+     * @throws RepositoryException if the statement is invalid or the query couldn't be created
+     */
+    public Query createQuery(QueryManager queryManager, String statement, String workspace, String language) throws RepositoryException {
+        if (maxSize <= 0) {
+            misses.incrementAndGet();
+            return queryManager.createQuery(statement, Query.JCR_SQL2);
+        }
+
+        final Key key = new Key(statement, workspace, language);
+        final QueryModel model = get(key);
+        if (model != null) {
+            try {
+                final Query query = model.createQuery(queryManager.getQOMFactory());
+                hits.incrementAndGet();
+                return query;
+            } catch (RepositoryException e) {
+                // the cached model couldn't be used with this session so forget about it and parse the statement again
+                LOGGER.debug("Couldn't re-create query from cached model for statement '" + statement + "'", e);
+                remove(key);
+            }
+        }
+
+        misses.incrementAndGet();
+        final Query query = queryManager.createQuery(statement, Query.JCR_SQL2);
+        if (query instanceof QueryObjectModel) {
+            put(key, QueryModel.from((QueryObjectModel) query));
+        }
+        return query;
+    }
+
+    /**
+     * Creates a query for the specified structured query, re-using the model compiled by a previous call for the same
+     * query, workspace and language if available.
+     *
+     * @param queryManager the QueryManager of the session in which the query will be executed
+     * @param valueFactory the ValueFactory of the session in which the query will be executed
+     * @param query        the structured query
+     * @param key          the canonical representation of the structured query, as computed by
+     *                     {@link StructuredQueries#getKey(JSONStructuredQuery)}
+     * @param workspace    the workspace in which the query will be executed
+     * @param language     the language in which the query will be executed
+     * @return a new Query for the specified structured query
+     * @throws RepositoryException if the structured query is invalid or the query couldn't be created
+     */
+    public Query createQuery(QueryManager queryManager, ValueFactory valueFactory, JSONStructuredQuery query, String key, String workspace,
+                             String language) throws RepositoryException {
+        final QueryObjectModelFactory factory = queryManager.getQOMFactory();
+        if (maxSize <= 0) {
+            misses.incrementAndGet();
+            return StructuredQueries.compile(query, factory, valueFactory).createQuery(factory);
+        }
+
+        final Key cacheKey = new Key(key, workspace, language);
+        final QueryModel model = get(cacheKey);
+        if (model != null) {
+            try {
+                final Query compiled = model.createQuery(factory);
+                hits.incrementAndGet();
+                return compiled;
+            } catch (RepositoryException e) {
+                LOGGER.debug("Couldn't re-create query from cached model for structured query '" + key + "'", e);
+                remove(cacheKey);
+            }
+        }
+
+        misses.incrementAndGet();
+        final QueryModel compiled = StructuredQueries.compile(query, factory, valueFactory);
+        put(cacheKey, compiled);
+        return compiled.createQuery(factory);
+    }
+
+    private QueryModel get(Key key) {
+        synchronized (models) {
+            return models.get(key);
+        }
+    }
+
+    private void put(Key key, QueryModel model) {
+        synchronized (models) {
+            models.put(key, model);
+        }
+    }
+
+    private void remove(Key key) {
+        synchronized (models) {
+            models.remove(key);
+        }
+    }
+
+    public void clear() {
+        synchronized (models) {
+            models.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (models) {
+            return models.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static final class Key {
+        private final String statement;
+        private final String workspace;
+        private final String language;
+        private final int hashCode;
+
+        private Key(String statement, String workspace, String language) {
+            this.statement = statement;
+            this.workspace = workspace;
+            this.language = language;
+
+            int result = statement.hashCode();
+            result = 31 * result + (workspace != null ? workspace.hashCode() : 0);
+            result = 31 * result + (language != null ? language.hashCode() : 0);
+            this.hashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return statement.equals(key.statement)
+                    && (workspace != null ? workspace.equals(key.workspace) : key.workspace == null)
+                    && (language != null ? language.equals(key.language) : key.language == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -66,7 +66,7 @@ import java.util.List;
 /**
  * @author Christophe Laprun
  */
-@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
 public class Paths extends API {
 
     static final String MAPPING = "paths";
@@ -81,6 +81,10 @@ public class Paths extends API {
     }
 
     private Object performByPath(UriInfo context, String operation, Object data) {
+        return performByPath(context, null, operation, data);
+    }
+
+    private Object performByPath(UriInfo context, HttpHeaders headers, String operation, Object data) {
 
         // only consider useful segments
         final List<PathSegment> usefulSegments = getUsefulSegments(context);
@@ -94,12 +98,14 @@ public class Paths extends API {
                 String subElement = getSubElement(usefulSegments, index);
                 JSONItem converted;
                 if (data != null) {
-                    if (data instanceof String) {
-                        String dataAsString = (String) data;
+                    if (data instanceof InputStream) {
                         try {
-                            converted = accessor.convertFrom(dataAsString);
+                            converted = accessor.convertFrom((InputStream) data);
+                        } catch (RequestBodies.RequestBodyRejectedException e) {
+                            throw new APIException(e, operation, NodeAccessor.BY_PATH.getType(), nodePath, subElementType, Collections.singletonList(subElement), null);
                         } catch (Exception e) {
-                            throw new APIException(e.getCause(), operation, NodeAccessor.BY_PATH.getType(), nodePath, subElementType, Collections.singletonList(subElement), data);
+                            // the body was consumed while parsing so it cannot be reported
+                            throw new APIException(e.getCause(), operation, NodeAccessor.BY_PATH.getType(), nodePath, subElementType, Collections.singletonList(subElement), null);
                         }
                     } else if (data instanceof List) {
                         List<String> dataAsList = (List<String>) data;
@@ -114,39 +120,51 @@ public class Paths extends API {
                 } else {
                     converted = null;
                 }
-                return perform(workspace, language, nodePath, subElementType, subElement, context, operation, converted, NodeAccessor.BY_PATH);
+                return perform(workspace, language, nodePath, subElementType, subElement, context, headers, operation, converted, NodeAccessor.BY_PATH);
             }
             index++;
         }
 
         // todo: check
-        return perform(workspace, language, computePathUpTo(usefulSegments, usefulSegments.size()), "", "", context, operation, null, NodeAccessor.BY_PATH);
+        return perform(workspace, language, computePathUpTo(usefulSegments, usefulSegments.size()), "", "", context, headers, operation, null, NodeAccessor.BY_PATH);
     }
 
     @GET
     @Path("/{path: .*}")
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_NDJSON})
     public Object get(@PathParam("path") String path,
-                      @Context UriInfo context) {
-        return performByPath(context, READ, null);
+                      @Context UriInfo context,
+                      @Context HttpHeaders headers) {
+        return performByPath(context, headers, READ, null);
     }
 
     @PUT
     @Path("/{path: .*}")
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
-    public Object createOrUpdate(String childDataAsJSON,
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
+    public Object createOrUpdate(InputStream childDataAsJSON,
+                                 @HeaderParam(HttpHeaders.CONTENT_LENGTH) String contentLength,
                                  @Context UriInfo context) {
-        return performByPath(context, CREATE_OR_UPDATE, childDataAsJSON);
+        return performByPath(context, CREATE_OR_UPDATE, checkLength(childDataAsJSON, contentLength));
     }
 
     @POST
     @Path("/{path: .*}")
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
-    public Object createOrUpdateChildNode(String childData,
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
+    public Object createOrUpdateChildNode(InputStream childData,
+                                          @HeaderParam(HttpHeaders.CONTENT_LENGTH) String contentLength,
                                           @Context UriInfo context) {
-        return performByPath(context, CREATE_OR_UPDATE, childData);
+        return performByPath(context, CREATE_OR_UPDATE, checkLength(childData, contentLength));
+    }
+
+    private static InputStream checkLength(InputStream body, String contentLength) {
+        try {
+            RequestBodies.checkLength(contentLength);
+            return body;
+        } catch (RequestBodies.RequestBodyRejectedException e) {
+            throw new APIException(e, CREATE_OR_UPDATE, NodeAccessor.BY_PATH.getType(), null, null, null, null);
+        }
     }
 
     @DELETE
@@ -45,11 +45,29 @@ package org.jahia.modules.jcrestapi;
 
 import org.jahia.modules.jcrestapi.api.PreparedQuery;
 import org.jahia.modules.jcrestapi.api.PreparedQueryService;
+import org.jahia.services.content.JCRCallback;
+import org.jahia.services.content.JCRSessionFactory;
+import org.jahia.services.content.JCRSessionWrapper;
+import org.jahia.services.content.JCRTemplate;
 import org.jahia.services.templates.JahiaModulesBeanPostProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
 
+import javax.jcr.RepositoryException;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.Query;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class stores all prepared queries that will be usable by the query endpoint.
@@ -59,19 +77,48 @@ import java.util.Map;
  * - Use PreparedQueriesRegistry.addQuery to register a prepared query (new way, and recommended way to register prepared query since 7.2.0.0)
  */
 public class PreparedQueriesRegistry implements PreparedQueryService, JahiaModulesBeanPostProcessor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PreparedQueriesRegistry.class);
     private final static PreparedQueriesRegistry INSTANCE = new PreparedQueriesRegistry();
 
     public static PreparedQueriesRegistry getInstance() {
         return INSTANCE;
     }
 
-    private Map<String, PreparedQuery> queries = new LinkedHashMap<String, PreparedQuery>();
+    // copy-on-write: request threads read the current map without locking while modules being (un)deployed
+    // concurrently swap in modified copies
+    private final AtomicReference<Map<String, QueryTemplate>> queries =
+            new AtomicReference<Map<String, QueryTemplate>>(Collections.<String, QueryTemplate>emptyMap());
+    private final AtomicLong version = new AtomicLong();
 
+    // warm-ups are performed one at a time, off the thread starting the module, by a thread which only lives while there
+    // are queries to warm up
+    private final ThreadPoolExecutor warmUps;
+
+    public PreparedQueriesRegistry() {
+        warmUps = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "jcrestapi-query-warm-up");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        warmUps.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Registers the PreparedQuery beans declared in module contexts. Invalid queries are logged and skipped so that they
+     * don't prevent the rest of the declaring module context from starting.
+     */
     @Override
     public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
         if (bean instanceof PreparedQuery) {
             PreparedQuery preparedQuery = (PreparedQuery) bean;
-            addQuery(preparedQuery);
+            try {
+                addQuery(preparedQuery);
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Skipping invalid prepared query declared by bean '" + beanName + "': " + e.getMessage());
+            }
         }
         return bean;
     }
@@ -90,19 +137,149 @@ public class PreparedQueriesRegistry implements PreparedQueryService, JahiaModul
     }
 
     /**
-     * Unregister a PreparedQuery object
+     * Unregister a PreparedQuery object. The query is only unregistered if the query currently registered with the
+     * same name is the specified one or has the same source, so that a module being undeployed doesn't unregister the
+     * query of the same name registered by a more recently deployed module.
      * @param preparedQuery
      */
     public void removeQuery(PreparedQuery preparedQuery) {
-        queries.remove(preparedQuery.getName());
+        final String name = preparedQuery.getName();
+        QueryTemplate registered;
+        Map<String, QueryTemplate> current;
+        Map<String, QueryTemplate> updated;
+        do {
+            current = queries.get();
+            registered = current.get(name);
+            if (registered == null || !isSameQuery(registered.getPreparedQuery(), preparedQuery)) {
+                return;
+            }
+            updated = new LinkedHashMap<String, QueryTemplate>(current);
+            updated.remove(name);
+        } while (!queries.compareAndSet(current, Collections.unmodifiableMap(updated)));
+        version.incrementAndGet();
+        release(registered);
+    }
+
+    private static boolean isSameQuery(PreparedQuery registered, PreparedQuery preparedQuery) {
+        return registered == preparedQuery || (registered.getSource() != null && registered.getSource().equals(preparedQuery.getSource()));
     }
 
     /**
-     * Register a PreparedQuery object
+     * Register a PreparedQuery object, compiling its source into a {@link QueryTemplate} using bind variables. When
+     * the repository is available, the compiled statement is parsed to make sure it's valid and, if the query asks for
+     * it, performed once in the background to warm caches up.
      * @param preparedQuery
+     * @throws IllegalArgumentException if the prepared query source is invalid
      */
     public void addQuery(PreparedQuery preparedQuery) {
-        queries.put(preparedQuery.getName(), preparedQuery);
+        final QueryTemplate template = new QueryTemplate(preparedQuery);
+        validate(template);
+
+        final PreparedQueryResultCache resultCache = template.getResultCache();
+        if (resultCache != null) {
+            RepositoryObserver.getInstance().addListener(resultCache);
+        }
+
+        template.registered(version.incrementAndGet());
+
+        final String name = preparedQuery.getName();
+        QueryTemplate previous;
+        Map<String, QueryTemplate> current;
+        Map<String, QueryTemplate> updated;
+        do {
+            current = queries.get();
+            updated = new LinkedHashMap<String, QueryTemplate>(current);
+            previous = updated.put(name, template);
+        } while (!queries.compareAndSet(current, Collections.unmodifiableMap(updated)));
+        release(previous);
+
+        if (preparedQuery.isWarmUp()) {
+            warmUp(template);
+        }
+    }
+
+    private void release(QueryTemplate template) {
+        if (template != null && template.getResultCache() != null) {
+            RepositoryObserver.getInstance().removeListener(template.getResultCache());
+        }
+    }
+
+    /**
+     * Parses the statement of the specified template using a system session.
+     *
+     * @throws IllegalArgumentException if the statement is not a valid JCR-SQL2 query
+     */
+    private void validate(final QueryTemplate template) {
+        if (!isRepositoryAvailable()) {
+            // repository is not available, queries will be validated when first used
+            return;
+        }
+
+        try {
+            JCRTemplate.getInstance().doExecuteWithSystemSession(new JCRCallback<Object>() {
+                @Override
+                public Object doInJCR(JCRSessionWrapper session) throws RepositoryException {
+                    return session.getWorkspace().getQueryManager().createQuery(template.getStatement(), Query.JCR_SQL2);
+                }
+            });
+        } catch (InvalidQueryException e) {
+            throw new IllegalArgumentException("Prepared query '" + template.getName() + "' is not a valid JCR-SQL2 query: " + e.getMessage(), e);
+        } catch (RepositoryException e) {
+            LOGGER.warn("Couldn't validate prepared query '" + template.getName() + "'", e);
+        }
+    }
+
+    /**
+     * Performs the statement of the specified template once in the background, unless it has parameters or has been
+     * replaced or unregistered by the time it's its turn to be warmed up.
+     */
+    private void warmUp(final QueryTemplate template) {
+        if (!template.getVariableNames().isEmpty()) {
+            LOGGER.info("Prepared query '" + template.getName() + "' has parameters and therefore cannot be warmed up");
+            return;
+        }
+        if (!isRepositoryAvailable()) {
+            return;
+        }
+
+        try {
+            warmUps.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (getTemplate(template.getName()) != template) {
+                        return;
+                    }
+
+                    final long start = System.currentTimeMillis();
+                    try {
+                        JCRTemplate.getInstance().doExecuteWithSystemSession(new JCRCallback<Boolean>() {
+                            @Override
+                            public Boolean doInJCR(JCRSessionWrapper session) throws RepositoryException {
+                                final Query query = session.getWorkspace().getQueryManager().createQuery(template.getStatement(), Query.JCR_SQL2);
+                                query.setLimit(1);
+                                return query.execute().getNodes().hasNext();
+                            }
+                        });
+                        LOGGER.debug("Warmed prepared query '" + template.getName() + "' up in " + (System.currentTimeMillis() - start) + "ms");
+                    } catch (RepositoryException e) {
+                        LOGGER.warn("Couldn't warm prepared query '" + template.getName() + "' up", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Not warming prepared query '" + template.getName() + "' up since the module is stopping");
+        }
+    }
+
+    private static boolean isRepositoryAvailable() {
+        return SpringBeansAccess.getInstance().getRepository() instanceof JCRSessionFactory;
+    }
+
+    /**
+     * Stops warming queries up, pending warm-ups being abandoned.
+     */
+    public void stop() {
+        warmUps.shutdownNow();
     }
 
     /**
@@ -111,6 +288,35 @@ public class PreparedQueriesRegistry implements PreparedQueryService, JahiaModul
      * @return
      */
     public PreparedQuery getQuery(String name) {
-        return queries.get(name);
+        final QueryTemplate template = queries.get().get(name);
+        return template != null ? template.getPreparedQuery() : null;
+    }
+
+    /**
+     * Get the compiled template associated with the query registered with the specified name
+     * @param name
+     * @return the QueryTemplate associated with the specified name or <code>null</code> if no such query is registered
+     */
+    public QueryTemplate getTemplate(String name) {
+        return queries.get().get(name);
+    }
+
+    /**
+     * Retrieves the currently registered templates, in registration order. The returned collection is a snapshot which
+     * isn't affected by subsequent registrations.
+     *
+     * @return the currently registered templates
+     */
+    public Collection<QueryTemplate> getTemplates() {
+        return queries.get().values();
+    }
+
+    /**
+     * Retrieves the version of the registry, which increases each time a query is registered or unregistered.
+     *
+     * @return the version of the registry
+     */
+    public long getVersion() {
+        return version.get();
     }
 }
@@ -0,0 +1,360 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.api.PreparedQuery;
+import org.jahia.modules.jcrestapi.json.JSONQuery;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the serialized results of a {@link PreparedQuery} which opted in by specifying a strictly positive
+ * {@link PreparedQuery#getCacheTimeToLive()}. Results are kept per user since they depend on the permissions of the
+ * user performing the query. They expire after the configured time to live and are invalidated when content matching
+ * the query's declared dependencies changes in the workspace they were computed in.
+ * <p/>
+ * Queries marked as {@link PreparedQuery#isMaterializedView() materialized views} are handled in a
+ * stale-while-revalidate fashion instead: once computed, results are always served from the cache and are refreshed in
+ * the background when they become stale, i.e. when they are older than the query's refresh interval or when content
+ * they depend on changed. Each result is refreshed by at most one background task at a time, however many requests
+ * are served while it's stale. Results which have been read since they were last computed are also refreshed
+ * proactively once the refresh interval has elapsed.
+ *
+ * @author Christophe Laprun
+ */
+public class PreparedQueryResultCache implements RepositoryObserver.ChangeListener {
+    private final String queryName;
+    private final long timeToLive;
+    private final List<String> dependencyPaths;
+    private final List<String> dependencyNodeTypes;
+    private final Map<String, Entry> entries;
+    private final boolean materializedView;
+    private final long refreshInterval;
+    private final ViewRefresher refresher;
+    // incremented, while holding the entries lock, each time cached results are invalidated
+    private final AtomicLong generation = new AtomicLong();
+
+    PreparedQueryResultCache(PreparedQuery query) {
+        this(query, query.isMaterializedView() ? ViewRefresher.getInstance() : null);
+    }
+
+    PreparedQueryResultCache(PreparedQuery query, ViewRefresher refresher) {
+        this.queryName = query.getName();
+        this.materializedView = query.isMaterializedView();
+        this.refreshInterval = query.getRefreshInterval() * 1000;
+        this.refresher = refresher;
+        this.timeToLive = query.getCacheTimeToLive() > 0 || !materializedView ? query.getCacheTimeToLive() * 1000 : Long.MAX_VALUE;
+        this.dependencyPaths = new ArrayList<String>(query.getCacheDependencyPaths());
+        this.dependencyNodeTypes = new ArrayList<String>(query.getCacheDependencyNodeTypes());
+
+        final int maxEntries = query.getCacheMaxEntries();
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Computes the key identifying the result of the specified query request.
+     *
+     * @param workspace the workspace in which the query is performed
+     * @param language  the language in which the query is performed
+     * @param userId    the identifier of the user performing the query
+     * @param jsonQuery the query request
+     * @param queryParameters the query parameters of the request, which influence the representation of results
+     * @return a key identifying the result of the specified query request
+     */
+    public static String getKey(String workspace, String language, String userId, JSONQuery jsonQuery, Map<String, List<String>> queryParameters) {
+        final StringBuilder key = new StringBuilder(128);
+        key.append(workspace).append('\n').append(language).append('\n').append(userId).append('\n');
+        if (jsonQuery.getParameters() != null) {
+            key.append(jsonQuery.getParameters());
+        }
+        key.append('\n');
+        if (jsonQuery.getNamedParameters() != null) {
+            key.append(new TreeMap<String, Object>(jsonQuery.getNamedParameters()));
+        }
+        key.append('\n').append(jsonQuery.getLimit()).append('\n').append(jsonQuery.getOffset()).append('\n');
+        if (jsonQuery.getContinuationToken() != null) {
+            key.append(jsonQuery.getContinuationToken());
+        }
+        key.append('\n');
+        if (queryParameters != null) {
+            key.append(new TreeMap<String, List<String>>(queryParameters));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Retrieves the cached result associated with the specified key if it exists and hasn't expired yet.
+     *
+     * @param key the key identifying a query result
+     * @return the cached result or <code>null</code> if no valid result is cached for the specified key
+     */
+    public Result get(String key) {
+        final Entry entry;
+        final boolean refresh;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            final long now = System.currentTimeMillis();
+            if (entry.expiration < now) {
+                entries.remove(key);
+                return null;
+            }
+            entry.read = true;
+            refresh = (entry.stale || now - entry.computed >= refreshInterval) && startRefresh(entry);
+        }
+
+        if (refresh) {
+            refresh(entry);
+        }
+        return entry.result;
+    }
+
+    /**
+     * Whether results are cached as a materialized view, in which case
+     * {@link #put(String, String, byte[], Map, Callable, long)} should be used so that results can be refreshed.
+     */
+    public boolean isMaterializedView() {
+        return materializedView;
+    }
+
+    /**
+     * Retrieves the current generation of this cache, which changes each time cached results are invalidated. It needs
+     * to be retrieved before computing a result so that the result can be discarded if content it depends on changes
+     * while it's being computed.
+     *
+     * @param workspace the workspace in which the result will be computed, changes of which are then observed
+     * @return the current generation of this cache
+     */
+    public long getGeneration(String workspace) {
+        // make sure that we'll be told about changes in that workspace
+        RepositoryObserver.getInstance().observe(workspace);
+        return generation.get();
+    }
+
+    public boolean put(String key, String workspace, byte[] content, Map<String, String> headers, long generation) {
+        return put(key, workspace, content, headers, null, generation);
+    }
+
+    /**
+     * Caches the specified result, unless cached results were invalidated since it started being computed.
+     *
+     * @param key        the key identifying the result
+     * @param workspace  the workspace in which the result was computed
+     * @param content    the serialized result
+     * @param headers    the response headers computed with the result
+     * @param refresh    if results are cached as a materialized view, a task computing the result again and putting it
+     *                   in this cache
+     * @param generation the generation of this cache, as returned by {@link #getGeneration(String)}, when the result
+     *                   started being computed
+     * @return <code>true</code> if the result was cached, <code>false</code> if it was discarded
+     */
+    public boolean put(final String key, String workspace, byte[] content, Map<String, String> headers, Callable<?> refresh, long generation) {
+        final long now = System.currentTimeMillis();
+        final Entry entry = new Entry(workspace, new Result(content, headers), now, timeToLive == Long.MAX_VALUE ? Long.MAX_VALUE : now + timeToLive,
+                materializedView ? refresh : null);
+        synchronized (entries) {
+            if (generation != this.generation.get()) {
+                // content changed while the result was computed, it might already be stale
+                return false;
+            }
+            entries.put(key, entry);
+        }
+
+        if (entry.refresh != null) {
+            refresher.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    final boolean refresh;
+                    synchronized (entries) {
+                        // only refresh results which are still cached and are being used
+                        refresh = entries.get(key) == entry && entry.read && startRefresh(entry);
+                    }
+                    if (refresh) {
+                        refresh(entry);
+                    }
+                }
+            }, refreshInterval);
+        }
+        return true;
+    }
+
+    /**
+     * Marks the specified entry as being refreshed if it can be and isn't already. Must be called while holding the
+     * entries lock.
+     *
+     * @return <code>true</code> if the caller is now in charge of refreshing the entry
+     */
+    private static boolean startRefresh(Entry entry) {
+        if (entry.refresh == null || entry.refreshing) {
+            return false;
+        }
+        entry.refreshing = true;
+        return true;
+    }
+
+    private void refresh(final Entry entry) {
+        refresher.refresh(entry.refresh, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (entries) {
+                    entry.refreshing = false;
+                }
+            }
+        });
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    @Override
+    public void onChanges(String workspace, List<RepositoryObserver.Change> changes) {
+        for (RepositoryObserver.Change change : changes) {
+            if (isDependency(change)) {
+                final List<Entry> toRefresh = new ArrayList<Entry>();
+                synchronized (entries) {
+                    // results being computed might not reflect this change
+                    generation.incrementAndGet();
+                    final Iterator<Entry> iterator = entries.values().iterator();
+                    while (iterator.hasNext()) {
+                        final Entry entry = iterator.next();
+                        if (entry.workspace.equals(workspace)) {
+                            if (entry.refresh != null) {
+                                // keep serving the stale result while it's refreshed, if it's still being used
+                                entry.stale = true;
+                                if (entry.read && startRefresh(entry)) {
+                                    toRefresh.add(entry);
+                                }
+                            } else {
+                                iterator.remove();
+                            }
+                        }
+                    }
+                }
+                for (Entry entry : toRefresh) {
+                    refresh(entry);
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean isDependency(RepositoryObserver.Change change) {
+        if (dependencyPaths.isEmpty() && dependencyNodeTypes.isEmpty()) {
+            return true;
+        }
+
+        for (String path : dependencyPaths) {
+            if (change.affects(path)) {
+                return true;
+            }
+        }
+
+        for (String nodeType : dependencyNodeTypes) {
+            if (change.mightBeNodeType(nodeType)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedQueryResultCache{query='" + queryName + "'}";
+    }
+
+    /**
+     * A cached result: its serialized content along with the response headers which were computed with it.
+     */
+    public static class Result {
+        private final byte[] content;
+        private final Map<String, String> headers;
+
+        private Result(byte[] content, Map<String, String> headers) {
+            this.content = content;
+            this.headers = headers != null ? headers : Collections.<String, String>emptyMap();
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+    }
+
+    private static class Entry {
+        private final String workspace;
+        private final Result result;
+        private final long computed;
+        private final long expiration;
+        private final Callable<?> refresh;
+        // guarded by the entries lock
+        private boolean stale;
+        private boolean refreshing;
+        private boolean read;
+
+        private Entry(String workspace, Result result, long computed, long expiration, Callable<?> refresh) {
+            this.workspace = workspace;
+            this.result = result;
+            this.computed = computed;
+            this.expiration = expiration;
+            this.refresh = refresh;
+        }
+    }
+}
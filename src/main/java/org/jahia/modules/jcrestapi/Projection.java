@@ -0,0 +1,123 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.json.Filter;
+
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.query.Row;
+
+/**
+ * The formats in which query results can be projected as rows of the columns selected by the query statement, instead
+ * of being rendered as complete nodes.
+ *
+ * @author Christophe Laprun
+ */
+public enum Projection {
+    /**
+     * Rows are output as JSON arrays of column values, along with the column names.
+     */
+    JSON(Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON),
+    /**
+     * Rows are streamed as comma-separated values, preceded by a header line providing the column names.
+     */
+    CSV(Utils.MEDIA_TYPE_TEXT_CSV);
+
+    private final String mediaType;
+
+    Projection(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Retrieves whether the specified row should be output, i.e. whether all the nodes it was computed from are
+     * accepted by the specified filter.
+     */
+    static boolean accept(Row row, String[] selectorNames, Filter filter) throws RepositoryException {
+        if (selectorNames.length == 1) {
+            return filter.acceptChild(row.getNode());
+        }
+
+        for (String selectorName : selectorNames) {
+            final Node node = row.getNode(selectorName);
+            // outer joins might not provide a node for each selector
+            if (node != null && !filter.acceptChild(node)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts the specified JCR value to the object best representing it in JSON.
+     */
+    static Object toJSON(Value value) throws RepositoryException {
+        if (value == null) {
+            return null;
+        }
+
+        switch (value.getType()) {
+            case PropertyType.LONG:
+                return value.getLong();
+            case PropertyType.DOUBLE:
+                return value.getDouble();
+            case PropertyType.DECIMAL:
+                return value.getDecimal();
+            case PropertyType.BOOLEAN:
+                return value.getBoolean();
+            case PropertyType.BINARY:
+                // don't output binary content in rows
+                return null;
+            default:
+                return value.getString();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.ws.rs.core.Response;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether queries can be performed based on their estimated cost, as computed by {@link QueryPlan}, so that
+ * expensive queries don't saturate the repository. Queries which cost is above the configured maximum are either
+ * rejected or, when the queuing policy is used, performed one at a time (or by the configured number of concurrent
+ * expensive queries), waiting at most for the configured queue timeout or the request deadline, whichever comes first.
+ * Admission control is disabled when no maximum cost is configured.
+ *
+ * @author Christophe Laprun
+ */
+public class QueryAdmission {
+    public static final String REJECT = "reject";
+    public static final String QUEUE = "queue";
+
+    /**
+     * The status of the responses to queries rejected because of their cost, which JAX-RS doesn't define.
+     */
+    public static final int UNPROCESSABLE_ENTITY = 422;
+
+    /**
+     * What happens to a query when it is submitted.
+     */
+    public enum Decision {
+        ADMITTED, QUEUED, REJECTED
+    }
+
+    private final long maxCost;
+    private final boolean queue;
+    private final Semaphore expensiveQueries;
+    private final long queueTimeout;
+
+    QueryAdmission(long maxCost, String policy, int expensiveQueriesConcurrency, long queueTimeout) {
+        this.maxCost = maxCost;
+        this.queue = QUEUE.equalsIgnoreCase(policy);
+        this.expensiveQueries = new Semaphore(Math.max(1, expensiveQueriesConcurrency), true);
+        this.queueTimeout = queueTimeout;
+    }
+
+    // Initialization on demand holder idiom: thread-safe singleton initialization
+    private static class Holder {
+        static final QueryAdmission INSTANCE;
+
+        static {
+            final SpringBeansAccess access = SpringBeansAccess.getInstance();
+            INSTANCE = new QueryAdmission(access.getQueryMaxCost(), access.getQueryAdmissionPolicy(),
+                    access.getExpensiveQueriesConcurrency(), access.getExpensiveQueriesQueueTimeout());
+        }
+
+        private Holder() {
+        }
+    }
+
+    public static QueryAdmission getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return maxCost > 0;
+    }
+
+    public long getMaxCost() {
+        return maxCost;
+    }
+
+    /**
+     * Determines what would happen to the query which plan is specified if it was submitted.
+     */
+    public Decision decide(QueryPlan plan) {
+        if (!isEnabled() || plan.getCost() <= maxCost) {
+            return Decision.ADMITTED;
+        }
+        return queue ? Decision.QUEUED : Decision.REJECTED;
+    }
+
+    /**
+     * Admits the query which plan is specified, waiting for its turn if it is expensive and the queuing policy is used.
+     * If <code>true</code> is returned, {@link #release()} must be called once the query has been performed.
+     *
+     * @param plan the plan of the query to admit
+     * @return <code>true</code> if the query was queued and now holds one of the expensive queries slots,
+     * <code>false</code> if it was admitted without restriction
+     * @throws QueryNotAdmittedException if the query is rejected or couldn't get a slot in time
+     */
+    public boolean admit(QueryPlan plan) {
+        switch (decide(plan)) {
+            case ADMITTED:
+                return false;
+            case REJECTED:
+                // retrying won't help, the query needs to be made more selective
+                throw new QueryNotAdmittedException(UNPROCESSABLE_ENTITY,
+                        "Query estimated cost " + plan.getCost() + " exceeds the maximum allowed cost of " + maxCost, -1);
+            default:
+                long timeout = queueTimeout;
+                final long deadline = Deadline.get();
+                if (deadline != Long.MAX_VALUE) {
+                    timeout = Math.min(timeout, deadline - System.currentTimeMillis());
+                }
+
+                try {
+                    if (timeout > 0 && expensiveQueries.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new QueryNotAdmittedException(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(),
+                        "Too many expensive queries are being performed, please retry later", Math.max(1, (queueTimeout + 999) / 1000));
+        }
+    }
+
+    /**
+     * Releases the expensive query slot acquired by a previous successful call to {@link #admit(QueryPlan)}.
+     */
+    public void release() {
+        expensiveQueries.release();
+    }
+
+    /**
+     * Thrown when a query is not admitted, carrying the status of the response to send back and, when the query can be
+     * retried, how long clients should wait before doing so.
+     */
+    public static class QueryNotAdmittedException extends RuntimeException {
+        private final int status;
+        private final long retryAfter;
+
+        public QueryNotAdmittedException(int status, String message, long retryAfter) {
+            super(message);
+            this.status = status;
+            this.retryAfter = retryAfter;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * Retrieves the number of seconds after which the query can be retried, <code>-1</code> if retrying won't help.
+         */
+        public long getRetryAfter() {
+            return retryAfter;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the queries of a batch request concurrently on a bounded pool of threads. When all threads are busy and the
+ * queue is full, queries are run in the thread which submitted them so that batches degrade to sequential execution
+ * instead of failing.
+ *
+ * @author Christophe Laprun
+ */
+public class QueryBatchExecutor {
+    private final ThreadPoolExecutor executor;
+
+    QueryBatchExecutor(int threads, int queueSize) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "jcrestapi-query-batch-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                        // run the task in the calling thread, even if we're shutting down, so that its future completes
+                        task.run();
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Initialization on demand holder idiom: thread-safe singleton initialization
+    private static class Holder {
+        static final QueryBatchExecutor INSTANCE;
+
+        static {
+            final SpringBeansAccess access = SpringBeansAccess.getInstance();
+            INSTANCE = new QueryBatchExecutor(access.getBatchQueryThreads(), access.getBatchQueryQueueSize());
+        }
+
+        private Holder() {
+        }
+    }
+
+    public static QueryBatchExecutor getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Runs the specified tasks concurrently, waiting for all of them to complete.
+     *
+     * @param tasks the tasks to run
+     * @param <T>   the type of the tasks results
+     * @return the Futures holding the results of the tasks, in the same order as the tasks
+     * @throws InterruptedException if the calling thread was interrupted while waiting for the tasks to complete, in
+     *                              which case tasks which didn't complete yet are cancelled
+     */
+    public <T> List<Future<T>> invokeAll(List<Callable<T>> tasks) throws InterruptedException {
+        final List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        try {
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<T> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // failures are reported to the caller through the future
+                }
+            }
+            return futures;
+        } catch (InterruptedException e) {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+}
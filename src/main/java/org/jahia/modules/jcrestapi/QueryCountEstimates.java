@@ -0,0 +1,158 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches estimates of the total number of results of queries so that clients can display page counts without the
+ * whole query being counted on each page request. Estimates are kept per user, since they depend on the permissions
+ * of the user performing the query, and expire after a configurable time to live.
+ *
+ * @author Christophe Laprun
+ */
+public class QueryCountEstimates {
+    private static final int MAX_ENTRIES = 1024;
+
+    private final long timeToLive;
+    private final Map<String, Entry> estimates = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    QueryCountEstimates(int timeToLiveInSeconds) {
+        this.timeToLive = timeToLiveInSeconds * 1000L;
+    }
+
+    // Initialization on demand holder idiom: thread-safe singleton initialization
+    private static class Holder {
+        static final QueryCountEstimates INSTANCE = new QueryCountEstimates(SpringBeansAccess.getInstance().getCountEstimateTimeToLive());
+
+        private Holder() {
+        }
+    }
+
+    public static QueryCountEstimates getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Something able to count the results of a query.
+     */
+    public interface Counter {
+        long count() throws RepositoryException;
+    }
+
+    /**
+     * Retrieves the estimated number of results of the query identified by the specified key, counting them using the
+     * specified Counter if no estimate is cached or if the cached estimate has expired.
+     *
+     * @param key     a key identifying the query and the user performing it
+     * @param counter the Counter to use to count results if needed
+     * @return the estimated total number of results of the query
+     * @throws RepositoryException if the results couldn't be counted
+     */
+    public long getEstimate(String key, Counter counter) throws RepositoryException {
+        final long now = System.currentTimeMillis();
+        synchronized (estimates) {
+            final Entry entry = estimates.get(key);
+            if (entry != null && entry.expiration >= now) {
+                return entry.count;
+            }
+        }
+
+        final long count = counter.count();
+        if (timeToLive > 0) {
+            synchronized (estimates) {
+                estimates.put(key, new Entry(count, now + timeToLive));
+            }
+        }
+        return count;
+    }
+
+    public void clear() {
+        synchronized (estimates) {
+            estimates.clear();
+        }
+    }
+
+    /**
+     * Counts the results of the specified query, which should have neither limit nor offset, relying on the size
+     * reported by the repository when it is known and iterating over the results otherwise.
+     *
+     * @param query the query which results we want to count
+     * @return the number of results of the specified query
+     * @throws RepositoryException if the query couldn't be performed
+     */
+    public static long count(Query query) throws RepositoryException {
+        final NodeIterator nodes = query.execute().getNodes();
+        final long size = nodes.getSize();
+        if (size >= 0) {
+            return size;
+        }
+
+        long count = 0;
+        while (nodes.hasNext()) {
+            nodes.nextNode();
+            count++;
+        }
+        return count;
+    }
+
+    private static class Entry {
+        private final long count;
+        private final long expiration;
+
+        private Entry(long count, long expiration) {
+            this.count = count;
+            this.expiration = expiration;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Future;
+
+/**
+ * A query executed asynchronously by {@link QueryJobs}, which serialized result is kept until it expires.
+ *
+ * @author Christophe Laprun
+ */
+public class QueryJob {
+
+    /**
+     * The lifecycle of a job.
+     */
+    public enum Status {
+        PENDING, RUNNING, COMPLETED, FAILED, CANCELLED;
+
+        public boolean isDone() {
+            return this == COMPLETED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    /**
+     * The work performed by a job.
+     */
+    interface Work {
+        /**
+         * Performs the query, writing its serialized result to the specified output and recording the response headers
+         * to send back along with the result.
+         */
+        void perform(OutputStream output, Map<String, String> headers) throws Exception;
+    }
+
+    private static final ThreadLocal<QueryJob> current = new ThreadLocal<QueryJob>();
+
+    private final String id = UUID.randomUUID().toString();
+    private final String owner;
+    private final String workspace;
+    private final String language;
+    private final long created = System.currentTimeMillis();
+    private final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+    private volatile Status status = Status.PENDING;
+    private volatile long started;
+    private volatile long completed;
+    private volatile long expiration = Long.MAX_VALUE;
+    private volatile String error;
+    private SpillingOutputStream result;
+    private Future<?> future;
+
+    QueryJob(String owner, String workspace, String language) {
+        this.owner = owner;
+        this.workspace = workspace;
+        this.language = language;
+    }
+
+    void run(Work work, int spillThreshold, long timeToLive) {
+        synchronized (this) {
+            if (status != Status.PENDING) {
+                // cancelled before it could start
+                return;
+            }
+            status = Status.RUNNING;
+            started = System.currentTimeMillis();
+        }
+
+        final SpillingOutputStream output = new SpillingOutputStream(spillThreshold);
+        final Map<String, String> resultHeaders = new LinkedHashMap<String, String>();
+        Status outcome;
+        String failure = null;
+        current.set(this);
+        try {
+            work.perform(output, resultHeaders);
+            output.close();
+            outcome = Status.COMPLETED;
+        } catch (Exception e) {
+            APIExceptionMapper.LOGGER.debug("Query job " + id + " failed", e);
+            output.discard();
+            outcome = Status.FAILED;
+            final String message = e.getLocalizedMessage();
+            failure = message != null ? message : e.getClass().getName();
+        } finally {
+            current.remove();
+        }
+
+        synchronized (this) {
+            completed = System.currentTimeMillis();
+            expiration = completed + timeToLive;
+            if (status == Status.CANCELLED) {
+                // we were cancelled while the query was running
+                output.discard();
+                return;
+            }
+            status = outcome;
+            error = failure;
+            if (outcome == Status.COMPLETED) {
+                result = output;
+                headers.putAll(resultHeaders);
+            }
+        }
+    }
+
+    /**
+     * Checks that the query job executed by the current thread, if any, hasn't been cancelled. Cancelling a job
+     * interrupts the thread executing it but the repository doesn't react to interruptions, so long running processing
+     * (result iteration, rendering, writing of the result) needs to call this method regularly to stop as soon as
+     * possible.
+     *
+     * @throws CancelledException if the current thread was interrupted or its query job was cancelled
+     */
+    static void checkCancelled() {
+        final QueryJob job = current.get();
+        if (Thread.currentThread().isInterrupted() || job != null && job.status == Status.CANCELLED) {
+            throw new CancelledException();
+        }
+    }
+
+    synchronized void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Cancels this job if it's not done yet and discards its result, if any.
+     */
+    synchronized void cancel() {
+        if (!status.isDone()) {
+            status = Status.CANCELLED;
+            completed = System.currentTimeMillis();
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+        discard();
+    }
+
+    synchronized void discard() {
+        if (result != null) {
+            result.discard();
+            result = null;
+        }
+    }
+
+    /**
+     * Writes the result of this job to the specified output. The result is written without holding this job's lock
+     * so that the job can still be queried, cancelled or purged while a client downloads it.
+     *
+     * @throws IOException if the result isn't available or couldn't be written
+     */
+    void writeResultTo(OutputStream output) throws IOException {
+        final SpillingOutputStream result;
+        synchronized (this) {
+            result = this.result;
+        }
+        if (result == null) {
+            throw new IOException("Result of query job " + id + " is not available");
+        }
+        result.writeTo(output);
+    }
+
+    /**
+     * Opens a stream reading the result of this job, which needs to be closed by the caller.
+     *
+     * @throws IOException if the result isn't available
+     */
+    InputStream openResult() throws IOException {
+        final SpillingOutputStream result;
+        synchronized (this) {
+            result = this.result;
+        }
+        if (result == null) {
+            throw new IOException("Result of query job " + id + " is not available");
+        }
+        return result.open();
+    }
+
+    boolean isExpired(long now) {
+        return expiration < now;
+    }
+
+    boolean isOwnedBy(String user) {
+        return owner == null ? user == null : owner.equals(user);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getWorkspace() {
+        return workspace;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public long getExpiration() {
+        return expiration;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public synchronized long getResultSize() {
+        return result != null ? result.size() : -1;
+    }
+
+    public synchronized Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, String>(headers));
+    }
+
+    /**
+     * Thrown when processing was stopped because the query job performing it was cancelled.
+     */
+    public static class CancelledException extends RuntimeException {
+        public CancelledException() {
+            super("Query job was cancelled");
+        }
+    }
+}
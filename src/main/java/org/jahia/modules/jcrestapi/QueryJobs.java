@@ -0,0 +1,183 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs queries submitted to the query endpoint in asynchronous mode on a bounded executor, keeping track of the
+ * resulting {@link QueryJob}s until their result expires. Jobs are only visible to the user who submitted them.
+ *
+ * @author Christophe Laprun
+ */
+public class QueryJobs {
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentMap<String, QueryJob> jobs = new ConcurrentHashMap<String, QueryJob>();
+    private final int spillThreshold;
+    private final long timeToLive;
+
+    QueryJobs(int threads, int queueSize, int spillThreshold, int timeToLiveInSeconds) {
+        this.spillThreshold = spillThreshold;
+        this.timeToLive = timeToLiveInSeconds * 1000L;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "jcrestapi-query-job-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Initialization on demand holder idiom: thread-safe singleton initialization
+    private static class Holder {
+        static final QueryJobs INSTANCE;
+
+        static {
+            final SpringBeansAccess access = SpringBeansAccess.getInstance();
+            INSTANCE = new QueryJobs(access.getAsyncQueryThreads(), access.getAsyncQueryQueueSize(),
+                    access.getAsyncQuerySpillThreshold(), access.getAsyncQueryResultTimeToLive());
+        }
+
+        private Holder() {
+        }
+    }
+
+    public static QueryJobs getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Submits the specified work for asynchronous execution.
+     *
+     * @param owner     a key identifying the user submitting the job
+     * @param workspace the workspace in which the query is performed
+     * @param language  the language in which the query is performed
+     * @param work      the work to perform
+     * @return the newly submitted job
+     * @throws RejectedExecutionException if too many jobs are already waiting to be executed
+     */
+    QueryJob submit(String owner, String workspace, String language, final QueryJob.Work work) {
+        purgeExpired();
+
+        final QueryJob job = new QueryJob(owner, workspace, language);
+        jobs.put(job.getId(), job);
+        try {
+            job.setFuture(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    job.run(work, spillThreshold, timeToLive);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * Retrieves the specified job if it exists, hasn't expired and belongs to the specified user.
+     *
+     * @param id    the job identifier
+     * @param owner a key identifying the user requesting the job
+     * @return the requested job or <code>null</code> if no such job is available to the specified user
+     */
+    public QueryJob get(String id, String owner) {
+        purgeExpired();
+
+        final QueryJob job = jobs.get(id);
+        return job != null && job.isOwnedBy(owner) ? job : null;
+    }
+
+    /**
+     * Cancels the specified job if it's still running and forgets about it.
+     *
+     * @param id    the job identifier
+     * @param owner a key identifying the user requesting the cancellation
+     * @return the cancelled job or <code>null</code> if no such job is available to the specified user
+     */
+    public QueryJob cancel(String id, String owner) {
+        final QueryJob job = get(id, owner);
+        if (job != null) {
+            jobs.remove(id);
+            job.cancel();
+        }
+        return job;
+    }
+
+    public int size() {
+        return jobs.size();
+    }
+
+    private void purgeExpired() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<String, QueryJob>> iterator = jobs.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final QueryJob job = iterator.next().getValue();
+            if (job.isExpired(now)) {
+                iterator.remove();
+                job.discard();
+            }
+        }
+    }
+
+    /**
+     * Stops the executor, cancelling pending and running jobs and discarding all results.
+     */
+    public void stop() {
+        executor.shutdownNow();
+        for (QueryJob job : jobs.values()) {
+            job.cancel();
+        }
+        jobs.clear();
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.query.qom.*;
+
+/**
+ * An immutable, session-independent description of a JCR query as the parts of its Query Object Model, from which
+ * queries can be re-created without having to parse a statement again.
+ *
+ * @author Christophe Laprun
+ */
+public final class QueryModel {
+    private final Source source;
+    private final Constraint constraint;
+    private final Ordering[] orderings;
+    private final Column[] columns;
+
+    public QueryModel(Source source, Constraint constraint, Ordering[] orderings, Column[] columns) {
+        this.source = source;
+        this.constraint = constraint;
+        this.orderings = orderings;
+        this.columns = columns;
+    }
+
+    public static QueryModel from(QueryObjectModel query) {
+        return new QueryModel(query.getSource(), query.getConstraint(), query.getOrderings(), query.getColumns());
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    public Constraint getConstraint() {
+        return constraint;
+    }
+
+    public Ordering[] getOrderings() {
+        return orderings;
+    }
+
+    public Column[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * Creates a new query from this model using the specified factory.
+     *
+     * @param factory the QueryObjectModelFactory of the session in which the query will be executed
+     * @return a new QueryObjectModel corresponding to this model
+     * @throws RepositoryException if the query couldn't be created
+     */
+    public QueryObjectModel createQuery(QueryObjectModelFactory factory) throws RepositoryException {
+        return factory.createQuery(source, constraint, orderings, columns);
+    }
+}
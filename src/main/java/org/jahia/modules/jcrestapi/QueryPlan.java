@@ -0,0 +1,352 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+import javax.jcr.query.qom.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A static analysis of a query, describing how the repository is expected to perform it. The repository doesn't expose
+ * its execution plans so the plan is derived from the Query Object Model of the query: each selector is considered to
+ * start with {@link #NODES_PER_SELECTOR} candidate nodes, a number which is then reduced by the selectivity of the
+ * constraints which can be resolved using the index. Constraints which don't restrict the candidates (negations,
+ * inequalities, length comparisons, leading wildcards...) don't reduce that number, selectors without any selective
+ * constraint being reported as warnings since every node of their type then needs to be considered. Joins are performed in memory by the
+ * repository, which is accounted for in the estimated cost.
+ * <p/>
+ * The resulting cost is therefore a relative measure, useful to compare queries and to reject the most expensive ones,
+ * not an actual number of nodes.
+ *
+ * @author Christophe Laprun
+ */
+public class QueryPlan {
+    /**
+     * The nominal number of candidate nodes of a selector without any constraint.
+     */
+    static final long NODES_PER_SELECTOR = 10000;
+
+    private static final double EQUALITY_SELECTIVITY = 0.01;
+    private static final double RANGE_SELECTIVITY = 0.3;
+    private static final double LIKE_SELECTIVITY = 0.1;
+    private static final double EXISTENCE_SELECTIVITY = 0.5;
+    private static final double FULL_TEXT_SELECTIVITY = 0.05;
+    private static final double CHILD_NODE_SELECTIVITY = 0.01;
+    private static final double DESCENDANT_NODE_SELECTIVITY = 0.1;
+
+    private final String statement;
+    private final List<SelectorPlan> selectors = new ArrayList<SelectorPlan>();
+    private final List<String> joins = new ArrayList<String>();
+    private final List<String> orderings = new ArrayList<String>();
+    private final List<String> warnings = new ArrayList<String>();
+    private final long cost;
+
+    private QueryPlan(String statement) {
+        this.statement = statement;
+        this.warnings.add("Query is not a JCR-SQL2 query and cannot be analyzed.");
+        this.cost = -1;
+    }
+
+    private QueryPlan(QueryObjectModel qom) throws RepositoryException {
+        statement = qom.getStatement();
+
+        final Constraint constraint = qom.getConstraint();
+        cost = analyze(qom.getSource(), constraint);
+
+        if (constraint != null) {
+            checkUnindexed(constraint);
+        }
+
+        final Ordering[] qomOrderings = qom.getOrderings();
+        if (qomOrderings != null) {
+            for (Ordering ordering : qomOrderings) {
+                orderings.add(describe(ordering.getOperand()) + (QueryObjectModelConstants.JCR_ORDER_DESCENDING.equals(ordering.getOrder()) ? " DESC" : " ASC"));
+            }
+        }
+    }
+
+    /**
+     * Analyzes the specified query.
+     *
+     * @param query the query to analyze
+     * @return the plan of the specified query
+     * @throws RepositoryException if the query couldn't be analyzed
+     */
+    public static QueryPlan analyze(Query query) throws RepositoryException {
+        if (query instanceof QueryObjectModel) {
+            return new QueryPlan((QueryObjectModel) query);
+        }
+        return new QueryPlan(query.getStatement());
+    }
+
+    public String getStatement() {
+        return statement;
+    }
+
+    /**
+     * Retrieves the estimated cost of the query.
+     *
+     * @return the estimated cost of the query or <code>-1</code> if it couldn't be estimated
+     */
+    public long getCost() {
+        return cost;
+    }
+
+    public List<SelectorPlan> getSelectors() {
+        return Collections.unmodifiableList(selectors);
+    }
+
+    public List<String> getJoins() {
+        return Collections.unmodifiableList(joins);
+    }
+
+    public List<String> getOrderings() {
+        return Collections.unmodifiableList(orderings);
+    }
+
+    public List<String> getWarnings() {
+        return Collections.unmodifiableList(warnings);
+    }
+
+    private long analyze(Source source, Constraint constraint) {
+        if (source instanceof Selector) {
+            final Selector selector = (Selector) source;
+            final String name = selector.getSelectorName();
+            final List<String> indexed = new ArrayList<String>();
+            final double selectivity = constraint != null ? selectivity(constraint, name, indexed) : 1;
+            final long candidates = Math.max(1, Math.round(NODES_PER_SELECTOR * selectivity));
+            final boolean traversal = selectivity >= 1;
+            if (traversal) {
+                warnings.add("Selector '" + name + "' has no selective constraint: every node of type '" + selector.getNodeTypeName() + "' is a candidate.");
+            }
+            selectors.add(new SelectorPlan(name, selector.getNodeTypeName(), indexed, traversal, candidates));
+            return candidates;
+        } else if (source instanceof Join) {
+            final Join join = (Join) source;
+            final long left = analyze(join.getLeft(), constraint);
+            final long right = analyze(join.getRight(), constraint);
+            joins.add(join.getJoinType() + " ON " + describe(join.getJoinCondition()));
+            warnings.add("Joins are performed in memory: results of both sides of the join are retrieved before being matched.");
+            return left + right + left * right / NODES_PER_SELECTOR;
+        } else {
+            return NODES_PER_SELECTOR;
+        }
+    }
+
+    /**
+     * Computes the fraction of the nodes of the specified selector which are expected to match the specified
+     * constraint, recording the constraints resolved using the index.
+     */
+    private static double selectivity(Constraint constraint, String selector, List<String> indexed) {
+        if (constraint instanceof And) {
+            final And and = (And) constraint;
+            return selectivity(and.getConstraint1(), selector, indexed) * selectivity(and.getConstraint2(), selector, indexed);
+        } else if (constraint instanceof Or) {
+            final Or or = (Or) constraint;
+            final List<String> branches = new ArrayList<String>();
+            final double selectivity = Math.min(1, selectivity(or.getConstraint1(), selector, branches) + selectivity(or.getConstraint2(), selector, branches));
+            if (selectivity < 1) {
+                indexed.addAll(branches);
+            }
+            return selectivity;
+        } else if (constraint instanceof Comparison) {
+            final Comparison comparison = (Comparison) constraint;
+            final DynamicOperand operand = comparison.getOperand1();
+            if (!selector.equals(getSelectorName(operand)) || operand instanceof Length) {
+                return 1;
+            }
+
+            final String operator = comparison.getOperator();
+            final double selectivity;
+            if (QueryObjectModelConstants.JCR_OPERATOR_EQUAL_TO.equals(operator)) {
+                selectivity = EQUALITY_SELECTIVITY;
+            } else if (QueryObjectModelConstants.JCR_OPERATOR_NOT_EQUAL_TO.equals(operator)) {
+                selectivity = 1;
+            } else if (QueryObjectModelConstants.JCR_OPERATOR_LIKE.equals(operator)) {
+                selectivity = hasLeadingWildcard(comparison.getOperand2()) ? 1 : LIKE_SELECTIVITY;
+            } else {
+                selectivity = RANGE_SELECTIVITY;
+            }
+            if (selectivity < 1) {
+                indexed.add(describe(constraint));
+            }
+            return selectivity;
+        } else if (constraint instanceof PropertyExistence) {
+            return select(constraint, ((PropertyExistence) constraint).getSelectorName(), selector, EXISTENCE_SELECTIVITY, indexed);
+        } else if (constraint instanceof FullTextSearch) {
+            return select(constraint, ((FullTextSearch) constraint).getSelectorName(), selector, FULL_TEXT_SELECTIVITY, indexed);
+        } else if (constraint instanceof ChildNode) {
+            return select(constraint, ((ChildNode) constraint).getSelectorName(), selector, CHILD_NODE_SELECTIVITY, indexed);
+        } else if (constraint instanceof DescendantNode) {
+            return select(constraint, ((DescendantNode) constraint).getSelectorName(), selector, DESCENDANT_NODE_SELECTIVITY, indexed);
+        } else if (constraint instanceof SameNode) {
+            return select(constraint, ((SameNode) constraint).getSelectorName(), selector, 1d / NODES_PER_SELECTOR, indexed);
+        } else {
+            // negations need to match every node of the selector to compute their complement
+            return 1;
+        }
+    }
+
+    private static double select(Constraint constraint, String constrainedSelector, String selector, double selectivity, List<String> indexed) {
+        if (selector.equals(constrainedSelector)) {
+            indexed.add(describe(constraint));
+            return selectivity;
+        }
+        return 1;
+    }
+
+    /**
+     * Records warnings for constraints which cannot be resolved efficiently using the index.
+     */
+    private void checkUnindexed(Constraint constraint) {
+        if (constraint instanceof And) {
+            checkUnindexed(((And) constraint).getConstraint1());
+            checkUnindexed(((And) constraint).getConstraint2());
+        } else if (constraint instanceof Or) {
+            checkUnindexed(((Or) constraint).getConstraint1());
+            checkUnindexed(((Or) constraint).getConstraint2());
+        } else if (constraint instanceof Not) {
+            checkUnindexed(((Not) constraint).getConstraint());
+        } else if (constraint instanceof Comparison) {
+            final Comparison comparison = (Comparison) constraint;
+            if (comparison.getOperand1() instanceof Length) {
+                warnings.add("Length comparison '" + describe(constraint) + "' is evaluated on each candidate node.");
+            } else if (QueryObjectModelConstants.JCR_OPERATOR_LIKE.equals(comparison.getOperator()) && hasLeadingWildcard(comparison.getOperand2())) {
+                warnings.add("Leading wildcard in '" + describe(constraint) + "' requires scanning every indexed value.");
+            }
+        }
+    }
+
+    private static boolean hasLeadingWildcard(StaticOperand operand) {
+        if (operand instanceof Literal) {
+            try {
+                final String pattern = ((Literal) operand).getLiteralValue().getString();
+                return pattern.startsWith("%") || pattern.startsWith("_");
+            } catch (RepositoryException e) {
+                return false;
+            }
+        }
+        // bind variables could contain anything
+        return false;
+    }
+
+    private static String getSelectorName(DynamicOperand operand) {
+        if (operand instanceof PropertyValue) {
+            return ((PropertyValue) operand).getSelectorName();
+        } else if (operand instanceof Length) {
+            return ((Length) operand).getPropertyValue().getSelectorName();
+        } else if (operand instanceof NodeName) {
+            return ((NodeName) operand).getSelectorName();
+        } else if (operand instanceof NodeLocalName) {
+            return ((NodeLocalName) operand).getSelectorName();
+        } else if (operand instanceof FullTextSearchScore) {
+            return ((FullTextSearchScore) operand).getSelectorName();
+        } else if (operand instanceof LowerCase) {
+            return getSelectorName(((LowerCase) operand).getOperand());
+        } else if (operand instanceof UpperCase) {
+            return getSelectorName(((UpperCase) operand).getOperand());
+        }
+        return null;
+    }
+
+    /**
+     * Describes the specified Query Object Model element, relying on the JCR-SQL2 representation that QOM
+     * implementations usually provide.
+     */
+    private static String describe(Object element) {
+        return String.valueOf(element);
+    }
+
+    /**
+     * How the nodes of a given selector are expected to be retrieved.
+     */
+    public static class SelectorPlan {
+        private final String name;
+        private final String nodeType;
+        private final List<String> indexedConstraints;
+        private final boolean traversal;
+        private final long candidates;
+
+        SelectorPlan(String name, String nodeType, List<String> indexedConstraints, boolean traversal, long candidates) {
+            this.name = name;
+            this.nodeType = nodeType;
+            this.indexedConstraints = Collections.unmodifiableList(indexedConstraints);
+            this.traversal = traversal;
+            this.candidates = candidates;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getNodeType() {
+            return nodeType;
+        }
+
+        /**
+         * @return the constraints on this selector which are resolved using the index
+         */
+        public List<String> getIndexedConstraints() {
+            return indexedConstraints;
+        }
+
+        /**
+         * @return <code>true</code> if every node of the selector's type is a candidate, <code>false</code> if the
+         * index is used to restrict the candidates
+         */
+        public boolean isTraversal() {
+            return traversal;
+        }
+
+        /**
+         * @return the estimated number of candidate nodes for this selector
+         */
+        public long getCandidates() {
+            return candidates;
+        }
+    }
+}
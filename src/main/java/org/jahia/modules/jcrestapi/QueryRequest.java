@@ -0,0 +1,470 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.json.JSONAggregation;
+import org.jahia.modules.jcrestapi.json.JSONQuery;
+import org.jahia.modules.jcrestapi.json.JSONStructuredQuery;
+import org.jahia.modules.json.Filter;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A request sent to the query endpoint, resolved to the statement to execute and captured along with the options
+ * specified by the request URI, so that it can be executed outside of the thread which received it.
+ *
+ * @author Christophe Laprun
+ */
+class QueryRequest {
+    private final JSONQuery jsonQuery;
+    private final QueryTemplate template;
+    private final String statement;
+    private final String identity;
+    private final Pagination pagination;
+    private final Filter filter;
+    private final int depth;
+    private final Set<String> childrenNodeTypes;
+    private final boolean resolveReferences;
+    private final boolean outputLinks;
+    private final boolean includeFullChildren;
+    private final boolean outputCompact;
+    private final boolean includeTotalCount;
+    private final Map<String, List<String>> queryParameters;
+    // set while this request holds an expensive query slot, i.e. from the moment its query is performed until its
+    // results, which are retrieved lazily, have been consumed
+    private final AtomicBoolean admitted = new AtomicBoolean();
+
+    /**
+     * Resolves the specified query request.
+     *
+     * @param jsonQuery the query request
+     * @param context   the UriInfo of the request
+     * @throws WebApplicationException with a {@link Response.Status#NOT_FOUND} response if the requested prepared query
+     *                                 doesn't exist or if the query endpoint is disabled, with a
+     *                                 {@link Response.Status#BAD_REQUEST} response if the continuation token, the
+     *                                 requested aggregations or include expression are invalid
+     */
+    QueryRequest(JSONQuery jsonQuery, UriInfo context) {
+        this.jsonQuery = jsonQuery;
+
+        if (jsonQuery.getQueryName() != null) {
+            template = PreparedQueriesRegistry.getInstance().getTemplate(jsonQuery.getQueryName());
+            if (template == null) {
+                throw new WebApplicationException(Response.status(Response.Status.NOT_FOUND).build());
+            }
+            try {
+                // placeholders in path positions are replaced by their values in the statement
+                statement = template.getStatement(jsonQuery.getParameters(), jsonQuery.getNamedParameters());
+            } catch (IllegalArgumentException e) {
+                throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build());
+            }
+        } else {
+            template = null;
+            if (!API.isQueryDisabled()) {
+                // structured queries are identified by their canonical representation instead of a statement
+                final JSONStructuredQuery structuredQuery = jsonQuery.getStructuredQuery();
+                statement = structuredQuery != null ? StructuredQueries.getKey(structuredQuery) : jsonQuery.getQuery();
+            } else {
+                APIExceptionMapper.LOGGER.debug("Query endpoint is disabled. Attempted query: " + jsonQuery);
+                throw new WebApplicationException(Response.status(Response.Status.NOT_FOUND).build());
+            }
+        }
+
+        childrenNodeTypes = new TreeSet<String>(Utils.getChildrenNodeTypes(context));
+        identity = getIdentity(statement, jsonQuery, childrenNodeTypes);
+        try {
+            pagination = createPagination(identity, jsonQuery);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build());
+        }
+
+        if (jsonQuery.getAggregations() != null) {
+            try {
+                // validate the requested aggregations upfront
+                createAggregations();
+            } catch (IllegalArgumentException e) {
+                throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build());
+            }
+        }
+
+        try {
+            filter = Utils.getFilter(context);
+            final RenderingPlan plan = Utils.getRenderingPlan(context);
+            depth = plan != null ? plan.getDepth(1) : 1;
+        } catch (IllegalArgumentException e) {
+            // invalid include expression, unsupported fields or unknown view
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build());
+        }
+        resolveReferences = Utils.getFlagValueFrom(context, API.RESOLVE_REFERENCES);
+        outputLinks = !Utils.getFlagValueFrom(context, API.NO_LINKS);
+        includeFullChildren = Utils.getFlagValueFrom(context, API.INCLUDE_FULL_CHILDREN);
+        outputCompact = Utils.getFlagValueFrom(context, API.COMPACT);
+        includeTotalCount = Utils.getFlagValueFrom(context, API.INCLUDE_TOTAL_COUNT);
+        final MultivaluedMap<String, String> parameters = context.getQueryParameters();
+        queryParameters = parameters != null ? new TreeMap<String, List<String>>(parameters) : null;
+    }
+
+    /**
+     * Creates a request performing the same query as the specified one, with the same options but a new pagination
+     * state, since pagination can only be used for a single execution.
+     */
+    private QueryRequest(QueryRequest request) {
+        jsonQuery = request.jsonQuery;
+        template = request.template;
+        statement = request.statement;
+        identity = request.identity;
+        pagination = createPagination(identity, jsonQuery);
+        filter = request.filter;
+        depth = request.depth;
+        childrenNodeTypes = request.childrenNodeTypes;
+        resolveReferences = request.resolveReferences;
+        outputLinks = request.outputLinks;
+        includeFullChildren = request.includeFullChildren;
+        outputCompact = request.outputCompact;
+        includeTotalCount = request.includeTotalCount;
+        queryParameters = request.queryParameters;
+    }
+
+    private static Pagination createPagination(String identity, JSONQuery jsonQuery) {
+        return new Pagination(identity, jsonQuery.getContinuationToken(), jsonQuery.getLimit(), jsonQuery.getOffset());
+    }
+
+    /**
+     * Creates a new request performing this request's query again, e.g. to refresh its cached result, this request's
+     * pagination state being only usable once.
+     *
+     * @return a new request for the same query and options
+     */
+    QueryRequest copy() {
+        return new QueryRequest(this);
+    }
+
+    JSONQuery getJSONQuery() {
+        return jsonQuery;
+    }
+
+    QueryTemplate getTemplate() {
+        return template;
+    }
+
+    Filter getFilter() {
+        return filter;
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    Pagination getPagination() {
+        return pagination;
+    }
+
+    /**
+     * Computes the key identifying the results of this request in the result cache of its prepared query.
+     */
+    String getCacheKey(String workspace, String language, String userId) {
+        return PreparedQueryResultCache.getKey(workspace, language, userId, jsonQuery, queryParameters);
+    }
+
+    /**
+     * Sets the rendering flags of the current thread to the ones specified by this request.
+     */
+    void applyFlags() {
+        API.setResolveReferences(resolveReferences);
+        API.setOutputLinks(outputLinks);
+        API.setIncludeFullChildren(includeFullChildren);
+        API.setOutputCompact(outputCompact);
+    }
+
+    /**
+     * Performs the query, adding the total count estimate to the specified response headers if it was requested.
+     * Expensive queries hold their admission slot until {@link #releaseAdmission()} is called.
+     *
+     * @param session         the session in which the query is performed
+     * @param workspace       the workspace in which the query is performed
+     * @param language        the language in which the query is performed
+     * @param responseHeaders the headers to send back along with the results
+     * @return an Iterator over the nodes of the requested page
+     * @throws RepositoryException if the query couldn't be performed
+     */
+    Iterator<Node> execute(Session session, String workspace, String language, Map<String, String> responseHeaders) throws RepositoryException {
+        return pagination.iterate(executeQuery(session, workspace, language, responseHeaders).getNodes());
+    }
+
+    /**
+     * Performs the query, adding the total count estimate to the specified response headers if it was requested. The
+     * returned result still needs to be paginated using {@link #getPagination()}. Expensive queries hold their admission
+     * slot until {@link #releaseAdmission()} is called.
+     *
+     * @param session         the session in which the query is performed
+     * @param workspace       the workspace in which the query is performed
+     * @param language        the language in which the query is performed
+     * @param responseHeaders the headers to send back along with the results
+     * @return the result of the query
+     * @throws RepositoryException if the query couldn't be performed
+     */
+    QueryResult executeQuery(final Session session, final String workspace, final String language, Map<String, String> responseHeaders) throws RepositoryException {
+        final QueryManager queryManager = session.getWorkspace().getQueryManager();
+        final ValueFactory valueFactory = session.getValueFactory();
+        final Query query = pagination.prepare(createQuery(session, queryManager, workspace, language), queryManager.getQOMFactory(), valueFactory);
+        bindParameters(query, valueFactory);
+
+        // expensive queries might need to wait for their turn, or be rejected, before being performed
+        admit(query);
+        boolean executed = false;
+        try {
+            final QueryResult result = execute(query, session, queryManager, valueFactory, workspace, language, responseHeaders);
+            executed = true;
+            return result;
+        } finally {
+            if (!executed) {
+                releaseAdmission();
+            }
+        }
+    }
+
+    /**
+     * Whether this request asks for aggregations over the query results instead of the results themselves.
+     */
+    boolean isAggregation() {
+        return jsonQuery.getAggregations() != null;
+    }
+
+    /**
+     * Creates new aggregators for the aggregations requested by this request.
+     */
+    List<Aggregation> createAggregations() {
+        final int maxBuckets = SpringBeansAccess.getInstance().getAggregationMaxBuckets();
+        final List<JSONAggregation> requested = jsonQuery.getAggregations();
+        final List<Aggregation> aggregations = new ArrayList<Aggregation>(requested.size());
+        for (JSONAggregation aggregation : requested) {
+            aggregations.add(new Aggregation(aggregation, maxBuckets));
+        }
+        return aggregations;
+    }
+
+    /**
+     * Performs the query ignoring pagination, so that all its results can be aggregated. Expensive queries hold their
+     * admission slot until {@link #releaseAdmission()} is called.
+     *
+     * @param session   the session in which the query is performed
+     * @param workspace the workspace in which the query is performed
+     * @param language  the language in which the query is performed
+     * @return all the nodes matching the query
+     * @throws RepositoryException if the query couldn't be performed
+     */
+    Iterator<Node> executeAll(Session session, String workspace, String language) throws RepositoryException {
+        final QueryManager queryManager = session.getWorkspace().getQueryManager();
+        final Query query = createQuery(session, queryManager, workspace, language);
+        bindParameters(query, session.getValueFactory());
+
+        admit(query);
+        boolean executed = false;
+        try {
+            final Iterator<Node> nodes = query.execute().getNodes();
+            executed = true;
+            return nodes;
+        } finally {
+            if (!executed) {
+                releaseAdmission();
+            }
+        }
+    }
+
+    private void admit(Query query) throws RepositoryException {
+        final QueryAdmission admission = QueryAdmission.getInstance();
+        if (admission.isEnabled() && admission.admit(QueryPlan.analyze(query))) {
+            admitted.set(true);
+        }
+    }
+
+    /**
+     * Releases the expensive query slot acquired when the query was performed, if any. Since the repository retrieves
+     * results lazily, this must only be done once they have been iterated over or written, see
+     * {@link #getAdmissionRelease()}. Calling this method again has no effect.
+     */
+    void releaseAdmission() {
+        if (admitted.compareAndSet(true, false)) {
+            QueryAdmission.getInstance().release();
+        }
+    }
+
+    /**
+     * Retrieves a Closeable {@link #releaseAdmission() releasing the expensive query slot} held by this request, to be
+     * closed by outputs writing the results once the request has been processed.
+     */
+    Closeable getAdmissionRelease() {
+        return new Closeable() {
+            @Override
+            public void close() {
+                releaseAdmission();
+            }
+        };
+    }
+
+    /**
+     * Analyzes the query as it would be performed by {@link #executeQuery}.
+     *
+     * @param session   the session in which the query would be performed
+     * @param workspace the workspace in which the query would be performed
+     * @param language  the language in which the query would be performed
+     * @return the plan of the query
+     * @throws RepositoryException if the query couldn't be analyzed
+     */
+    QueryPlan explain(Session session, String workspace, String language) throws RepositoryException {
+        final QueryManager queryManager = session.getWorkspace().getQueryManager();
+        return QueryPlan.analyze(pagination.prepare(createQuery(session, queryManager, workspace, language), queryManager.getQOMFactory(),
+                session.getValueFactory()));
+    }
+
+    private QueryResult execute(Query query, final Session session, final QueryManager queryManager, final ValueFactory valueFactory,
+                                final String workspace, final String language, Map<String, String> responseHeaders) throws RepositoryException {
+        if (includeTotalCount) {
+            final String countKey = workspace + '\n' + language + '\n' + session.getUserID() + '\n' + identity;
+            final long estimate = QueryCountEstimates.getInstance().getEstimate(countKey, new QueryCountEstimates.Counter() {
+                @Override
+                public long count() throws RepositoryException {
+                    final Query countQuery = createQuery(session, queryManager, workspace, language);
+                    bindParameters(countQuery, valueFactory);
+                    return QueryCountEstimates.count(countQuery);
+                }
+            });
+            responseHeaders.put(API.TOTAL_COUNT_ESTIMATE_HEADER, Long.toString(estimate));
+        }
+
+        return query.execute();
+    }
+
+    /**
+     * Records a call of this request's prepared query, if any, in its statistics.
+     *
+     * @param latency the duration of the call, in nanoseconds
+     * @param failed  whether the call failed
+     */
+    void recordCall(long latency, boolean failed) {
+        if (template != null) {
+            template.getStatistics().record(latency, failed);
+        }
+    }
+
+    /**
+     * Adds the continuation token to the specified response headers if the results returned by {@link #execute} have
+     * been completely iterated over and a next page exists.
+     */
+    void addContinuationToken(Map<String, String> responseHeaders) {
+        final String continuationToken = pagination.getContinuationToken();
+        if (continuationToken != null) {
+            responseHeaders.put(API.CONTINUATION_TOKEN_HEADER, continuationToken);
+        }
+    }
+
+    /**
+     * Creates the query to perform, pushing the node type filters into it when possible so that filtered out nodes
+     * don't need to be retrieved in the first place.
+     */
+    private Query createQuery(Session session, QueryManager queryManager, String workspace, String language) throws RepositoryException {
+        final JSONStructuredQuery structuredQuery = template == null ? jsonQuery.getStructuredQuery() : null;
+        final Query query = structuredQuery != null ?
+                ParsedQueryCache.getInstance().createQuery(queryManager, session.getValueFactory(), structuredQuery, statement, workspace, language) :
+                ParsedQueryCache.getInstance().createQuery(queryManager, statement, workspace, language);
+        return NodeTypeConstraints.apply(query, queryManager.getQOMFactory(), session.getValueFactory(),
+                session.getWorkspace().getNodeTypeManager(), API.excludedNodeTypes, childrenNodeTypes);
+    }
+
+    private void bindParameters(Query query, ValueFactory valueFactory) throws RepositoryException {
+        if (template != null) {
+            // bind parameter values to the prepared query's bind variables
+            if (jsonQuery.getParameters() != null) {
+                template.bind(query, valueFactory, jsonQuery.getParameters());
+            } else if (jsonQuery.getNamedParameters() != null) {
+                template.bind(query, valueFactory, jsonQuery.getNamedParameters());
+            }
+        } else if (jsonQuery.getStructuredQuery() != null && jsonQuery.getNamedParameters() != null) {
+            // bind the values of the parameters referenced by the structured query's constraints
+            final Map<String, Object> parameters = jsonQuery.getNamedParameters();
+            for (String name : query.getBindVariableNames()) {
+                if (parameters.containsKey(name)) {
+                    query.bindValue(name, QueryTemplate.createValue(parameters.get(name), valueFactory));
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes a String identifying the results of the specified query statement and parameters, regardless of
+     * pagination.
+     */
+    private static String getIdentity(String statement, JSONQuery jsonQuery, Set<String> childrenNodeTypes) {
+        final StringBuilder identity = new StringBuilder(String.valueOf(statement)).append('\n');
+        if (jsonQuery.getParameters() != null) {
+            identity.append(jsonQuery.getParameters());
+        } else if (jsonQuery.getNamedParameters() != null) {
+            identity.append(new TreeMap<String, Object>(jsonQuery.getNamedParameters()));
+        }
+        // results, and therefore pages and counts, depend on the node types filter which is pushed into the query
+        if (!childrenNodeTypes.isEmpty()) {
+            identity.append('\n').append(childrenNodeTypes);
+        }
+        return identity.toString();
+    }
+}
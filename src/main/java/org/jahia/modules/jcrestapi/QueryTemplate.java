@@ -0,0 +1,423 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.api.PreparedQuery;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.Query;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The compiled form of a {@link PreparedQuery}. The query source is tokenized once, when the prepared query is
+ * registered, and its placeholders (either <code>?</code> or named <code>:name</code> parameters) are replaced by
+ * JCR-SQL2 bind variables. The resulting statement therefore never changes between calls, which allows the repository
+ * to reuse what it knows about it, and parameter values are bound using {@link Query#bindValue(String, Value)} instead
+ * of being encoded into a new statement.
+ * <p/>
+ * JCR-SQL2 doesn't accept bind variables as the path arguments of the <code>ISSAMENODE</code>, <code>ISCHILDNODE</code>
+ * and <code>ISDESCENDANTNODE</code> constraints though: placeholders found there are instead replaced by the escaped
+ * string literal of their value when the statement of a call is retrieved using
+ * {@link #getStatement(List, Map)}.
+ *
+ * @author Christophe Laprun
+ */
+public class QueryTemplate {
+    static final String POSITIONAL_VARIABLE_PREFIX = "p";
+    private static final Set<String> PATH_CONSTRAINTS = new HashSet<String>(Arrays.asList("ISSAMENODE", "ISCHILDNODE", "ISDESCENDANTNODE"));
+    private static final String PATH_PLACEHOLDER_VALUE = "/";
+
+    private final PreparedQuery preparedQuery;
+    private final String statement;
+    private final List<String> variables;
+    private final Set<String> bindVariables;
+    // the statement split around the placeholders in path positions, which names are recorded in pathVariables
+    private final List<String> segments;
+    private final List<String> pathVariables;
+    private final boolean positional;
+    private final PreparedQueryResultCache resultCache;
+    private final QueryStatistics statistics = new QueryStatistics();
+    private long version;
+    private long registered;
+
+    QueryTemplate(PreparedQuery preparedQuery) {
+        this.preparedQuery = preparedQuery;
+        this.resultCache = preparedQuery.getCacheTimeToLive() > 0 || preparedQuery.isMaterializedView() ?
+                new PreparedQueryResultCache(preparedQuery) : null;
+
+        final String source = preparedQuery.getSource();
+        if (source == null) {
+            throw new IllegalArgumentException("Prepared query '" + preparedQuery.getName() + "' doesn't provide a source");
+        }
+
+        final int length = source.length();
+        final StringBuilder builder = new StringBuilder(length + 16);
+        final List<String> names = new ArrayList<String>();
+        final Set<String> bindNames = new HashSet<String>();
+        final List<String> segments = new ArrayList<String>();
+        final List<String> pathNames = new ArrayList<String>();
+        // names of the functions which arguments we're in, innermost last
+        final LinkedList<String> functions = new LinkedList<String>();
+        int positionalNb = 0;
+        char delimiter = 0; // closing character of the literal or bracketed name we're in, if any
+        for (int i = 0; i < length; i++) {
+            final char c = source.charAt(i);
+
+            if (delimiter != 0) {
+                // placeholders are not recognized within literals and bracketed names
+                if (c == delimiter) {
+                    delimiter = 0;
+                }
+                builder.append(c);
+                continue;
+            }
+
+            switch (c) {
+                case '\'':
+                case '"':
+                    delimiter = c;
+                    builder.append(c);
+                    break;
+                case '[':
+                    delimiter = ']';
+                    builder.append(c);
+                    break;
+                case '(':
+                    functions.addLast(getPrecedingWord(source, i).toUpperCase(Locale.ENGLISH));
+                    builder.append(c);
+                    break;
+                case ')':
+                    if (!functions.isEmpty()) {
+                        functions.removeLast();
+                    }
+                    builder.append(c);
+                    break;
+                case '?':
+                    final String positionalName = POSITIONAL_VARIABLE_PREFIX + (++positionalNb);
+                    names.add(positionalName);
+                    appendPlaceholder(positionalName, builder, functions, bindNames, segments, pathNames);
+                    break;
+                case ':':
+                    // named parameters must be preceded by a whitespace or start a function argument, otherwise we're looking
+                    // at a prefixed name
+                    int end = i + 1;
+                    while (end < length && isParameterNameCharacter(source.charAt(end))) {
+                        end++;
+                    }
+                    if (end > i + 1 && i > 0 && (Character.isWhitespace(source.charAt(i - 1)) || source.charAt(i - 1) == '('
+                            || source.charAt(i - 1) == ',')) {
+                        final String name = source.substring(i + 1, end);
+                        if (!names.contains(name)) {
+                            names.add(name);
+                        }
+                        appendPlaceholder(name, builder, functions, bindNames, segments, pathNames);
+                        i = end - 1;
+                    } else {
+                        builder.append(c);
+                    }
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+
+        if (positionalNb > 0 && positionalNb != names.size()) {
+            throw new IllegalArgumentException("Prepared query '" + preparedQuery.getName() + "' cannot mix positional and named parameters");
+        }
+
+        segments.add(builder.toString());
+        this.segments = Collections.unmodifiableList(segments);
+        this.pathVariables = Collections.unmodifiableList(pathNames);
+        this.statement = createStatement(null, null);
+        this.variables = Collections.unmodifiableList(names);
+        this.bindVariables = Collections.unmodifiableSet(bindNames);
+        this.positional = positionalNb > 0;
+    }
+
+    /**
+     * Replaces the specified placeholder by a bind variable or, if it's a path argument of a path constraint, starts a
+     * new statement segment.
+     */
+    private static void appendPlaceholder(String name, StringBuilder builder, LinkedList<String> functions, Set<String> bindNames,
+                                          List<String> segments, List<String> pathNames) {
+        if (!functions.isEmpty() && PATH_CONSTRAINTS.contains(functions.getLast())) {
+            segments.add(builder.toString());
+            builder.setLength(0);
+            pathNames.add(name);
+        } else {
+            bindNames.add(name);
+            builder.append('$').append(name);
+        }
+    }
+
+    private static String getPrecedingWord(String source, int index) {
+        int end = index;
+        while (end > 0 && Character.isWhitespace(source.charAt(end - 1))) {
+            end--;
+        }
+        int start = end;
+        while (start > 0 && Character.isLetter(source.charAt(start - 1))) {
+            start--;
+        }
+        return source.substring(start, end);
+    }
+
+    private String createStatement(List<Object> parameters, Map<String, Object> namedParameters) {
+        if (pathVariables.isEmpty()) {
+            return segments.get(0);
+        }
+
+        final StringBuilder builder = new StringBuilder(segments.get(0));
+        for (int i = 0; i < pathVariables.size(); i++) {
+            final String name = pathVariables.get(i);
+            final String value;
+            if (parameters != null) {
+                value = String.valueOf(parameters.get(variables.indexOf(name)));
+            } else if (namedParameters != null) {
+                value = String.valueOf(namedParameters.get(name));
+            } else {
+                value = PATH_PLACEHOLDER_VALUE;
+            }
+            // single quotes are escaped by doubling them in JCR-SQL2 string literals
+            builder.append('\'').append(value.replace("'", "''")).append('\'').append(segments.get(i + 1));
+        }
+        return builder.toString();
+    }
+
+    private static boolean isParameterNameCharacter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    public PreparedQuery getPreparedQuery() {
+        return preparedQuery;
+    }
+
+    public String getName() {
+        return preparedQuery.getName();
+    }
+
+    /**
+     * Retrieves the JCR-SQL2 statement associated with this template, i.e. the prepared query source where placeholders
+     * have been replaced by bind variables. Placeholders in path positions, if any, are replaced by the root path: use
+     * {@link #getStatement(List, Map)} to retrieve the statement to perform with given parameter values.
+     *
+     * @return the JCR-SQL2 statement associated with this template
+     */
+    public String getStatement() {
+        return statement;
+    }
+
+    /**
+     * Retrieves the JCR-SQL2 statement to perform with the specified parameter values, i.e. the statement returned by
+     * {@link #getStatement()} where placeholders in path positions are replaced by the string literal of their values.
+     * Other parameter values still need to be bound using one of the <code>bind</code> methods.
+     *
+     * @param parameters      the positional parameter values, if any
+     * @param namedParameters the named parameter values, if no positional values were provided
+     * @return the JCR-SQL2 statement to perform
+     * @throws IllegalArgumentException if the value of a placeholder in path position is missing
+     */
+    public String getStatement(List<Object> parameters, Map<String, Object> namedParameters) {
+        if (pathVariables.isEmpty()) {
+            return statement;
+        }
+
+        if (positional && parameters != null) {
+            checkParametersNumber(parameters);
+            return createStatement(parameters, null);
+        } else if (!positional && namedParameters != null) {
+            for (String name : pathVariables) {
+                if (!namedParameters.containsKey(name)) {
+                    throw new IllegalArgumentException("Missing value for parameter '" + name + "' of prepared query '" + getName() + "'");
+                }
+            }
+            return createStatement(null, namedParameters);
+        }
+        throw new IllegalArgumentException("Prepared query '" + getName() + "' expects " + (positional ? "positional" : "named") + " parameters");
+    }
+
+    private void checkParametersNumber(List<Object> parameters) {
+        final int size = variables.size();
+        if (parameters.size() < size) {
+            throw new IllegalArgumentException("Prepared query '" + getName() + "' expects " + size + " parameters, got " + parameters.size());
+        }
+    }
+
+    /**
+     * Retrieves the names of the bind variables used in this template's statement, in order of appearance.
+     *
+     * @return the names of the bind variables used in this template's statement
+     */
+    public List<String> getVariableNames() {
+        return variables;
+    }
+
+    public boolean isPositional() {
+        return positional;
+    }
+
+    /**
+     * Retrieves the call statistics of this template's prepared query since it was registered.
+     *
+     * @return the call statistics of this template's prepared query
+     */
+    public QueryStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Retrieves the version of the {@link PreparedQueriesRegistry} in which this template was registered.
+     *
+     * @return the registry version in which this template was registered, <code>0</code> if it isn't registered
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves when this template was registered.
+     *
+     * @return the number of milliseconds since the epoch at which this template was registered
+     */
+    public long getRegistered() {
+        return registered;
+    }
+
+    /**
+     * Records the registration of this template, before it's published in the registry.
+     */
+    void registered(long registryVersion) {
+        this.version = registryVersion;
+        this.registered = System.currentTimeMillis();
+    }
+
+    /**
+     * Retrieves the cache holding results of the associated prepared query, if it opted in to result caching.
+     *
+     * @return the cache holding results of the associated prepared query or <code>null</code> if its results are not
+     * cached
+     */
+    public PreparedQueryResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Binds the specified values, in order, to this template's positional parameters on the specified query.
+     *
+     * @param query        a Query created from this template's statement
+     * @param valueFactory the ValueFactory to use to create JCR values
+     * @param parameters   the values to bind
+     * @throws RepositoryException if a value couldn't be bound
+     */
+    public void bind(Query query, ValueFactory valueFactory, List<Object> parameters) throws RepositoryException {
+        if (!positional && !variables.isEmpty()) {
+            throw new IllegalArgumentException("Prepared query '" + getName() + "' expects named parameters");
+        }
+
+        checkParametersNumber(parameters);
+
+        for (int i = 0; i < variables.size(); i++) {
+            final String variable = variables.get(i);
+            if (bindVariables.contains(variable)) {
+                query.bindValue(variable, createValue(parameters.get(i), valueFactory));
+            }
+        }
+    }
+
+    /**
+     * Binds the specified values to this template's named parameters on the specified query.
+     *
+     * @param query        a Query created from this template's statement
+     * @param valueFactory the ValueFactory to use to create JCR values
+     * @param parameters   the values to bind, indexed by parameter name
+     * @throws RepositoryException if a value couldn't be bound
+     */
+    public void bind(Query query, ValueFactory valueFactory, Map<String, Object> parameters) throws RepositoryException {
+        if (positional) {
+            throw new IllegalArgumentException("Prepared query '" + getName() + "' expects positional parameters");
+        }
+
+        for (String key : parameters.keySet()) {
+            for (int i = 0; i < key.length(); i++) {
+                if (!isParameterNameCharacter(key.charAt(i))) {
+                    throw new IllegalArgumentException("Invalid parameter name '" + key + "'");
+                }
+            }
+        }
+
+        for (String variable : variables) {
+            if (!parameters.containsKey(variable)) {
+                throw new IllegalArgumentException("Missing value for parameter '" + variable + "' of prepared query '" + getName() + "'");
+            }
+            if (bindVariables.contains(variable)) {
+                query.bindValue(variable, createValue(parameters.get(variable), valueFactory));
+            }
+        }
+    }
+
+    static Value createValue(Object value, ValueFactory valueFactory) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return valueFactory.createValue(((Number) value).longValue());
+        } else if (value instanceof BigDecimal) {
+            return valueFactory.createValue((BigDecimal) value);
+        } else if (value instanceof Number) {
+            return valueFactory.createValue(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            return valueFactory.createValue((Boolean) value);
+        } else {
+            return valueFactory.createValue(String.valueOf(value));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.api.View;
+import org.jahia.modules.json.Filter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The compiled form of a {@link View}: the rendering options it declares are interpreted once when the view is
+ * registered so that requests selecting it only need to look the plan up.
+ *
+ * @author Christophe Laprun
+ */
+final class RenderingPlan {
+    private final View view;
+    private final int depth;
+    private final Fields fields;
+    private final Map<String, Boolean> flags;
+
+    RenderingPlan(View view) {
+        this.view = view;
+
+        if (!Utils.exists(view.getName())) {
+            throw new IllegalArgumentException("Views must be named");
+        }
+
+        depth = view.getDepth();
+        if (depth < 0) {
+            throw new IllegalArgumentException("View '" + view.getName() + "' has an invalid negative depth");
+        }
+
+        final Set<String> properties = new TreeSet<String>();
+        for (String property : view.getProperties()) {
+            for (String field : Utils.split(property)) {
+                properties.add(field.trim());
+            }
+        }
+        final int maxValueLength = Math.max(0, view.getMaxValueLength());
+        final Include include = Utils.exists(view.getInclude()) ? Include.parse(view.getInclude()) : null;
+        fields = properties.isEmpty() && maxValueLength == 0 && include == null ? null : new Fields(properties, maxValueLength, include);
+        if (fields != null && !view.isCompact() && include == null) {
+            try {
+                fields.checkSupportedByDefaultRepresentation();
+            } catch (Fields.UnsupportedFieldsException e) {
+                throw new IllegalArgumentException("View '" + view.getName() + "' is not compact: " + e.getMessage());
+            }
+        }
+
+        final Map<String, Boolean> flags = new HashMap<String, Boolean>(7);
+        flags.put(API.RESOLVE_REFERENCES, view.isReferences());
+        flags.put(API.NO_LINKS, !view.isLinks());
+        flags.put(API.INCLUDE_FULL_CHILDREN, depth > 1);
+        // shaped representations are always compact
+        flags.put(API.COMPACT, view.isCompact() || include != null);
+        this.flags = Collections.unmodifiableMap(flags);
+    }
+
+    View getView() {
+        return view;
+    }
+
+    /**
+     * Retrieves the value the view assigns to the specified rendering flag.
+     *
+     * @param flagName the name of the flag
+     * @return the value of the flag or <code>null</code> if the view doesn't specify it
+     */
+    Boolean getFlagValue(String flagName) {
+        return flags.get(flagName);
+    }
+
+    /**
+     * Retrieves the depth at which nodes should be rendered by an endpoint rendering them at the specified depth by
+     * default.
+     */
+    int getDepth(int defaultDepth) {
+        return Math.max(0, defaultDepth - 1 + depth);
+    }
+
+    /**
+     * Restricts the specified filter to the fields rendered by the view, if it specifies any.
+     */
+    Filter wrap(Filter filter) {
+        return fields != null ? fields.wrap(filter) : filter;
+    }
+}
@@ -0,0 +1,319 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.jaas.JahiaLoginModule;
+import org.jahia.services.content.JCRSessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.*;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Observes content changes in the repository and dispatches them to registered {@link ChangeListener}s, so that
+ * components keeping derived data in memory (caches, indexes, etc.) can invalidate or update it. Observation is started
+ * lazily, per workspace, using a dedicated system session.
+ *
+ * @author Christophe Laprun
+ */
+public class RepositoryObserver {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryObserver.class);
+    private static final RepositoryObserver INSTANCE = new RepositoryObserver();
+
+    private static final int EVENT_TYPES = Event.NODE_ADDED | Event.NODE_REMOVED | Event.NODE_MOVED
+            | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
+
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<ChangeListener>();
+    private final Map<String, WorkspaceObserver> observers = new ConcurrentHashMap<String, WorkspaceObserver>();
+
+    public static RepositoryObserver getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Listens to content changes happening in observed workspaces.
+     */
+    public interface ChangeListener {
+        /**
+         * Called with a batch of changes that occurred in the specified workspace.
+         *
+         * @param workspace the workspace in which changes occurred
+         * @param changes   the changes
+         */
+        void onChanges(String workspace, List<Change> changes);
+    }
+
+    public void addListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Makes sure that changes happening in the specified workspace are observed.
+     *
+     * @param workspace the workspace to observe
+     * @return <code>true</code> if the workspace is observed, <code>false</code> if observation couldn't be started
+     */
+    public boolean observe(String workspace) {
+        if (observers.containsKey(workspace)) {
+            return true;
+        }
+
+        synchronized (observers) {
+            if (observers.containsKey(workspace)) {
+                return true;
+            }
+
+            Session session = null;
+            try {
+                session = login(workspace);
+                final WorkspaceObserver observer = new WorkspaceObserver(workspace, session);
+                session.getWorkspace().getObservationManager().addEventListener(observer, EVENT_TYPES, "/", true, null, null, false);
+                observers.put(workspace, observer);
+                return true;
+            } catch (RepositoryException e) {
+                LOGGER.warn("Couldn't observe changes in workspace " + workspace + ", data derived from its content will only expire", e);
+                if (session != null && session.isLive()) {
+                    session.logout();
+                }
+                return false;
+            }
+        }
+    }
+
+    static Session login(String workspace) throws RepositoryException {
+        final Repository repository = SpringBeansAccess.getInstance().getRepository();
+        if (repository instanceof JCRSessionFactory) {
+            return repository.login(JahiaLoginModule.getSystemCredentials(), workspace);
+        } else {
+            return repository.login(null, workspace);
+        }
+    }
+
+    /**
+     * Stops observing all workspaces, releasing the associated sessions.
+     */
+    public void stop() {
+        synchronized (observers) {
+            for (WorkspaceObserver observer : observers.values()) {
+                observer.stop();
+            }
+            observers.clear();
+        }
+    }
+
+    /**
+     * A content change. Node types of the node associated with the change (the changed node or the parent of the
+     * changed property) are lazily resolved when needed, which is only possible while changes are being dispatched.
+     */
+    public static class Change {
+        private final int type;
+        private final String path;
+        private final String identifier;
+        private final Session session;
+        private Node node;
+        private boolean resolved;
+
+        Change(int type, String path, String identifier, Session session) {
+            this.type = type;
+            this.path = path;
+            this.identifier = identifier;
+            this.session = session;
+        }
+
+        /**
+         * @return the type of this change, as defined by {@link Event}
+         */
+        public int getType() {
+            return type;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public boolean isPropertyChange() {
+            return (type & (Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED)) != 0;
+        }
+
+        /**
+         * Retrieves the path of the node associated with this change, i.e. the changed node itself or the parent node of
+         * the changed property.
+         *
+         * @return the path of the node associated with this change
+         */
+        public String getNodePath() {
+            if (isPropertyChange()) {
+                final int lastSlash = path.lastIndexOf('/');
+                return lastSlash > 0 ? path.substring(0, lastSlash) : "/";
+            }
+            return path;
+        }
+
+        /**
+         * Determines whether this change affects the node identified by the specified path or one of its descendants,
+         * taking into account changes made to one of its ancestors (e.g. removal or move).
+         *
+         * @param dependencyPath the path of the node we want to know if it's affected
+         * @return <code>true</code> if this change affects the specified node or its descendants
+         */
+        public boolean affects(String dependencyPath) {
+            return isSameOrDescendant(path, dependencyPath) || (!isPropertyChange() && isSameOrDescendant(dependencyPath, path));
+        }
+
+        private static boolean isSameOrDescendant(String path, String ancestor) {
+            return path.equals(ancestor) || "/".equals(ancestor) || path.startsWith(ancestor + "/");
+        }
+
+        /**
+         * Retrieves the node associated with this change, if it still exists.
+         *
+         * @return the node associated with this change or <code>null</code> if it cannot be retrieved
+         */
+        public Node getNode() {
+            if (!resolved) {
+                resolved = true;
+                try {
+                    node = session.getNode(getNodePath());
+                } catch (RepositoryException e) {
+                    node = null;
+                }
+            }
+            return node;
+        }
+
+        /**
+         * Determines whether the node associated with this change is of the specified type. If the node cannot be
+         * retrieved anymore (e.g. because it was removed), we cannot decide and therefore conservatively consider that
+         * it is.
+         *
+         * @param nodeType the name of the node type to check
+         * @return <code>false</code> if the node associated with this change is known not to be of the specified type,
+         * <code>true</code> otherwise
+         */
+        public boolean mightBeNodeType(String nodeType) {
+            final Node changed = getNode();
+            if (changed == null) {
+                return true;
+            }
+            try {
+                return changed.isNodeType(nodeType);
+            } catch (RepositoryException e) {
+                return true;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Change{type=" + type + ", path='" + path + "'}";
+        }
+    }
+
+    private class WorkspaceObserver implements EventListener {
+        private final String workspace;
+        private final Session session;
+
+        private WorkspaceObserver(String workspace, Session session) {
+            this.workspace = workspace;
+            this.session = session;
+        }
+
+        @Override
+        public void onEvent(EventIterator events) {
+            if (listeners.isEmpty()) {
+                return;
+            }
+
+            final List<Change> changes = new ArrayList<Change>((int) Math.max(events.getSize(), 4));
+            while (events.hasNext()) {
+                final Event event = events.nextEvent();
+                try {
+                    changes.add(new Change(event.getType(), event.getPath(), event.getIdentifier(), session));
+                } catch (RepositoryException e) {
+                    LOGGER.debug("Ignoring event " + event, e);
+                }
+            }
+
+            if (!changes.isEmpty()) {
+                final List<Change> unmodifiableChanges = Collections.unmodifiableList(changes);
+                for (ChangeListener listener : listeners) {
+                    try {
+                        listener.onChanges(workspace, unmodifiableChanges);
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Listener " + listener + " failed to process changes in workspace " + workspace, e);
+                    }
+                }
+            }
+        }
+
+        private void stop() {
+            try {
+                session.getWorkspace().getObservationManager().removeEventListener(this);
+            } catch (RepositoryException e) {
+                LOGGER.debug("Couldn't remove observation listener for workspace " + workspace, e);
+            } finally {
+                if (session.isLive()) {
+                    session.logout();
+                }
+            }
+        }
+    }
+}
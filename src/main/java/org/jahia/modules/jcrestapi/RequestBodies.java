@@ -0,0 +1,224 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import javax.ws.rs.core.Response;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parses JSON request bodies directly from the request entity stream, enforcing the maximum body size and nesting
+ * depth configured using the <code>jahia.find.maxBodySize</code> and <code>jahia.find.maxBodyDepth</code> properties
+ * while parsing, so that oversized payloads are rejected as soon as a limit is crossed instead of being read in memory
+ * first.
+ *
+ * @author Christophe Laprun
+ */
+public final class RequestBodies {
+
+    private RequestBodies() {
+    }
+
+    /**
+     * Reads the value of the specified request body using the specified reader.
+     *
+     * @throws RequestBodyRejectedException if the body exceeds the configured limits
+     * @throws IOException                  if the body couldn't be read or parsed
+     */
+    public static <T> T read(ObjectReader reader, InputStream body) throws IOException {
+        final JsonParser parser = createParser(reader.getFactory(), body);
+        try {
+            return reader.readValue(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Creates a parser for the specified request body enforcing the configured limits.
+     */
+    public static JsonParser createParser(JsonFactory factory, InputStream body) throws IOException {
+        final SpringBeansAccess access = SpringBeansAccess.getInstance();
+        final long maxSize = access.getMaxBodySize();
+        final int maxDepth = access.getMaxBodyDepth();
+
+        final JsonParser parser = factory.createParser(maxSize > 0 ? new LimitedInputStream(body, maxSize) : body);
+        return maxDepth > 0 ? new DepthLimitingParser(parser, maxDepth) : parser;
+    }
+
+    /**
+     * Rejects the request early if its declared length exceeds the configured maximum body size.
+     *
+     * @param contentLength the value of the <code>Content-Length</code> header, if any
+     * @throws RequestBodyRejectedException if the declared length exceeds the maximum body size
+     */
+    public static void checkLength(String contentLength) throws RequestBodyRejectedException {
+        final long maxSize = SpringBeansAccess.getInstance().getMaxBodySize();
+        if (maxSize > 0 && Utils.exists(contentLength)) {
+            try {
+                if (Long.parseLong(contentLength.trim()) > maxSize) {
+                    throw tooLarge(maxSize);
+                }
+            } catch (NumberFormatException e) {
+                // the container will deal with it
+            }
+        }
+    }
+
+    private static RequestBodyRejectedException tooLarge(long maxSize) {
+        return new RequestBodyRejectedException(Response.Status.REQUEST_ENTITY_TOO_LARGE,
+                "Request body exceeds the maximum allowed size of " + maxSize + " bytes");
+    }
+
+    /**
+     * Signals that a request body was rejected because it exceeded one of the configured limits.
+     */
+    public static class RequestBodyRejectedException extends IOException {
+        private final Response.Status status;
+
+        public RequestBodyRejectedException(Response.Status status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        public Response.Status getStatus() {
+            return status;
+        }
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long maxSize;
+        private long read;
+
+        private LimitedInputStream(InputStream in, long maxSize) {
+            super(in);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int result = super.read();
+            if (result >= 0) {
+                count(1);
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int result = super.read(b, off, len);
+            if (result > 0) {
+                count(result);
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long result = super.skip(n);
+            count(result);
+            return result;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long bytes) throws RequestBodyRejectedException {
+            read += bytes;
+            if (read > maxSize) {
+                throw tooLarge(maxSize);
+            }
+        }
+    }
+
+    private static class DepthLimitingParser extends JsonParserDelegate {
+        private final int maxDepth;
+        private int depth;
+
+        private DepthLimitingParser(JsonParser parser, int maxDepth) {
+            super(parser);
+            this.maxDepth = maxDepth;
+        }
+
+        @Override
+        public JsonToken nextToken() throws IOException {
+            final JsonToken token = delegate.nextToken();
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                if (++depth > maxDepth) {
+                    throw new RequestBodyRejectedException(Response.Status.BAD_REQUEST,
+                            "Request body exceeds the maximum allowed nesting depth of " + maxDepth);
+                }
+            } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+                depth--;
+            }
+            return token;
+        }
+
+        @Override
+        public JsonToken nextValue() throws IOException {
+            final JsonToken token = nextToken();
+            return token == JsonToken.FIELD_NAME ? nextToken() : token;
+        }
+
+        @Override
+        public JsonParser skipChildren() throws IOException {
+            final JsonToken token = delegate.getCurrentToken();
+            delegate.skipChildren();
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                // we're now on the matching end marker
+                depth--;
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * JSON which has already been serialized, e.g. cached or computed by a query job. It is output as is when a JSON media
+ * type is negotiated and transcoded when a {@link BinaryFormatProvider binary format} is, so that the response always
+ * matches its negotiated media type.
+ *
+ * @author Christophe Laprun
+ */
+public abstract class SerializedJSON {
+
+    /**
+     * Wraps the specified serialized JSON.
+     */
+    public static SerializedJSON of(final byte[] content) {
+        return new SerializedJSON() {
+            @Override
+            public InputStream open() {
+                return new ByteArrayInputStream(content);
+            }
+
+            @Override
+            public long getSize() {
+                return content.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream output) throws IOException {
+                output.write(content);
+            }
+        };
+    }
+
+    /**
+     * Retrieves the capacity of the buffer retained by the current thread, <code>-1</code> if no buffer is retained.
+     *
+     * @see Buffered
+     */
+    static int getRetainedBufferCapacity() {
+        final Buffered.PooledBuffer pooled = Buffered.BUFFERS.get();
+        return pooled != null ? pooled.capacity() : -1;
+    }
+
+    /**
+     * Opens a stream reading the serialized JSON, which needs to be closed by the caller.
+     *
+     * @throws IOException if the serialized JSON isn't available anymore
+     */
+    public abstract InputStream open() throws IOException;
+
+    /**
+     * Retrieves the size of the serialized JSON, in bytes, or <code>-1</code> if it isn't known.
+     */
+    public abstract long getSize();
+
+    /**
+     * Releases the resources held by the serialized JSON once it has been written, after which it isn't available
+     * anymore. Does nothing by default.
+     */
+    public void release() {
+    }
+
+    /**
+     * Writes the serialized JSON as is to the specified output.
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        final InputStream input = open();
+        try {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Serialized JSON rendered in a pooled, per-thread buffer which is written as is, without being copied. Instances
+     * must be {@link #release() released} once written so that their buffer can be reused, which the providers do.
+     */
+    static final class Buffered extends SerializedJSON {
+        private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+        private static final ThreadLocal<PooledBuffer> BUFFERS = new ThreadLocal<PooledBuffer>();
+
+        private PooledBuffer buffer;
+
+        Buffered() {
+            final PooledBuffer pooled = BUFFERS.get();
+            if (pooled != null) {
+                // the buffer isn't available to nested renderings until it's released
+                BUFFERS.remove();
+                buffer = pooled;
+            } else {
+                buffer = new PooledBuffer(8192);
+            }
+        }
+
+        /**
+         * Retrieves the stream to render the JSON to.
+         */
+        OutputStream getOutput() {
+            return getBuffer();
+        }
+
+        /**
+         * Copies the serialized JSON, e.g. to keep it around once this instance is released.
+         */
+        byte[] toByteArray() {
+            return getBuffer().toByteArray();
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            final PooledBuffer buffer = getBuffer();
+            return new ByteArrayInputStream(buffer.array(), 0, buffer.size());
+        }
+
+        @Override
+        public long getSize() {
+            return getBuffer().size();
+        }
+
+        @Override
+        public void writeTo(OutputStream output) throws IOException {
+            getBuffer().writeTo(output);
+        }
+
+        @Override
+        public void release() {
+            if (buffer != null) {
+                // resetting a buffer doesn't shrink it so only buffers that didn't grow too much are kept around
+                if (buffer.capacity() <= MAX_RETAINED_BUFFER_SIZE) {
+                    buffer.reset();
+                    BUFFERS.set(buffer);
+                }
+                buffer = null;
+            }
+        }
+
+        private PooledBuffer getBuffer() {
+            if (buffer == null) {
+                throw new IllegalStateException("Serialized JSON has already been released");
+            }
+            return buffer;
+        }
+
+        /**
+         * A {@link ByteArrayOutputStream} exposing its backing array, which is kept when the stream is reset.
+         */
+        static final class PooledBuffer extends ByteArrayOutputStream {
+            PooledBuffer(int size) {
+                super(size);
+            }
+
+            byte[] array() {
+                return buf;
+            }
+
+            int capacity() {
+                return buf.length;
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import java.io.*;
+
+/**
+ * An OutputStream keeping what's written to it in memory until a threshold is reached, at which point content is
+ * spilled to a temporary file. Once closed, the content can be written to another stream as many times as needed until
+ * it is discarded.
+ *
+ * @author Christophe Laprun
+ */
+class SpillingOutputStream extends OutputStream {
+    private final int threshold;
+    private volatile ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private volatile File file;
+    private OutputStream fileOutput;
+    private long size;
+
+    SpillingOutputStream(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        getTarget(1).write(b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        getTarget(len).write(b, off, len);
+        size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileOutput != null) {
+            fileOutput.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileOutput != null) {
+            fileOutput.close();
+            fileOutput = null;
+        }
+    }
+
+    private OutputStream getTarget(int length) throws IOException {
+        // don't keep on writing the result of a cancelled job
+        QueryJob.checkCancelled();
+        if (memory != null && size + length > threshold) {
+            file = File.createTempFile("jcrestapi-", ".json");
+            fileOutput = new BufferedOutputStream(new FileOutputStream(file));
+            memory.writeTo(fileOutput);
+            memory = null;
+        }
+
+        if (memory != null) {
+            return memory;
+        }
+        if (fileOutput == null) {
+            throw new IOException("Stream is closed");
+        }
+        return fileOutput;
+    }
+
+    /**
+     * Retrieves the number of bytes written to this stream.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Retrieves whether the content of this stream was spilled to a temporary file.
+     */
+    boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Writes the content of this stream, which must have been closed, to the specified OutputStream. Content can be
+     * discarded concurrently: content which was already being read is still written, otherwise an IOException is
+     * thrown.
+     */
+    void writeTo(OutputStream output) throws IOException {
+        // read the content references once since they can be discarded concurrently
+        final ByteArrayOutputStream memory = this.memory;
+        final File file = this.file;
+        if (memory != null) {
+            memory.writeTo(output);
+        } else if (file != null) {
+            final InputStream input = new FileInputStream(file);
+            try {
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+            } finally {
+                input.close();
+            }
+        } else {
+            throw new IOException("Content was discarded");
+        }
+    }
+
+    /**
+     * Opens a stream reading the content of this stream, which must have been closed.
+     *
+     * @throws IOException if the content was discarded
+     */
+    InputStream open() throws IOException {
+        // read the content references once since they can be discarded concurrently
+        final ByteArrayOutputStream memory = this.memory;
+        final File file = this.file;
+        if (memory != null) {
+            return new ByteArrayInputStream(memory.toByteArray());
+        } else if (file != null) {
+            return new FileInputStream(file);
+        } else {
+            throw new IOException("Content was discarded");
+        }
+    }
+
+    /**
+     * Discards the content of this stream, deleting the temporary file if content was spilled.
+     */
+    void discard() {
+        memory = null;
+        try {
+            close();
+        } catch (IOException e) {
+            // ignore, we're discarding the content anyway
+        }
+        if (file != null) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            file = null;
+        }
+    }
+}
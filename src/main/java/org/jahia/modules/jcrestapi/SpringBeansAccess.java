@@ -46,6 +46,7 @@ package org.jahia.modules.jcrestapi;
 import javax.jcr.Repository;
 import java.util.Collections;
 import java.util.Set;
+import java.util.zip.Deflater;
 
 /**
  * @author Christophe Laprun
@@ -55,6 +56,32 @@ public final class SpringBeansAccess {
     private Repository repository;
     private boolean disableQuery = true;
     private Set<String> nodeTypesToSkip = Collections.emptySet();
+    private int parsedQueryCacheSize = 256;
+    private int countEstimateTimeToLive = 60;
+    private int asyncQueryThreads = 2;
+    private int asyncQueryQueueSize = 20;
+    private int asyncQuerySpillThreshold = 1024 * 1024;
+    private int asyncQueryResultTimeToLive = 600;
+    private long queryTimeout;
+    private long typesTimeout;
+    private long nodesTimeout;
+    private int batchQueryThreads = 4;
+    private int batchQueryQueueSize = 100;
+    private int batchMaxQueries = 20;
+    private long queryMaxCost = 0;
+    private String queryAdmissionPolicy = QueryAdmission.REJECT;
+    private int expensiveQueriesConcurrency = 1;
+    private long expensiveQueriesQueueTimeout = 10000;
+    private int viewRefreshThreads = 1;
+    private int aggregationMaxBuckets = 1000;
+    private Set<String> nameIndexNodeTypes = Collections.emptySet();
+    private int nameIndexMaxNodes = 100000;
+    private boolean directSerialization;
+    private long maxBodySize = 10 * 1024 * 1024;
+    private int maxBodyDepth = 100;
+    private boolean compressionEnabled = true;
+    private int compressionThreshold = 1024;
+    private int compressionLevel = 6;
 
     private SpringBeansAccess() {
     }
@@ -86,4 +113,214 @@ public final class SpringBeansAccess {
     public Set<String> getNodeTypesToSkip() {
         return nodeTypesToSkip;
     }
+
+    public void setParsedQueryCacheSize(String parsedQueryCacheSize) {
+        this.parsedQueryCacheSize = Integer.parseInt(parsedQueryCacheSize.trim());
+    }
+
+    public int getParsedQueryCacheSize() {
+        return parsedQueryCacheSize;
+    }
+
+    public void setCountEstimateTimeToLive(String countEstimateTimeToLive) {
+        this.countEstimateTimeToLive = Integer.parseInt(countEstimateTimeToLive.trim());
+    }
+
+    public int getCountEstimateTimeToLive() {
+        return countEstimateTimeToLive;
+    }
+
+    public void setAsyncQueryThreads(String asyncQueryThreads) {
+        this.asyncQueryThreads = Integer.parseInt(asyncQueryThreads.trim());
+    }
+
+    public int getAsyncQueryThreads() {
+        return asyncQueryThreads;
+    }
+
+    public void setAsyncQueryQueueSize(String asyncQueryQueueSize) {
+        this.asyncQueryQueueSize = Integer.parseInt(asyncQueryQueueSize.trim());
+    }
+
+    public int getAsyncQueryQueueSize() {
+        return asyncQueryQueueSize;
+    }
+
+    public void setAsyncQuerySpillThreshold(String asyncQuerySpillThreshold) {
+        this.asyncQuerySpillThreshold = Integer.parseInt(asyncQuerySpillThreshold.trim());
+    }
+
+    public int getAsyncQuerySpillThreshold() {
+        return asyncQuerySpillThreshold;
+    }
+
+    public void setAsyncQueryResultTimeToLive(String asyncQueryResultTimeToLive) {
+        this.asyncQueryResultTimeToLive = Integer.parseInt(asyncQueryResultTimeToLive.trim());
+    }
+
+    public int getAsyncQueryResultTimeToLive() {
+        return asyncQueryResultTimeToLive;
+    }
+
+    public void setQueryTimeout(String queryTimeout) {
+        this.queryTimeout = Long.parseLong(queryTimeout.trim());
+    }
+
+    public long getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    public void setTypesTimeout(String typesTimeout) {
+        this.typesTimeout = Long.parseLong(typesTimeout.trim());
+    }
+
+    public long getTypesTimeout() {
+        return typesTimeout;
+    }
+
+    public void setNodesTimeout(String nodesTimeout) {
+        this.nodesTimeout = Long.parseLong(nodesTimeout.trim());
+    }
+
+    public long getNodesTimeout() {
+        return nodesTimeout;
+    }
+
+    public void setBatchQueryThreads(String batchQueryThreads) {
+        this.batchQueryThreads = Integer.parseInt(batchQueryThreads.trim());
+    }
+
+    public int getBatchQueryThreads() {
+        return batchQueryThreads;
+    }
+
+    public void setBatchQueryQueueSize(String batchQueryQueueSize) {
+        this.batchQueryQueueSize = Integer.parseInt(batchQueryQueueSize.trim());
+    }
+
+    public int getBatchQueryQueueSize() {
+        return batchQueryQueueSize;
+    }
+
+    public void setBatchMaxQueries(String batchMaxQueries) {
+        this.batchMaxQueries = Integer.parseInt(batchMaxQueries.trim());
+    }
+
+    public int getBatchMaxQueries() {
+        return batchMaxQueries;
+    }
+
+    public void setQueryMaxCost(String queryMaxCost) {
+        this.queryMaxCost = Long.parseLong(queryMaxCost.trim());
+    }
+
+    public long getQueryMaxCost() {
+        return queryMaxCost;
+    }
+
+    public void setQueryAdmissionPolicy(String queryAdmissionPolicy) {
+        this.queryAdmissionPolicy = queryAdmissionPolicy.trim();
+    }
+
+    public String getQueryAdmissionPolicy() {
+        return queryAdmissionPolicy;
+    }
+
+    public void setExpensiveQueriesConcurrency(String expensiveQueriesConcurrency) {
+        this.expensiveQueriesConcurrency = Integer.parseInt(expensiveQueriesConcurrency.trim());
+    }
+
+    public int getExpensiveQueriesConcurrency() {
+        return expensiveQueriesConcurrency;
+    }
+
+    public void setExpensiveQueriesQueueTimeout(String expensiveQueriesQueueTimeout) {
+        this.expensiveQueriesQueueTimeout = Long.parseLong(expensiveQueriesQueueTimeout.trim());
+    }
+
+    public long getExpensiveQueriesQueueTimeout() {
+        return expensiveQueriesQueueTimeout;
+    }
+
+    public void setViewRefreshThreads(String viewRefreshThreads) {
+        this.viewRefreshThreads = Integer.parseInt(viewRefreshThreads.trim());
+    }
+
+    public int getViewRefreshThreads() {
+        return viewRefreshThreads;
+    }
+
+    public void setAggregationMaxBuckets(String aggregationMaxBuckets) {
+        this.aggregationMaxBuckets = Integer.parseInt(aggregationMaxBuckets.trim());
+    }
+
+    public int getAggregationMaxBuckets() {
+        return aggregationMaxBuckets;
+    }
+
+    public void setNameIndexNodeTypes(String nameIndexNodeTypes) {
+        this.nameIndexNodeTypes = Utils.split(nameIndexNodeTypes);
+    }
+
+    public Set<String> getNameIndexNodeTypes() {
+        return nameIndexNodeTypes;
+    }
+
+    public void setNameIndexMaxNodes(String nameIndexMaxNodes) {
+        this.nameIndexMaxNodes = Integer.parseInt(nameIndexMaxNodes.trim());
+    }
+
+    public int getNameIndexMaxNodes() {
+        return nameIndexMaxNodes;
+    }
+
+    public void setDirectSerialization(String directSerialization) {
+        this.directSerialization = Boolean.parseBoolean(directSerialization.trim());
+    }
+
+    public boolean isDirectSerialization() {
+        return directSerialization;
+    }
+
+    public void setMaxBodySize(String maxBodySize) {
+        this.maxBodySize = Long.parseLong(maxBodySize.trim());
+    }
+
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    public void setMaxBodyDepth(String maxBodyDepth) {
+        this.maxBodyDepth = Integer.parseInt(maxBodyDepth.trim());
+    }
+
+    public int getMaxBodyDepth() {
+        return maxBodyDepth;
+    }
+
+    public void setCompressionEnabled(String compressionEnabled) {
+        this.compressionEnabled = Boolean.parseBoolean(compressionEnabled.trim());
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public void setCompressionThreshold(String compressionThreshold) {
+        this.compressionThreshold = Integer.parseInt(compressionThreshold.trim());
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionLevel(String compressionLevel) {
+        final int level = Integer.parseInt(compressionLevel.trim());
+        // levels outside of the valid range use the default compression level
+        this.compressionLevel = level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION ? level : Deflater.DEFAULT_COMPRESSION;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
 }
@@ -0,0 +1,300 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.jahia.modules.jcrestapi.json.JSONStructuredQuery;
+import org.jahia.modules.jcrestapi.json.JSONStructuredQuery.JSONConstraint;
+import org.jahia.modules.jcrestapi.json.JSONStructuredQuery.JSONOrdering;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.qom.*;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Compiles {@link JSONStructuredQuery} instances into Query Object Models, the same way {@link Types} builds its
+ * queries, so that no statement needs to be parsed and no value needs to be escaped.
+ *
+ * @author Christophe Laprun
+ */
+final class StructuredQueries {
+    private static final String NAME = "name()";
+    private static final String LOCAL_NAME = "localname()";
+    private static final String SCORE = "score()";
+
+    private StructuredQueries() {
+    }
+
+    /**
+     * Computes a canonical representation of the specified query, identifying its compiled form regardless of the
+     * way it was formatted by the client. The parts of the query are written as JSON, in a fixed order, so that strings
+     * provided by clients are quoted and escaped and cannot be mistaken for the structure of the key.
+     *
+     * @param query the structured query
+     * @return a canonical representation of the specified query
+     */
+    static String getKey(JSONStructuredQuery query) {
+        final StringWriter key = new StringWriter(128);
+        key.write("structured:");
+        try {
+            final JsonGenerator generator = NodesStreamingOutput.MAPPER.getFactory().createGenerator(key);
+            generator.writeStartArray();
+            generator.writeString(query.getType());
+            generator.writeString(query.getSelector());
+            writeKey(generator, query.getConstraint());
+            if (query.getOrderings() != null) {
+                generator.writeStartArray();
+                for (JSONOrdering ordering : query.getOrderings()) {
+                    generator.writeStartArray();
+                    generator.writeString(ordering.getTransform());
+                    generator.writeString(ordering.getProperty());
+                    generator.writeString(ordering.getOrder());
+                    generator.writeEndArray();
+                }
+                generator.writeEndArray();
+            } else {
+                generator.writeNull();
+            }
+            generator.writeObject(query.getColumns());
+            generator.writeEndArray();
+            generator.close();
+        } catch (IOException e) {
+            // cannot happen when writing to memory
+            throw new RuntimeException("Couldn't compute the key of structured query", e);
+        }
+        return key.toString();
+    }
+
+    private static void writeKey(JsonGenerator generator, JSONConstraint constraint) throws IOException {
+        if (constraint == null) {
+            generator.writeNull();
+        } else if (constraint.getAnd() != null || constraint.getOr() != null) {
+            final boolean and = constraint.getAnd() != null;
+            generator.writeStartObject();
+            generator.writeArrayFieldStart(and ? "and" : "or");
+            for (JSONConstraint operand : and ? constraint.getAnd() : constraint.getOr()) {
+                writeKey(generator, operand);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } else if (constraint.getNot() != null) {
+            generator.writeStartObject();
+            generator.writeFieldName("not");
+            writeKey(generator, constraint.getNot());
+            generator.writeEndObject();
+        } else {
+            generator.writeStartArray();
+            generator.writeString(constraint.getExists());
+            generator.writeString(constraint.getContains());
+            generator.writeString(constraint.getDescendantOf());
+            generator.writeString(constraint.getChildOf());
+            generator.writeString(constraint.getSameNodeAs());
+            generator.writeString(constraint.getTransform());
+            generator.writeString(constraint.getProperty());
+            generator.writeString(constraint.getOperator());
+            // values are typed in the compiled query so their type needs to be part of the key
+            final Object value = constraint.getValue();
+            generator.writeString(value != null ? value.getClass().getSimpleName() : null);
+            generator.writeObject(value);
+            generator.writeString(constraint.getValueType());
+            generator.writeString(constraint.getParameter());
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Compiles the specified structured query.
+     *
+     * @param query        the structured query to compile
+     * @param factory      the QueryObjectModelFactory to use to create the query parts
+     * @param valueFactory the ValueFactory to use to create literal values
+     * @return the model of the compiled query
+     * @throws InvalidQueryException if the structured query is invalid
+     * @throws RepositoryException   if the query couldn't be compiled
+     */
+    static QueryModel compile(JSONStructuredQuery query, QueryObjectModelFactory factory, ValueFactory valueFactory) throws RepositoryException {
+        if (!Utils.exists(query.getType())) {
+            throw new InvalidQueryException("Structured query must specify the type of the nodes to retrieve");
+        }
+
+        final String selector = query.getSelector();
+        final Constraint constraint = query.getConstraint() != null ? compile(query.getConstraint(), selector, factory, valueFactory) : null;
+
+        Ordering[] orderings = null;
+        final List<JSONOrdering> jsonOrderings = query.getOrderings();
+        if (jsonOrderings != null && !jsonOrderings.isEmpty()) {
+            orderings = new Ordering[jsonOrderings.size()];
+            for (int i = 0; i < orderings.length; i++) {
+                final JSONOrdering ordering = jsonOrderings.get(i);
+                final DynamicOperand operand = operand(ordering.getProperty(), ordering.getTransform(), selector, factory);
+                orderings[i] = "desc".equalsIgnoreCase(ordering.getOrder()) ? factory.descending(operand) : factory.ascending(operand);
+            }
+        }
+
+        final Column[] columns;
+        final List<String> jsonColumns = query.getColumns();
+        if (jsonColumns != null && !jsonColumns.isEmpty()) {
+            columns = new Column[jsonColumns.size()];
+            for (int i = 0; i < columns.length; i++) {
+                final String property = jsonColumns.get(i);
+                columns[i] = factory.column(selector, property, property);
+            }
+        } else {
+            columns = new Column[]{factory.column(selector, null, null)};
+        }
+
+        return new QueryModel(factory.selector(query.getType(), selector), constraint, orderings, columns);
+    }
+
+    private static Constraint compile(JSONConstraint constraint, String selector, QueryObjectModelFactory factory, ValueFactory valueFactory)
+            throws RepositoryException {
+        if (constraint.getAnd() != null || constraint.getOr() != null) {
+            final boolean and = constraint.getAnd() != null;
+            final List<JSONConstraint> operands = and ? constraint.getAnd() : constraint.getOr();
+            Constraint result = null;
+            for (JSONConstraint operand : operands) {
+                final Constraint compiled = compile(operand, selector, factory, valueFactory);
+                result = result == null ? compiled : (and ? factory.and(result, compiled) : factory.or(result, compiled));
+            }
+            if (result == null) {
+                throw new InvalidQueryException("Empty " + (and ? "and" : "or") + " constraint");
+            }
+            return result;
+        } else if (constraint.getNot() != null) {
+            return factory.not(compile(constraint.getNot(), selector, factory, valueFactory));
+        } else if (constraint.getExists() != null) {
+            return factory.propertyExistence(selector, constraint.getExists());
+        } else if (constraint.getContains() != null) {
+            return factory.fullTextSearch(selector, constraint.getProperty(), factory.literal(valueFactory.createValue(constraint.getContains())));
+        } else if (constraint.getDescendantOf() != null) {
+            return factory.descendantNode(selector, constraint.getDescendantOf());
+        } else if (constraint.getChildOf() != null) {
+            return factory.childNode(selector, constraint.getChildOf());
+        } else if (constraint.getSameNodeAs() != null) {
+            return factory.sameNode(selector, constraint.getSameNodeAs());
+        } else if (constraint.getProperty() != null) {
+            final StaticOperand value;
+            if (constraint.getParameter() != null) {
+                value = factory.bindVariable(constraint.getParameter());
+            } else if (constraint.getValue() != null) {
+                value = factory.literal(createValue(constraint, valueFactory));
+            } else {
+                throw new InvalidQueryException("Comparison on '" + constraint.getProperty() + "' must specify either a value or a parameter");
+            }
+            return factory.comparison(operand(constraint.getProperty(), constraint.getTransform(), selector, factory),
+                    operator(constraint.getOperator()), value);
+        } else {
+            throw new InvalidQueryException("Unknown structured query constraint");
+        }
+    }
+
+    private static DynamicOperand operand(String property, String transform, String selector, QueryObjectModelFactory factory) throws RepositoryException {
+        if (property == null) {
+            throw new InvalidQueryException("Missing property name");
+        }
+
+        final DynamicOperand operand;
+        if (NAME.equals(property)) {
+            operand = factory.nodeName(selector);
+        } else if (LOCAL_NAME.equals(property)) {
+            operand = factory.nodeLocalName(selector);
+        } else if (SCORE.equals(property)) {
+            operand = factory.fullTextSearchScore(selector);
+        } else {
+            operand = factory.propertyValue(selector, property);
+        }
+
+        if (transform == null) {
+            return operand;
+        } else if ("lower".equalsIgnoreCase(transform)) {
+            return factory.lowerCase(operand);
+        } else if ("upper".equalsIgnoreCase(transform)) {
+            return factory.upperCase(operand);
+        } else if ("length".equalsIgnoreCase(transform) && operand instanceof PropertyValue) {
+            return factory.length((PropertyValue) operand);
+        } else {
+            throw new InvalidQueryException("Unsupported transform '" + transform + "' of '" + property + "'");
+        }
+    }
+
+    private static String operator(String operator) throws InvalidQueryException {
+        if (operator == null || "=".equals(operator)) {
+            return QueryObjectModelConstants.JCR_OPERATOR_EQUAL_TO;
+        } else if ("<>".equals(operator) || "!=".equals(operator)) {
+            return QueryObjectModelConstants.JCR_OPERATOR_NOT_EQUAL_TO;
+        } else if ("<".equals(operator)) {
+            return QueryObjectModelConstants.JCR_OPERATOR_LESS_THAN;
+        } else if ("<=".equals(operator)) {
+            return QueryObjectModelConstants.JCR_OPERATOR_LESS_THAN_OR_EQUAL_TO;
+        } else if (">".equals(operator)) {
+            return QueryObjectModelConstants.JCR_OPERATOR_GREATER_THAN;
+        } else if (">=".equals(operator)) {
+            return QueryObjectModelConstants.JCR_OPERATOR_GREATER_THAN_OR_EQUAL_TO;
+        } else if ("like".equalsIgnoreCase(operator)) {
+            return QueryObjectModelConstants.JCR_OPERATOR_LIKE;
+        } else {
+            throw new InvalidQueryException("Unsupported operator '" + operator + "'");
+        }
+    }
+
+    private static Value createValue(JSONConstraint constraint, ValueFactory valueFactory) throws RepositoryException {
+        final String valueType = constraint.getValueType();
+        if (valueType != null) {
+            final int type;
+            try {
+                type = PropertyType.valueFromName(valueType);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidQueryException("Unknown value type '" + valueType + "'");
+            }
+            return valueFactory.createValue(String.valueOf(constraint.getValue()), type);
+        }
+        return QueryTemplate.createValue(constraint.getValue(), valueFactory);
+    }
+}
@@ -45,27 +45,34 @@ package org.jahia.modules.jcrestapi;
 
 import org.jahia.api.Constants;
 import org.jahia.modules.json.Filter;
-import org.jahia.modules.json.JSONNode;
 import org.jahia.modules.json.Names;
 
 import javax.jcr.*;
+import javax.jcr.query.Query;
 import javax.jcr.query.QueryResult;
 import javax.jcr.query.qom.*;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * @author Christophe Laprun
  */
-@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE})
 public class Types extends API {
 
     private static final String SELECTOR_NAME = "type";
+    private static final String INDEX_STRATEGY = "index";
     static final String MAPPING = "types";
 
     public Types(String workspace, String language, Repository repository, UriInfo context) {
@@ -74,16 +81,19 @@ public class Types extends API {
 
     @GET
     @Path("/{type}")
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_CBOR, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_NDJSON})
     public Object getByType(@PathParam("workspace") String workspace,
                             @PathParam("language") String language,
                             @PathParam("type") String type,
                             @QueryParam("nameContains") List<String> nameConstraints,
+                            @QueryParam("namePrefix") String namePrefix,
                             @QueryParam("orderBy") String orderBy,
                             @QueryParam("limit") int limit,
                             @QueryParam("offset") int offset,
                             @QueryParam("depth") int depth,
-                            @Context UriInfo context) {
+                            @QueryParam(API.CONTINUATION_TOKEN) String continuationToken,
+                            @Context UriInfo context,
+                            @Context HttpHeaders headers) {
 
         if (API.isQueryDisabled()) {
             APIExceptionMapper.LOGGER.debug("Types endpoint is disabled. Attempted query on " + type);
@@ -95,60 +105,113 @@ public class Types extends API {
             return Response.status(Response.Status.FORBIDDEN).entity("'" + unescapedNodetype + "' is not available for querying.").build();
         }
 
+        final Set<String> childrenNodeTypes = new TreeSet<String>(Utils.getChildrenNodeTypes(context));
+        final String prefix = Utils.exists(namePrefix) ? namePrefix : null;
+        final String queryIdentity = unescapedNodetype + '\n' + nameConstraints + '\n' + prefix + '\n' + orderBy + '\n' + childrenNodeTypes;
+        final boolean hasNameConstraints = nameConstraints != null && !nameConstraints.isEmpty();
+        NodeOrdering ordering;
+        final List<String> indexed;
+        final Pagination pagination;
+        try {
+            ordering = NodeOrdering.parse(orderBy);
+
+            // name lookups are answered using the name index if the node type is indexed, instead of scanning all its nodes.
+            // Results are then ordered differently than query results so the strategy used for the first page is recorded
+            // in continuation tokens and used for the following pages, even if the index became available in between.
+            final String indexIdentity = queryIdentity + '\n' + INDEX_STRATEGY;
+            final boolean continued = Utils.exists(continuationToken);
+            final boolean continuedFromIndex = continued && Pagination.isIssuedFor(indexIdentity, continuationToken);
+            if ((hasNameConstraints || prefix != null) && (!continued || continuedFromIndex)) {
+                indexed = NodeNameIndex.getInstance().find(workspace, unescapedNodetype, nameConstraints, prefix,
+                        ordering != null && ordering.isByName() && ordering.isDescending());
+            } else {
+                indexed = null;
+            }
+            if (continuedFromIndex && indexed == null && ordering == null) {
+                // the index isn't available anymore: keep returning nodes in the name order it used
+                ordering = NodeOrdering.parse(NodeOrdering.ASCENDING);
+            }
+            pagination = new Pagination(continuedFromIndex || indexed != null ? indexIdentity : queryIdentity, continuationToken, limit, offset);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+
         Session session = null;
 
         try {
 
             session = getSession(workspace, language);
-            final QueryObjectModelFactory qomFactory = session.getWorkspace().getQueryManager().getQOMFactory();
-            final ValueFactory valueFactory = session.getValueFactory();
-            final Selector selector = qomFactory.selector(unescapedNodetype, SELECTOR_NAME);
-
-            // language constraint: either jcr:language doesn't exist or jcr:language is current language
-            Constraint constraint = qomFactory.or(
-                    qomFactory.not(qomFactory.propertyExistence(SELECTOR_NAME, Constants.JCR_LANGUAGE)),
-                    stringComparisonConstraint(qomFactory.propertyValue(SELECTOR_NAME, Constants.JCR_LANGUAGE), language, qomFactory, valueFactory)
-            );
-
-            // if we have passed "nameContains" query parameters, only return nodes which name contains the specified terms
-            if (nameConstraints != null && !nameConstraints.isEmpty()) {
-                for (String name : nameConstraints) {
-                    final Comparison likeConstraint = qomFactory.comparison(qomFactory.nodeLocalName(SELECTOR_NAME), QueryObjectModelFactory.JCR_OPERATOR_LIKE,
-                            qomFactory.literal(valueFactory.createValue("%" + name + "%", PropertyType.STRING)));
-                    constraint = qomFactory.and(constraint, likeConstraint);
-                }
-            }
+            final Filter filter = Utils.getFilter(context);
+            final Map<String, String> responseHeaders = new LinkedHashMap<String, String>();
+            final boolean includeTotalCount = Utils.getFlagValueFrom(context, API.INCLUDE_TOTAL_COUNT);
+            final String countKey = includeTotalCount ?
+                    workspace + '\n' + language + '\n' + session.getUserID() + '\n' + Types.MAPPING + '\n' + queryIdentity : null;
 
-            Ordering[] orderings = null;
-            // ordering deactivated because it currently doesn't work, probably due to a bug in QueryServiceImpl
-            if (Utils.exists(orderBy)) {
-                if ("desc".equalsIgnoreCase(orderBy)) {
-                    orderings = new Ordering[]{qomFactory.descending(qomFactory.nodeLocalName(SELECTOR_NAME))};
+            Iterator<Node> nodes;
+            if (indexed != null) {
+                if (countKey != null) {
+                    // index lookups return candidates found using a system session, only count the ones the user can see
+                    final Iterator<Node> accepted = new IndexedNodes(session, indexed, unescapedNodetype, language, nameConstraints, prefix, filter);
+                    final long estimate = QueryCountEstimates.getInstance().getEstimate(countKey, new QueryCountEstimates.Counter() {
+                        @Override
+                        public long count() throws RepositoryException {
+                            long count = 0;
+                            while (accepted.hasNext()) {
+                                accepted.next();
+                                count++;
+                            }
+                            return count;
+                        }
+                    });
+                    responseHeaders.put(API.TOTAL_COUNT_ESTIMATE_HEADER, Long.toString(estimate));
+                }
+                nodes = new IndexedNodes(session, indexed, unescapedNodetype, language, nameConstraints, prefix, filter);
+                // indexed nodes are already sorted by name
+                if (ordering != null && !ordering.isByName()) {
+                    nodes = ordering.sort(nodes, pagination.getPageEnd()).iterator();
+                }
+                nodes = pagination.paginate(nodes);
+            } else {
+                if (ordering != null) {
+                    // ordering is performed here, only keeping the nodes needed to fill the requested page
+                    nodes = query(session, unescapedNodetype, language, nameConstraints, prefix, childrenNodeTypes, null, countKey, responseHeaders);
+                    nodes = pagination.paginate(ordering.sort(nodes, pagination.getPageEnd()).iterator());
                 } else {
-                    orderings = new Ordering[]{qomFactory.ascending(qomFactory.nodeLocalName(SELECTOR_NAME))};
+                    nodes = query(session, unescapedNodetype, language, nameConstraints, prefix, childrenNodeTypes, pagination, countKey,
+                            responseHeaders);
                 }
             }
 
-            final QueryObjectModel query = qomFactory.createQuery(selector, constraint, orderings, new Column[]{qomFactory.column(SELECTOR_NAME, null, null)});
-            if (limit > 0) {
-                query.setLimit(limit);
+            final NodesStreamingOutput.Format streamingFormat = Utils.getStreamingFormat(context, headers);
+            // the rendering flags aren't otherwise used by this endpoint, the output records the compact one when created
+            final boolean previousCompact = API.setOutputCompact(Utils.getFlagValueFrom(context, API.COMPACT));
+            final NodesStreamingOutput output;
+            try {
+                output = new NodesStreamingOutput(session, workspace, language, nodes, filter, depth,
+                        streamingFormat != null ? streamingFormat : NodesStreamingOutput.Format.JSON);
+            } finally {
+                API.setOutputCompact(previousCompact);
+            }
+            if (streamingFormat != null) {
+                // the streaming output is now in charge of the session which will be released once the response is written
+                session = null;
+                return withHeaders(Response.ok(output, streamingFormat.getMediaType()), responseHeaders).build();
             }
-            query.setOffset(offset);
-
-            final QueryResult queryResult = query.execute();
 
-            final NodeIterator nodes = queryResult.getNodes();
-            final List<JSONNode> result = new LinkedList<JSONNode>();
-            final Filter filter = Utils.getFilter(context);
-            while (nodes.hasNext()) {
-                final Node resultNode = nodes.nextNode();
-                if (filter.acceptChild(resultNode)) {
-                    JSONNode node = getFactory().createNode(resultNode, filter, depth);
-                    result.add(node);
+            // nodes are rendered to a pooled buffer, directly when possible, instead of being gathered as JSONNodes
+            final SerializedJSON rendered = output.render();
+            if (output.isTruncated()) {
+                if (output.isEmpty()) {
+                    rendered.release();
                 }
+                markTruncated(output.isEmpty(), pagination, responseHeaders);
+            }
+            final String nextToken = pagination.getContinuationToken();
+            if (nextToken != null) {
+                responseHeaders.put(API.CONTINUATION_TOKEN_HEADER, nextToken);
             }
 
-            return Response.ok(result).build();
+            return withHeaders(Response.ok(rendered), responseHeaders).build();
         } catch (Exception e) {
             throw new APIException(e);
         } finally {
@@ -156,8 +219,145 @@ public class Types extends API {
         }
     }
 
-    private Comparison stringComparisonConstraint(DynamicOperand operand, String valueOperandShouldBe, QueryObjectModelFactory qomFactory, ValueFactory valueFactory) throws RepositoryException {
+    /**
+     * Queries the nodes of the specified type matching the specified constraints, in no particular order.
+     *
+     * @param pagination the pagination of the requested page or <code>null</code> if all the results are needed
+     * @param countKey   the key under which the estimate of the total number of results is cached, <code>null</code>
+     *                   if no such estimate was requested
+     */
+    private static Iterator<Node> query(Session session, String nodeType, String language, List<String> nameConstraints, String prefix,
+                                        Set<String> childrenNodeTypes, Pagination pagination, String countKey,
+                                        Map<String, String> responseHeaders) throws RepositoryException {
+        final QueryObjectModelFactory qomFactory = session.getWorkspace().getQueryManager().getQOMFactory();
+        final ValueFactory valueFactory = session.getValueFactory();
+        final Selector selector = qomFactory.selector(nodeType, SELECTOR_NAME);
+
+        // language constraint: either jcr:language doesn't exist or jcr:language is current language
+        Constraint constraint = qomFactory.or(
+                qomFactory.not(qomFactory.propertyExistence(SELECTOR_NAME, Constants.JCR_LANGUAGE)),
+                stringComparisonConstraint(qomFactory.propertyValue(SELECTOR_NAME, Constants.JCR_LANGUAGE), language, qomFactory, valueFactory)
+        );
+
+        // if we have passed "nameContains" query parameters, only return nodes which name contains the specified terms
+        if (nameConstraints != null && !nameConstraints.isEmpty()) {
+            for (String name : nameConstraints) {
+                constraint = qomFactory.and(constraint, nameLikeConstraint("%" + name + "%", qomFactory, valueFactory));
+            }
+        }
+
+        // if we have passed a "namePrefix" query parameter, only return nodes which name starts with it
+        if (prefix != null) {
+            constraint = qomFactory.and(constraint, nameLikeConstraint(prefix + "%", qomFactory, valueFactory));
+        }
+
+        // push node type filters into the query so that filtered out nodes aren't retrieved and don't shorten pages
+        final Constraint nodeTypeConstraint = NodeTypeConstraints.create(SELECTOR_NAME, qomFactory, valueFactory,
+                session.getWorkspace().getNodeTypeManager(), API.excludedNodeTypes, childrenNodeTypes);
+        if (nodeTypeConstraint != null) {
+            constraint = qomFactory.and(constraint, nodeTypeConstraint);
+        }
+
+        // results aren't ordered by the repository since ordering doesn't work reliably, probably due to a bug in QueryServiceImpl
+        final QueryObjectModel unpaginated = qomFactory.createQuery(selector, constraint, null, new Column[]{qomFactory.column(SELECTOR_NAME, null, null)});
+
+        if (countKey != null) {
+            final long estimate = QueryCountEstimates.getInstance().getEstimate(countKey, new QueryCountEstimates.Counter() {
+                @Override
+                public long count() throws RepositoryException {
+                    return QueryCountEstimates.count(unpaginated);
+                }
+            });
+            responseHeaders.put(API.TOTAL_COUNT_ESTIMATE_HEADER, Long.toString(estimate));
+        }
+
+        if (pagination == null) {
+            return unpaginated.execute().getNodes();
+        }
+
+        final Query query = pagination.prepare(qomFactory.createQuery(selector, constraint, null, unpaginated.getColumns()), qomFactory, valueFactory);
+
+        final QueryResult queryResult = query.execute();
+
+        return pagination.iterate(queryResult.getNodes());
+    }
+
+    private static Comparison nameLikeConstraint(String pattern, QueryObjectModelFactory qomFactory, ValueFactory valueFactory) throws RepositoryException {
+        return qomFactory.comparison(qomFactory.nodeLocalName(SELECTOR_NAME), QueryObjectModelFactory.JCR_OPERATOR_LIKE,
+                qomFactory.literal(valueFactory.createValue(pattern, PropertyType.STRING)));
+    }
+
+    private static Comparison stringComparisonConstraint(DynamicOperand operand, String valueOperandShouldBe, QueryObjectModelFactory qomFactory, ValueFactory valueFactory) throws RepositoryException {
         return qomFactory.comparison(operand, QueryObjectModelFactory.JCR_OPERATOR_EQUAL_TO, qomFactory.literal(valueFactory.createValue(valueOperandShouldBe,
                 PropertyType.STRING)));
     }
+
+    /**
+     * Retrieves, using the session of the current user, the nodes which identifiers were looked up in the name index,
+     * skipping the ones which cannot be accessed anymore or which don't match the constraints the equivalent query would
+     * apply (the index being updated asynchronously and node type filters being applied here).
+     */
+    private static class IndexedNodes implements Iterator<Node> {
+        private final Session session;
+        private final Iterator<String> identifiers;
+        private final String nodeType;
+        private final String language;
+        private final List<String> nameConstraints;
+        private final String prefix;
+        private final Filter filter;
+        private Node next;
+
+        private IndexedNodes(Session session, List<String> identifiers, String nodeType, String language, List<String> nameConstraints,
+                             String prefix, Filter filter) {
+            this.session = session;
+            this.identifiers = identifiers.iterator();
+            this.nodeType = nodeType;
+            this.language = language;
+            this.nameConstraints = nameConstraints;
+            this.prefix = prefix;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && identifiers.hasNext()) {
+                try {
+                    final Node node = session.getNodeByIdentifier(identifiers.next());
+                    if (accept(node)) {
+                        next = node;
+                    }
+                } catch (ItemNotFoundException e) {
+                    // removed or not accessible to the current user
+                } catch (RepositoryException e) {
+                    throw new RuntimeException("Couldn't retrieve indexed node", e);
+                }
+            }
+            return next != null;
+        }
+
+        private boolean accept(Node node) throws RepositoryException {
+            if (!node.isNodeType(nodeType) || !NodeNameIndex.matches(NodeNameIndex.getLocalName(node), nameConstraints, prefix)) {
+                return false;
+            }
+            if (node.hasProperty(Constants.JCR_LANGUAGE) && !language.equals(node.getProperty(Constants.JCR_LANGUAGE).getString())) {
+                return false;
+            }
+            return filter.acceptChild(node);
+        }
+
+        @Override
+        public Node next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Node node = next;
+            next = null;
+            return node;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
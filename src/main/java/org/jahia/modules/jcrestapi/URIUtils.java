@@ -154,6 +154,14 @@ public final class URIUtils {
         }
     }
 
+    public static String getJobURI(String jobId) {
+        return API.API_PATH + "/" + API.JOBS + "/" + jobId;
+    }
+
+    public static String getJobResultURI(String jobId) {
+        return getJobURI(jobId) + "/" + API.RESULT;
+    }
+
     public static String addModulesContextTo(String uriAsString, UriInfo context) {
         return context.getBaseUri().toASCIIString() + uriAsString;
     }
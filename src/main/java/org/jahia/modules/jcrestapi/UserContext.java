@@ -0,0 +1,103 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.services.content.JCRSessionFactory;
+import org.jahia.services.usermanager.JahiaUser;
+
+import javax.jcr.Repository;
+import java.util.concurrent.Callable;
+
+/**
+ * Captures the user on behalf of whom the current request is processed so that work can be carried out for that user
+ * in other threads: sessions are retrieved for the current user of the thread in which they are requested.
+ *
+ * @author Christophe Laprun
+ */
+final class UserContext {
+    private final JahiaUser user;
+
+    private UserContext(JahiaUser user) {
+        this.user = user;
+    }
+
+    /**
+     * Captures the current user of the calling thread.
+     *
+     * @param repository the repository used by the API
+     * @return a UserContext allowing to act on behalf of the current user in another thread
+     */
+    static UserContext capture(Repository repository) {
+        if (repository instanceof JCRSessionFactory) {
+            return new UserContext(((JCRSessionFactory) repository).getCurrentUser());
+        }
+        return new UserContext(null);
+    }
+
+    /**
+     * Retrieves a key identifying the captured user, <code>null</code> if no user could be captured.
+     */
+    String getUserKey() {
+        return user != null ? user.getUserKey() : null;
+    }
+
+    /**
+     * Calls the specified task on behalf of the captured user in the calling thread, restoring the previous user of the
+     * thread once done.
+     */
+    <T> T call(Repository repository, Callable<T> task) throws Exception {
+        if (repository instanceof JCRSessionFactory) {
+            final JCRSessionFactory factory = (JCRSessionFactory) repository;
+            final JahiaUser previous = factory.getCurrentUser();
+            factory.setCurrentUser(user);
+            try {
+                return task.call();
+            } finally {
+                factory.setCurrentUser(previous);
+            }
+        } else {
+            return task.call();
+        }
+    }
+}
@@ -47,6 +47,8 @@ import org.jahia.modules.json.Filter;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.UriInfo;
 import java.util.Collections;
@@ -62,6 +64,12 @@ import java.util.Set;
 public class Utils {
 
     public static final String MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON = "application/hal+json";
+    public static final String MEDIA_TYPE_APPLICATION_NDJSON = "application/x-ndjson";
+    public static final MediaType MEDIA_TYPE_APPLICATION_NDJSON_TYPE = MediaType.valueOf(MEDIA_TYPE_APPLICATION_NDJSON);
+    public static final String MEDIA_TYPE_TEXT_CSV = "text/csv";
+    public static final MediaType MEDIA_TYPE_TEXT_CSV_TYPE = MediaType.valueOf(MEDIA_TYPE_TEXT_CSV);
+    public static final String MEDIA_TYPE_APPLICATION_CBOR = "application/cbor";
+    public static final String MEDIA_TYPE_APPLICATION_SMILE = "application/x-jackson-smile";
 
     /**
      * Retrieves whether or not the specified String is not null and not empty.
@@ -104,6 +112,10 @@ public class Utils {
     }
 
     public static int getDepthFrom(UriInfo context, int defaultDepth) {
+        final RenderingPlan plan = getRenderingPlan(context);
+        if (plan != null) {
+            return plan.getDepth(defaultDepth);
+        }
         return getFlagValueFrom(context, API.INCLUDE_FULL_CHILDREN) ? defaultDepth + 1 : defaultDepth;
     }
 
@@ -131,39 +143,84 @@ public class Utils {
     }
 
     public static Filter getFilter(UriInfo context) {
+        Filter filter = API.NODE_FILTER;
+        final Set<String> childrenNodeTypes = getChildrenNodeTypes(context);
+        if (!childrenNodeTypes.isEmpty()) {
 
-        final MultivaluedMap<String, String> queryParameters = context.getQueryParameters();
-        if (queryParameters != null) {
-            final List<String> childrenNodeTypeFilterValues = queryParameters.get(API.CHILDREN_NODETYPE_FILTER);
-            if (childrenNodeTypeFilterValues != null) {
-                if (!childrenNodeTypeFilterValues.isEmpty()) {
-                    Set<String> childrenNodeTypes = new HashSet<String>();
-                    for (String childrenNodeTypeFilterValue : childrenNodeTypeFilterValues) {
-                        childrenNodeTypes.addAll(split(childrenNodeTypeFilterValue));
-                    }
+            final ChildrenNodeTypeFilter nodeTypeFilter = new ChildrenNodeTypeFilter(childrenNodeTypes);
+
+            // wrap filter so that we can always exclude first excluded node types
+            filter = new Filter.DefaultFilter() {
 
-                    if (!childrenNodeTypes.isEmpty()) {
+                @Override
+                public boolean acceptChild(Node child) {
+                    return API.NODE_FILTER.acceptChild(child) && nodeTypeFilter.acceptChild(child);
+                }
+            };
+        }
 
-                        final ChildrenNodeTypeFilter nodeTypeFilter = new ChildrenNodeTypeFilter(childrenNodeTypes);
+        // the requested view, if any, determines which fields are output
+        final RenderingPlan plan = getRenderingPlan(context);
+        if (plan != null) {
+            return plan.wrap(filter);
+        }
 
-                        // wrap filter so that we can always exclude first excluded node types
-                        return new Filter.DefaultFilter() {
+        // only output requested fields, if specified
+        final Fields fields = Fields.from(context);
+        return fields != null ? fields.wrap(filter) : filter;
+    }
 
-                            @Override
-                            public boolean acceptChild(Node child) {
-                                return API.NODE_FILTER.acceptChild(child) && nodeTypeFilter.acceptChild(child);
-                            }
-                        };
-                    }
+    /**
+     * Retrieves the rendering plan of the view requested using the {@link API#VIEW} query parameter, if any.
+     *
+     * @param context the URI information of the current request
+     * @return the rendering plan of the requested view or <code>null</code> if no view was requested
+     * @throws ViewsRegistry.UnknownViewException if the requested view isn't registered
+     */
+    static RenderingPlan getRenderingPlan(UriInfo context) {
+        final MultivaluedMap<String, String> queryParameters = context.getQueryParameters();
+        final String name = queryParameters != null ? queryParameters.getFirst(API.VIEW) : null;
+        if (!exists(name)) {
+            return null;
+        }
+
+        final RenderingPlan plan = ViewsRegistry.getInstance().getPlan(name);
+        if (plan == null) {
+            throw new ViewsRegistry.UnknownViewException(name);
+        }
+        return plan;
+    }
+
+    /**
+     * Retrieves the node types specified by the {@link API#CHILDREN_NODETYPE_FILTER} query parameter, if any.
+     *
+     * @param context the URI information of the current request
+     * @return the set of node type names that children need to match, empty if no such filter was specified
+     */
+    public static Set<String> getChildrenNodeTypes(UriInfo context) {
+        final Set<String> childrenNodeTypes = new HashSet<String>();
+        final MultivaluedMap<String, String> queryParameters = context.getQueryParameters();
+        if (queryParameters != null) {
+            final List<String> childrenNodeTypeFilterValues = queryParameters.get(API.CHILDREN_NODETYPE_FILTER);
+            if (childrenNodeTypeFilterValues != null) {
+                for (String childrenNodeTypeFilterValue : childrenNodeTypeFilterValues) {
+                    childrenNodeTypes.addAll(split(childrenNodeTypeFilterValue));
                 }
             }
         }
-        return API.NODE_FILTER;
+        return childrenNodeTypes;
     }
 
     public static boolean getFlagValueFrom(UriInfo context, String flagName) {
         final MultivaluedMap<String, String> queryParameters = context.getQueryParameters();
         if (queryParameters != null && !queryParameters.isEmpty()) {
+            // rendering flags are determined by the requested view, if any, unknown views being reported by getFilter
+            final RenderingPlan plan = ViewsRegistry.getInstance().getPlan(queryParameters.getFirst(API.VIEW));
+            final Boolean viewValue = plan != null ? plan.getFlagValue(flagName) : null;
+            if (viewValue != null) {
+                return viewValue;
+            }
+
             final List<String> flagValues = queryParameters.get(flagName);
             if (flagValues != null) {
                 if (flagValues.isEmpty() || !"false".equals(flagValues.get(0))) {
@@ -173,4 +230,66 @@ public class Utils {
         }
         return false;
     }
+
+    /**
+     * Retrieves which streaming format, if any, was requested. New-line delimited JSON is used if the client prefers the
+     * {@link #MEDIA_TYPE_APPLICATION_NDJSON} media type or if the value of the {@link API#STREAM} query parameter is
+     * <code>ndjson</code>. Otherwise, a streamed JSON array is used if the {@link API#STREAM} flag is set. Other
+     * responses, including {@link API#COMPACT} and {@link API#INCLUDE shaped} representations, are rendered before being
+     * sent so that their headers can depend on what was rendered and their media type can be negotiated.
+     *
+     * @param context the UriInfo providing the query parameters of the request
+     * @param headers the HttpHeaders of the request, might be <code>null</code> if not available
+     * @return the requested streaming format or <code>null</code> if the response shouldn't be streamed
+     */
+    public static NodesStreamingOutput.Format getStreamingFormat(UriInfo context, HttpHeaders headers) {
+        if (headers != null) {
+            for (MediaType acceptable : headers.getAcceptableMediaTypes()) {
+                if (!acceptable.isWildcardType() && !acceptable.isWildcardSubtype()) {
+                    // only consider the client's preferred explicit media type
+                    if (MEDIA_TYPE_APPLICATION_NDJSON_TYPE.isCompatible(acceptable)) {
+                        return NodesStreamingOutput.Format.NDJSON;
+                    }
+                    break;
+                }
+            }
+        }
+
+        final MultivaluedMap<String, String> queryParameters = context.getQueryParameters();
+        if (queryParameters != null && "ndjson".equalsIgnoreCase(queryParameters.getFirst(API.STREAM))) {
+            return NodesStreamingOutput.Format.NDJSON;
+        }
+
+        return getFlagValueFrom(context, API.STREAM) ? NodesStreamingOutput.Format.JSON : null;
+    }
+
+    /**
+     * Retrieves in which format, if any, query results should be projected as rows. Comma-separated values are used if
+     * the client prefers the {@link #MEDIA_TYPE_TEXT_CSV} media type or if the value of the {@link API#PROJECTION}
+     * query parameter is <code>csv</code>. Otherwise, JSON rows are used if the {@link API#PROJECTION} flag is set.
+     *
+     * @param context the UriInfo providing the query parameters of the request
+     * @param headers the HttpHeaders of the request, might be <code>null</code> if not available
+     * @return the requested projection or <code>null</code> if complete nodes should be output
+     */
+    public static Projection getProjection(UriInfo context, HttpHeaders headers) {
+        if (headers != null) {
+            for (MediaType acceptable : headers.getAcceptableMediaTypes()) {
+                if (!acceptable.isWildcardType() && !acceptable.isWildcardSubtype()) {
+                    // only consider the client's preferred explicit media type
+                    if (MEDIA_TYPE_TEXT_CSV_TYPE.isCompatible(acceptable)) {
+                        return Projection.CSV;
+                    }
+                    break;
+                }
+            }
+        }
+
+        final MultivaluedMap<String, String> queryParameters = context.getQueryParameters();
+        if (queryParameters != null && "csv".equalsIgnoreCase(queryParameters.getFirst(API.PROJECTION))) {
+            return Projection.CSV;
+        }
+
+        return getFlagValueFrom(context, API.PROJECTION) ? Projection.JSON : null;
+    }
 }
@@ -0,0 +1,132 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refreshes the results of prepared queries marked as materialized views in the background, either right away when
+ * stale results have been served or content they depend on changed, or on a schedule.
+ *
+ * @author Christophe Laprun
+ */
+public class ViewRefresher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ViewRefresher.class);
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    ViewRefresher(int threads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(Math.max(1, threads), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "jcrestapi-view-refresh-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    // Initialization on demand holder idiom: thread-safe singleton initialization
+    private static class Holder {
+        static final ViewRefresher INSTANCE = new ViewRefresher(SpringBeansAccess.getInstance().getViewRefreshThreads());
+
+        private Holder() {
+        }
+    }
+
+    public static ViewRefresher getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Runs the specified refresh as soon as possible, calling the specified callback once it's done, whether it
+     * succeeded or not.
+     */
+    void refresh(final Callable<?> refresh, final Runnable done) {
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh.call();
+                } catch (Exception e) {
+                    LOGGER.warn("Couldn't refresh materialized view", e);
+                } finally {
+                    done.run();
+                }
+            }
+        }, 0, done);
+    }
+
+    /**
+     * Runs the specified task after the specified delay, in milliseconds.
+     */
+    void schedule(Runnable task, long delay) {
+        schedule(task, delay, null);
+    }
+
+    private void schedule(Runnable task, long delay, Runnable onRejection) {
+        try {
+            executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // we're being stopped
+            if (onRejection != null) {
+                onRejection.run();
+            }
+        }
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+}
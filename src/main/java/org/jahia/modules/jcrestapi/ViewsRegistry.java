@@ -0,0 +1,163 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.api.View;
+import org.jahia.modules.jcrestapi.api.ViewService;
+import org.jahia.services.templates.JahiaModulesBeanPostProcessor;
+import org.springframework.beans.BeansException;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class stores all named views that can be selected using the {@link API#VIEW} query parameter. As for prepared
+ * queries, views declared in modules spring contexts are automatically registered, views can also be registered using
+ * {@link #addView(View)}. Views are compiled into a {@link RenderingPlan} when registered.
+ *
+ * @author Christophe Laprun
+ */
+public class ViewsRegistry implements ViewService, JahiaModulesBeanPostProcessor {
+    private final static ViewsRegistry INSTANCE = new ViewsRegistry();
+
+    public static ViewsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    // copy-on-write: request threads read the current map without locking while modules being (un)deployed
+    // concurrently swap in modified copies
+    private final AtomicReference<Map<String, RenderingPlan>> plans =
+            new AtomicReference<Map<String, RenderingPlan>>(Collections.<String, RenderingPlan>emptyMap());
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        if (bean instanceof View) {
+            addView((View) bean);
+        }
+        return bean;
+    }
+
+    @Override
+    public void postProcessBeforeDestruction(Object bean, String beanName) throws BeansException {
+        if (bean instanceof View) {
+            removeView((View) bean);
+        }
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        return bean;
+    }
+
+    /**
+     * Unregister a View object. The view is only unregistered if it is the one currently registered with its name, so
+     * that a module being undeployed doesn't unregister the view of the same name registered by a more recently
+     * deployed module.
+     * @param view
+     */
+    @Override
+    public void removeView(View view) {
+        final String name = view.getName();
+        Map<String, RenderingPlan> current;
+        Map<String, RenderingPlan> updated;
+        do {
+            current = plans.get();
+            final RenderingPlan registered = current.get(name);
+            if (registered == null || registered.getView() != view) {
+                return;
+            }
+            updated = new LinkedHashMap<String, RenderingPlan>(current);
+            updated.remove(name);
+        } while (!plans.compareAndSet(current, Collections.unmodifiableMap(updated)));
+    }
+
+    /**
+     * Register a View object, compiling it into a {@link RenderingPlan}.
+     * @param view
+     * @throws IllegalArgumentException if the view is invalid
+     */
+    @Override
+    public void addView(View view) {
+        final RenderingPlan plan = new RenderingPlan(view);
+
+        Map<String, RenderingPlan> current;
+        Map<String, RenderingPlan> updated;
+        do {
+            current = plans.get();
+            updated = new LinkedHashMap<String, RenderingPlan>(current);
+            updated.put(view.getName(), plan);
+        } while (!plans.compareAndSet(current, Collections.unmodifiableMap(updated)));
+    }
+
+    /**
+     * Get a view based on its name
+     * @param name
+     * @return
+     */
+    @Override
+    public View getView(String name) {
+        final RenderingPlan plan = getPlan(name);
+        return plan != null ? plan.getView() : null;
+    }
+
+    /**
+     * Get the rendering plan compiled for the view registered with the specified name
+     * @param name
+     * @return the RenderingPlan associated with the specified name or <code>null</code> if no such view is registered
+     */
+    RenderingPlan getPlan(String name) {
+        return name != null ? plans.get().get(name) : null;
+    }
+
+    /**
+     * Thrown when the view requested using the {@link API#VIEW} query parameter isn't registered.
+     */
+    public static class UnknownViewException extends IllegalArgumentException {
+        public UnknownViewException(String name) {
+            super("Unknown " + API.VIEW + " '" + name + "'");
+        }
+    }
+}
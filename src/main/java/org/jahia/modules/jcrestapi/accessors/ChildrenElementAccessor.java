@@ -44,9 +44,13 @@
 package org.jahia.modules.jcrestapi.accessors;
 
 import org.jahia.api.Constants;
+import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.Fields;
+import org.jahia.modules.jcrestapi.NodesStreamingOutput;
 import org.jahia.modules.jcrestapi.URIUtils;
 import org.jahia.modules.jcrestapi.Utils;
 import org.jahia.modules.jcrestapi.links.APIDecorator;
+import org.jahia.modules.json.Filter;
 import org.jahia.modules.json.JSONChildren;
 import org.jahia.modules.json.JSONNode;
 import org.jahia.modules.json.JSONProperty;
@@ -54,12 +58,33 @@ import org.jahia.services.content.JCRContentUtils;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.UriInfo;
 
 /**
  * @author Christophe Laprun
  */
 public class ChildrenElementAccessor extends ElementAccessor<JSONChildren<APIDecorator>, JSONNode<APIDecorator>, JSONNode> {
+    @Override
+    protected Object getElement(Node node, String subElement, UriInfo context, HttpHeaders headers) throws RepositoryException {
+        if (!Utils.exists(subElement)) {
+            // if asked to, stream children as they're retrieved instead of building the complete children representation
+            final NodesStreamingOutput.Format streamingFormat = Utils.getStreamingFormat(context, headers);
+            if (streamingFormat != null) {
+                return new ChildrenStreamingOutput(node, Utils.getFilter(context), Utils.getDepthFrom(context, 1) - 1, streamingFormat);
+            }
+
+            // compact and shaped children are rendered the same way, without being streamed
+            final Filter filter = Utils.getFilter(context);
+            final Fields fields = Fields.of(filter);
+            if (API.shouldOutputCompact() || fields != null && fields.getInclude() != null) {
+                return render(new ChildrenStreamingOutput(node, filter, Utils.getDepthFrom(context, 1) - 1, NodesStreamingOutput.Format.JSON));
+            }
+        }
+
+        return super.getElement(node, subElement, context, headers);
+    }
+
     @Override
     protected JSONChildren<APIDecorator> getSubElementContainer(Node node, UriInfo context) throws RepositoryException {
         int depth = Utils.getDepthFrom(context, 1);
@@ -0,0 +1,118 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.accessors;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.NodesStreamingOutput;
+import org.jahia.modules.jcrestapi.URIUtils;
+import org.jahia.modules.jcrestapi.links.JSONLink;
+import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.Names;
+import org.jahia.modules.json.jcr.SessionAccess;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streams the children of a node using the same structure as the children representation, i.e. an object which
+ * fields are the escaped names of the children followed by the links of the children resource.
+ *
+ * @author Christophe Laprun
+ */
+class ChildrenStreamingOutput extends NodesStreamingOutput {
+    private final Node parent;
+
+    ChildrenStreamingOutput(Node parent, Filter filter, int depth, Format format) throws RepositoryException {
+        this(parent, SessionAccess.getCurrentSession(), filter, depth, format);
+    }
+
+    private ChildrenStreamingOutput(Node parent, SessionAccess.SessionInfo sessionInfo, Filter filter, int depth, Format format) throws RepositoryException {
+        super(sessionInfo.session, sessionInfo.workspace, sessionInfo.language, parent.getNodes(), filter, depth, format);
+        this.parent = parent;
+    }
+
+    @Override
+    protected void writeStart(JsonGenerator generator) throws IOException, RepositoryException {
+        if (getFormat() == Format.JSON) {
+            generator.writeStartObject();
+        } else {
+            super.writeStart(generator);
+        }
+    }
+
+    @Override
+    protected void writeNode(JsonGenerator generator, Node node) throws IOException, RepositoryException {
+        if (getFormat() == Format.JSON) {
+            generator.writeFieldName(Names.escape(node.getName(), node.getIndex()));
+        }
+        super.writeNode(generator, node);
+    }
+
+    @Override
+    protected void writeEnd(JsonGenerator generator, boolean truncated) throws IOException, RepositoryException {
+        if (getFormat() == Format.JSON) {
+            if (truncated) {
+                generator.writeBooleanField(TRUNCATED, true);
+            }
+            if (isCompact()) {
+                writeTypes(generator);
+            } else if (API.shouldOutputLinks()) {
+                final String parentURI = URIUtils.getURIFor(parent);
+                final String uri = URIUtils.getURIForChildren(parent);
+                final Map<String, JSONLink> links = new LinkedHashMap<String, JSONLink>(3);
+                links.put(API.ABSOLUTE, JSONLink.createLink(API.ABSOLUTE, URIUtils.getAbsoluteURI(uri)));
+                links.put(API.SELF, JSONLink.createLink(API.SELF, uri));
+                links.put(API.PARENT, JSONLink.createLink(API.PARENT, parentURI));
+                generator.writeObjectField("_links", links);
+            }
+            generator.writeEndObject();
+        } else {
+            super.writeEnd(generator, truncated);
+        }
+    }
+}
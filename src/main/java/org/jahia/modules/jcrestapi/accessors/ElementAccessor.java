@@ -43,12 +43,15 @@
  */
 package org.jahia.modules.jcrestapi.accessors;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
@@ -57,6 +60,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
 import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.APIException;
+import org.jahia.modules.jcrestapi.Deadline;
+import org.jahia.modules.jcrestapi.NodesStreamingOutput;
+import org.jahia.modules.jcrestapi.RequestBodies;
+import org.jahia.modules.jcrestapi.SerializedJSON;
 import org.jahia.modules.jcrestapi.URIUtils;
 import org.jahia.modules.jcrestapi.Utils;
 import org.jahia.modules.jcrestapi.json.APIObjectFactory;
@@ -78,7 +86,7 @@ public abstract class ElementAccessor<C extends JSONSubElementContainer<APIDecor
         return APIObjectFactory.getInstance();
     }
 
-    protected Object getElement(Node node, String subElement, UriInfo context) throws RepositoryException {
+    protected Object getElement(Node node, String subElement, UriInfo context, HttpHeaders headers) throws RepositoryException {
         if (!Utils.exists(subElement)) {
             return getSubElementContainer(node, context);
         } else {
@@ -86,6 +94,25 @@ public abstract class ElementAccessor<C extends JSONSubElementContainer<APIDecor
         }
     }
 
+    /**
+     * Renders the specified output in the calling thread instead of streaming it, so that the media type of the response
+     * can be negotiated. The rendered representation cannot be marked as truncated so the request fails if the deadline
+     * passed before it could be completed.
+     */
+    protected static SerializedJSON render(NodesStreamingOutput output) throws RepositoryException {
+        final SerializedJSON rendered;
+        try {
+            rendered = output.render();
+        } catch (IOException e) {
+            throw new APIException(e);
+        }
+        if (output.isTruncated()) {
+            rendered.release();
+            throw new Deadline.DeadlineExceededException();
+        }
+        return rendered;
+    }
+
     protected JSONNode<APIDecorator> getParentFrom(Node node) throws RepositoryException {
         return getFactory().createNode(node, 0);
     }
@@ -98,11 +125,15 @@ public abstract class ElementAccessor<C extends JSONSubElementContainer<APIDecor
 
     protected abstract CreateOrUpdateResult<T> createOrUpdate(Node node, String subElement, U childData) throws RepositoryException;
 
-    public JSONItem convertFrom(String rawJSONData) throws Exception {
-        return reader.readValue(rawJSONData);
+    public JSONItem convertFrom(InputStream rawJSONData) throws Exception {
+        return RequestBodies.read(reader, rawJSONData);
     }
 
     public Response perform(Node node, String subElement, String operation, U childData, UriInfo context) throws RepositoryException {
+        return perform(node, subElement, operation, childData, context, null);
+    }
+
+    public Response perform(Node node, String subElement, String operation, U childData, UriInfo context, HttpHeaders headers) throws RepositoryException {
         if (API.DELETE.equals(operation)) {
             delete(node, subElement);
             return Response.noContent().build();
@@ -118,7 +149,10 @@ public abstract class ElementAccessor<C extends JSONSubElementContainer<APIDecor
                 return Response.created(context.getAbsolutePath()).entity(entity).build();
             }
         } else if (API.READ.equals(operation)) {
-            final Object element = getElement(node, subElement, context);
+            final Object element = getElement(node, subElement, context, headers);
+            if (element instanceof NodesStreamingOutput) {
+                return Response.ok(element, ((NodesStreamingOutput) element).getFormat().getMediaType()).build();
+            }
             return element == null ? Response.status(Response.Status.NOT_FOUND).build() : Response.ok(element).build();
         }
 
@@ -47,10 +47,14 @@ import java.util.Map;
 import java.util.Set;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.UriInfo;
 
+import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.Fields;
 import org.jahia.modules.jcrestapi.Utils;
 import org.jahia.modules.jcrestapi.links.APIDecorator;
+import org.jahia.modules.json.Filter;
 import org.jahia.modules.json.JSONMixin;
 import org.jahia.modules.json.JSONNode;
 import org.jahia.modules.json.JSONProperty;
@@ -62,8 +66,18 @@ import org.jahia.modules.json.Names;
  */
 public class NodeElementAccessor extends ElementAccessor<JSONSubElementContainer<APIDecorator>, JSONNode<APIDecorator>, JSONNode> {
     @Override
-    protected Object getElement(Node node, String subElement, UriInfo context) throws RepositoryException {
-        return getFactory().createNode(node, Utils.getFilter(context), Utils.getDepthFrom(context, 1));
+    protected Object getElement(Node node, String subElement, UriInfo context, HttpHeaders headers) throws RepositoryException {
+        final Filter filter = Utils.getFilter(context);
+        final int depth = Utils.getDepthFrom(context, 1);
+
+        // compact and shaped representations are written straight from the repository, streamed only if requested
+        final Fields fields = Fields.of(filter);
+        if (API.shouldOutputCompact() || fields != null && fields.getInclude() != null) {
+            final ShapedNodeStreamingOutput output = new ShapedNodeStreamingOutput(node, filter, depth);
+            return Utils.getStreamingFormat(context, headers) != null ? output : render(output);
+        }
+
+        return getFactory().createNode(node, filter, depth);
     }
 
     @Override
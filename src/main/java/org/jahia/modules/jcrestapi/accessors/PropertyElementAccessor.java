@@ -43,6 +43,7 @@
  */
 package org.jahia.modules.jcrestapi.accessors;
 
+import java.io.InputStream;
 import java.util.List;
 import javax.jcr.Node;
 import javax.jcr.Property;
@@ -53,6 +54,7 @@ import javax.jcr.nodetype.PropertyDefinition;
 import javax.ws.rs.core.UriInfo;
 
 import com.fasterxml.jackson.databind.ObjectReader;
+import org.jahia.modules.jcrestapi.RequestBodies;
 import org.jahia.modules.jcrestapi.URIUtils;
 import org.jahia.modules.jcrestapi.links.APIDecorator;
 import org.jahia.modules.json.JSONItem;
@@ -144,7 +146,7 @@ public class PropertyElementAccessor extends ElementAccessor<JSONProperties<APID
     }
 
     @Override
-    public JSONItem convertFrom(String rawJSONData) throws Exception {
-        return reader.readValue(rawJSONData);
+    public JSONItem convertFrom(InputStream rawJSONData) throws Exception {
+        return RequestBodies.read(reader, rawJSONData);
     }
 }
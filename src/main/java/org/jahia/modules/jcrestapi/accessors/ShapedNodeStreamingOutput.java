@@ -0,0 +1,84 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.accessors;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.jahia.modules.jcrestapi.NodesStreamingOutput;
+import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.jcr.SessionAccess;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Streams or renders the compact, and possibly shaped using an include expression, representation of a single node,
+ * followed by the dictionary of the types of the properties it contains.
+ *
+ * @author Christophe Laprun
+ */
+class ShapedNodeStreamingOutput extends NodesStreamingOutput {
+    private final Node node;
+
+    ShapedNodeStreamingOutput(Node node, Filter filter, int depth) {
+        this(node, SessionAccess.getCurrentSession(), filter, depth);
+    }
+
+    private ShapedNodeStreamingOutput(Node node, SessionAccess.SessionInfo sessionInfo, Filter filter, int depth) {
+        super(sessionInfo.session, sessionInfo.workspace, sessionInfo.language, Collections.<Node>emptyIterator(), filter, depth, Format.JSON);
+        this.node = node;
+    }
+
+    @Override
+    protected void writeStart(JsonGenerator generator) throws IOException, RepositoryException {
+        // the requested node is output regardless of the filter, as with the usual representation
+        writeNodeWithTypes(node);
+    }
+
+    @Override
+    protected void writeEnd(JsonGenerator generator, boolean truncated) throws IOException, RepositoryException {
+        // nothing to do, there are no other nodes to output
+    }
+}
@@ -45,6 +45,7 @@ package org.jahia.modules.jcrestapi.api;
 
 import org.jahia.services.content.JCRContentUtils;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -54,6 +55,13 @@ import java.util.Map;
 public class PreparedQuery {
     private String name;
     private String source;
+    private long cacheTimeToLive;
+    private int cacheMaxEntries = 100;
+    private List<String> cacheDependencyPaths = Collections.emptyList();
+    private List<String> cacheDependencyNodeTypes = Collections.emptyList();
+    private boolean warmUp;
+    private boolean materializedView;
+    private long refreshInterval = 60;
 
     public PreparedQuery() {
     }
@@ -84,12 +92,115 @@ public class PreparedQuery {
         this.source = source;
     }
 
+    /**
+     * Number of seconds during which results of this query are cached, results being cached only if this value is
+     * strictly positive. Cached results are kept per user and are invalidated before they expire if content on which
+     * they depend changes.
+     *
+     * @return
+     */
+    public long getCacheTimeToLive() {
+        return cacheTimeToLive;
+    }
+
+    public void setCacheTimeToLive(long cacheTimeToLive) {
+        this.cacheTimeToLive = cacheTimeToLive;
+    }
+
+    /**
+     * Maximum number of results (i.e. combinations of parameters, pagination, user, etc.) kept in this query's cache
+     *
+     * @return
+     */
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    /**
+     * Paths of the nodes on which cached results depend: changes to these nodes or to their descendants invalidate
+     * cached results. If neither paths nor node types are specified, any change invalidates cached results.
+     *
+     * @return
+     */
+    public List<String> getCacheDependencyPaths() {
+        return cacheDependencyPaths;
+    }
+
+    public void setCacheDependencyPaths(List<String> cacheDependencyPaths) {
+        this.cacheDependencyPaths = cacheDependencyPaths != null ? cacheDependencyPaths : Collections.<String>emptyList();
+    }
+
+    /**
+     * Node types on which cached results depend: changes to nodes of these types invalidate cached results. If neither
+     * paths nor node types are specified, any change invalidates cached results.
+     *
+     * @return
+     */
+    public List<String> getCacheDependencyNodeTypes() {
+        return cacheDependencyNodeTypes;
+    }
+
+    public void setCacheDependencyNodeTypes(List<String> cacheDependencyNodeTypes) {
+        this.cacheDependencyNodeTypes = cacheDependencyNodeTypes != null ? cacheDependencyNodeTypes : Collections.<String>emptyList();
+    }
+
+    /**
+     * Whether this query should be performed once when it is registered, to warm repository and index caches up before
+     * the first client call. Only queries without parameters can be warmed up.
+     *
+     * @return
+     */
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * Whether this query is a materialized view: its results are cached and, once computed, always served from the
+     * cache, even when stale, while being refreshed in the background every {@link #getRefreshInterval()} seconds and
+     * when content they depend on, as declared by {@link #getCacheDependencyPaths()} and
+     * {@link #getCacheDependencyNodeTypes()}, changes. If {@link #getCacheTimeToLive()} is strictly positive, results
+     * still expire after that time.
+     *
+     * @return
+     */
+    public boolean isMaterializedView() {
+        return materializedView;
+    }
+
+    public void setMaterializedView(boolean materializedView) {
+        this.materializedView = materializedView;
+    }
+
+    /**
+     * Number of seconds after which the results of a materialized view are considered stale and refreshed
+     *
+     * @return
+     */
+    public long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
     /**
      * Get parsed query with position parameters replaced
      *
      * @param params
      * @return
+     * @deprecated the query endpoint now binds parameter values to bind variables on a compiled version of the source
+     * instead of interpolating them in the statement
      */
+    @Deprecated
     public String getQuery(List<Object> params) {
         String res = source;
         for (Object param : params) {
@@ -108,7 +219,10 @@ public class PreparedQuery {
      *
      * @param params
      * @return
+     * @deprecated the query endpoint now binds parameter values to bind variables on a compiled version of the source
+     * instead of interpolating them in the statement
      */
+    @Deprecated
     public String getQuery(Map<String, Object> params) {
         String res = source;
         for (Map.Entry<String, Object> entry : params.entrySet()) {
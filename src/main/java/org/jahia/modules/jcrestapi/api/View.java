@@ -0,0 +1,174 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.api;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Named server-side view which can be selected using the <code>view</code> query parameter to render nodes in a
+ * predefined way instead of specifying the rendering options on each request.
+ *
+ * @author Christophe Laprun
+ */
+public class View {
+    private String name;
+    private int depth = 1;
+    private List<String> properties = Collections.emptyList();
+    private String include;
+    private int maxValueLength;
+    private boolean links = true;
+    private boolean references;
+    private boolean compact;
+
+    public View() {
+    }
+
+    /**
+     * Unique view name
+     *
+     * @return
+     */
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Depth of the rendered nodes: <code>0</code> only outputs the nodes themselves, <code>1</code> (the default) also
+     * outputs their sub-element containers and greater values also fully render their children
+     *
+     * @return
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * Names of the properties and sub-element containers to render, using the same syntax as the <code>fields</code>
+     * query parameter, all of them being rendered if empty
+     *
+     * @return
+     */
+    public List<String> getProperties() {
+        return properties;
+    }
+
+    public void setProperties(List<String> properties) {
+        this.properties = properties != null ? properties : Collections.<String>emptyList();
+    }
+
+    /**
+     * Optional include expression, using the same syntax as the <code>include</code> query parameter, describing the
+     * shape of rendered nodes
+     *
+     * @return
+     */
+    public String getInclude() {
+        return include;
+    }
+
+    public void setInclude(String include) {
+        this.include = include;
+    }
+
+    /**
+     * Length after which string values are truncated, values not being truncated if this value isn't strictly positive
+     *
+     * @return
+     */
+    public int getMaxValueLength() {
+        return maxValueLength;
+    }
+
+    public void setMaxValueLength(int maxValueLength) {
+        this.maxValueLength = maxValueLength;
+    }
+
+    /**
+     * Whether links are rendered, <code>true</code> by default
+     *
+     * @return
+     */
+    public boolean isLinks() {
+        return links;
+    }
+
+    public void setLinks(boolean links) {
+        this.links = links;
+    }
+
+    /**
+     * Whether references are resolved, <code>false</code> by default
+     *
+     * @return
+     */
+    public boolean isReferences() {
+        return references;
+    }
+
+    public void setReferences(boolean references) {
+        this.references = references;
+    }
+
+    /**
+     * Whether nodes are rendered using the compact representation, <code>false</code> by default
+     *
+     * @return
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+}
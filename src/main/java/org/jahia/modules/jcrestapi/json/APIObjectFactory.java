@@ -47,6 +47,7 @@ import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 
 import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.Deadline;
 import org.jahia.modules.jcrestapi.links.APIDecorator;
 import org.jahia.modules.json.Filter;
 import org.jahia.modules.json.JSONObjectFactory;
@@ -57,6 +58,8 @@ import org.jahia.modules.json.JSONObjectFactory;
 public class APIObjectFactory extends JSONObjectFactory<APIDecorator> {
     @Override
     public APIDecorator createDecorator() {
+        // decorators are created for each rendered item so this is where we stop rendering once the deadline passed
+        Deadline.check();
         return createDecorator(API.shouldResolveReferences(), API.shouldOutputLinks());
     }
 
@@ -0,0 +1,118 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * An aggregation requested over the results of a query: counts of the values of a property, optionally bucketed by
+ * date interval, along with their minimum and maximum.
+ *
+ * @author Christophe Laprun
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public class JSONAggregation {
+    @XmlElement
+    private String name;
+    @XmlElement
+    private String property;
+    @XmlElement
+    private String interval;
+    @XmlElement
+    private Boolean buckets;
+    @XmlElement
+    private Integer size;
+
+    public JSONAggregation() {
+    }
+
+    public JSONAggregation(String property, String interval, Boolean buckets, Integer size) {
+        this.property = property;
+        this.interval = interval;
+        this.buckets = buckets;
+        this.size = size;
+    }
+
+    /**
+     * @return the name under which the result of this aggregation is returned, the aggregated property name if none
+     * was specified
+     */
+    public String getName() {
+        return name != null ? name : property;
+    }
+
+    /**
+     * @return the name of the aggregated property, <code>jcr:primaryType</code> aggregating results by node type
+     */
+    public String getProperty() {
+        return property;
+    }
+
+    /**
+     * @return the interval (<code>year</code>, <code>month</code>, <code>day</code> or <code>hour</code>) by which date
+     * values are bucketed, <code>null</code> if values are counted as is
+     */
+    public String getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return whether values should be counted per bucket, <code>true</code> by default, only the total count and
+     * minimum and maximum values being computed otherwise
+     */
+    public boolean isBuckets() {
+        return buckets == null || buckets;
+    }
+
+    /**
+     * @return the requested maximum number of buckets, <code>null</code> if none was specified
+     */
+    public Integer getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The results of the aggregations requested over the results of a query, keyed by aggregation name.
+ *
+ * @author Christophe Laprun
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public class JSONAggregationResults {
+    @XmlElement
+    private long count;
+    @XmlElement
+    private final Map<String, JSONAggregationResult> aggregations = new LinkedHashMap<String, JSONAggregationResult>();
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public Map<String, JSONAggregationResult> getAggregations() {
+        return aggregations;
+    }
+
+    public void add(String name, JSONAggregationResult result) {
+        aggregations.put(name, result);
+    }
+
+    /**
+     * The result of an aggregation: the number of aggregated values, the number of nodes without value, the minimum
+     * and maximum values and, if requested, the count of the most frequent values or date buckets, ordered by decreasing
+     * count. When there are more distinct values than allowed buckets, counts are lower bounds, the values which couldn't
+     * be attributed to a bucket being counted in <code>otherCount</code>.
+     */
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.NONE)
+    public static class JSONAggregationResult {
+        @XmlElement
+        private final long count;
+        @XmlElement
+        private final long missing;
+        @XmlElement
+        private final Object min;
+        @XmlElement
+        private final Object max;
+        @XmlElement
+        private final Map<String, Long> buckets;
+        @XmlElement
+        private final Long otherCount;
+
+        public JSONAggregationResult(long count, long missing, Object min, Object max, Map<String, Long> buckets, Long otherCount) {
+            this.count = count;
+            this.missing = missing;
+            this.min = min;
+            this.max = max;
+            this.buckets = buckets;
+            this.otherCount = otherCount;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMissing() {
+            return missing;
+        }
+
+        public Object getMin() {
+            return min;
+        }
+
+        public Object getMax() {
+            return max;
+        }
+
+        public Map<String, Long> getBuckets() {
+            return buckets;
+        }
+
+        public Long getOtherCount() {
+            return otherCount;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import org.jahia.modules.jcrestapi.QueryStatistics;
+import org.jahia.modules.jcrestapi.QueryTemplate;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The representation of the prepared queries currently registered, along with their call statistics.
+ *
+ * @author Christophe Laprun
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public class JSONPreparedQueries {
+    @XmlElement
+    private final long version;
+    @XmlElement
+    private final List<JSONPreparedQuery> queries;
+
+    public JSONPreparedQueries(long version, Collection<QueryTemplate> templates) {
+        this.version = version;
+        this.queries = new ArrayList<JSONPreparedQuery>(templates.size());
+        for (QueryTemplate template : templates) {
+            queries.add(new JSONPreparedQuery(template));
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<JSONPreparedQuery> getQueries() {
+        return queries;
+    }
+
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.NONE)
+    public static class JSONPreparedQuery {
+        @XmlElement
+        private final String name;
+        @XmlElement
+        private final List<String> parameters;
+        @XmlElement
+        private final boolean cached;
+        @XmlElement
+        private final long version;
+        @XmlElement
+        private final long registered;
+        @XmlElement
+        private final long calls;
+        @XmlElement
+        private final long errors;
+        @XmlElement
+        private final double averageLatency;
+        @XmlElement
+        private final double maxLatency;
+
+        JSONPreparedQuery(QueryTemplate template) {
+            this.name = template.getName();
+            this.parameters = template.getVariableNames();
+            this.cached = template.getResultCache() != null;
+            this.version = template.getVersion();
+            this.registered = template.getRegistered();
+
+            final QueryStatistics statistics = template.getStatistics();
+            this.calls = statistics.getCalls();
+            this.errors = statistics.getErrors();
+            this.averageLatency = statistics.getAverageLatency();
+            this.maxLatency = statistics.getMaxLatency();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+    }
+}
@@ -56,6 +56,8 @@ import java.util.Map;
 @XmlRootElement
 @XmlAccessorType(XmlAccessType.NONE)
 public class JSONQuery {
+    @XmlElement
+    private String id;
     @XmlElement
     private String query;
     @XmlElement
@@ -72,6 +74,19 @@ public class JSONQuery {
     @XmlElement
     private Map<String,Object> namedParameters;
 
+    @XmlElement
+    private String continuationToken;
+
+    @XmlElement
+    private JSONStructuredQuery structuredQuery;
+
+    @XmlElement
+    private List<JSONAggregation> aggregations;
+
+
+    public String getId() {
+        return id;
+    }
 
     public String getQuery() {
         return query;
@@ -96,4 +111,16 @@ public class JSONQuery {
     public Map<String,Object> getNamedParameters() {
         return namedParameters;
     }
+
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public JSONStructuredQuery getStructuredQuery() {
+        return structuredQuery;
+    }
+
+    public List<JSONAggregation> getAggregations() {
+        return aggregations;
+    }
 }
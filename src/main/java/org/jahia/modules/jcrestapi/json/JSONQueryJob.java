@@ -0,0 +1,117 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.QueryJob;
+import org.jahia.modules.jcrestapi.URIUtils;
+import org.jahia.modules.jcrestapi.links.JSONLink;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The representation of the status of an asynchronous query job.
+ *
+ * @author Christophe Laprun
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public class JSONQueryJob {
+    @XmlElement
+    private final String id;
+    @XmlElement
+    private final String status;
+    @XmlElement
+    private final String workspace;
+    @XmlElement
+    private final String language;
+    @XmlElement
+    private final long created;
+    @XmlElement
+    private final Long started;
+    @XmlElement
+    private final Long completed;
+    @XmlElement
+    private final Long expires;
+    @XmlElement
+    private final Long size;
+    @XmlElement
+    private final String error;
+    @XmlElement(name = "_links")
+    private final Map<String, JSONLink> links = new HashMap<String, JSONLink>(2);
+
+    public JSONQueryJob(QueryJob job) {
+        this.id = job.getId();
+        final QueryJob.Status jobStatus = job.getStatus();
+        this.status = jobStatus.name();
+        this.workspace = job.getWorkspace();
+        this.language = job.getLanguage();
+        this.created = job.getCreated();
+        this.started = job.getStarted() > 0 ? job.getStarted() : null;
+        this.completed = job.getCompleted() > 0 ? job.getCompleted() : null;
+        this.expires = jobStatus.isDone() && job.getExpiration() != Long.MAX_VALUE ? job.getExpiration() : null;
+        final long resultSize = job.getResultSize();
+        this.size = resultSize >= 0 ? resultSize : null;
+        this.error = job.getError();
+
+        final String self = URIUtils.getJobURI(id);
+        links.put(API.SELF, JSONLink.createLink(API.SELF, self));
+        if (jobStatus == QueryJob.Status.COMPLETED) {
+            links.put(API.RESULT, JSONLink.createLink(API.RESULT, URIUtils.getJobResultURI(id)));
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+}
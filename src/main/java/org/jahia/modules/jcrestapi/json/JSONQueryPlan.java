@@ -0,0 +1,125 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import org.jahia.modules.jcrestapi.QueryAdmission;
+import org.jahia.modules.jcrestapi.QueryPlan;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The representation of the plan of a query, as returned by the query explain endpoint.
+ *
+ * @author Christophe Laprun
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public class JSONQueryPlan {
+    @XmlElement
+    private final String statement;
+    @XmlElement
+    private final long cost;
+    @XmlElement
+    private final Long maxCost;
+    @XmlElement
+    private final String admission;
+    @XmlElement
+    private final List<JSONSelectorPlan> selectors;
+    @XmlElement
+    private final List<String> joins;
+    @XmlElement
+    private final List<String> orderings;
+    @XmlElement
+    private final List<String> warnings;
+
+    public JSONQueryPlan(QueryPlan plan, QueryAdmission admission) {
+        this.statement = plan.getStatement();
+        this.cost = plan.getCost();
+        this.maxCost = admission.isEnabled() ? admission.getMaxCost() : null;
+        this.admission = admission.decide(plan).name();
+        this.selectors = new ArrayList<JSONSelectorPlan>(plan.getSelectors().size());
+        for (QueryPlan.SelectorPlan selector : plan.getSelectors()) {
+            selectors.add(new JSONSelectorPlan(selector));
+        }
+        this.joins = plan.getJoins();
+        this.orderings = plan.getOrderings();
+        this.warnings = plan.getWarnings();
+    }
+
+    public long getCost() {
+        return cost;
+    }
+
+    public String getAdmission() {
+        return admission;
+    }
+
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.NONE)
+    public static class JSONSelectorPlan {
+        @XmlElement
+        private final String name;
+        @XmlElement
+        private final String nodeType;
+        @XmlElement
+        private final boolean traversal;
+        @XmlElement
+        private final long candidates;
+        @XmlElement
+        private final List<String> indexedConstraints;
+
+        JSONSelectorPlan(QueryPlan.SelectorPlan selector) {
+            this.name = selector.getName();
+            this.nodeType = selector.getNodeType();
+            this.traversal = selector.isTraversal();
+            this.candidates = selector.getCandidates();
+            this.indexedConstraints = selector.getIndexedConstraints();
+        }
+    }
+}
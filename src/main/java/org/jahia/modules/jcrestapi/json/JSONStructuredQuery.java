@@ -0,0 +1,239 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.List;
+
+/**
+ * A query expressed as a JSON structure instead of a JCR-SQL2 statement, which is compiled directly into a Query Object
+ * Model, thus avoiding parsing the statement and escaping values.
+ *
+ * @author Christophe Laprun
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public class JSONStructuredQuery {
+    public static final String DEFAULT_SELECTOR = "node";
+
+    @XmlElement
+    private String type;
+    @XmlElement
+    private String selector;
+    @XmlElement
+    private JSONConstraint constraint;
+    @XmlElement
+    private List<JSONOrdering> orderings;
+    @XmlElement
+    private List<String> columns;
+
+    /**
+     * @return the node type of the nodes to retrieve
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return the name of the selector of the query, {@link #DEFAULT_SELECTOR} if none was specified
+     */
+    public String getSelector() {
+        return selector != null ? selector : DEFAULT_SELECTOR;
+    }
+
+    public JSONConstraint getConstraint() {
+        return constraint;
+    }
+
+    public List<JSONOrdering> getOrderings() {
+        return orderings;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * A constraint of a structured query. Exactly one kind of constraint should be specified: a conjunction
+     * (<code>and</code>), a disjunction (<code>or</code>), a negation (<code>not</code>), a property existence test
+     * (<code>exists</code>), a full-text search (<code>contains</code>, optionally on a given <code>property</code>), a
+     * path constraint (<code>descendantOf</code>, <code>childOf</code> or <code>sameNodeAs</code>) or a comparison of a
+     * <code>property</code>, possibly transformed, using an <code>operator</code> (<code>=</code> by default) with a
+     * <code>value</code>, optionally of the specified <code>valueType</code>, or with a bind variable which value is
+     * provided by the <code>namedParameters</code> of the query.
+     */
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.NONE)
+    public static class JSONConstraint {
+        @XmlElement
+        private List<JSONConstraint> and;
+        @XmlElement
+        private List<JSONConstraint> or;
+        @XmlElement
+        private JSONConstraint not;
+        @XmlElement
+        private String exists;
+        @XmlElement
+        private String contains;
+        @XmlElement
+        private String descendantOf;
+        @XmlElement
+        private String childOf;
+        @XmlElement
+        private String sameNodeAs;
+        @XmlElement
+        private String property;
+        @XmlElement
+        private String transform;
+        @XmlElement
+        private String operator;
+        @XmlElement
+        private Object value;
+        @XmlElement
+        private String valueType;
+        @XmlElement
+        private String parameter;
+
+        public List<JSONConstraint> getAnd() {
+            return and;
+        }
+
+        public List<JSONConstraint> getOr() {
+            return or;
+        }
+
+        public JSONConstraint getNot() {
+            return not;
+        }
+
+        public String getExists() {
+            return exists;
+        }
+
+        public String getContains() {
+            return contains;
+        }
+
+        public String getDescendantOf() {
+            return descendantOf;
+        }
+
+        public String getChildOf() {
+            return childOf;
+        }
+
+        public String getSameNodeAs() {
+            return sameNodeAs;
+        }
+
+        /**
+         * @return the name of the compared property, <code>name()</code> and <code>localname()</code> referring to the
+         * name and local name of the node
+         */
+        public String getProperty() {
+            return property;
+        }
+
+        /**
+         * @return the transformation applied to the property value before comparison: <code>lower</code>,
+         * <code>upper</code> or <code>length</code>
+         */
+        public String getTransform() {
+            return transform;
+        }
+
+        public String getOperator() {
+            return operator;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        /**
+         * @return the name of the JCR property type of the value (e.g. <code>Date</code>), the type being inferred
+         * from the JSON value if none is specified
+         */
+        public String getValueType() {
+            return valueType;
+        }
+
+        /**
+         * @return the name of the bind variable to compare with instead of a value
+         */
+        public String getParameter() {
+            return parameter;
+        }
+    }
+
+    /**
+     * An ordering of a structured query, on a <code>property</code>, possibly transformed, in ascending or descending
+     * (if <code>order</code> is <code>desc</code>) order.
+     */
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.NONE)
+    public static class JSONOrdering {
+        @XmlElement
+        private String property;
+        @XmlElement
+        private String transform;
+        @XmlElement
+        private String order;
+
+        public String getProperty() {
+            return property;
+        }
+
+        public String getTransform() {
+            return transform;
+        }
+
+        public String getOrder() {
+            return order;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.json.JSONAggregation;
+import org.jahia.modules.jcrestapi.json.JSONAggregationResults;
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Christophe Laprun
+ */
+public class AggregationTest {
+
+    @Test
+    public void bucketsShouldBeBounded() throws RepositoryException {
+        final Aggregation aggregation = new Aggregation(new JSONAggregation("jcr:title", null, true, 2), 1000);
+        for (String title : new String[]{"a", "b", "a", "c", "d", "a"}) {
+            aggregation.add(string(title));
+        }
+
+        final JSONAggregationResults.JSONAggregationResult result = aggregation.toJSON();
+        assertThat(result.getCount()).isEqualTo(6);
+        assertThat(result.getBuckets().size()).isLessThanOrEqualTo(2);
+        long attributed = 0;
+        for (Long count : result.getBuckets().values()) {
+            attributed += count;
+        }
+        assertThat(attributed + result.getOtherCount()).isEqualTo(6);
+        assertThat(result.getMin()).isEqualTo("a");
+        assertThat(result.getMax()).isEqualTo("d");
+    }
+
+    @Test
+    public void bucketsShouldBeExactWhenThereAreEnoughOfThem() throws RepositoryException {
+        final Aggregation aggregation = new Aggregation(new JSONAggregation("jcr:title", null, true, 3), 1000);
+        for (String title : new String[]{"a", "b", "a", "c", "b", "a"}) {
+            aggregation.add(string(title));
+        }
+
+        final JSONAggregationResults.JSONAggregationResult result = aggregation.toJSON();
+        assertThat(result.getBuckets()).containsExactly(entry("a", 3L), entry("b", 2L), entry("c", 1L));
+        assertThat(result.getOtherCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void bucketsShouldTrackTheMostFrequentValuesEvenIfTheyAppearLate() throws RepositoryException {
+        final Aggregation aggregation = new Aggregation(new JSONAggregation("jcr:title", null, true, 2), 1000);
+        for (String title : new String[]{"b", "c", "d", "e", "a", "a", "a", "a", "a"}) {
+            aggregation.add(string(title));
+        }
+
+        final JSONAggregationResults.JSONAggregationResult result = aggregation.toJSON();
+        assertThat(result.getBuckets()).containsKey("a");
+        assertThat(result.getBuckets().keySet().iterator().next()).isEqualTo("a");
+        // counts are lower bounds of the actual counts
+        assertThat(result.getBuckets().get("a")).isGreaterThan(0).isLessThanOrEqualTo(5);
+        long attributed = 0;
+        for (Long count : result.getBuckets().values()) {
+            attributed += count;
+        }
+        assertThat(attributed + result.getOtherCount()).isEqualTo(9);
+    }
+
+    @Test
+    public void serverLimitShouldCapRequestedSize() throws RepositoryException {
+        final Aggregation aggregation = new Aggregation(new JSONAggregation("jcr:title", null, true, 50), 1);
+        aggregation.add(string("a"));
+        aggregation.add(string("b"));
+        aggregation.add(string("b"));
+
+        assertThat(aggregation.toJSON().getBuckets()).hasSize(1).containsEntry("b", 2L);
+        assertThat(aggregation.toJSON().getOtherCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void datesShouldBeBucketedByInterval() throws RepositoryException {
+        final Aggregation aggregation = new Aggregation(new JSONAggregation("jcr:created", "month", true, null), 1000);
+        aggregation.add(date(2016, Calendar.MARCH, 1));
+        aggregation.add(date(2016, Calendar.MARCH, 31));
+        aggregation.add(date(2016, Calendar.JANUARY, 5));
+
+        final JSONAggregationResults.JSONAggregationResult result = aggregation.toJSON();
+        assertThat(result.getBuckets()).containsEntry("2016-03", 2L).containsEntry("2016-01", 1L);
+        assertThat(result.getMin()).isEqualTo("2016-01-05");
+        assertThat(result.getMax()).isEqualTo("2016-03-31");
+    }
+
+    @Test
+    public void nodesWithoutPropertyShouldBeCountedAsMissing() throws RepositoryException {
+        final Aggregation aggregation = new Aggregation(new JSONAggregation("size", null, false, null), 1000);
+
+        final Node withoutProperty = mock(Node.class);
+        when(withoutProperty.hasProperty("size")).thenReturn(false);
+        aggregation.add(withoutProperty);
+
+        final Node withProperty = mock(Node.class);
+        final Property property = mock(Property.class);
+        final Value value = mock(Value.class);
+        when(value.getType()).thenReturn(PropertyType.LONG);
+        when(value.getDouble()).thenReturn(42d);
+        when(value.getLong()).thenReturn(42L);
+        when(property.getValue()).thenReturn(value);
+        when(withProperty.hasProperty("size")).thenReturn(true);
+        when(withProperty.getProperty("size")).thenReturn(property);
+        aggregation.add(withProperty);
+
+        final JSONAggregationResults.JSONAggregationResult result = aggregation.toJSON();
+        assertThat(result.getCount()).isEqualTo(1);
+        assertThat(result.getMissing()).isEqualTo(1);
+        assertThat(result.getBuckets()).isNull();
+        assertThat(result.getOtherCount()).isNull();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedIntervalShouldBeRejected() {
+        new Aggregation(new JSONAggregation("jcr:created", "week", true, null), 1000);
+    }
+
+    private static Value string(String string) throws RepositoryException {
+        final Value value = mock(Value.class);
+        when(value.getType()).thenReturn(PropertyType.STRING);
+        when(value.getString()).thenReturn(string);
+        return value;
+    }
+
+    private static Value date(int year, int month, int day) throws RepositoryException {
+        final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(year, month, day, 12, 0);
+        final Value value = mock(Value.class);
+        when(value.getType()).thenReturn(PropertyType.DATE);
+        when(value.getDate()).thenReturn(calendar);
+        when(value.getString()).thenReturn(String.format("%04d-%02d-%02d", year, month + 1, day));
+        return value;
+    }
+}
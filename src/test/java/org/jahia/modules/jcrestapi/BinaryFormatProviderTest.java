@@ -0,0 +1,125 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import java.io.ByteArrayOutputStream;
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Christophe Laprun
+ */
+public class BinaryFormatProviderTest {
+    private static final MediaType CBOR = MediaType.valueOf(Utils.MEDIA_TYPE_APPLICATION_CBOR);
+    private static final MediaType SMILE = MediaType.valueOf(Utils.MEDIA_TYPE_APPLICATION_SMILE);
+    private static final MediaType HAL = MediaType.valueOf(Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON);
+
+    @Test
+    public void providersShouldOnlyHandleTheirMediaType() {
+        final BinaryFormatProvider cbor = new BinaryFormatProvider.CBOR();
+        assertThat(isWriteable(cbor, CBOR)).isTrue();
+        assertThat(isWriteable(cbor, SMILE)).isFalse();
+        assertThat(isWriteable(cbor, HAL)).isFalse();
+        assertThat(isWriteable(cbor, MediaType.WILDCARD_TYPE)).isFalse();
+
+        final BinaryFormatProvider smile = new BinaryFormatProvider.Smile();
+        assertThat(isWriteable(smile, SMILE)).isTrue();
+        assertThat(isWriteable(smile, CBOR)).isFalse();
+
+        // and JSON isn't output in binary formats
+        assertThat(isWriteable(new APIJsonProvider(), CBOR)).isFalse();
+    }
+
+    @Test
+    public void binaryRepresentationsShouldHaveTheSameStructureAsJSONOnes() throws Exception {
+        final APIException.JSONError error = new APIException.JSONError(new IllegalArgumentException("foo"), "read",
+                "byPath", "/sites", "properties", Collections.singletonList("bar"), null);
+
+        final JsonNode json = new ObjectMapper().readTree(write(new APIJsonProvider(), error, HAL));
+        assertThat(json.get("message").asText()).isEqualTo("foo");
+        assertThat(json.get("subElements").get(0).asText()).isEqualTo("bar");
+
+        assertThat(new ObjectMapper(new CBORFactory()).readTree(write(new BinaryFormatProvider.CBOR(), error, CBOR))).isEqualTo(json);
+        assertThat(new ObjectMapper(new SmileFactory()).readTree(write(new BinaryFormatProvider.Smile(), error, SMILE))).isEqualTo(json);
+    }
+
+    @Test
+    public void serializedJSONShouldBeTranscoded() throws Exception {
+        final byte[] serialized = "[{\"name\":\"foo\",\"properties\":{\"count\":3,\"tags\":[\"a\",null,true]}}]".getBytes("UTF-8");
+        final SerializedJSON value = SerializedJSON.of(serialized);
+        final JsonNode json = new ObjectMapper().readTree(serialized);
+
+        // output as is as JSON, and transcoded to binary formats
+        assertThat(isWriteable(new APIJsonProvider(), value, HAL)).isTrue();
+        assertThat(write(new APIJsonProvider(), value, HAL)).isEqualTo(serialized);
+        assertThat(isWriteable(new BinaryFormatProvider.CBOR(), value, CBOR)).isTrue();
+        assertThat(new ObjectMapper(new CBORFactory()).readTree(write(new BinaryFormatProvider.CBOR(), value, CBOR))).isEqualTo(json);
+        assertThat(new ObjectMapper(new SmileFactory()).readTree(write(new BinaryFormatProvider.Smile(), value, SMILE))).isEqualTo(json);
+    }
+
+    private static boolean isWriteable(APIJsonProvider provider, Object value, MediaType mediaType) {
+        return provider.isWriteable(value.getClass(), value.getClass(), new Annotation[0], mediaType);
+    }
+
+    private static boolean isWriteable(APIJsonProvider provider, MediaType mediaType) {
+        return provider.isWriteable(APIException.JSONError.class, APIException.JSONError.class, new Annotation[0], mediaType);
+    }
+
+    private static byte[] write(APIJsonProvider provider, Object value, MediaType mediaType) throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        provider.writeTo(value, value.getClass(), value.getClass(), new Annotation[0], mediaType,
+                new MultivaluedHashMap<String, Object>(), output);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,463 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.jahia.modules.jcrestapi.api.PreparedQuery;
+import org.jahia.modules.jcrestapi.json.JSONBatchResult;
+import org.jahia.modules.jcrestapi.json.JSONQuery;
+import org.jahia.modules.json.Filter;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryResult;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Christophe Laprun
+ */
+public class CompactNodeSerializerTest {
+
+    @After
+    public void tearDown() {
+        API.setOutputCompact(false);
+        Deadline.clear();
+    }
+
+    @Test
+    public void compactRepresentationsShouldOnlyContainValues() throws Exception {
+        final Node child = node("child-id", "/foo/bar", "bar", "nt:unstructured");
+        final Node node = node("id", "/foo", "foo", "jnt:content",
+                property("title", PropertyType.STRING, "Foo"),
+                property("count", PropertyType.LONG, 1L, 2L),
+                property("data", PropertyType.BINARY, "binary"));
+        final NodeIterator children = nodes(child);
+        when(node.getNodes()).thenReturn(children);
+        final NodeType mixin = nodeType("jmix:tagged");
+        when(node.getMixinNodeTypes()).thenReturn(new NodeType[]{mixin});
+
+        final JsonNode json = render(NodesStreamingOutput.Format.JSON, 1, node);
+        final JsonNode foo = json.get("nodes").get(0);
+        assertThat(foo.has("_links")).isFalse();
+        assertThat(foo.get("name").asText()).isEqualTo("foo");
+        assertThat(foo.get("type").asText()).isEqualTo("jnt:content");
+        assertThat(foo.get("path").asText()).isEqualTo("/foo");
+        assertThat(foo.get("id").asText()).isEqualTo("id");
+        assertThat(foo.get("mixins").get(0).asText()).isEqualTo("jmix:tagged");
+
+        final JsonNode properties = foo.get("properties");
+        assertThat(properties.size()).isEqualTo(2);
+        assertThat(properties.get("title").asText()).isEqualTo("Foo");
+        assertThat(properties.get("count").get(1).asLong()).isEqualTo(2L);
+
+        final JsonNode bar = foo.get("children").get("bar");
+        assertThat(bar.get("id").asText()).isEqualTo("child-id");
+        assertThat(bar.has("properties")).isFalse();
+
+        final JsonNode types = json.get(CompactNodeSerializer.TYPES);
+        assertThat(types.size()).isEqualTo(2);
+        assertThat(types.get("title").asText()).isEqualTo(PropertyType.TYPENAME_STRING);
+        assertThat(types.get("count").asText()).isEqualTo(PropertyType.TYPENAME_LONG);
+    }
+
+    @Test
+    public void typesShouldBeSharedByAllNodes() throws Exception {
+        final JsonNode json = render(NodesStreamingOutput.Format.JSON, 1,
+                node("1", "/1", "1", "nt:unstructured", property("title", PropertyType.STRING, "one"), property("value", PropertyType.STRING, "1")),
+                node("2", "/2", "2", "nt:unstructured", property("title", PropertyType.STRING, "two"), property("value", PropertyType.LONG, 2L)));
+
+        assertThat(json.get("nodes").size()).isEqualTo(2);
+        assertThat(json.get("nodes").get(1).get("properties").get("value").asLong()).isEqualTo(2L);
+
+        final JsonNode types = json.get(CompactNodeSerializer.TYPES);
+        assertThat(types.get("title").asText()).isEqualTo(PropertyType.TYPENAME_STRING);
+        assertThat(types.get("value").asText()).isEqualTo(PropertyType.TYPENAME_UNDEFINED);
+    }
+
+    @Test
+    public void typesShouldBeOutputLastWhenDelimitedByNewLines() throws Exception {
+        final byte[] output = renderBytes(NodesStreamingOutput.Format.NDJSON, 1,
+                node("1", "/1", "1", "nt:unstructured", property("title", PropertyType.STRING, "one")));
+
+        final String[] lines = new String(output, "UTF-8").split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(NodesStreamingOutput.MAPPER.readTree(lines[0]).get("properties").get("title").asText()).isEqualTo("one");
+        assertThat(NodesStreamingOutput.MAPPER.readTree(lines[1]).get(CompactNodeSerializer.TYPES).get("title").asText())
+                .isEqualTo(PropertyType.TYPENAME_STRING);
+    }
+
+    @Test
+    public void onlyRequestedFieldsShouldBeRetrieved() throws Exception {
+        final Property title = property("title", PropertyType.STRING, "A long title");
+        final Node node = node("id", "/foo", "foo", "nt:unstructured", property("other", PropertyType.STRING, "other"));
+        final PropertyIterator requested = iterator(title);
+        when(node.getProperties(new String[]{"title"})).thenReturn(requested);
+
+        final MultivaluedMap<String, String> parameters = new MultivaluedHashMap<String, String>();
+        parameters.putSingle(API.FIELDS, "title");
+        parameters.putSingle(API.MAX_VALUE_LENGTH, "6");
+        parameters.add(API.COMPACT, "");
+        final UriInfo context = mock(UriInfo.class);
+        when(context.getQueryParameters()).thenReturn(parameters);
+
+        final JsonNode foo = render(NodesStreamingOutput.Format.JSON, Fields.from(context).wrap(Filter.OUTPUT_ALL), 1, node).get("nodes").get(0);
+        assertThat(foo.get("properties").size()).isEqualTo(1);
+        assertThat(foo.get("properties").get("title").asText()).isEqualTo("A long");
+        assertThat(foo.has("children")).isFalse();
+        assertThat(foo.has("mixins")).isFalse();
+        verify(node, never()).getProperties();
+        verify(node, never()).getNodes();
+    }
+
+    @Test
+    public void includeShouldShapeRepresentations() throws Exception {
+        final Node grandChild = node("grand-child-id", "/foo/bar/baz", "baz", "nt:unstructured");
+        final PropertyIterator images = iterator(property("image", PropertyType.STRING, "/files/image.png"));
+        when(grandChild.getProperties(new String[]{"image"})).thenReturn(images);
+
+        final Node child = node("child-id", "/foo/bar", "bar", "nt:unstructured");
+        final PropertyIterator titles = iterator(property("title", PropertyType.STRING, "Bar"));
+        when(child.getProperties(new String[]{"title"})).thenReturn(titles);
+        final NodeIterator grandChildren = nodes(grandChild);
+        when(child.getNodes()).thenReturn(grandChildren);
+
+        final Node node = node("id", "/foo", "foo", "nt:unstructured", property("other", PropertyType.STRING, "other"));
+        final NodeIterator children = nodes(child);
+        when(node.getNodes()).thenReturn(children);
+
+        final MultivaluedMap<String, String> parameters = new MultivaluedHashMap<String, String>();
+        parameters.putSingle(API.INCLUDE, "children(properties(title),children(properties(image)))");
+        final UriInfo context = mock(UriInfo.class);
+        when(context.getQueryParameters()).thenReturn(parameters);
+
+        // depth is ignored when an include expression is specified
+        final JsonNode json = render(NodesStreamingOutput.Format.JSON, Fields.from(context).wrap(Filter.OUTPUT_ALL), 0, node);
+        final JsonNode foo = json.get("nodes").get(0);
+        assertThat(foo.has("properties")).isFalse();
+        final JsonNode bar = foo.get("children").get("bar");
+        assertThat(bar.get("properties").get("title").asText()).isEqualTo("Bar");
+        final JsonNode baz = bar.get("children").get("baz");
+        assertThat(baz.get("properties").get("image").asText()).isEqualTo("/files/image.png");
+        assertThat(baz.has("children")).isFalse();
+        assertThat(json.get(CompactNodeSerializer.TYPES).size()).isEqualTo(2);
+        verify(node, never()).getProperties();
+    }
+
+    @Test
+    public void outputTruncatedByTheDeadlineShouldBeMarkedAsSuch() throws Exception {
+        final Node node = node("id", "/foo", "foo", "jnt:content", property("title", PropertyType.STRING, "Foo"));
+        Deadline.set(System.currentTimeMillis() - 1);
+
+        final JsonNode json = render(NodesStreamingOutput.Format.JSON, 1, node);
+        assertThat(json.get("nodes").size()).isEqualTo(0);
+        assertThat(json.get(NodesStreamingOutput.TRUNCATED).asBoolean()).isTrue();
+
+        final String[] lines = new String(renderBytes(NodesStreamingOutput.Format.NDJSON, 1, node), "UTF-8").split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(NodesStreamingOutput.MAPPER.readTree(lines[1]).get(NodesStreamingOutput.TRUNCATED).asBoolean()).isTrue();
+    }
+
+    @Test
+    public void truncatedArraysShouldNotBeEnded() throws Exception {
+        final Node node = node("id", "/foo", "foo", "jnt:content");
+        Deadline.set(System.currentTimeMillis() - 1);
+
+        final NodesStreamingOutput output = new NodesStreamingOutput(mock(Session.class), "default", "en", Arrays.asList(node).iterator(),
+                Filter.OUTPUT_ALL, 1, NodesStreamingOutput.Format.JSON);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            output.write(bytes);
+            fail("Truncated array should have been aborted");
+        } catch (Deadline.DeadlineExceededException e) {
+            assertThat(bytes.toString("UTF-8")).isEqualTo("[");
+        }
+    }
+
+    @Test
+    public void resourcesShouldBeClosedOnceWrittenEvenIfTheOutputIsAborted() throws Exception {
+        final Node node = node("id", "/foo", "foo", "jnt:content");
+        Deadline.set(System.currentTimeMillis() - 1);
+
+        final NodesStreamingOutput output = new NodesStreamingOutput(mock(Session.class), "default", "en", Arrays.asList(node).iterator(),
+                Filter.OUTPUT_ALL, 1, NodesStreamingOutput.Format.JSON);
+        final Closeable resource = mock(Closeable.class);
+        output.closeOnceWritten(resource);
+        try {
+            output.write(new ByteArrayOutputStream());
+            fail("Truncated array should have been aborted");
+        } catch (Deadline.DeadlineExceededException e) {
+            verify(resource).close();
+        }
+    }
+
+    @Test
+    public void completeOutputShouldNotBeMarkedAsTruncated() throws Exception {
+        final Node node = node("id", "/foo", "foo", "jnt:content");
+        final JsonNode json = render(NodesStreamingOutput.Format.JSON, 1, node);
+        assertThat(json.get("nodes").size()).isEqualTo(1);
+        assertThat(json.has(NodesStreamingOutput.TRUNCATED)).isFalse();
+    }
+
+    @Test
+    public void compactRepresentationsShouldOnlyBeStreamedWhenRequested() {
+        final MultivaluedMap<String, String> parameters = new MultivaluedHashMap<String, String>();
+        parameters.add(API.COMPACT, "");
+        parameters.putSingle(API.INCLUDE, "children(properties(title))");
+        final UriInfo context = mock(UriInfo.class);
+        when(context.getQueryParameters()).thenReturn(parameters);
+        assertThat(Utils.getStreamingFormat(context, null)).isNull();
+
+        parameters.add(API.STREAM, "");
+        assertThat(Utils.getStreamingFormat(context, null)).isEqualTo(NodesStreamingOutput.Format.JSON);
+    }
+
+    @Test
+    public void renderedOutputShouldMatchStreamedOne() throws Exception {
+        final Node node = node("id", "/foo", "foo", "jnt:content", property("title", PropertyType.STRING, "Foo"));
+        final byte[] streamed = renderBytes(NodesStreamingOutput.Format.JSON, 1, node);
+
+        final NodesStreamingOutput output = compactOutput(NodesStreamingOutput.Format.JSON, Filter.OUTPUT_ALL, 1,
+                node("id", "/foo", "foo", "jnt:content", property("title", PropertyType.STRING, "Foo")));
+        final SerializedJSON rendered = output.render();
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            rendered.writeTo(bytes);
+            assertThat(bytes.toString("UTF-8")).isEqualTo(new String(streamed, "UTF-8"));
+            assertThat(output.isTruncated()).isFalse();
+            assertThat(output.isEmpty()).isFalse();
+        } finally {
+            rendered.release();
+        }
+    }
+
+    @Test
+    public void renderedOutputTruncatedByTheDeadlineShouldBeCompleteAndReportedAsSuch() throws Exception {
+        final Node node = node("id", "/foo", "foo", "jnt:content");
+        Deadline.set(System.currentTimeMillis() - 1);
+
+        final NodesStreamingOutput output = compactOutput(NodesStreamingOutput.Format.JSON, Filter.OUTPUT_ALL, 1, node);
+        final SerializedJSON rendered = output.render();
+        try {
+            // callers report truncation, e.g. using headers, since the response isn't committed yet
+            final JsonNode json = NodesStreamingOutput.MAPPER.readTree(rendered.open());
+            assertThat(json.get("nodes").size()).isEqualTo(0);
+            assertThat(json.has(CompactNodeSerializer.TYPES)).isTrue();
+            assertThat(json.has(NodesStreamingOutput.TRUNCATED)).isFalse();
+            assertThat(output.isTruncated()).isTrue();
+            assertThat(output.isEmpty()).isTrue();
+        } finally {
+            rendered.release();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void batchedQueriesShouldHonourCompactRepresentations() throws Exception {
+        final Node node = node("id", "/foo", "foo", "jnt:content", property("title", PropertyType.STRING, "Foo"));
+        final NodeIterator results = nodes(node);
+        final QueryResult queryResult = mock(QueryResult.class);
+        when(queryResult.getNodes()).thenReturn(results);
+        final Query query = mock(Query.class);
+        when(query.execute()).thenReturn(queryResult);
+        final Session session = mock(Session.class, RETURNS_DEEP_STUBS);
+        when(session.getWorkspace().getQueryManager().createQuery(anyString(), anyString())).thenReturn(query);
+        final API api = new API() {
+            @Override
+            protected Session getSession(String workspace, String language) {
+                return session;
+            }
+        };
+
+        final MultivaluedMap<String, String> parameters = new MultivaluedHashMap<String, String>();
+        parameters.add(API.COMPACT, "");
+        final UriInfo context = mock(UriInfo.class);
+        when(context.getQueryParameters()).thenReturn(parameters);
+        final JSONQuery jsonQuery = NodesStreamingOutput.MAPPER.readValue("{\"id\":\"foo\",\"queryName\":\"batched\"}", JSONQuery.class);
+
+        final PreparedQuery prepared = new PreparedQuery();
+        prepared.setName("batched");
+        prepared.setSource("SELECT * FROM [nt:base]");
+        PreparedQueriesRegistry.getInstance().addQuery(prepared);
+        try {
+            final Response response = (Response) api.batchQuery("default", "en", Arrays.asList(jsonQuery), context);
+            final JSONBatchResult result = ((Map<String, JSONBatchResult>) response.getEntity()).get("foo");
+            assertThat(result.getStatus()).isEqualTo(200);
+            final JsonNode json = (JsonNode) result.getResult();
+            assertThat(json.get("nodes").get(0).get("properties").get("title").asText()).isEqualTo("Foo");
+            assertThat(json.get(CompactNodeSerializer.TYPES).get("title").asText()).isEqualTo("String");
+        } finally {
+            PreparedQueriesRegistry.getInstance().removeQuery(prepared);
+        }
+    }
+
+    private static JsonNode render(NodesStreamingOutput.Format format, int depth, Node... nodes) throws Exception {
+        return render(format, Filter.OUTPUT_ALL, depth, nodes);
+    }
+
+    private static JsonNode render(NodesStreamingOutput.Format format, Filter filter, int depth, Node... nodes) throws Exception {
+        return NodesStreamingOutput.MAPPER.readTree(renderBytes(format, filter, depth, nodes));
+    }
+
+    private static byte[] renderBytes(NodesStreamingOutput.Format format, int depth, Node... nodes) throws Exception {
+        return renderBytes(format, Filter.OUTPUT_ALL, depth, nodes);
+    }
+
+    private static byte[] renderBytes(NodesStreamingOutput.Format format, Filter filter, int depth, Node... nodes) throws Exception {
+        final NodesStreamingOutput output = compactOutput(format, filter, depth, nodes);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        output.write(bytes);
+        return bytes.toByteArray();
+    }
+
+    private static NodesStreamingOutput compactOutput(NodesStreamingOutput.Format format, Filter filter, int depth, Node... nodes) {
+        API.setOutputCompact(true);
+        final NodesStreamingOutput output = new NodesStreamingOutput(mock(Session.class), "default", "en", Arrays.asList(nodes).iterator(),
+                filter, depth, format);
+        API.setOutputCompact(false);
+        return output;
+    }
+
+    private static Node node(String identifier, String path, String name, String type, Property... properties) throws RepositoryException {
+        final Node node = mock(Node.class);
+        when(node.getIdentifier()).thenReturn(identifier);
+        when(node.getPath()).thenReturn(path);
+        when(node.getName()).thenReturn(name);
+        when(node.getIndex()).thenReturn(1);
+        final NodeType nodeType = nodeType(type);
+        when(node.getPrimaryNodeType()).thenReturn(nodeType);
+        when(node.getMixinNodeTypes()).thenReturn(new NodeType[0]);
+        final NodeIterator children = nodes();
+        when(node.getNodes()).thenReturn(children);
+
+        final PropertyIterator iterator = iterator(properties);
+        when(node.getProperties()).thenReturn(iterator);
+        return node;
+    }
+
+    private static PropertyIterator iterator(Property... properties) {
+        final PropertyIterator iterator = mock(PropertyIterator.class);
+        final Iterator<Property> delegate = Arrays.asList(properties).iterator();
+        when(iterator.hasNext()).thenAnswer(hasNext(delegate));
+        when(iterator.nextProperty()).thenAnswer(next(delegate));
+        return iterator;
+    }
+
+    private static NodeIterator nodes(Node... children) {
+        final NodeIterator iterator = mock(NodeIterator.class);
+        final Iterator<Node> delegate = Arrays.asList(children).iterator();
+        when(iterator.hasNext()).thenAnswer(hasNext(delegate));
+        when(iterator.nextNode()).thenAnswer(next(delegate));
+        when(iterator.next()).thenAnswer(next(delegate));
+        return iterator;
+    }
+
+    private static Answer<Boolean> hasNext(final Iterator<?> delegate) {
+        return new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return delegate.hasNext();
+            }
+        };
+    }
+
+    private static Answer<Object> next(final Iterator<?> delegate) {
+        return new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return delegate.next();
+            }
+        };
+    }
+
+    private static NodeType nodeType(String name) {
+        final NodeType nodeType = mock(NodeType.class);
+        when(nodeType.getName()).thenReturn(name);
+        return nodeType;
+    }
+
+    private static Property property(String name, int type, Object... values) throws RepositoryException {
+        final Property property = mock(Property.class);
+        when(property.getName()).thenReturn(name);
+        when(property.getType()).thenReturn(type);
+        when(property.isMultiple()).thenReturn(values.length > 1);
+        final Value[] jcrValues = new Value[values.length];
+        for (int i = 0; i < values.length; i++) {
+            final Value value = mock(Value.class);
+            when(value.getType()).thenReturn(type);
+            when(value.getString()).thenReturn(String.valueOf(values[i]));
+            if (values[i] instanceof Long) {
+                when(value.getLong()).thenReturn((Long) values[i]);
+            }
+            jcrValues[i] = value;
+        }
+        when(property.getValues()).thenReturn(jcrValues);
+        when(property.getValue()).thenReturn(jcrValues[0]);
+        return property;
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Christophe Laprun
+ */
+public class CompressionFilterTest {
+
+    @Test
+    public void encodingShouldBeNegotiated() {
+        assertThat(CompressionFilter.negotiate(null)).isNull();
+        assertThat(CompressionFilter.negotiate("identity")).isNull();
+        assertThat(CompressionFilter.negotiate("gzip, deflate")).isEqualTo(CompressionFilter.GZIP);
+        assertThat(CompressionFilter.negotiate("deflate, gzip;q=0.5")).isEqualTo(CompressionFilter.DEFLATE);
+        assertThat(CompressionFilter.negotiate("x-gzip")).isEqualTo(CompressionFilter.GZIP);
+        assertThat(CompressionFilter.negotiate("*")).isEqualTo(CompressionFilter.GZIP);
+        assertThat(CompressionFilter.negotiate("gzip;q=0, *")).isEqualTo(CompressionFilter.DEFLATE);
+        assertThat(CompressionFilter.negotiate("gzip;q=0, deflate;q=0")).isNull();
+        assertThat(CompressionFilter.negotiate("br, gzip;q=foo")).isNull();
+    }
+
+    @Test
+    public void smallResponsesShouldNotBeCompressed() throws Exception {
+        final byte[] entity = "{\"name\":\"foo\"}".getBytes("UTF-8");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final MultivaluedMap<String, Object> headers = write(CompressionFilter.GZIP, entity, out);
+
+        assertThat(headers.getFirst(HttpHeaders.VARY)).isEqualTo(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(headers.containsKey(HttpHeaders.CONTENT_ENCODING)).isFalse();
+        assertThat(out.toByteArray()).isEqualTo(entity);
+    }
+
+    @Test
+    public void largeResponsesShouldBeCompressed() throws Exception {
+        final byte[] entity = entity(SpringBeansAccess.getInstance().getCompressionThreshold() * 10);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MultivaluedMap<String, Object> headers = write(CompressionFilter.GZIP, entity, out);
+        assertThat(headers.getFirst(HttpHeaders.CONTENT_ENCODING)).isEqualTo(CompressionFilter.GZIP);
+        assertThat(out.size()).isLessThan(entity.length);
+        assertThat(read(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())))).isEqualTo(entity);
+
+        out = new ByteArrayOutputStream();
+        headers = write(CompressionFilter.DEFLATE, entity, out);
+        assertThat(headers.getFirst(HttpHeaders.CONTENT_ENCODING)).isEqualTo(CompressionFilter.DEFLATE);
+        assertThat(read(new InflaterInputStream(new ByteArrayInputStream(out.toByteArray())))).isEqualTo(entity);
+    }
+
+    @Test
+    public void responsesShouldVaryOnAcceptEncodingEvenIfNotCompressed() throws Exception {
+        final ContainerRequestContext request = mock(ContainerRequestContext.class);
+        new CompressionFilter().filter(request);
+        final ArgumentCaptor<Object> encoding = ArgumentCaptor.forClass(Object.class);
+        verify(request).setProperty(anyString(), encoding.capture());
+        assertThat(encoding.getValue()).isEqualTo(CompressionFilter.IDENTITY);
+
+        final byte[] entity = entity(SpringBeansAccess.getInstance().getCompressionThreshold() * 10);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final MultivaluedMap<String, Object> headers = write(CompressionFilter.IDENTITY, entity, out);
+        assertThat(headers.getFirst(HttpHeaders.VARY)).isEqualTo(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(headers.containsKey(HttpHeaders.CONTENT_ENCODING)).isFalse();
+        assertThat(out.toByteArray()).isEqualTo(entity);
+    }
+
+    @Test
+    public void compressorShouldBeReleasedIfWritingFails() throws Exception {
+        final byte[] entity = entity(SpringBeansAccess.getInstance().getCompressionThreshold() * 10);
+        final IOException failure = new IOException("client went away");
+        final OutputStream[] stream = {new ByteArrayOutputStream()};
+        try {
+            write(CompressionFilter.DEFLATE, entity, stream, failure);
+            fail("Writing failure should have been propagated");
+        } catch (IOException e) {
+            assertThat(e).isSameAs(failure);
+        }
+
+        final CompressionFilter.CompressingOutputStream compressing = (CompressionFilter.CompressingOutputStream) stream[0];
+        assertThat(compressing.isCompressing()).isTrue();
+        assertThat(compressing.isReleased()).isTrue();
+    }
+
+    @Test
+    public void compressedRequestBodiesShouldBeDecoded() throws Exception {
+        final byte[] entity = entity(4096);
+
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+        gzip.write(entity);
+        gzip.close();
+        assertThat(read(filter("gzip", gzipped.toByteArray()))).isEqualTo(entity);
+
+        final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        final DeflaterOutputStream deflate = new DeflaterOutputStream(deflated);
+        deflate.write(entity);
+        deflate.close();
+        assertThat(read(filter("deflate", deflated.toByteArray()))).isEqualTo(entity);
+    }
+
+    @Test
+    public void unsupportedRequestEncodingsShouldBeRejected() throws Exception {
+        final ContainerRequestContext request = request("br", new byte[0]);
+        new CompressionFilter().filter(request);
+
+        final ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        verify(request).abortWith(response.capture());
+        assertThat(response.getValue().getStatus()).isEqualTo(Response.Status.UNSUPPORTED_MEDIA_TYPE.getStatusCode());
+        verify(request, never()).setEntityStream(any(InputStream.class));
+    }
+
+    private static InputStream filter(String encoding, byte[] body) throws IOException {
+        final ContainerRequestContext request = request(encoding, body);
+        new CompressionFilter().filter(request);
+
+        final ArgumentCaptor<InputStream> decoded = ArgumentCaptor.forClass(InputStream.class);
+        verify(request).setEntityStream(decoded.capture());
+        assertThat(request.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)).isFalse();
+        assertThat(request.getHeaders().containsKey(HttpHeaders.CONTENT_LENGTH)).isFalse();
+        return decoded.getValue();
+    }
+
+    private static ContainerRequestContext request(String encoding, byte[] body) {
+        final MultivaluedMap<String, String> headers = new MultivaluedHashMap<String, String>();
+        headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+        headers.putSingle(HttpHeaders.CONTENT_LENGTH, Integer.toString(body.length));
+
+        final ContainerRequestContext request = mock(ContainerRequestContext.class);
+        when(request.getHeaders()).thenReturn(headers);
+        when(request.getHeaderString(HttpHeaders.CONTENT_ENCODING)).thenReturn(encoding);
+        when(request.getEntityStream()).thenReturn(new ByteArrayInputStream(body));
+        return request;
+    }
+
+    private static MultivaluedMap<String, Object> write(String encoding, final byte[] entity, OutputStream out) throws IOException {
+        return write(encoding, entity, new OutputStream[]{out}, null);
+    }
+
+    private static MultivaluedMap<String, Object> write(String encoding, final byte[] entity, final OutputStream[] stream,
+                                                        final IOException failure) throws IOException {
+        final MultivaluedMap<String, Object> headers = new MultivaluedHashMap<String, Object>();
+
+        final WriterInterceptorContext context = mock(WriterInterceptorContext.class);
+        when(context.getProperty(anyString())).thenReturn(encoding);
+        when(context.getHeaders()).thenReturn(headers);
+        when(context.getMediaType()).thenReturn(MediaType.APPLICATION_JSON_TYPE);
+        when(context.getOutputStream()).thenAnswer(new Answer<OutputStream>() {
+            @Override
+            public OutputStream answer(InvocationOnMock invocation) throws Throwable {
+                return stream[0];
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                stream[0] = (OutputStream) invocation.getArguments()[0];
+                return null;
+            }
+        }).when(context).setOutputStream(any(OutputStream.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                // write in several chunks, as entity providers do
+                for (int offset = 0; offset < entity.length; offset += 100) {
+                    stream[0].write(entity, offset, Math.min(100, entity.length - offset));
+                    stream[0].flush();
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                return null;
+            }
+        }).when(context).proceed();
+
+        new CompressionFilter().aroundWriteTo(context);
+        return headers;
+    }
+
+    private static byte[] entity(int length) {
+        final byte[] entity = new byte[length];
+        final byte[] pattern = "{\"_links\":{\"self\":{\"href\":\"/api/jcr/v1/default/en/nodes/\"}}},".getBytes();
+        for (int i = 0; i < length; i++) {
+            entity[i] = pattern[i % pattern.length];
+        }
+        return entity;
+    }
+
+    private static byte[] read(InputStream stream) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Christophe Laprun
+ */
+public class DeadlineTest {
+
+    @After
+    public void tearDown() {
+        Deadline.clear();
+    }
+
+    @Test
+    public void noDeadlineShouldNeverExpire() {
+        Deadline.start(0);
+        assertThat(Deadline.isExpired()).isFalse();
+        assertThat(Deadline.get()).isEqualTo(Long.MAX_VALUE);
+        Deadline.check();
+    }
+
+    @Test
+    public void passedDeadlineShouldStopProcessing() throws InterruptedException {
+        Deadline.start(1);
+        Thread.sleep(10);
+        assertThat(Deadline.isExpired()).isTrue();
+        try {
+            Deadline.check();
+            fail("Deadline should have been exceeded");
+        } catch (Deadline.DeadlineExceededException e) {
+            // expected
+        }
+
+        Deadline.clear();
+        assertThat(Deadline.isExpired()).isFalse();
+    }
+
+    @Test
+    public void deadlineShouldBeThreadSpecific() throws InterruptedException {
+        Deadline.start(1);
+        Thread.sleep(10);
+
+        final boolean[] expiredInOtherThread = new boolean[1];
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                expiredInOtherThread[0] = Deadline.isExpired();
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertThat(Deadline.isExpired()).isTrue();
+        assertThat(expiredInOtherThread[0]).isFalse();
+    }
+}
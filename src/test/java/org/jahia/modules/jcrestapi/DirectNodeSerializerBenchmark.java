@@ -0,0 +1,160 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.TransientRepository;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.jcr.SessionAccess;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the time and memory needed to render nodes without sub-elements directly with {@link DirectNodeSerializer}
+ * against rendering them through the object graph, as done when direct serialization is disabled. Not run as part of
+ * the test suite, run its <code>main</code> method with the test class path instead, optionally passing the number of
+ * nodes and iterations to use.
+ *
+ * @author Christophe Laprun
+ */
+public class DirectNodeSerializerBenchmark {
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        final int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        final File location = Files.createTempDirectory("jcrestapi-benchmark-dir_").toFile();
+        final TransientRepository repository = new NoLoggingTransientRepository(
+                RepositoryConfig.create(DirectNodeSerializerBenchmark.class.getResourceAsStream("/repository.xml"), location.getAbsolutePath()));
+        try {
+            final Session session = repository.login();
+            try {
+                final Node parent = session.getRootNode().addNode("benchmark", "nt:unstructured");
+                for (int i = 0; i < nodeCount; i++) {
+                    parent.addNode("node" + i, "nt:unstructured").setProperty("title", "Node " + i);
+                }
+                session.save();
+
+                final List<Node> nodes = new ArrayList<Node>(nodeCount);
+                final NodeIterator children = parent.getNodes();
+                while (children.hasNext()) {
+                    nodes.add(children.nextNode());
+                }
+
+                SessionAccess.setCurrentSession(session, "default", "en");
+                try {
+                    // warm up both paths before measuring them
+                    for (int i = 0; i < iterations; i++) {
+                        render(nodes, false);
+                        render(nodes, true);
+                    }
+
+                    report("object graph", nodes, iterations, false);
+                    report("direct", nodes, iterations, true);
+                } finally {
+                    SessionAccess.closeCurrentSession();
+                }
+            } finally {
+                session.logout();
+            }
+        } finally {
+            repository.shutdown();
+            FileUtils.deleteDirectory(location);
+        }
+    }
+
+    private static void report(String name, List<Node> nodes, int iterations, boolean direct) throws Exception {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) threads : null;
+        final long threadId = Thread.currentThread().getId();
+
+        final long allocatedBefore = allocations != null ? allocations.getThreadAllocatedBytes(threadId) : 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            render(nodes, direct);
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long allocated = allocations != null ? allocations.getThreadAllocatedBytes(threadId) - allocatedBefore : -1;
+
+        final long renderedNodes = (long) nodes.size() * iterations;
+        System.out.printf("%-12s: %8.1f ns/node, %8d bytes allocated/node%n", name, (double) elapsed / renderedNodes,
+                allocated < 0 ? -1 : allocated / renderedNodes);
+    }
+
+    private static void render(List<Node> nodes, boolean direct) throws Exception {
+        final JsonGenerator generator = NodesStreamingOutput.MAPPER.getFactory().createGenerator(DISCARD);
+        final DirectNodeSerializer serializer = direct ? new DirectNodeSerializer(generator) : null;
+        generator.writeStartArray();
+        for (Node node : nodes) {
+            DirectNodeSerializer.write(serializer, generator, node, Filter.OUTPUT_ALL, 0);
+        }
+        generator.writeEndArray();
+        try {
+            generator.close();
+        } catch (IOException e) {
+            // cannot happen when discarding output
+        }
+    }
+}
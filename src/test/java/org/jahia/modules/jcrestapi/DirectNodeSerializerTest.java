@@ -0,0 +1,206 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.jcr.SessionAccess;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Christophe Laprun
+ */
+public class DirectNodeSerializerTest {
+
+    @Before
+    public void setUp() {
+        SessionAccess.setCurrentSession(null, "default", "en");
+    }
+
+    @After
+    public void tearDown() {
+        SessionAccess.closeCurrentSession();
+        API.setOutputLinks(true);
+        SpringBeansAccess.getInstance().setDirectSerialization("false");
+    }
+
+    @Test
+    public void onlyRepresentationsWithoutSubElementsShouldBeWrittenDirectly() {
+        assertThat(DirectNodeSerializer.isEnabled(0)).isFalse();
+
+        SpringBeansAccess.getInstance().setDirectSerialization("true");
+        assertThat(DirectNodeSerializer.isEnabled(0)).isTrue();
+        assertThat(DirectNodeSerializer.isEnabled(1)).isFalse();
+    }
+
+    @Test
+    public void nodesShouldBeWrittenWithTheirLinks() throws Exception {
+        final Node parent = node("parent-id", "/sites", "sites", "jnt:virtualsitesFolder", null);
+        final Node child = node("child-id", "/sites/mySite", "mySite", "jnt:virtualsite", parent);
+
+        final JsonNode json = render(child, parent);
+        assertThat(json.size()).isEqualTo(2);
+
+        final JsonNode site = json.get(0);
+        assertThat(site.get("name").asText()).isEqualTo("mySite");
+        assertThat(site.get("type").asText()).isEqualTo("jnt:virtualsite");
+        assertThat(site.get("path").asText()).isEqualTo("/sites/mySite");
+        assertThat(site.get("id").asText()).isEqualTo("child-id");
+
+        final JsonNode links = site.get("_links");
+        final String base = API.API_PATH + "/default/en";
+        assertThat(links.get(API.SELF).get("rel").asText()).isEqualTo(API.SELF);
+        assertThat(links.get(API.SELF).get("href").asText()).isEqualTo(base + "/nodes/child-id");
+        assertThat(links.get(API.ABSOLUTE).get("href").asText()).isEqualTo(URIUtils.getAbsoluteURI(base + "/nodes/child-id"));
+        assertThat(links.get(API.TYPE).get("href").asText()).isEqualTo(base + "/paths/jcr__system/jcr__nodeTypes/jnt__virtualsite");
+        assertThat(links.get(API.PARENT).get("href").asText()).isEqualTo(base + "/nodes/parent-id");
+        assertThat(links.get(API.PATH).get("href").asText()).isEqualTo(base + "/paths/sites/mySite");
+
+        // root-like nodes are their own parent
+        assertThat(json.get(1).get("_links").get(API.PARENT).get("href").asText()).isEqualTo(base + "/nodes/parent-id");
+    }
+
+    @Test
+    public void linksShouldBeOmittedWhenNotRequested() throws Exception {
+        API.setOutputLinks(false);
+
+        final JsonNode json = render(node("id", "/foo", "foo", "nt:unstructured", null));
+        assertThat(json.get(0).has("_links")).isFalse();
+        assertThat(json.get(0).get("name").asText()).isEqualTo("foo");
+    }
+
+    @Test
+    public void buffersShouldBeReused() throws Exception {
+        final Node node = node("id", "/foo", "foo", "nt:unstructured", null);
+        final String first = new String(renderBytes(node), "UTF-8");
+        final String second = new String(renderBytes(node), "UTF-8");
+        assertThat(second).isEqualTo(first);
+    }
+
+    @Test
+    public void renderedJSONShouldOnlyBeReleasedOnce() throws Exception {
+        final SerializedJSON rendered = renderSerialized(node("id", "/foo", "foo", "nt:unstructured", null));
+        // the buffer is only returned to the pool once released
+        assertThat(SerializedJSON.getRetainedBufferCapacity()).isEqualTo(-1);
+        assertThat(rendered.getSize()).isGreaterThan(0);
+
+        rendered.release();
+        assertThat(SerializedJSON.getRetainedBufferCapacity()).isEqualTo(8192);
+        rendered.release();
+
+        // a second rendering takes the buffer from the pool, which a stale release mustn't return to it
+        final SerializedJSON second = renderSerialized(node("id", "/foo", "foo", "nt:unstructured", null));
+        rendered.release();
+        assertThat(SerializedJSON.getRetainedBufferCapacity()).isEqualTo(-1);
+        second.release();
+        assertThat(SerializedJSON.getRetainedBufferCapacity()).isEqualTo(8192);
+    }
+
+    @Test
+    public void largeBuffersShouldNotBeRetained() throws Exception {
+        renderBytes(node("id", "/foo", "foo", "nt:unstructured", null));
+        assertThat(SerializedJSON.getRetainedBufferCapacity()).isEqualTo(8192);
+
+        final StringBuilder name = new StringBuilder(600 * 1024);
+        for (int i = 0; i < 600 * 1024; i++) {
+            name.append('a');
+        }
+        final Node large = node("id", "/" + name, name.toString(), "nt:unstructured", null);
+        renderBytes(large);
+        // the buffer grew past the limit while rendering, even though it's reset once released
+        assertThat(SerializedJSON.getRetainedBufferCapacity()).isEqualTo(-1);
+
+        renderBytes(node("id", "/foo", "foo", "nt:unstructured", null));
+        assertThat(SerializedJSON.getRetainedBufferCapacity()).isEqualTo(8192);
+    }
+
+    private static JsonNode render(Node... nodes) throws Exception {
+        return NodesStreamingOutput.MAPPER.readTree(renderBytes(nodes));
+    }
+
+    private static byte[] renderBytes(Node... nodes) throws Exception {
+        final SerializedJSON rendered = renderSerialized(nodes);
+        try {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            rendered.writeTo(output);
+            return output.toByteArray();
+        } finally {
+            rendered.release();
+        }
+    }
+
+    private static SerializedJSON renderSerialized(Node... nodes) throws Exception {
+        SpringBeansAccess.getInstance().setDirectSerialization("true");
+        return new NodesStreamingOutput(null, "default", "en", Arrays.asList(nodes).iterator(), Filter.OUTPUT_ALL, 0,
+                NodesStreamingOutput.Format.JSON).render();
+    }
+
+    private static Node node(String identifier, String path, String name, String type, Node parent) throws RepositoryException {
+        final Node node = mock(Node.class);
+        when(node.getIdentifier()).thenReturn(identifier);
+        when(node.getPath()).thenReturn(path);
+        when(node.getName()).thenReturn(name);
+        final NodeType nodeType = mock(NodeType.class);
+        when(nodeType.getName()).thenReturn(type);
+        when(node.getPrimaryNodeType()).thenReturn(nodeType);
+        if (parent != null) {
+            when(node.getParent()).thenReturn(parent);
+        } else {
+            when(node.getParent()).thenThrow(new ItemNotFoundException());
+        }
+        return node;
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.json.Filter;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Christophe Laprun
+ */
+public class FieldsTest {
+
+    @Test
+    public void globsShouldMatchNames() {
+        assertThat(Fields.matches("jcr:title", "jcr:title")).isTrue();
+        assertThat(Fields.matches("jcr:title", "jcr:titles")).isFalse();
+        assertThat(Fields.matches("jcr:*", "jcr:title")).isTrue();
+        assertThat(Fields.matches("jcr:*", "j:title")).isFalse();
+        assertThat(Fields.matches("*:title", "jcr:title")).isTrue();
+        assertThat(Fields.matches("j*:*ed", "jcr:created")).isTrue();
+        assertThat(Fields.matches("j*:*ed", "jcr:title")).isFalse();
+        assertThat(Fields.matches("a*a", "a")).isFalse();
+        assertThat(Fields.matches("*", "anything")).isTrue();
+    }
+
+    @Test
+    public void noFieldsShouldBeRequestedByDefault() {
+        assertThat(Fields.from(uriInfo(new MultivaluedHashMap<String, String>()))).isNull();
+
+        final MultivaluedMap<String, String> invalid = new MultivaluedHashMap<String, String>();
+        invalid.putSingle(API.MAX_VALUE_LENGTH, "foo");
+        assertThat(Fields.from(uriInfo(invalid))).isNull();
+    }
+
+    @Test
+    public void requestedFieldsShouldBeParsed() throws Exception {
+        final MultivaluedMap<String, String> parameters = new MultivaluedHashMap<String, String>();
+        parameters.add(API.FIELDS, "jcr__title, j:*");
+        parameters.add(API.FIELDS, Fields.CHILDREN);
+        parameters.putSingle(API.MAX_VALUE_LENGTH, "3");
+        parameters.add(API.COMPACT, "");
+        final Fields fields = Fields.from(uriInfo(parameters));
+
+        assertThat(fields.includesProperties()).isTrue();
+        assertThat(fields.includes(Fields.CHILDREN)).isTrue();
+        assertThat(fields.includes(Fields.MIXINS)).isFalse();
+        assertThat(fields.accept("j:view")).isTrue();
+        assertThat(fields.accept("jcr:created")).isFalse();
+        assertThat(fields.accept(Fields.CHILDREN)).isFalse();
+        assertThat(fields.truncate("foobar")).isEqualTo("foo");
+        assertThat(fields.truncate("fo")).isEqualTo("fo");
+
+        // requested properties are pushed down to the repository
+        final Node node = mock(Node.class);
+        fields.getProperties(node);
+        final ArgumentCaptor<String[]> globs = ArgumentCaptor.forClass(String[].class);
+        verify(node).getProperties(globs.capture());
+        assertThat(globs.getValue()).hasSize(2).contains("j:*");
+        verify(node, never()).getProperties();
+    }
+
+    @Test
+    public void onlyValueLengthCanBeRequested() throws Exception {
+        final MultivaluedMap<String, String> parameters = new MultivaluedHashMap<String, String>();
+        parameters.putSingle(API.MAX_VALUE_LENGTH, "10");
+        parameters.add(API.COMPACT, "");
+        final Fields fields = Fields.from(uriInfo(parameters));
+
+        assertThat(fields.includesProperties()).isTrue();
+        assertThat(fields.includes(Fields.MIXINS)).isTrue();
+        assertThat(fields.accept("jcr:title")).isTrue();
+    }
+
+    @Test
+    public void containersAndTruncationShouldOnlyBeRequestedForCompactRepresentations() throws Exception {
+        final MultivaluedMap<String, String> containers = new MultivaluedHashMap<String, String>();
+        containers.putSingle(API.FIELDS, "jcr:title," + Fields.MIXINS);
+        try {
+            Fields.from(uriInfo(containers));
+            fail("Sub-element containers can't be selected for the default representation");
+        } catch (Fields.UnsupportedFieldsException e) {
+            // expected
+        }
+
+        final MultivaluedMap<String, String> truncated = new MultivaluedHashMap<String, String>();
+        truncated.putSingle(API.MAX_VALUE_LENGTH, "10");
+        try {
+            Fields.from(uriInfo(truncated));
+            fail("Values can't be truncated in the default representation");
+        } catch (Fields.UnsupportedFieldsException e) {
+            // expected
+        }
+
+        // properties can be selected for any representation
+        final MultivaluedMap<String, String> properties = new MultivaluedHashMap<String, String>();
+        properties.putSingle(API.FIELDS, "jcr:title");
+        assertThat(Fields.from(uriInfo(properties)).accept("jcr:title")).isTrue();
+    }
+
+    @Test
+    public void filterShouldOnlyAcceptRequestedProperties() throws Exception {
+        final MultivaluedMap<String, String> parameters = new MultivaluedHashMap<String, String>();
+        parameters.putSingle(API.FIELDS, "jcr:title");
+        final Fields fields = Fields.from(uriInfo(parameters));
+
+        final Filter filter = fields.wrap(Filter.OUTPUT_ALL);
+        assertThat(Fields.of(filter)).isSameAs(fields);
+        assertThat(Fields.of(Filter.OUTPUT_ALL)).isNull();
+        assertThat(filter.acceptProperty(property("jcr:title"))).isTrue();
+        assertThat(filter.acceptProperty(property("jcr:created"))).isFalse();
+        assertThat(filter.acceptChild(mock(Node.class))).isTrue();
+    }
+
+    private static UriInfo uriInfo(MultivaluedMap<String, String> parameters) {
+        final UriInfo info = mock(UriInfo.class);
+        when(info.getQueryParameters()).thenReturn(parameters);
+        return info;
+    }
+
+    private static Property property(String name) throws Exception {
+        final Property property = mock(Property.class);
+        when(property.getName()).thenReturn(name);
+        return property;
+    }
+}
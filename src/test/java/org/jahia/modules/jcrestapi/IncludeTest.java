@@ -0,0 +1,166 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Christophe Laprun
+ */
+public class IncludeTest {
+
+    @Test
+    public void nestedExpressionsShouldBeParsed() throws Exception {
+        final Include include = Include.parse("children(properties(jcr:title), children( properties(image,j:*) ,mixins))");
+        assertThat(include.includesProperties()).isFalse();
+        assertThat(include.includesMixins()).isFalse();
+
+        final Include children = include.getChildren();
+        assertThat(children.includesProperties()).isTrue();
+        assertThat(children.includesMixins()).isFalse();
+
+        final Include grandChildren = children.getChildren();
+        assertThat(grandChildren.includesProperties()).isTrue();
+        assertThat(grandChildren.includesMixins()).isTrue();
+        assertThat(grandChildren.getChildren()).isNull();
+
+        // only requested properties are retrieved
+        final Node node = mock(Node.class);
+        grandChildren.getProperties(node, null);
+        verify(node).getProperties(new String[]{"image", "j:*"});
+        verify(node, never()).getProperties();
+    }
+
+    @Test
+    public void childrenWithoutExpressionShouldHaveNoSubElements() {
+        final Include include = Include.parse("properties,children");
+        assertThat(include.includesProperties()).isTrue();
+        assertThat(include.getChildren()).isSameAs(Include.NONE);
+    }
+
+    @Test
+    public void invalidExpressionsShouldBeRejected() {
+        for (String invalid : new String[]{"foo", "children(", "children(properties", "properties()", "properties(a))", "mixins,", ""}) {
+            try {
+                Include.parse(invalid);
+                fail("Expression '" + invalid + "' should have been rejected");
+            } catch (Include.InvalidIncludeException e) {
+                assertThat(e.getMessage()).contains(API.INCLUDE);
+            }
+        }
+    }
+
+    @Test
+    public void deeplyNestedExpressionsShouldBeRejected() {
+        final StringBuilder expression = new StringBuilder();
+        final int levels = 100000;
+        for (int i = 0; i < levels; i++) {
+            expression.append("children(");
+        }
+        expression.append("properties");
+        for (int i = 0; i < levels; i++) {
+            expression.append(')');
+        }
+
+        try {
+            Include.parse(expression.toString());
+            fail("Deeply nested expression should have been rejected");
+        } catch (Include.InvalidIncludeException e) {
+            assertThat(e.getMessage()).contains("maximum allowed depth");
+        }
+    }
+
+    @Test
+    public void expressionsShouldBeNestedAtMostAsDeepAsAllowed() {
+        assertThat(Include.parse("children(children(properties))", 2).getChildren().getChildren().includesProperties()).isTrue();
+        try {
+            Include.parse("children(children(children(properties)))", 2);
+            fail("Expression nested deeper than allowed should have been rejected");
+        } catch (Include.InvalidIncludeException e) {
+            assertThat(e.getMessage()).contains("maximum allowed depth of 2");
+        }
+    }
+
+    @Test
+    public void depthAndFieldsShouldBeConvertedToShape() {
+        assertThat(Include.of(0, null)).isSameAs(Include.NONE);
+
+        final Include include = Include.of(2, null);
+        assertThat(include.includesProperties()).isTrue();
+        assertThat(include.includesMixins()).isTrue();
+        assertThat(include.getChildren().includesProperties()).isTrue();
+        assertThat(include.getChildren().getChildren()).isSameAs(Include.NONE);
+
+        final MultivaluedMap<String, String> parameters = new MultivaluedHashMap<String, String>();
+        parameters.putSingle(API.FIELDS, "jcr:title");
+        final UriInfo context = mock(UriInfo.class);
+        when(context.getQueryParameters()).thenReturn(parameters);
+        final Include restricted = Include.of(2, Fields.from(context));
+        assertThat(restricted.includesProperties()).isTrue();
+        assertThat(restricted.includesMixins()).isFalse();
+        assertThat(restricted.getChildren()).isNull();
+    }
+
+    @Test
+    public void includeShouldBeCarriedByFields() {
+        final MultivaluedMap<String, String> parameters = new MultivaluedHashMap<String, String>();
+        parameters.putSingle(API.INCLUDE, "mixins");
+        final UriInfo context = mock(UriInfo.class);
+        when(context.getQueryParameters()).thenReturn(parameters);
+
+        final Fields fields = Fields.from(context);
+        assertThat(fields.getInclude().includesMixins()).isTrue();
+        // include doesn't restrict properties by itself
+        assertThat(fields.accept("jcr:title")).isTrue();
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.jahia.modules.jcrestapi.api.PreparedQuery;
+import org.jahia.modules.jcrestapi.json.JSONQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.observation.Event;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Christophe Laprun
+ */
+public class MaterializedViewTest {
+    private static final String KEY = "key";
+    private static final String WORKSPACE = "default";
+
+    private ViewRefresher refresher;
+    private Repository previousRepository;
+
+    @Before
+    public void setUp() {
+        refresher = new ViewRefresher(2);
+        // the cache observes the workspace in which results are computed
+        previousRepository = SpringBeansAccess.getInstance().getRepository();
+        SpringBeansAccess.getInstance().setRepository(mock(Repository.class, RETURNS_DEEP_STUBS));
+    }
+
+    @After
+    public void tearDown() {
+        refresher.stop();
+        RepositoryObserver.getInstance().stop();
+        SpringBeansAccess.getInstance().setRepository(previousRepository);
+    }
+
+    @Test
+    public void staleResultsShouldBeServedWhileRefreshedOnce() throws Exception {
+        final PreparedQueryResultCache cache = new PreparedQueryResultCache(view(0), refresher);
+        final AtomicInteger refreshes = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch refreshed = new CountDownLatch(1);
+
+        cache.put(KEY, WORKSPACE, "old".getBytes("UTF-8"), null, new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                final long generation = cache.getGeneration(WORKSPACE);
+                refreshes.incrementAndGet();
+                release.await(10, TimeUnit.SECONDS);
+                cache.put(KEY, WORKSPACE, "new".getBytes("UTF-8"), null, null, generation);
+                refreshed.countDown();
+                return null;
+            }
+        }, cache.getGeneration(WORKSPACE));
+
+        // the result is immediately stale: concurrent requests all get it while a single refresh is triggered
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return new String(cache.get(KEY).getContent(), "UTF-8");
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                assertThat(result.get(10, TimeUnit.SECONDS)).isEqualTo("old");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        release.countDown();
+        assertThat(refreshed.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(refreshes.get()).isEqualTo(1);
+        assertThat(new String(cache.get(KEY).getContent(), "UTF-8")).isEqualTo("new");
+    }
+
+    @Test
+    public void changesShouldMarkViewsStaleInsteadOfEvictingThem() throws Exception {
+        final PreparedQueryResultCache cache = new PreparedQueryResultCache(view(3600), refresher);
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        cache.put(KEY, WORKSPACE, "old".getBytes("UTF-8"), null, new Callable<Object>() {
+            @Override
+            public Object call() {
+                refreshed.countDown();
+                return null;
+            }
+        }, cache.getGeneration(WORKSPACE));
+
+        // not stale yet
+        assertThat(cache.get(KEY)).isNotNull();
+        assertThat(refreshed.getCount()).isEqualTo(1);
+
+        cache.onChanges(WORKSPACE, Collections.singletonList(new RepositoryObserver.Change(Event.NODE_ADDED, "/foo", "id", null)));
+        assertThat(refreshed.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(cache.get(KEY)).isNotNull();
+    }
+
+    @Test
+    public void resultsComputedWhileContentChangedShouldBeDiscarded() throws Exception {
+        final PreparedQuery query = view(3600);
+        query.setMaterializedView(false);
+        query.setCacheTimeToLive(3600);
+        final PreparedQueryResultCache cache = new PreparedQueryResultCache(query, refresher);
+
+        final long generation = cache.getGeneration(WORKSPACE);
+        // content changes while the result is being computed
+        cache.onChanges(WORKSPACE, Collections.singletonList(new RepositoryObserver.Change(Event.NODE_ADDED, "/foo", "id", null)));
+        assertThat(cache.put(KEY, WORKSPACE, "stale".getBytes("UTF-8"), null, generation)).isFalse();
+        assertThat(cache.get(KEY)).isNull();
+
+        assertThat(cache.put(KEY, WORKSPACE, "fresh".getBytes("UTF-8"), null, cache.getGeneration(WORKSPACE))).isTrue();
+        assertThat(new String(cache.get(KEY).getContent(), "UTF-8")).isEqualTo("fresh");
+    }
+
+    @Test
+    public void refreshesShouldPerformTheQueryAgain() throws Exception {
+        final PreparedQuery view = view(0);
+        view.setName("refreshedView");
+        PreparedQueriesRegistry.getInstance().addQuery(view);
+        try {
+            // each execution of the query returns three rows holding the number of the execution
+            final AtomicInteger executions = new AtomicInteger();
+            final QueryManager queryManager = mock(QueryManager.class);
+            when(queryManager.createQuery(anyString(), anyString())).thenAnswer(new Answer<Query>() {
+                @Override
+                public Query answer(InvocationOnMock invocation) throws Throwable {
+                    return query(executions);
+                }
+            });
+            final Session session = mock(Session.class, RETURNS_DEEP_STUBS);
+            when(session.getWorkspace().getQueryManager()).thenReturn(queryManager);
+            final API api = new API() {
+                @Override
+                protected Session getSession(String workspace, String language) {
+                    return session;
+                }
+            };
+
+            final UriInfo context = mock(UriInfo.class);
+            when(context.getQueryParameters()).thenReturn(new MultivaluedHashMap<String, String>());
+            final JSONQuery jsonQuery = NodesStreamingOutput.MAPPER.readValue("{\"queryName\":\"refreshedView\",\"limit\":2}", JSONQuery.class);
+            final QueryRequest request = new QueryRequest(jsonQuery, context);
+
+            final ByteArrayOutputStream entity = new ByteArrayOutputStream();
+            ((SerializedJSON) api.performQuery(request, WORKSPACE, "en", null, Projection.JSON).getEntity()).writeTo(entity);
+            final byte[] first = entity.toByteArray();
+            assertThat(rows(first)).containsExactly("1", "1");
+
+            // the result is immediately stale: reading it triggers a refresh performing the query again
+            final PreparedQueryResultCache cache = request.getTemplate().getResultCache();
+            final String key = request.getCacheKey(WORKSPACE, "en", session.getUserID());
+            final long timeout = System.currentTimeMillis() + 10000;
+            byte[] refreshed = cache.get(key).getContent();
+            while (Arrays.equals(first, refreshed) && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+                refreshed = cache.get(key).getContent();
+            }
+            assertThat(rows(refreshed)).containsExactly("2", "2");
+        } finally {
+            PreparedQueriesRegistry.getInstance().removeQuery(view);
+        }
+    }
+
+    private static Query query(AtomicInteger executions) throws RepositoryException {
+        final Query query = mock(Query.class);
+        when(query.execute()).thenAnswer(new Answer<QueryResult>() {
+            @Override
+            public QueryResult answer(InvocationOnMock invocation) throws Throwable {
+                final Value value = mock(Value.class);
+                when(value.getType()).thenReturn(PropertyType.STRING);
+                when(value.getString()).thenReturn(Integer.toString(executions.incrementAndGet()));
+                final List<Row> rows = new ArrayList<Row>();
+                for (int i = 0; i < 3; i++) {
+                    final Row row = mock(Row.class);
+                    final Node node = mock(Node.class, RETURNS_DEEP_STUBS);
+                    when(node.getPrimaryNodeType().getName()).thenReturn("nt:unstructured");
+                    when(row.getNode()).thenReturn(node);
+                    when(row.getValues()).thenReturn(new Value[]{value});
+                    rows.add(row);
+                }
+                final RowIterator iterator = mock(RowIterator.class);
+                final Iterator<Row> delegate = rows.iterator();
+                when(iterator.hasNext()).thenAnswer(new Answer<Boolean>() {
+                    @Override
+                    public Boolean answer(InvocationOnMock invocation) {
+                        return delegate.hasNext();
+                    }
+                });
+                when(iterator.next()).thenAnswer(new Answer<Row>() {
+                    @Override
+                    public Row answer(InvocationOnMock invocation) {
+                        return delegate.next();
+                    }
+                });
+
+                final QueryResult result = mock(QueryResult.class);
+                when(result.getColumnNames()).thenReturn(new String[]{"execution"});
+                when(result.getSelectorNames()).thenReturn(new String[]{"s"});
+                when(result.getRows()).thenReturn(iterator);
+                return result;
+            }
+        });
+        return query;
+    }
+
+    private static List<String> rows(byte[] content) throws IOException {
+        final List<String> values = new ArrayList<String>();
+        for (JsonNode row : NodesStreamingOutput.MAPPER.readTree(content).get("rows")) {
+            values.add(row.get(0).asText());
+        }
+        return values;
+    }
+
+    private static PreparedQuery view(long refreshInterval) {
+        final PreparedQuery query = new PreparedQuery();
+        query.setName("view");
+        query.setSource("SELECT * FROM [nt:base]");
+        query.setMaterializedView(true);
+        query.setRefreshInterval(refreshInterval);
+        return query;
+    }
+}
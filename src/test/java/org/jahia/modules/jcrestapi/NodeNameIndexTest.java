@@ -0,0 +1,131 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Christophe Laprun
+ */
+public class NodeNameIndexTest {
+
+    @Test
+    public void substringLookupsShouldMatchLikeSemantics() {
+        final NodeNameIndex.TypeIndex index = readyIndex(100);
+        index.put("1", "news-2015");
+        index.put("2", "archived-news");
+        index.put("3", "events");
+        index.put("4", "News");
+
+        assertThat(index.find(Collections.singletonList("news"), null, false)).containsExactly("2", "1");
+        assertThat(index.find(Arrays.asList("news", "20"), null, false)).containsExactly("1");
+        // terms shorter than a trigram are checked against all names
+        assertThat(index.find(Collections.singletonList("s"), null, false)).containsExactly("4", "2", "3", "1");
+        assertThat(index.find(Collections.singletonList("missing"), null, false)).isEmpty();
+    }
+
+    @Test
+    public void prefixLookupsShouldBeSortedByName() {
+        final NodeNameIndex.TypeIndex index = readyIndex(100);
+        index.put("1", "newsletter");
+        index.put("2", "news");
+        index.put("3", "new");
+        index.put("4", "other");
+
+        assertThat(index.find(null, "news", false)).containsExactly("2", "1");
+        assertThat(index.find(null, "new", true)).containsExactly("1", "2", "3");
+        assertThat(index.find(Collections.singletonList("let"), "new", false)).containsExactly("1");
+    }
+
+    @Test
+    public void renamedAndRemovedNodesShouldBeUpdated() {
+        final NodeNameIndex.TypeIndex index = readyIndex(100);
+        index.put("1", "first");
+        index.put("2", "second");
+
+        index.put("1", "renamed");
+        index.remove("2");
+
+        assertThat(index.find(Collections.singletonList("first"), null, false)).isEmpty();
+        assertThat(index.find(Collections.singletonList("second"), null, false)).isEmpty();
+        assertThat(index.find(Collections.singletonList("name"), null, false)).containsExactly("1");
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void nodesRemovedWhileBuildingShouldNotBeIndexed() {
+        final NodeNameIndex.TypeIndex index = new NodeNameIndex.TypeIndex(100);
+        index.remove("1");
+        assertThat(index.initialize("1", "removed")).isTrue();
+        assertThat(index.initialize("2", "kept")).isTrue();
+        assertThat(index.isReady()).isFalse();
+
+        index.ready();
+        assertThat(index.isReady()).isTrue();
+        assertThat(index.find(null, null, false)).containsExactly("2");
+    }
+
+    @Test
+    public void indexShouldBeDisabledWhenTooLarge() {
+        final NodeNameIndex.TypeIndex index = new NodeNameIndex.TypeIndex(2);
+        assertThat(index.initialize("1", "first")).isTrue();
+        assertThat(index.initialize("2", "second")).isTrue();
+        assertThat(index.initialize("3", "third")).isFalse();
+
+        index.ready();
+        assertThat(index.isReady()).isFalse();
+        assertThat(index.size()).isZero();
+    }
+
+    private static NodeNameIndex.TypeIndex readyIndex(int maxNodes) {
+        final NodeNameIndex.TypeIndex index = new NodeNameIndex.TypeIndex(maxNodes);
+        index.ready();
+        return index;
+    }
+}
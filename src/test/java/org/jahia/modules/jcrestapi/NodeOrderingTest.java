@@ -0,0 +1,147 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Christophe Laprun
+ */
+public class NodeOrderingTest {
+
+    @Test
+    public void orderByShouldBeParsed() {
+        assertThat(NodeOrdering.parse(null)).isNull();
+        assertThat(NodeOrdering.parse("desc").isByName()).isTrue();
+        assertThat(NodeOrdering.parse("desc").isDescending()).isTrue();
+        assertThat(NodeOrdering.parse("asc").isDescending()).isFalse();
+        assertThat(NodeOrdering.parse("jcr:created").isByName()).isFalse();
+        assertThat(NodeOrdering.parse("jcr:created").isDescending()).isFalse();
+        assertThat(NodeOrdering.parse("-jcr:created").isDescending()).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingPropertyNameShouldBeRejected() {
+        NodeOrdering.parse("-");
+    }
+
+    @Test
+    public void topKShouldMatchFullSort() throws RepositoryException {
+        final List<Node> nodes = new ArrayList<Node>();
+        final Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            nodes.add(node("node" + i, random.nextInt(50)));
+        }
+
+        final NodeOrdering ordering = NodeOrdering.parse("-size");
+        final List<Node> all = ordering.sort(nodes.iterator(), 0);
+        final List<Node> top = ordering.sort(nodes.iterator(), 15);
+
+        assertThat(all).hasSize(200);
+        assertThat(top).containsExactlyElementsOf(all.subList(0, 15));
+        assertThat(sizes(all.subList(0, 3))).containsExactly(49L, 49L, 49L);
+    }
+
+    @Test
+    public void nodesWithoutPropertyShouldSortLast() throws RepositoryException {
+        final Node missing = node("missing", null);
+        final Node small = node("small", 1);
+        final Node large = node("large", 10);
+
+        assertThat(NodeOrdering.parse("size").sort(Arrays.asList(missing, large, small).iterator(), 0))
+                .containsExactly(small, large, missing);
+        assertThat(NodeOrdering.parse("-size").sort(Arrays.asList(missing, small, large).iterator(), 0))
+                .containsExactly(large, small, missing);
+        assertThat(NodeOrdering.parse("-size").sort(Arrays.asList(missing, small, large).iterator(), 2))
+                .containsExactly(large, small);
+    }
+
+    @Test
+    public void nodesShouldBeOrderedByLocalName() throws RepositoryException {
+        final Node b = node("jnt:b", null);
+        final Node a = node("a", null);
+        final Node c = node("c", null);
+
+        assertThat(NodeOrdering.parse("asc").sort(Arrays.asList(b, c, a).iterator(), 2)).containsExactly(a, b);
+        assertThat(NodeOrdering.parse("desc").sort(Arrays.asList(b, c, a).iterator(), 0)).containsExactly(c, b, a);
+    }
+
+    private static List<Long> sizes(List<Node> nodes) throws RepositoryException {
+        final List<Long> sizes = new ArrayList<Long>();
+        for (Node node : nodes) {
+            sizes.add(node.getProperty("size").getValue().getLong());
+        }
+        return sizes;
+    }
+
+    private static Node node(String name, Integer size) throws RepositoryException {
+        final Node node = mock(Node.class);
+        when(node.getName()).thenReturn(name);
+        when(node.getIdentifier()).thenReturn(name);
+        when(node.hasProperty("size")).thenReturn(size != null);
+        if (size != null) {
+            final Value value = mock(Value.class);
+            when(value.getType()).thenReturn(PropertyType.LONG);
+            when(value.getDouble()).thenReturn((double) size);
+            when(value.getLong()).thenReturn((long) size);
+            final Property property = mock(Property.class);
+            when(property.getValue()).thenReturn(value);
+            when(node.getProperty("size")).thenReturn(property);
+        }
+        return node;
+    }
+}
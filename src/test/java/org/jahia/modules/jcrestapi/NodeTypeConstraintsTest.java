@@ -0,0 +1,176 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.NodeTypeIterator;
+import javax.jcr.nodetype.NodeTypeManager;
+import javax.jcr.query.Query;
+import javax.jcr.query.qom.QueryObjectModelFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Christophe Laprun
+ */
+public class NodeTypeConstraintsTest {
+
+    @Before
+    public void setUp() {
+        NodeTypeConstraints.clear();
+    }
+
+    @Test
+    public void subTypesOfAcceptedTypesShouldBeIncluded() throws RepositoryException {
+        final NodeTypeManager manager = manager(
+                type("jnt:content", "jnt:content"),
+                type("jnt:text", "jnt:text", "jnt:content"),
+                type("jnt:page", "jnt:page"));
+
+        final Set<String> subTypes = NodeTypeConstraints.getSubTypes(manager, Collections.singleton("jnt:content"));
+        assertThat(subTypes).containsOnly("jnt:content", "jnt:text");
+    }
+
+    @Test
+    public void tooManySubTypesShouldNotBeConstrained() throws RepositoryException {
+        final List<NodeType> types = new ArrayList<NodeType>();
+        for (int i = 0; i <= NodeTypeConstraints.MAX_ACCEPTED_TYPES; i++) {
+            types.add(type("jnt:type" + i, "jnt:type" + i, "jmix:base"));
+        }
+
+        final Set<String> subTypes = NodeTypeConstraints.getSubTypes(manager(types.toArray(new NodeType[types.size()])),
+                Collections.singleton("jmix:base"));
+        assertThat(subTypes).isEmpty();
+    }
+
+    @Test
+    public void subTypesShouldBeCachedUntilNodeTypesChange() throws RepositoryException {
+        final NodeTypeManager manager = manager(
+                type("jnt:content", "jnt:content"),
+                type("jnt:text", "jnt:text", "jnt:content"));
+        assertThat(NodeTypeConstraints.getSubTypes(manager, Collections.singleton("jnt:content"))).containsOnly("jnt:content", "jnt:text");
+
+        // node types are only counted, not enumerated again: the mocked iterator is already exhausted
+        assertThat(NodeTypeConstraints.getSubTypes(manager, Collections.singleton("jnt:content"))).containsOnly("jnt:content", "jnt:text");
+        verify(manager, times(2)).getAllNodeTypes();
+
+        // a module being deployed might register new sub-types
+        NodeTypeRegistrations.getInstance().postProcessAfterInitialization(new Object(), "bean");
+        final NodeTypeManager updated = manager(
+                type("jnt:content", "jnt:content"),
+                type("jnt:text", "jnt:text", "jnt:content"),
+                type("jnt:bigText", "jnt:bigText", "jnt:content"));
+        assertThat(NodeTypeConstraints.getSubTypes(updated, Collections.singleton("jnt:content")))
+                .containsOnly("jnt:content", "jnt:text", "jnt:bigText");
+    }
+
+    @Test
+    public void subTypesShouldBeComputedAgainWhenNodeTypesAreRegisteredOutsideOfModuleContexts() throws RepositoryException {
+        final NodeTypeManager manager = manager(
+                type("jnt:content", "jnt:content"),
+                type("jnt:text", "jnt:text", "jnt:content"));
+        assertThat(NodeTypeConstraints.getSubTypes(manager, Collections.singleton("jnt:content"))).containsOnly("jnt:content", "jnt:text");
+
+        // definitions registered without a spring context, so the cache isn't cleared
+        final NodeTypeManager updated = manager(
+                type("jnt:content", "jnt:content"),
+                type("jnt:text", "jnt:text", "jnt:content"),
+                type("jnt:bigText", "jnt:bigText", "jnt:content"));
+        assertThat(NodeTypeConstraints.getSubTypes(updated, Collections.singleton("jnt:content")))
+                .containsOnly("jnt:content", "jnt:text", "jnt:bigText");
+    }
+
+    @Test
+    public void nonQOMQueriesShouldBeLeftUntouched() throws RepositoryException {
+        final Query query = mock(Query.class);
+        final QueryObjectModelFactory factory = mock(QueryObjectModelFactory.class);
+
+        assertThat(NodeTypeConstraints.apply(query, factory, null, null, Collections.singleton("jnt:passwordHistory"),
+                Collections.<String>emptySet())).isSameAs(query);
+        verifyZeroInteractions(factory);
+    }
+
+    private static NodeType type(String name, String... superTypes) {
+        final NodeType type = mock(NodeType.class);
+        when(type.getName()).thenReturn(name);
+        for (String superType : superTypes) {
+            when(type.isNodeType(superType)).thenReturn(true);
+        }
+        return type;
+    }
+
+    private static NodeTypeManager manager(final NodeType... types) throws RepositoryException {
+        final NodeTypeManager manager = mock(NodeTypeManager.class);
+        final Iterator<NodeType> iterator = Arrays.asList(types).iterator();
+        final NodeTypeIterator nodeTypes = mock(NodeTypeIterator.class);
+        when(nodeTypes.hasNext()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return iterator.hasNext();
+            }
+        });
+        when(nodeTypes.nextNodeType()).thenAnswer(new Answer<NodeType>() {
+            @Override
+            public NodeType answer(InvocationOnMock invocation) {
+                return iterator.next();
+            }
+        });
+        when(nodeTypes.getSize()).thenReturn((long) types.length);
+        when(manager.getAllNodeTypes()).thenReturn(nodeTypes);
+        return manager;
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.jcr.*;
+import javax.jcr.query.Query;
+import javax.jcr.query.qom.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Christophe Laprun
+ */
+public class PaginationTest {
+    private static final String QUERY = "select * from [nt:base] order by localname()";
+
+    private ValueFactory valueFactory;
+    private QueryObjectModelFactory factory;
+    private QueryObjectModel query;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        valueFactory = mock(ValueFactory.class);
+        when(valueFactory.createValue(anyString(), anyInt())).thenAnswer(new Answer<Value>() {
+            @Override
+            public Value answer(InvocationOnMock invocation) throws Throwable {
+                final Object[] arguments = invocation.getArguments();
+                final Value value = mock(Value.class);
+                when(value.getString()).thenReturn((String) arguments[0]);
+                when(value.getType()).thenReturn((Integer) arguments[1]);
+                return value;
+            }
+        });
+
+        final Ordering ordering = mock(Ordering.class);
+        when(ordering.getOperand()).thenReturn(mock(NodeLocalName.class));
+        when(ordering.getOrder()).thenReturn(QueryObjectModelFactory.JCR_ORDER_ASCENDING);
+
+        query = mock(QueryObjectModel.class);
+        when(query.getSource()).thenReturn(mock(Selector.class));
+        when(query.getOrderings()).thenReturn(new Ordering[]{ordering});
+
+        factory = mock(QueryObjectModelFactory.class);
+        when(factory.createQuery(any(Source.class), any(Constraint.class), any(Ordering[].class), any(Column[].class))).thenReturn(mock(QueryObjectModel.class));
+    }
+
+    @Test
+    public void tokensShouldRoundTrip() {
+        final Pagination.Token token = new Pagination.Token("abc", 42, PropertyType.STRING, "some\nkey", "id", 3);
+        final Pagination.Token decoded = Pagination.Token.decode(token.encode());
+
+        assertThat(decoded.getOffset()).isEqualTo(42);
+        assertThat(decoded.getKey()).isEqualTo("some\nkey");
+        assertThat(decoded.getIdentifier()).isEqualTo("id");
+        assertThat(decoded.getTies()).isEqualTo(3);
+        assertThat(token.encode()).doesNotContain("=").doesNotContain("+").doesNotContain("/");
+    }
+
+    @Test
+    public void invalidOrForeignTokensShouldBeRejected() throws RepositoryException {
+        try {
+            new Pagination(QUERY, "not a token", 10, 0);
+            fail("Invalid token should have been rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        final String token = paginate(new Pagination(QUERY, null, 2, 0), query, nodes("a", "b"));
+        try {
+            new Pagination("select * from [jnt:content]", token, 2, 0);
+            fail("Token issued for another query should have been rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void tokensShouldIdentifyTheQueryTheyWereIssuedFor() throws RepositoryException {
+        final String token = paginate(new Pagination(QUERY, null, 2, 0), query, nodes("a", "b"));
+        assertThat(Pagination.isIssuedFor(QUERY, token)).isTrue();
+        assertThat(Pagination.isIssuedFor(QUERY + "\nindex", token)).isFalse();
+        assertThat(Pagination.isIssuedFor(QUERY, "not a token")).isFalse();
+    }
+
+    @Test
+    public void tokensShouldNotBeAcceptedForQueriesWithCollidingHashCodes() throws RepositoryException {
+        // "Aa" and "BB" have the same String.hashCode
+        assertThat("Aa".hashCode()).isEqualTo("BB".hashCode());
+        final String token = paginate(new Pagination(QUERY + "Aa", null, 2, 0), query, nodes("a", "b"));
+        assertThat(Pagination.isIssuedFor(QUERY + "Aa", token)).isTrue();
+        assertThat(Pagination.isIssuedFor(QUERY + "BB", token)).isFalse();
+    }
+
+    @Test
+    public void nextPageShouldResumeAfterLastKeyInsteadOfUsingOffset() throws RepositoryException {
+        final String token = paginate(new Pagination(QUERY, null, 3, 0), query, Arrays.asList(node("a", "a"), node("b", "b1"), node("b", "b2")).iterator());
+        assertThat(token).isNotNull();
+        verify(query, never()).setOffset(anyLong());
+
+        // second page restricts the query to nodes named "b" or after, skipping the two "b" already returned
+        final Pagination next = new Pagination(QUERY, token, 3, 0);
+        final Query restricted = next.prepare(query, factory, valueFactory);
+        assertThat(restricted).isNotSameAs(query);
+        verify(factory).comparison(any(DynamicOperand.class), eq(QueryObjectModelFactory.JCR_OPERATOR_GREATER_THAN_OR_EQUAL_TO), any(StaticOperand.class));
+        verify(restricted).setLimit(5);
+        verify(restricted, never()).setOffset(anyLong());
+
+        final List<Node> results = Arrays.asList(node("b", "b1"), node("b", "b2"), node("c", "c"), node("d", "d"), node("e", "e"));
+        final List<String> names = names(next.iterate(results.iterator()));
+        assertThat(names).containsExactly("c", "d", "e");
+        assertThat(next.getContinuationToken()).isNotNull();
+    }
+
+    @Test
+    public void tiesShouldBeSkippedUntilLastReturnedNode() throws RepositoryException {
+        final String token = paginate(new Pagination(QUERY, null, 2, 0), query, nodes("a", "b"));
+
+        final Pagination next = new Pagination(QUERY, token, 2, 0);
+        next.prepare(query, factory, valueFactory);
+        // "b" is returned again by the restricted query and should be skipped, a new "b" node however should not
+        final List<Node> results = Arrays.asList(node("b", "b"), node("b", "other"), node("c", "c"));
+        assertThat(names(next.iterate(results.iterator()))).containsExactly("b", "c");
+    }
+
+    @Test
+    public void lastPageShouldNotHaveToken() throws RepositoryException {
+        assertThat(paginate(new Pagination(QUERY, null, 3, 0), query, nodes("a", "b"))).isNull();
+        assertThat(paginate(new Pagination(QUERY, null, 0, 0), query, nodes("a", "b"))).isNull();
+    }
+
+    @Test
+    public void truncatedPageShouldHaveTokenToResume() throws RepositoryException {
+        final Pagination pagination = new Pagination(QUERY, null, 0, 0);
+        pagination.prepare(query, factory, valueFactory);
+        final Iterator<Node> nodes = pagination.iterate(nodes("a", "b", "c"));
+        nodes.next();
+        nodes.next();
+        pagination.truncate();
+        final String token = pagination.getContinuationToken();
+        assertThat(token).isNotNull();
+
+        final Pagination next = new Pagination(QUERY, token, 0, 0);
+        next.prepare(query, factory, valueFactory);
+        assertThat(names(next.iterate(Arrays.asList(node("b", "b-id"), node("c", "c-id")).iterator()))).containsExactly("c");
+    }
+
+    @Test
+    public void unorderedQueriesShouldFallBackToOffset() throws RepositoryException {
+        final QueryObjectModel unordered = mock(QueryObjectModel.class);
+        when(unordered.getSource()).thenReturn(mock(Selector.class));
+
+        final String token = paginate(new Pagination(QUERY, null, 2, 4), unordered, nodes("a", "b"));
+        verify(unordered).setOffset(4);
+
+        final Pagination next = new Pagination(QUERY, token, 2, 0);
+        assertThat(next.prepare(unordered, factory, valueFactory)).isSameAs(unordered);
+        verify(unordered).setOffset(6);
+    }
+
+    private String paginate(Pagination pagination, Query query, Iterator<Node> nodes) throws RepositoryException {
+        pagination.prepare(query, factory, valueFactory);
+        names(pagination.iterate(nodes));
+        return pagination.getContinuationToken();
+    }
+
+    private static List<String> names(Iterator<Node> nodes) throws RepositoryException {
+        final List<String> names = new ArrayList<String>();
+        while (nodes.hasNext()) {
+            names.add(nodes.next().getName());
+        }
+        return names;
+    }
+
+    private static Iterator<Node> nodes(String... names) throws RepositoryException {
+        final List<Node> nodes = new ArrayList<Node>(names.length);
+        for (String name : names) {
+            nodes.add(node(name, name + "-id"));
+        }
+        return nodes.iterator();
+    }
+
+    private static Node node(String name, String identifier) throws RepositoryException {
+        final Node node = mock(Node.class);
+        when(node.getName()).thenReturn(name);
+        when(node.getIdentifier()).thenReturn(identifier);
+        return node;
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.Test;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.qom.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Christophe Laprun
+ */
+public class ParsedQueryCacheTest {
+    private static final String STATEMENT = "select * from [nt:base]";
+
+    @Test
+    public void sameStatementShouldOnlyBeParsedOnce() throws RepositoryException {
+        final ParsedQueryCache cache = new ParsedQueryCache(2);
+        final QueryManager queryManager = createQueryManager();
+
+        cache.createQuery(queryManager, STATEMENT, "default", "en");
+        cache.createQuery(queryManager, STATEMENT, "default", "en");
+        cache.createQuery(queryManager, STATEMENT, "default", "en");
+
+        verify(queryManager, times(1)).createQuery(STATEMENT, Query.JCR_SQL2);
+        verify(queryManager.getQOMFactory(), times(2)).createQuery(any(Source.class), any(Constraint.class), any(Ordering[].class), any(Column[].class));
+        assertThat(cache.getHits()).isEqualTo(2);
+        assertThat(cache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void workspaceAndLanguageShouldBePartOfTheKey() throws RepositoryException {
+        final ParsedQueryCache cache = new ParsedQueryCache(10);
+        final QueryManager queryManager = createQueryManager();
+
+        cache.createQuery(queryManager, STATEMENT, "default", "en");
+        cache.createQuery(queryManager, STATEMENT, "live", "en");
+        cache.createQuery(queryManager, STATEMENT, "default", "fr");
+
+        verify(queryManager, times(3)).createQuery(STATEMENT, Query.JCR_SQL2);
+        assertThat(cache.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void leastRecentlyUsedStatementsShouldBeEvicted() throws RepositoryException {
+        final ParsedQueryCache cache = new ParsedQueryCache(2);
+        final QueryManager queryManager = createQueryManager();
+
+        cache.createQuery(queryManager, "1", "default", "en");
+        cache.createQuery(queryManager, "2", "default", "en");
+        cache.createQuery(queryManager, "1", "default", "en");
+        cache.createQuery(queryManager, "3", "default", "en");
+        cache.createQuery(queryManager, "1", "default", "en");
+        cache.createQuery(queryManager, "2", "default", "en");
+
+        assertThat(cache.size()).isEqualTo(2);
+        verify(queryManager, times(1)).createQuery("1", Query.JCR_SQL2);
+        verify(queryManager, times(2)).createQuery("2", Query.JCR_SQL2);
+    }
+
+    private QueryManager createQueryManager() throws RepositoryException {
+        final QueryManager queryManager = mock(QueryManager.class);
+        final QueryObjectModelFactory factory = mock(QueryObjectModelFactory.class);
+        when(queryManager.getQOMFactory()).thenReturn(factory);
+        when(queryManager.createQuery(any(String.class), any(String.class))).thenReturn(mock(QueryObjectModel.class));
+        when(factory.createQuery(any(Source.class), any(Constraint.class), any(Ordering[].class), any(Column[].class))).thenReturn(mock(QueryObjectModel.class));
+        return queryManager;
+    }
+}
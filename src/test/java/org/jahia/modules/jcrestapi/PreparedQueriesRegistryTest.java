@@ -0,0 +1,164 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.api.PreparedQuery;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Christophe Laprun
+ */
+public class PreparedQueriesRegistryTest {
+
+    @Test
+    public void registrationShouldIncreaseVersion() {
+        final PreparedQueriesRegistry registry = new PreparedQueriesRegistry();
+        final long initial = registry.getVersion();
+
+        final PreparedQuery query = query("versioned", "SELECT * FROM [nt:base]");
+        registry.addQuery(query);
+        final QueryTemplate template = registry.getTemplate("versioned");
+        assertThat(template).isNotNull();
+        assertThat(template.getVersion()).isGreaterThan(initial);
+        assertThat(registry.getVersion()).isEqualTo(template.getVersion());
+
+        registry.removeQuery(query);
+        assertThat(registry.getTemplate("versioned")).isNull();
+        assertThat(registry.getVersion()).isGreaterThan(template.getVersion());
+    }
+
+    @Test
+    public void removingAnOutdatedQueryShouldKeepTheRegisteredOne() {
+        final PreparedQueriesRegistry registry = new PreparedQueriesRegistry();
+        final PreparedQuery old = query("redeployed", "SELECT * FROM [nt:base]");
+        registry.addQuery(old);
+        final PreparedQuery redeployed = query("redeployed", "SELECT * FROM [nt:unstructured]");
+        registry.addQuery(redeployed);
+
+        registry.removeQuery(old);
+        assertThat(registry.getQuery("redeployed")).isSameAs(redeployed);
+    }
+
+    @Test
+    public void snapshotsShouldNotBeAffectedByRegistrations() {
+        final PreparedQueriesRegistry registry = new PreparedQueriesRegistry();
+        registry.addQuery(query("first", "SELECT * FROM [nt:base]"));
+        final int size = registry.getTemplates().size();
+        final Collection<QueryTemplate> snapshot = registry.getTemplates();
+
+        registry.addQuery(query("second", "SELECT * FROM [nt:base]"));
+        assertThat(snapshot).hasSize(size);
+        assertThat(registry.getTemplates()).hasSize(size + 1);
+    }
+
+    @Test
+    public void concurrentRegistrationsShouldAllBeKept() throws Exception {
+        final PreparedQueriesRegistry registry = new PreparedQueriesRegistry();
+        final int count = 200;
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Object>> futures = new ArrayList<Future<Object>>(count);
+            for (int i = 0; i < count; i++) {
+                final int index = i;
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        registry.addQuery(query("concurrent" + index, "SELECT * FROM [nt:base]"));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(registry.getTemplates()).hasSize(count);
+        assertThat(registry.getVersion()).isEqualTo(count);
+    }
+
+    @Test
+    public void invalidQueriesDeclaredInModuleContextsShouldBeSkipped() {
+        final PreparedQueriesRegistry registry = new PreparedQueriesRegistry();
+        final PreparedQuery invalid = query("invalid", null);
+        assertThat(registry.postProcessAfterInitialization(invalid, "invalid")).isSameAs(invalid);
+        assertThat(registry.getTemplate("invalid")).isNull();
+
+        final PreparedQuery valid = query("valid", "SELECT * FROM [nt:base]");
+        registry.postProcessAfterInitialization(valid, "valid");
+        assertThat(registry.getQuery("valid")).isSameAs(valid);
+    }
+
+    @Test
+    public void statisticsShouldRecordCalls() {
+        final QueryStatistics statistics = new QueryStatistics();
+        statistics.record(TimeUnit.MILLISECONDS.toNanos(10), false);
+        statistics.record(TimeUnit.MILLISECONDS.toNanos(30), true);
+
+        assertThat(statistics.getCalls()).isEqualTo(2);
+        assertThat(statistics.getErrors()).isEqualTo(1);
+        assertThat(statistics.getAverageLatency()).isEqualTo(20d);
+        assertThat(statistics.getMaxLatency()).isEqualTo(30d);
+    }
+
+    private static PreparedQuery query(String name, String source) {
+        final PreparedQuery query = new PreparedQuery();
+        query.setName(name);
+        query.setSource(source);
+        return query;
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.json.Filter;
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.Row;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Christophe Laprun
+ */
+public class ProjectionTest {
+
+    @Test
+    public void valuesShouldBeConvertedToJSONTypes() throws RepositoryException {
+        final Value longValue = mock(Value.class);
+        when(longValue.getType()).thenReturn(PropertyType.LONG);
+        when(longValue.getLong()).thenReturn(42L);
+        assertThat(Projection.toJSON(longValue)).isEqualTo(42L);
+
+        final Value booleanValue = mock(Value.class);
+        when(booleanValue.getType()).thenReturn(PropertyType.BOOLEAN);
+        when(booleanValue.getBoolean()).thenReturn(true);
+        assertThat(Projection.toJSON(booleanValue)).isEqualTo(true);
+
+        final Value dateValue = mock(Value.class);
+        when(dateValue.getType()).thenReturn(PropertyType.DATE);
+        when(dateValue.getString()).thenReturn("2015-01-01T00:00:00.000Z");
+        assertThat(Projection.toJSON(dateValue)).isEqualTo("2015-01-01T00:00:00.000Z");
+
+        final Value binaryValue = mock(Value.class);
+        when(binaryValue.getType()).thenReturn(PropertyType.BINARY);
+        assertThat(Projection.toJSON(binaryValue)).isNull();
+
+        assertThat(Projection.toJSON(null)).isNull();
+    }
+
+    @Test
+    public void rowsShouldBeFilteredOnAllTheirNodes() throws RepositoryException {
+        final Node accepted = mock(Node.class);
+        final Node rejected = mock(Node.class);
+        final Filter filter = new Filter.DefaultFilter() {
+            @Override
+            public boolean acceptChild(Node child) {
+                return child != rejected;
+            }
+        };
+
+        final Row row = mock(Row.class);
+        when(row.getNode()).thenReturn(accepted);
+        when(row.getNode("a")).thenReturn(accepted);
+        when(row.getNode("b")).thenReturn(rejected);
+
+        assertThat(Projection.accept(row, new String[]{"a"}, filter)).isTrue();
+        assertThat(Projection.accept(row, new String[]{"a", "b"}, filter)).isFalse();
+    }
+
+    @Test
+    public void csvValuesShouldBeQuotedWhenNeeded() throws IOException {
+        assertThat(csv("simple")).isEqualTo("simple");
+        assertThat(csv(null)).isEmpty();
+        assertThat(csv("a,b")).isEqualTo("\"a,b\"");
+        assertThat(csv("say \"hi\"")).isEqualTo("\"say \"\"hi\"\"\"");
+        assertThat(csv("two\nlines")).isEqualTo("\"two\nlines\"");
+    }
+
+    @Test
+    public void truncatedCSVShouldBeAborted() throws IOException {
+        final Row row = mock(Row.class);
+        Deadline.set(System.currentTimeMillis() - 1);
+        try {
+            final CSVStreamingOutput output = new CSVStreamingOutput(mock(Session.class), "default", "en", new String[]{"title"}, new String[]{"a"},
+                    Collections.singletonList(row).iterator(), Filter.OUTPUT_ALL);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                output.write(bytes);
+                fail("Truncated CSV should have been aborted");
+            } catch (Deadline.DeadlineExceededException e) {
+                // only the header line could be output
+                assertThat(bytes.toString("UTF-8")).isEqualTo("title\r\n");
+            }
+        } finally {
+            Deadline.clear();
+        }
+    }
+
+    private static String csv(String value) throws IOException {
+        final StringWriter writer = new StringWriter();
+        CSVStreamingOutput.writeValue(writer, value);
+        return writer.toString();
+    }
+}
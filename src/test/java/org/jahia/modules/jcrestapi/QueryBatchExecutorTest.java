@@ -0,0 +1,123 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Christophe Laprun
+ */
+public class QueryBatchExecutorTest {
+    private final QueryBatchExecutor executor = new QueryBatchExecutor(2, 1);
+
+    @After
+    public void tearDown() {
+        executor.stop();
+    }
+
+    @Test
+    public void tasksShouldRunConcurrently() throws Exception {
+        // both tasks wait for each other so this would time out if they were run sequentially
+        final CountDownLatch latch = new CountDownLatch(2);
+        final List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for (int i = 0; i < 2; i++) {
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    latch.countDown();
+                    return latch.await(5, TimeUnit.SECONDS);
+                }
+            });
+        }
+
+        for (Future<Boolean> future : executor.invokeAll(tasks)) {
+            assertThat(future.get()).isTrue();
+        }
+    }
+
+    @Test
+    public void resultsShouldMatchTasksOrderAndSaturationShouldNotFail() throws Exception {
+        final List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        for (int i = 0; i < 10; i++) {
+            final int index = i;
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    if (index == 3) {
+                        throw new IllegalStateException("failed");
+                    }
+                    Thread.sleep(5);
+                    return "query" + index;
+                }
+            });
+        }
+
+        final List<Future<String>> futures = executor.invokeAll(tasks);
+        assertThat(futures).hasSize(10);
+        for (int i = 0; i < futures.size(); i++) {
+            if (i == 3) {
+                try {
+                    futures.get(i).get();
+                    fail("Failure should have been reported");
+                } catch (ExecutionException e) {
+                    assertThat(e.getCause()).hasMessage("failed");
+                }
+            } else {
+                assertThat(futures.get(i).get()).isEqualTo("query" + i);
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.json.Filter;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author Christophe Laprun
+ */
+public class QueryJobsTest {
+    private final QueryJobs jobs = new QueryJobs(1, 1, 8, 60);
+
+    @After
+    public void tearDown() {
+        jobs.stop();
+    }
+
+    @Test
+    public void completedJobShouldProvideResultAndHeaders() throws Exception {
+        final QueryJob job = jobs.submit("john", "default", "en", new QueryJob.Work() {
+            @Override
+            public void perform(OutputStream output, Map<String, String> headers) throws Exception {
+                output.write("[{\"name\":\"foo\"}]".getBytes("UTF-8"));
+                headers.put(API.CONTINUATION_TOKEN_HEADER, "token");
+            }
+        });
+
+        waitFor(job);
+        assertThat(job.getStatus()).isEqualTo(QueryJob.Status.COMPLETED);
+        assertThat(job.getHeaders()).containsEntry(API.CONTINUATION_TOKEN_HEADER, "token");
+
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        job.writeResultTo(result);
+        assertThat(result.toString("UTF-8")).isEqualTo("[{\"name\":\"foo\"}]");
+        assertThat(job.getResultSize()).isEqualTo(result.size());
+    }
+
+    @Test
+    public void jobShouldRemainAvailableWhileItsResultIsDownloaded() throws Exception {
+        final QueryJob job = jobs.submit("john", "default", "en", new QueryJob.Work() {
+            @Override
+            public void perform(OutputStream output, Map<String, String> headers) throws Exception {
+                output.write("[{\"name\":\"foo\"}]".getBytes("UTF-8"));
+            }
+        });
+        waitFor(job);
+
+        // a slow client
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread download = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    job.writeResultTo(new OutputStream() {
+                        @Override
+                        public void write(int b) throws IOException {
+                            write(new byte[]{(byte) b}, 0, 1);
+                        }
+
+                        @Override
+                        public void write(byte[] b, int off, int len) throws IOException {
+                            writing.countDown();
+                            try {
+                                release.await(10, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                        }
+                    });
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        });
+        download.start();
+        try {
+            assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+            // none of these should wait for the download to complete
+            final ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        assertThat(job.getResultSize()).isEqualTo(16);
+                        assertThat(job.getHeaders()).isEmpty();
+                        assertThat(jobs.cancel(job.getId(), "john")).isSameAs(job);
+                        assertThat(job.getResultSize()).isEqualTo(-1);
+                        return null;
+                    }
+                }).get(2, TimeUnit.SECONDS);
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            release.countDown();
+            download.join(5000);
+        }
+    }
+
+    @Test
+    public void jobsShouldOnlyBeVisibleToTheirOwner() throws Exception {
+        final QueryJob job = jobs.submit("john", "default", "en", new QueryJob.Work() {
+            @Override
+            public void perform(OutputStream output, Map<String, String> headers) throws Exception {
+            }
+        });
+
+        assertThat(jobs.get(job.getId(), "john")).isSameAs(job);
+        assertThat(jobs.get(job.getId(), "jane")).isNull();
+        assertThat(jobs.get(job.getId(), null)).isNull();
+        assertThat(jobs.cancel(job.getId(), "jane")).isNull();
+    }
+
+    @Test
+    public void failedJobShouldReportError() throws Exception {
+        final QueryJob job = jobs.submit(null, "default", "en", new QueryJob.Work() {
+            @Override
+            public void perform(OutputStream output, Map<String, String> headers) throws Exception {
+                throw new IllegalStateException("boom");
+            }
+        });
+
+        waitFor(job);
+        assertThat(job.getStatus()).isEqualTo(QueryJob.Status.FAILED);
+        assertThat(job.getError()).isEqualTo("boom");
+        assertThat(job.getResultSize()).isEqualTo(-1);
+    }
+
+    @Test
+    public void cancelledJobShouldBeForgotten() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final QueryJob job = jobs.submit(null, "default", "en", new QueryJob.Work() {
+            @Override
+            public void perform(OutputStream output, Map<String, String> headers) throws Exception {
+                started.countDown();
+                Thread.sleep(10000);
+            }
+        });
+
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(jobs.cancel(job.getId(), null)).isSameAs(job);
+        assertThat(job.getStatus()).isEqualTo(QueryJob.Status.CANCELLED);
+        assertThat(jobs.get(job.getId(), null)).isNull();
+    }
+
+    @Test
+    public void cancelledJobShouldStopIteratingOverResults() throws Exception {
+        final Node node = mock(Node.class);
+        final AtomicInteger retrieved = new AtomicInteger();
+        final CountDownLatch iterating = new CountDownLatch(1);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        // endless results, none of which is accepted by the filter so that nothing is ever written
+        final Iterator<Node> nodes = new Iterator<Node>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Node next() {
+                if (retrieved.incrementAndGet() == 1000) {
+                    iterating.countDown();
+                }
+                return node;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        final QueryJob job = jobs.submit(null, "default", "en", new QueryJob.Work() {
+            @Override
+            public void perform(OutputStream output, Map<String, String> headers) throws Exception {
+                try {
+                    new NodesStreamingOutput(mock(Session.class), "default", "en", nodes, mock(Filter.class), 0, NodesStreamingOutput.Format.JSON)
+                            .write(output);
+                } finally {
+                    stopped.countDown();
+                }
+            }
+        });
+
+        assertThat(iterating.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(jobs.cancel(job.getId(), null)).isSameAs(job);
+        assertThat(stopped.await(5, TimeUnit.SECONDS)).isTrue();
+
+        final int count = retrieved.get();
+        Thread.sleep(50);
+        assertThat(retrieved.get()).isEqualTo(count);
+        assertThat(job.getStatus()).isEqualTo(QueryJob.Status.CANCELLED);
+    }
+
+    @Test
+    public void jobsShouldBeRejectedWhenQueueIsFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final QueryJob.Work blocking = new QueryJob.Work() {
+            @Override
+            public void perform(OutputStream output, Map<String, String> headers) throws Exception {
+                release.await();
+            }
+        };
+
+        // one running, one queued
+        jobs.submit(null, "default", "en", blocking);
+        jobs.submit(null, "default", "en", blocking);
+        try {
+            jobs.submit(null, "default", "en", blocking);
+            fail("Job should have been rejected");
+        } catch (RejectedExecutionException e) {
+            assertThat(jobs.size()).isEqualTo(2);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void largeContentShouldBeSpilledToFile() throws IOException {
+        final SpillingOutputStream output = new SpillingOutputStream(4);
+        output.write("abc".getBytes("UTF-8"));
+        assertThat(output.isSpilled()).isFalse();
+        output.write("defgh".getBytes("UTF-8"));
+        assertThat(output.isSpilled()).isTrue();
+        output.close();
+
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        output.writeTo(content);
+        assertThat(content.toString("UTF-8")).isEqualTo("abcdefgh");
+        assertThat(output.size()).isEqualTo(8);
+
+        output.discard();
+        try {
+            output.writeTo(content);
+            fail("Discarded content should not be available anymore");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void waitFor(QueryJob job) throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + 5000;
+        while (!job.getStatus().isDone() && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+    }
+}
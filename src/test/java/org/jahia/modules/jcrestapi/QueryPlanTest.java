@@ -0,0 +1,163 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.Test;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.query.qom.*;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Christophe Laprun
+ */
+public class QueryPlanTest {
+
+    @Test
+    public void unconstrainedSelectorShouldBeATraversal() throws RepositoryException {
+        final QueryPlan plan = QueryPlan.analyze(qom(null));
+
+        assertThat(plan.getCost()).isEqualTo(QueryPlan.NODES_PER_SELECTOR);
+        assertThat(plan.getSelectors()).hasSize(1);
+        assertThat(plan.getSelectors().get(0).isTraversal()).isTrue();
+        assertThat(plan.getWarnings()).hasSize(1);
+    }
+
+    @Test
+    public void equalityConstraintShouldUseIndex() throws RepositoryException {
+        final QueryPlan plan = QueryPlan.analyze(qom(comparison(QueryObjectModelConstants.JCR_OPERATOR_EQUAL_TO, "foo")));
+
+        assertThat(plan.getCost()).isLessThan(QueryPlan.NODES_PER_SELECTOR);
+        final QueryPlan.SelectorPlan selector = plan.getSelectors().get(0);
+        assertThat(selector.isTraversal()).isFalse();
+        assertThat(selector.getIndexedConstraints()).hasSize(1);
+        assertThat(plan.getWarnings()).isEmpty();
+    }
+
+    @Test
+    public void leadingWildcardShouldNotBeSelective() throws RepositoryException {
+        final QueryPlan plan = QueryPlan.analyze(qom(comparison(QueryObjectModelConstants.JCR_OPERATOR_LIKE, "%foo")));
+
+        assertThat(plan.getCost()).isEqualTo(QueryPlan.NODES_PER_SELECTOR);
+        assertThat(plan.getSelectors().get(0).isTraversal()).isTrue();
+        assertThat(plan.getWarnings()).hasSize(2);
+    }
+
+    @Test
+    public void expensiveQueriesShouldBeRejectedOrQueued() throws RepositoryException {
+        final QueryPlan cheap = QueryPlan.analyze(qom(comparison(QueryObjectModelConstants.JCR_OPERATOR_EQUAL_TO, "foo")));
+        final QueryPlan expensive = QueryPlan.analyze(qom(null));
+        final long maxCost = QueryPlan.NODES_PER_SELECTOR / 2;
+
+        final QueryAdmission disabled = new QueryAdmission(0, QueryAdmission.REJECT, 1, 0);
+        assertThat(disabled.decide(expensive)).isEqualTo(QueryAdmission.Decision.ADMITTED);
+
+        final QueryAdmission rejecting = new QueryAdmission(maxCost, QueryAdmission.REJECT, 1, 0);
+        assertThat(rejecting.admit(cheap)).isFalse();
+        try {
+            rejecting.admit(expensive);
+            fail("Expensive query should have been rejected");
+        } catch (QueryAdmission.QueryNotAdmittedException e) {
+            assertThat(e.getStatus()).isEqualTo(QueryAdmission.UNPROCESSABLE_ENTITY);
+            assertThat(e.getRetryAfter()).isEqualTo(-1);
+
+            final Response response = new APIExceptionMapper().toResponse(new APIException(e));
+            assertThat(response.getStatus()).isEqualTo(QueryAdmission.UNPROCESSABLE_ENTITY);
+            assertThat(response.getHeaders().containsKey(HttpHeaders.RETRY_AFTER)).isFalse();
+        }
+
+        final QueryAdmission queuing = new QueryAdmission(maxCost, QueryAdmission.QUEUE, 1, 10);
+        assertThat(queuing.decide(expensive)).isEqualTo(QueryAdmission.Decision.QUEUED);
+        assertThat(queuing.admit(expensive)).isTrue();
+        try {
+            queuing.admit(expensive);
+            fail("Second expensive query should have timed out waiting for its turn");
+        } catch (QueryAdmission.QueryNotAdmittedException e) {
+            assertThat(e.getStatus()).isEqualTo(Response.Status.SERVICE_UNAVAILABLE.getStatusCode());
+
+            final Response response = new APIExceptionMapper().toResponse(new APIException(e));
+            assertThat(response.getStatus()).isEqualTo(Response.Status.SERVICE_UNAVAILABLE.getStatusCode());
+            assertThat(response.getHeaderString(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+        }
+        queuing.release();
+        assertThat(queuing.admit(expensive)).isTrue();
+        queuing.release();
+    }
+
+    private static QueryObjectModel qom(Constraint constraint) {
+        final Selector selector = mock(Selector.class);
+        when(selector.getSelectorName()).thenReturn("s");
+        when(selector.getNodeTypeName()).thenReturn("jnt:content");
+
+        final QueryObjectModel qom = mock(QueryObjectModel.class);
+        when(qom.getStatement()).thenReturn("SELECT * FROM [jnt:content] AS s");
+        when(qom.getSource()).thenReturn(selector);
+        when(qom.getConstraint()).thenReturn(constraint);
+        return qom;
+    }
+
+    private static Comparison comparison(String operator, String value) throws RepositoryException {
+        final PropertyValue property = mock(PropertyValue.class);
+        when(property.getSelectorName()).thenReturn("s");
+        when(property.getPropertyName()).thenReturn("jcr:title");
+
+        final Value literalValue = mock(Value.class);
+        when(literalValue.getString()).thenReturn(value);
+        final Literal literal = mock(Literal.class);
+        when(literal.getLiteralValue()).thenReturn(literalValue);
+
+        final Comparison comparison = mock(Comparison.class);
+        when(comparison.getOperand1()).thenReturn(property);
+        when(comparison.getOperator()).thenReturn(operator);
+        when(comparison.getOperand2()).thenReturn(literal);
+        return comparison;
+    }
+}
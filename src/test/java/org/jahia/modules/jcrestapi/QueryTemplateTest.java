@@ -0,0 +1,170 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.api.PreparedQuery;
+import org.junit.Test;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.Query;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Christophe Laprun
+ */
+public class QueryTemplateTest {
+
+    private static QueryTemplate compile(String source) {
+        final PreparedQuery query = new PreparedQuery();
+        query.setName("test");
+        query.setSource(source);
+        return new QueryTemplate(query);
+    }
+
+    @Test
+    public void positionalParametersShouldBeReplacedByBindVariables() {
+        final QueryTemplate template = compile("select * from [nt:base] where [jcr:title] like ? and [count] > ?");
+        assertThat(template.getStatement()).isEqualTo("select * from [nt:base] where [jcr:title] like $p1 and [count] > $p2");
+        assertThat(template.getVariableNames()).containsExactly("p1", "p2");
+        assertThat(template.isPositional()).isTrue();
+    }
+
+    @Test
+    public void namedParametersShouldBeReplacedByBindVariables() {
+        final QueryTemplate template = compile("select * from [nt:base] as n where n.[jcr:title] = :title or n.foo:bar = :title and n.[x] = :other_1");
+        assertThat(template.getStatement()).isEqualTo("select * from [nt:base] as n where n.[jcr:title] = $title or n.foo:bar = $title and n.[x] = $other_1");
+        assertThat(template.getVariableNames()).containsExactly("title", "other_1");
+        assertThat(template.isPositional()).isFalse();
+    }
+
+    @Test
+    public void placeholdersInLiteralsShouldBeIgnored() {
+        final QueryTemplate template = compile("select * from [nt:base] where [jcr:title] = 'what? :notAParam' and [foo] = ?");
+        assertThat(template.getStatement()).isEqualTo("select * from [nt:base] where [jcr:title] = 'what? :notAParam' and [foo] = $p1");
+        assertThat(template.getVariableNames()).containsExactly("p1");
+    }
+
+    @Test
+    public void placeholdersInPathPositionsShouldBeReplacedByEscapedLiterals() throws RepositoryException {
+        final QueryTemplate template = compile("select * from [nt:base] as n where isdescendantnode(n, ?) and [foo] = ? and ISCHILDNODE(?)");
+        assertThat(template.getVariableNames()).containsExactly("p1", "p2", "p3");
+        // the statement registered and validated with placeholders in path positions replaced by the root path
+        assertThat(template.getStatement()).isEqualTo("select * from [nt:base] as n where isdescendantnode(n, '/') and [foo] = $p2 and ISCHILDNODE('/')");
+        assertThat(template.getStatement(Arrays.<Object>asList("/sites/it's", "foo", "/sites"), null))
+                .isEqualTo("select * from [nt:base] as n where isdescendantnode(n, '/sites/it''s') and [foo] = $p2 and ISCHILDNODE('/sites')");
+
+        final Query query = mock(Query.class);
+        final ValueFactory valueFactory = mock(ValueFactory.class);
+        final Value fooValue = mock(Value.class);
+        when(valueFactory.createValue("foo")).thenReturn(fooValue);
+        template.bind(query, valueFactory, Arrays.<Object>asList("/sites/it's", "foo", "/sites"));
+        verify(query).bindValue("p2", fooValue);
+        verify(query, times(1)).bindValue(anyString(), any(Value.class));
+    }
+
+    @Test
+    public void namedPlaceholdersInPathPositionsShouldBeReplacedByEscapedLiterals() throws RepositoryException {
+        final QueryTemplate template = compile("select * from [nt:base] as n where issamenode(n,:path) or n.[jcr:path] = :path");
+        assertThat(template.getVariableNames()).containsExactly("path");
+        assertThat(template.getStatement(null, Collections.<String, Object>singletonMap("path", "/sites/mySite")))
+                .isEqualTo("select * from [nt:base] as n where issamenode(n,'/sites/mySite') or n.[jcr:path] = $path");
+
+        // the same parameter used elsewhere is still bound
+        final Query query = mock(Query.class);
+        final ValueFactory valueFactory = mock(ValueFactory.class);
+        final Value pathValue = mock(Value.class);
+        when(valueFactory.createValue("/sites/mySite")).thenReturn(pathValue);
+        template.bind(query, valueFactory, Collections.<String, Object>singletonMap("path", "/sites/mySite"));
+        verify(query).bindValue("path", pathValue);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingPathValuesShouldFail() {
+        compile("select * from [nt:base] where isdescendantnode(:path)").getStatement(null, Collections.<String, Object>emptyMap());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mixingParameterKindsShouldFail() {
+        compile("select * from [nt:base] where [foo] = ? and [bar] = :bar");
+    }
+
+    @Test
+    public void bindShouldUseValueFactory() throws RepositoryException {
+        final QueryTemplate template = compile("select * from [nt:base] where [foo] = :foo and [bar] = :bar");
+        final Query query = mock(Query.class);
+        final ValueFactory valueFactory = mock(ValueFactory.class);
+        final Value fooValue = mock(Value.class);
+        final Value barValue = mock(Value.class);
+        when(valueFactory.createValue("foo")).thenReturn(fooValue);
+        when(valueFactory.createValue(10L)).thenReturn(barValue);
+
+        final Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("foo", "foo");
+        parameters.put("bar", 10);
+        template.bind(query, valueFactory, parameters);
+
+        verify(query).bindValue("foo", fooValue);
+        verify(query).bindValue("bar", barValue);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bindShouldFailOnMissingPositionalValues() throws RepositoryException {
+        final QueryTemplate template = compile("select * from [nt:base] where [foo] = ? and [bar] = ?");
+        template.bind(mock(Query.class), mock(ValueFactory.class), Arrays.<Object>asList("foo"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bindShouldFailOnInvalidParameterNames() throws RepositoryException {
+        final QueryTemplate template = compile("select * from [nt:base] where [foo] = :foo");
+        template.bind(mock(Query.class), mock(ValueFactory.class), Collections.<String, Object>singletonMap("foo'", "foo"));
+    }
+}
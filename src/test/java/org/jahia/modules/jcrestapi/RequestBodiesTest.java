@@ -0,0 +1,131 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Christophe Laprun
+ */
+public class RequestBodiesTest {
+    private static final ObjectReader reader = new ObjectMapper().reader(JsonNode.class);
+
+    @After
+    public void tearDown() {
+        SpringBeansAccess.getInstance().setMaxBodySize("10485760");
+        SpringBeansAccess.getInstance().setMaxBodyDepth("100");
+    }
+
+    @Test
+    public void bodiesWithinLimitsShouldBeRead() throws Exception {
+        SpringBeansAccess.getInstance().setMaxBodySize("64");
+        SpringBeansAccess.getInstance().setMaxBodyDepth("3");
+
+        final JsonNode node = RequestBodies.read(reader, body("{\"properties\":{\"foo\":[\"bar\"]}}"));
+        assertThat(node.get("properties").get("foo").get(0).asText()).isEqualTo("bar");
+    }
+
+    @Test
+    public void bodiesLargerThanMaximumSizeShouldBeRejected() throws Exception {
+        SpringBeansAccess.getInstance().setMaxBodySize("16");
+
+        try {
+            RequestBodies.read(reader, body("{\"name\":\"a name that is too long\"}"));
+            fail("Body should have been rejected");
+        } catch (RequestBodies.RequestBodyRejectedException e) {
+            assertThat(e.getStatus()).isEqualTo(Response.Status.REQUEST_ENTITY_TOO_LARGE);
+        }
+    }
+
+    @Test
+    public void bodiesNestedDeeperThanMaximumDepthShouldBeRejected() throws Exception {
+        SpringBeansAccess.getInstance().setMaxBodyDepth("3");
+
+        // siblings don't add to the depth
+        RequestBodies.read(reader, body("{\"a\":{\"b\":[1]},\"c\":{\"d\":[2]}}"));
+
+        try {
+            RequestBodies.read(reader, body("{\"a\":{\"b\":[[1]]}}"));
+            fail("Body should have been rejected");
+        } catch (RequestBodies.RequestBodyRejectedException e) {
+            assertThat(e.getStatus()).isEqualTo(Response.Status.BAD_REQUEST);
+        }
+    }
+
+    @Test
+    public void declaredLengthShouldBeCheckedBeforeReading() throws Exception {
+        SpringBeansAccess.getInstance().setMaxBodySize("100");
+
+        RequestBodies.checkLength(null);
+        RequestBodies.checkLength("100");
+        RequestBodies.checkLength("not a number");
+
+        try {
+            RequestBodies.checkLength("101");
+            fail("Body should have been rejected");
+        } catch (RequestBodies.RequestBodyRejectedException e) {
+            assertThat(e.getStatus()).isEqualTo(Response.Status.REQUEST_ENTITY_TOO_LARGE);
+        }
+
+        // a negative or zero maximum disables the check
+        SpringBeansAccess.getInstance().setMaxBodySize("0");
+        RequestBodies.checkLength("101");
+    }
+
+    private static InputStream body(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
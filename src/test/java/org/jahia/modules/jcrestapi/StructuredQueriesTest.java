@@ -0,0 +1,122 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.json.JSONStructuredQuery;
+import org.junit.Test;
+
+import javax.jcr.ValueFactory;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.qom.DynamicOperand;
+import javax.jcr.query.qom.QueryObjectModelConstants;
+import javax.jcr.query.qom.QueryObjectModelFactory;
+import javax.jcr.query.qom.StaticOperand;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Christophe Laprun
+ */
+public class StructuredQueriesTest {
+
+    @Test
+    public void keyShouldNotDependOnFormatting() throws IOException {
+        final String key = StructuredQueries.getKey(parse("{\"type\": \"jnt:news\", \"constraint\": {\"property\": \"jcr:title\", \"value\": \"foo\"}}"));
+        final String reordered = StructuredQueries.getKey(parse("{\"constraint\":{\"value\":\"foo\",\"property\":\"jcr:title\"},\"type\":\"jnt:news\"}"));
+        assertThat(reordered).isEqualTo(key);
+
+        final String otherType = StructuredQueries.getKey(parse("{\"type\": \"jnt:news\", \"constraint\": {\"property\": \"jcr:title\", \"value\": 1}}"));
+        final String otherValue = StructuredQueries.getKey(parse("{\"type\": \"jnt:news\", \"constraint\": {\"property\": \"jcr:title\", \"value\": \"1\"}}"));
+        assertThat(otherType).isNotEqualTo(otherValue);
+    }
+
+    @Test
+    public void keysShouldNotBeConfusedByClientStrings() throws IOException {
+        final String key = StructuredQueries.getKey(parse("{\"type\": \"jnt:news\", \"constraint\": "
+                + "{\"property\": \"jcr:title\", \"value\": \"a|X\", \"parameter\": \"p\"}}"));
+        final String other = StructuredQueries.getKey(parse("{\"type\": \"jnt:news\", \"constraint\": "
+                + "{\"property\": \"jcr:title\", \"value\": \"a\", \"valueType\": \"X\", \"parameter\": \"null|p\"}}"));
+        assertThat(other).isNotEqualTo(key);
+
+        final String selector = StructuredQueries.getKey(parse("{\"type\": \"jnt:news AS x\", \"selector\": \"y\"}"));
+        final String type = StructuredQueries.getKey(parse("{\"type\": \"jnt:news\", \"selector\": \"x AS y\"}"));
+        assertThat(type).isNotEqualTo(selector);
+    }
+
+    @Test
+    public void constraintsShouldBeCompiledUsingFactory() throws Exception {
+        final QueryObjectModelFactory factory = mock(QueryObjectModelFactory.class, RETURNS_MOCKS);
+        final ValueFactory valueFactory = mock(ValueFactory.class, RETURNS_MOCKS);
+
+        final QueryModel model = StructuredQueries.compile(parse("{\"type\": \"jnt:news\", \"constraint\": {\"and\": ["
+                + "{\"descendantOf\": \"/sites/mySite\"},"
+                + "{\"property\": \"jcr:title\", \"transform\": \"lower\", \"operator\": \"like\", \"value\": \"foo%\"},"
+                + "{\"not\": {\"property\": \"author\", \"parameter\": \"author\"}}]},"
+                + "\"orderings\": [{\"property\": \"jcr:created\", \"order\": \"desc\"}]}"), factory, valueFactory);
+
+        assertThat(model.getSource()).isNotNull();
+        assertThat(model.getOrderings()).hasSize(1);
+        verify(factory).selector("jnt:news", JSONStructuredQuery.DEFAULT_SELECTOR);
+        verify(factory).descendantNode(JSONStructuredQuery.DEFAULT_SELECTOR, "/sites/mySite");
+        verify(factory).comparison(any(DynamicOperand.class), eq(QueryObjectModelConstants.JCR_OPERATOR_LIKE),
+                any(StaticOperand.class));
+        verify(factory).bindVariable("author");
+        verify(factory).descending(any(DynamicOperand.class));
+        verify(valueFactory).createValue("foo%");
+    }
+
+    @Test(expected = InvalidQueryException.class)
+    public void unknownOperatorsShouldBeRejected() throws Exception {
+        StructuredQueries.compile(parse("{\"type\": \"jnt:news\", \"constraint\": {\"property\": \"jcr:title\", \"operator\": \"~\", \"value\": \"foo\"}}"),
+                mock(QueryObjectModelFactory.class, RETURNS_MOCKS), mock(ValueFactory.class, RETURNS_MOCKS));
+    }
+
+    private static JSONStructuredQuery parse(String json) throws IOException {
+        return NodesStreamingOutput.MAPPER.readValue(json, JSONStructuredQuery.class);
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.api.View;
+import org.junit.Test;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Christophe Laprun
+ */
+public class ViewsRegistryTest {
+
+    @Test
+    public void requestedViewShouldDetermineRendering() {
+        final View view = view("summary");
+        view.setDepth(2);
+        view.setProperties(Arrays.asList("jcr:title", Fields.CHILDREN));
+        view.setCompact(true);
+        view.setLinks(false);
+        view.setReferences(true);
+        ViewsRegistry.getInstance().addView(view);
+        try {
+            final MultivaluedMap<String, String> parameters = new MultivaluedHashMap<String, String>();
+            parameters.putSingle(API.VIEW, "summary");
+            // options specified by the view take precedence over the requested ones
+            parameters.putSingle(API.FIELDS, "j:*");
+            parameters.putSingle(API.RESOLVE_REFERENCES, "false");
+            final UriInfo context = uriInfo(parameters);
+
+            assertThat(Utils.getFlagValueFrom(context, API.RESOLVE_REFERENCES)).isTrue();
+            assertThat(Utils.getFlagValueFrom(context, API.NO_LINKS)).isTrue();
+            assertThat(Utils.getFlagValueFrom(context, API.INCLUDE_FULL_CHILDREN)).isTrue();
+            assertThat(Utils.getFlagValueFrom(context, API.COMPACT)).isTrue();
+            assertThat(Utils.getDepthFrom(context, 1)).isEqualTo(2);
+            assertThat(Utils.getDepthFrom(context, 0)).isEqualTo(1);
+
+            final Fields fields = Fields.of(Utils.getFilter(context));
+            assertThat(fields).isNotNull();
+            assertThat(fields.accept("jcr:title")).isTrue();
+            assertThat(fields.accept("j:view")).isFalse();
+            assertThat(fields.includes(Fields.CHILDREN)).isTrue();
+            assertThat(fields.includes(Fields.MIXINS)).isFalse();
+        } finally {
+            ViewsRegistry.getInstance().removeView(view);
+        }
+        assertThat(ViewsRegistry.getInstance().getView("summary")).isNull();
+    }
+
+    @Test
+    public void shapedViewsShouldBeCompact() {
+        final View view = view("shaped");
+        view.setInclude("children(properties(jcr:title))");
+        ViewsRegistry.getInstance().addView(view);
+        try {
+            final MultivaluedMap<String, String> parameters = new MultivaluedHashMap<String, String>();
+            parameters.putSingle(API.VIEW, "shaped");
+            final UriInfo context = uriInfo(parameters);
+
+            assertThat(Utils.getFlagValueFrom(context, API.COMPACT)).isTrue();
+            // shaped representations are only streamed when requested
+            assertThat(Utils.getStreamingFormat(context, null)).isNull();
+            assertThat(Fields.of(Utils.getFilter(context)).getInclude()).isNotNull();
+        } finally {
+            ViewsRegistry.getInstance().removeView(view);
+        }
+    }
+
+    @Test
+    public void unknownViewsShouldBeRejected() {
+        final MultivaluedMap<String, String> parameters = new MultivaluedHashMap<String, String>();
+        parameters.putSingle(API.VIEW, "unknown");
+        parameters.putSingle(API.NO_LINKS, "true");
+        final UriInfo context = uriInfo(parameters);
+
+        // flags fall back to the requested values, the unknown view being reported when the filter is retrieved
+        assertThat(Utils.getFlagValueFrom(context, API.NO_LINKS)).isTrue();
+        try {
+            Utils.getFilter(context);
+            fail("Unknown views should be rejected");
+        } catch (ViewsRegistry.UnknownViewException expected) {
+            assertThat(expected.getMessage()).contains("unknown");
+        }
+    }
+
+    @Test
+    public void invalidViewsShouldNotBeRegistered() {
+        final ViewsRegistry registry = new ViewsRegistry();
+
+        final View negative = view("negative");
+        negative.setDepth(-1);
+        assertInvalid(registry, negative);
+
+        final View invalidInclude = view("invalidInclude");
+        invalidInclude.setInclude("children(");
+        assertInvalid(registry, invalidInclude);
+
+        final View truncating = view("truncating");
+        truncating.setMaxValueLength(10);
+        assertInvalid(registry, truncating);
+
+        final View containers = view("containers");
+        containers.setProperties(Arrays.asList("jcr:title", Fields.MIXINS));
+        assertInvalid(registry, containers);
+
+        assertInvalid(registry, new View());
+    }
+
+    @Test
+    public void removingAnOutdatedViewShouldKeepTheRegisteredOne() {
+        final ViewsRegistry registry = new ViewsRegistry();
+        final View old = view("redeployed");
+        registry.addView(old);
+        final View redeployed = view("redeployed");
+        registry.addView(redeployed);
+
+        registry.removeView(old);
+        assertThat(registry.getView("redeployed")).isSameAs(redeployed);
+
+        registry.removeView(redeployed);
+        assertThat(registry.getView("redeployed")).isNull();
+    }
+
+    private static void assertInvalid(ViewsRegistry registry, View view) {
+        try {
+            registry.addView(view);
+            fail("View '" + view.getName() + "' should have been rejected");
+        } catch (IllegalArgumentException expected) {
+            assertThat(registry.getView(view.getName())).isNull();
+        }
+    }
+
+    private static View view(String name) {
+        final View view = new View();
+        view.setName(name);
+        return view;
+    }
+
+    private static UriInfo uriInfo(MultivaluedMap<String, String> parameters) {
+        final UriInfo info = mock(UriInfo.class);
+        when(info.getQueryParameters()).thenReturn(parameters);
+        return info;
+    }
+}
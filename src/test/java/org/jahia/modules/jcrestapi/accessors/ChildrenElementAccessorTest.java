@@ -43,15 +43,21 @@
  */
 package org.jahia.modules.jcrestapi.accessors;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.jahia.modules.jcrestapi.API;
 import org.jahia.modules.jcrestapi.Mocks;
+import org.jahia.modules.jcrestapi.NodesStreamingOutput;
 import org.jahia.modules.jcrestapi.URIUtils;
+import org.jahia.modules.jcrestapi.Utils;
 import org.jahia.modules.jcrestapi.links.APIDecorator;
 import org.jahia.modules.jcrestapi.links.JSONLink;
 import org.jahia.modules.json.JSONChildren;
@@ -61,6 +67,8 @@ import org.jahia.modules.json.JSONNode;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 /**
  * @author Christophe Laprun
@@ -129,10 +137,24 @@ public class ChildrenElementAccessorTest extends ElementAccessorTest<JSONChildre
         assertThat(greatChildren.size()).isEqualTo(1);
     }
 
+    @Test
+    public void childrenShouldBeStreamedAsNDJSONIfAccepted() throws RepositoryException {
+        final HttpHeaders headers = mock(HttpHeaders.class);
+        when(headers.getAcceptableMediaTypes()).thenReturn(Collections.singletonList(Utils.MEDIA_TYPE_APPLICATION_NDJSON_TYPE));
+
+        final Node node = Mocks.createMockNode(Mocks.NODE_NAME, Mocks.NODE_ID, Mocks.PATH_TO_NODE, 2, 2, 2);
+        final Response response = accessor.perform(node, (String) null, API.READ, null, context, headers);
+
+        assertThat(response.getStatusInfo()).isEqualTo(Response.Status.OK);
+        assertThat(response.getEntity()).isInstanceOf(NodesStreamingOutput.class);
+        assertThat(((NodesStreamingOutput) response.getEntity()).getFormat()).isEqualTo(NodesStreamingOutput.Format.NDJSON);
+        assertThat(response.getMediaType().isCompatible(MediaType.valueOf(Utils.MEDIA_TYPE_APPLICATION_NDJSON))).isTrue();
+    }
+
     @Test
     public void convertFromString() throws  Exception
     {
-        JSONItem jsonItem = getAccessor().convertFrom("{\"id\":10,\"name\":\"objectName\",\"type\":\"objectType\" }");
+        JSONItem jsonItem = getAccessor().convertFrom(new ByteArrayInputStream("{\"id\":10,\"name\":\"objectName\",\"type\":\"objectType\" }".getBytes("UTF-8")));
         assertThat(jsonItem).isNotNull();
         assertThat(jsonItem.getName()).isEqualTo("objectName");
         assertThat(jsonItem.getTypeName()).isEqualTo("objectType");
@@ -43,6 +43,7 @@
  */
 package org.jahia.modules.jcrestapi.accessors;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.Map;
@@ -119,7 +120,7 @@ public class VersionElementAccessorTest extends ElementAccessorTest<JSONVersions
         // try to inject some data to create a new version... already not possible to create a node with a versions object :)
         final JSONNode version;
         try {
-            version = (JSONNode) accessor.convertFrom("{\"properties\" : {}}");
+            version = (JSONNode) accessor.convertFrom(new ByteArrayInputStream("{\"properties\" : {}}".getBytes("UTF-8")));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }